@@ -0,0 +1,90 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountStorage;
+
+/**
+ * Account lookup and creation through {@code AccountsService}. Creation
+ * starts every iteration from a freshly seeded repository so the map does
+ * not keep growing across iterations.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountsBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int accounts;
+
+	@Param({ "DECIMAL", "MINOR_UNITS", "OFF_HEAP" })
+	public String storage;
+
+	BenchmarkFixture fixture;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		fixture = "OFF_HEAP".equals(storage)
+				? new BenchmarkFixture(BenchmarkFixture.offHeapRepository(accounts), accounts)
+				: new BenchmarkFixture(AccountStorage.valueOf(storage), accounts);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws Exception {
+		fixture.close();
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+
+		SplittableRandom random;
+
+		String prefix;
+
+		long created;
+
+		@Setup(Level.Trial)
+		public void setUp(ThreadParams threadParams) {
+			random = new SplittableRandom(threadParams.getThreadIndex());
+			prefix = "New-" + threadParams.getThreadIndex() + "-";
+		}
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			created = 0;
+		}
+
+	}
+
+	@Benchmark
+	public Account getAccount(ThreadState state) {
+		return fixture.service.getAccount(fixture.accountIds[state.random.nextInt(accounts)]);
+	}
+
+	@Benchmark
+	public void createAccount(ThreadState state) {
+		fixture.service.createAccount(new Account(state.prefix + state.created++, BenchmarkFixture.INITIAL_BALANCE));
+	}
+
+}
@@ -0,0 +1,161 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountStorage;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.HotAccountProperties;
+import com.db.awmd.challenge.repository.audit.AuditProperties;
+import com.db.awmd.challenge.repository.audit.AuditReport;
+import com.db.awmd.challenge.repository.audit.BalanceAuditor;
+import com.db.awmd.challenge.repository.mvcc.MvccProperties;
+import com.db.awmd.challenge.repository.mvcc.VersionedBalances;
+import com.db.awmd.challenge.repository.offheap.OffHeapAccountsRepository;
+import com.db.awmd.challenge.repository.offheap.OffHeapProperties;
+import com.db.awmd.challenge.service.AccountLocks;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.service.engine.ShardedTransferEngine;
+import com.db.awmd.challenge.service.metrics.TransferMetrics;
+import com.db.awmd.challenge.service.notification.NotificationDispatcher;
+import com.db.awmd.challenge.service.notification.NotificationProperties;
+
+/**
+ * Wires the service the way the application context does, without Spring,
+ * so benchmarks measure the accounts code rather than the container.
+ * Notifications go through the real dispatcher to a service doing nothing.
+ *
+ */
+class BenchmarkFixture {
+
+	/**
+	 * Large enough for the random walk of a benchmark run never to overdraw an account
+	 */
+	static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000.00");
+
+	static final BigDecimal AMOUNT = new BigDecimal("1.00");
+
+	final AccountsRepository repository;
+
+	final AccountsService service;
+
+	final NotificationDispatcher dispatcher;
+
+	final String[] accountIds;
+
+	ShardedTransferEngine engine;
+
+	BalanceAuditor auditor;
+
+	VersionedBalances versions;
+
+	private volatile Thread auditing;
+
+	BenchmarkFixture(AccountStorage storage, int accounts) {
+		this(storage, accounts, new HotAccountProperties());
+	}
+
+	BenchmarkFixture(AccountStorage storage, int accounts, HotAccountProperties hotAccounts) {
+		this(new AccountsRepositoryInMemory(storage, hotAccounts), accounts);
+	}
+
+	BenchmarkFixture(AccountsRepository repository, int accounts) {
+		NotificationService notificationService = (account, transferDescription) -> {
+		};
+		this.repository = repository;
+		this.dispatcher = new NotificationDispatcher(notificationService, new NotificationProperties());
+		this.dispatcher.start();
+		this.service = new AccountsService(repository, new AccountLocks(1024), dispatcher, new TransferMetrics());
+		this.accountIds = new String[accounts];
+		for (int i = 0; i < accounts; i++) {
+			accountIds[i] = accountId(i);
+			service.createAccount(new Account(accountIds[i], INITIAL_BALANCE));
+		}
+	}
+
+	/**
+	 * Hands the transfers to a sharded engine instead of the account locks
+	 */
+	void shardedEngine(int shards, AccountStorage storage) {
+		engine = new ShardedTransferEngine(repository, shards, 4096, "IN_MEMORY", storage);
+		engine.start();
+		service.setTransferEngine(engine);
+	}
+
+	/**
+	 * Attaches a balance auditor to the repository, in-memory only. A
+	 * continuous auditor runs audits back to back on a thread of its own
+	 * until the fixture is closed, reporting their average cost then.
+	 */
+	void balanceAuditor(boolean continuous, int maxCpuPercent) {
+		AuditProperties properties = new AuditProperties();
+		properties.setIntervalSeconds(0);
+		properties.setMaxCpuPercent(maxCpuPercent);
+		auditor = new BalanceAuditor(properties, repository, "LOCKING");
+		if (!continuous) {
+			return;
+		}
+		auditing = new Thread(() -> {
+			long audits = 0;
+			long grace = 0;
+			long duration = 0;
+			long cpu = 0;
+			long writes = 0;
+			while (auditing != null) {
+				AuditReport report = auditor.audit();
+				if (!report.isBalanced()) {
+					throw new IllegalStateException("Balance drift of " + report.getDrift());
+				}
+				audits++;
+				grace += report.getGraceNanos();
+				duration += report.getDurationNanos();
+				cpu += report.getCpuNanos();
+				writes += report.getAuditedWrites();
+			}
+			System.out.printf("%n%d audits, average grace %.1f us, duration %.2f ms, cpu %.2f ms, audited writes %d%n",
+					audits, grace / 1000.0 / audits, duration / 1e6 / audits, cpu / 1e6 / audits, writes / audits);
+		}, "balance-auditor");
+		auditing.start();
+	}
+
+	/**
+	 * Keeps versions of the balances for snapshot reads, in-memory only,
+	 * reclaimed every reclaimMillis by a thread of their own
+	 */
+	void versionedBalances(long reclaimMillis) {
+		MvccProperties properties = new MvccProperties();
+		properties.setReclaimMillis(reclaimMillis);
+		versions = new VersionedBalances(properties, repository, "LOCKING", new AuditProperties());
+		versions.start();
+	}
+
+	static OffHeapAccountsRepository offHeapRepository(int accounts) {
+		OffHeapProperties properties = new OffHeapProperties();
+		properties.setInitialCapacity(accounts);
+		return new OffHeapAccountsRepository(properties);
+	}
+
+	static String accountId(int index) {
+		return "Id-" + index;
+	}
+
+	void close() throws Exception {
+		Thread auditor = auditing;
+		if (auditor != null) {
+			auditing = null;
+			auditor.join();
+		}
+		if (engine != null) {
+			engine.stop();
+		}
+		if (versions != null) {
+			versions.close();
+			System.out.printf("%n%d versions retained, %d reclaimed in %d passes%n", versions.getRetained(),
+					versions.getReclaimed(), versions.getReclaimPasses());
+		}
+		dispatcher.stop();
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the benchmarks once per thread count, JMH itself only takes one.
+ * Each run writes its own JSON result file, so runs on different commits
+ * can be compared with any JMH visualizer.
+ * <p>
+ * System properties:
+ * <ul>
+ * <li>{@code jmh.include}: regular expression of the benchmarks to run, all by default</li>
+ * <li>{@code jmh.threads}: comma separated thread counts, {@code 1,4,16} by default</li>
+ * <li>{@code jmh.quick}: one short iteration, to check the benchmarks still run</li>
+ * <li>{@code jmh.results}: directory of the result files, {@code build/reports/jmh} by default</li>
+ * </ul>
+ *
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		String include = System.getProperty("jmh.include", ".*");
+		String[] threadCounts = System.getProperty("jmh.threads", "1,4,16").split(",");
+		boolean quick = Boolean.getBoolean("jmh.quick");
+		File results = new File(System.getProperty("jmh.results", "build/reports/jmh"));
+		if (!results.isDirectory() && !results.mkdirs()) {
+			throw new IllegalStateException("Can't create " + results);
+		}
+
+		for (String threadCount : threadCounts) {
+			int threads = Integer.parseInt(threadCount.trim());
+			ChainedOptionsBuilder options = new OptionsBuilder()
+					.include(include)
+					.threads(threads)
+					.resultFormat(ResultFormatType.JSON)
+					.result(new File(results, "results-" + threads + "t.json").getPath());
+			if (quick) {
+				options.forks(1)
+						.warmupIterations(1)
+						.warmupTime(TimeValue.milliseconds(200))
+						.measurementIterations(1)
+						.measurementTime(TimeValue.milliseconds(200));
+			}
+			new Runner(options.build()).run();
+		}
+	}
+
+}
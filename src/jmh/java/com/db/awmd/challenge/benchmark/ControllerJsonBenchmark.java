@@ -0,0 +1,185 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.dto.AccountDto;
+import com.db.awmd.challenge.domain.dto.TransferDto;
+import com.db.awmd.challenge.repository.AccountStorage;
+import com.db.awmd.challenge.service.idempotency.IdempotencyCache;
+import com.db.awmd.challenge.service.idempotency.IdempotencyProperties;
+import com.db.awmd.challenge.web.AccountViewCache;
+import com.db.awmd.challenge.web.TransferController;
+import com.db.awmd.challenge.web.json.DtoJsonCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * What a request costs once Tomcat has handed over the body: Jackson
+ * binding with the mapper Spring Boot builds, bean validation as done for
+ * {@code @Valid}, the controller call and serialization of the response,
+ * against the same through {@link DtoJsonCodec}. Servlet dispatch and the
+ * socket are left out; {@code -prof gc} shows what each allocates per request.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ControllerJsonBenchmark {
+
+	/** distinct request bodies, drawn at random so the JIT can't specialize on one */
+	private static final int BODIES = 1024;
+
+	private static final String[] IDEMPOTENCY_KEYS = new String[BODIES];
+
+	static {
+		for (int i = 0; i < BODIES; i++) {
+			IDEMPOTENCY_KEYS[i] = "transfer-" + i;
+		}
+	}
+
+	@Param({ "10000" })
+	public int accounts;
+
+	@Param({ "DECIMAL", "MINOR_UNITS" })
+	public AccountStorage storage;
+
+	BenchmarkFixture fixture;
+
+	TransferController controller;
+
+	AccountViewCache accountViewCache;
+
+	ObjectReader transferReader;
+
+	ObjectWriter accountWriter;
+
+	Validator validator;
+
+	byte[][] transferBodies;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		fixture = new BenchmarkFixture(storage, accounts);
+		ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		accountViewCache = new AccountViewCache(accounts);
+		controller = new TransferController(fixture.service, new IdempotencyCache(new IdempotencyProperties()));
+		transferReader = objectMapper.readerFor(TransferDto.class);
+		accountWriter = objectMapper.writerFor(AccountDto.class);
+		validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+		SplittableRandom random = new SplittableRandom(42);
+		transferBodies = new byte[BODIES][];
+		for (int i = 0; i < BODIES; i++) {
+			int from = random.nextInt(accounts);
+			int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+			TransferDto transfer = new TransferDto(fixture.accountIds[from], fixture.accountIds[to], BenchmarkFixture.AMOUNT);
+			transferBodies[i] = objectMapper.writeValueAsString(transfer).getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		fixture.close();
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+
+		SplittableRandom random;
+
+		@Setup(Level.Trial)
+		public void setUp(ThreadParams threadParams) {
+			random = new SplittableRandom(threadParams.getThreadIndex());
+		}
+
+	}
+
+	@Benchmark
+	public ResponseEntity<Object> transfer(ThreadState state) throws IOException {
+		TransferDto transfer = transferReader.readValue(transferBodies[state.random.nextInt(BODIES)]);
+		Set<ConstraintViolation<TransferDto>> violations = validator.validate(transfer);
+		if (!violations.isEmpty()) {
+			throw new IllegalStateException(violations.toString());
+		}
+		return controller.transferMoneyBetweenAccounts(transfer, null, null);
+	}
+
+	/**
+	 * The body read and validated by the codec, as {@code DtoHttpMessageConverter} does
+	 */
+	@Benchmark
+	public ResponseEntity<Object> transferCodec(ThreadState state) throws IOException {
+		byte[] body = transferBodies[state.random.nextInt(BODIES)];
+		DtoJsonCodec codec = DtoJsonCodec.get();
+		TransferDto transfer = codec.readTransfer(body, 0, body.length);
+		if (!codec.consumeValidated(transfer)) {
+			throw new IllegalStateException("Invalid transfer " + transfer);
+		}
+		return controller.transferMoneyBetweenAccounts(transfer, null, null);
+	}
+
+	/**
+	 * Same bodies sent again and again with their idempotency key, after the
+	 * first round every request is answered from the deduplication cache
+	 */
+	@Benchmark
+	public ResponseEntity<Object> transferReplayed(ThreadState state) throws IOException {
+		int body = state.random.nextInt(BODIES);
+		TransferDto transfer = transferReader.readValue(transferBodies[body]);
+		Set<ConstraintViolation<TransferDto>> violations = validator.validate(transfer);
+		if (!violations.isEmpty()) {
+			throw new IllegalStateException(violations.toString());
+		}
+		return controller.transferMoneyBetweenAccounts(transfer, IDEMPOTENCY_KEYS[body], null);
+	}
+
+	/**
+	 * Serialization the way it was done before the view cache
+	 */
+	@Benchmark
+	public byte[] getAccountUncached(ThreadState state) throws IOException {
+		Account account = fixture.service.getAccount(fixture.accountIds[state.random.nextInt(accounts)]);
+		return accountWriter.writeValueAsBytes(new AccountDto(account.getAccountId(), account.getBalance()));
+	}
+
+	/**
+	 * Through the view cache the controller writes, balances don't move so
+	 * every view is reused
+	 */
+	@Benchmark
+	public byte[] getAccount(ThreadState state) {
+		Account account = fixture.service.getAccount(fixture.accountIds[state.random.nextInt(accounts)]);
+		return accountViewCache.view(account).getJson();
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.db.awmd.challenge.service.idempotency.IdempotencyCache;
+import com.db.awmd.challenge.service.idempotency.IdempotencyProperties;
+
+/**
+ * Overhead the deduplication cache adds to a transfer: a replayed key
+ * found in a full cache, and a new key inserted while the oldest one is
+ * evicted. The action itself does nothing.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdempotencyCacheBenchmark {
+
+	private static final Supplier<CompletableFuture<Void>> NOTHING = () -> CompletableFuture.completedFuture(null);
+
+	@Param({ "100000" })
+	public int maxEntries;
+
+	IdempotencyCache cache;
+
+	String[] keys;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		IdempotencyProperties properties = new IdempotencyProperties();
+		properties.setMaxEntries(maxEntries);
+		cache = new IdempotencyCache(properties);
+		keys = new String[maxEntries];
+		for (int i = 0; i < maxEntries; i++) {
+			keys[i] = "replayed-" + i;
+			cache.execute(keys[i], "a|b|1", NOTHING);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+
+		SplittableRandom random;
+
+		String prefix;
+
+		long created;
+
+		@Setup(Level.Trial)
+		public void setUp(ThreadParams threadParams) {
+			random = new SplittableRandom(threadParams.getThreadIndex());
+			prefix = "new-" + threadParams.getThreadIndex() + "-";
+		}
+
+	}
+
+	@Benchmark
+	public CompletableFuture<Void> replayed(ThreadState state) {
+		return cache.execute(keys[state.random.nextInt(maxEntries)], "a|b|1", NOTHING);
+	}
+
+	@Benchmark
+	public CompletableFuture<Void> firstSeen(ThreadState state) {
+		return cache.execute(state.prefix + state.created++, "a|b|1", NOTHING);
+	}
+
+}
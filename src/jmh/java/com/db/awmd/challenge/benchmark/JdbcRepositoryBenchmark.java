@@ -0,0 +1,176 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountStorage;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.HotAccountProperties;
+import com.db.awmd.challenge.repository.jdbc.JdbcAccountsRepository;
+import com.db.awmd.challenge.repository.jdbc.JdbcProperties;
+
+/**
+ * Transfers and account creations through {@code AccountsService} on the
+ * JDBC repository, an embedded H2 file database, against the in-memory
+ * repository. {@code JDBC_WRITE_BEHIND} keeps account 0 as a hot account
+ * whose credits are written behind; compare it with {@code JDBC} on the
+ * {@code HOT_ACCOUNT} pattern.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JdbcRepositoryBenchmark {
+
+	static final int ACCOUNTS = 1000;
+
+	static final int CHUNK = 100;
+
+	@Param({ "IN_MEMORY", "JDBC", "JDBC_WRITE_BEHIND" })
+	public String repository;
+
+	/** UNCONTENDED: every thread on its own pair, HOT_ACCOUNT: 90% of the transfers credit account 0 */
+	@Param({ "UNCONTENDED", "HOT_ACCOUNT" })
+	public String pattern;
+
+	BenchmarkFixture fixture;
+
+	Path directory;
+
+	long created;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		HotAccountProperties hotAccounts = new HotAccountProperties();
+		if ("IN_MEMORY".equals(repository)) {
+			fixture = new BenchmarkFixture(new AccountsRepositoryInMemory(AccountStorage.DECIMAL, hotAccounts), ACCOUNTS);
+			return;
+		}
+		directory = Files.createTempDirectory("jdbc-benchmark");
+		JdbcProperties properties = new JdbcProperties();
+		properties.setUrl("jdbc:h2:" + directory + "/accounts");
+		if ("JDBC_WRITE_BEHIND".equals(repository)) {
+			properties.setWriteBehind(true);
+			hotAccounts.getAccountIds().add(BenchmarkFixture.accountId(0));
+		}
+		fixture = new BenchmarkFixture(new JdbcAccountsRepository(properties, hotAccounts), ACCOUNTS);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		fixture.close();
+		if (fixture.repository instanceof JdbcAccountsRepository) {
+			JdbcAccountsRepository jdbc = (JdbcAccountsRepository) fixture.repository;
+			System.out.printf("%n%d credits written behind in %d flushes, %d waits for a connection%n",
+					jdbc.getCoalescedCredits(), jdbc.getFlushes(), jdbc.getConnectionWaits());
+			jdbc.close();
+		}
+		if (directory != null) {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Picker {
+
+		SplittableRandom random;
+
+		int thread;
+
+		boolean flip;
+
+		@Setup(Level.Trial)
+		public void setUp(ThreadParams threadParams) {
+			thread = threadParams.getThreadIndex();
+			random = new SplittableRandom(31L * thread + 17);
+		}
+
+		/**
+		 * @return the source account in the high 32 bits, the destination in the low ones
+		 */
+		long next(String pattern) {
+			if ("HOT_ACCOUNT".equals(pattern)) {
+				int from = 1 + random.nextInt(ACCOUNTS - 1);
+				int to = random.nextDouble() < TransferBenchmark.HOT_RATIO ? 0 : 1 + (from % (ACCOUNTS - 1));
+				return ((long) from << 32) | to;
+			}
+			int from = (2 * thread) % ACCOUNTS;
+			int to = (2 * thread + 1) % ACCOUNTS;
+			// alternate directions so balances random-walk instead of draining
+			flip = !flip;
+			return flip ? ((long) from << 32) | to : ((long) to << 32) | from;
+		}
+
+	}
+
+	@Benchmark
+	public void transfer(Picker picker, Blackhole blackhole) {
+		long pair = picker.next(pattern);
+		String[] ids = fixture.accountIds;
+		try {
+			fixture.service.transfer(ids[(int) (pair >>> 32)], ids[(int) pair], BenchmarkFixture.AMOUNT);
+		} catch (TransactionException e) {
+			blackhole.consume(e);
+		}
+	}
+
+	/**
+	 * A chunk of the bulk import, one repository call
+	 */
+	@Benchmark
+	@OperationsPerInvocation(CHUNK)
+	public Object createAccountsInChunks() {
+		return fixture.service.createAccounts(newAccounts());
+	}
+
+	/**
+	 * The same accounts created one call each
+	 */
+	@Benchmark
+	@OperationsPerInvocation(CHUNK)
+	public void createAccountsOneByOne() {
+		for (Account account : newAccounts()) {
+			fixture.service.createAccount(account);
+		}
+	}
+
+	private synchronized List<Account> newAccounts() {
+		List<Account> accounts = new ArrayList<>(CHUNK);
+		for (int i = 0; i < CHUNK; i++) {
+			accounts.add(new Account("created-" + created++, BigDecimal.ONE));
+		}
+		return accounts;
+	}
+
+}
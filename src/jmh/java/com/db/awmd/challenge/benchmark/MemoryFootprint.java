@@ -0,0 +1,75 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.function.Supplier;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountStorage;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.offheap.OffHeapAccountsRepository;
+import com.db.awmd.challenge.repository.offheap.OffHeapProperties;
+
+/**
+ * Memory taken per account by every repository, on and off the heap. JMH
+ * measures time, not retained size, so this is a plain program: it fills
+ * each repository in turn and compares the used heap and direct memory
+ * after a full collection with what they were before.
+ * <p>
+ * {@code ./gradlew footprint [-Pfootprint.accounts=10000000] [-Pfootprint.maxIdBytes=16]},
+ * give the JVM enough heap and direct memory for the account count. The
+ * off-heap slots are sized for {@code footprint.maxIdBytes}, the ids used
+ * here are at most 10 bytes long.
+ *
+ */
+public class MemoryFootprint {
+
+	public static void main(String[] args) {
+		int accounts = Integer.getInteger("footprint.accounts", 1_000_000);
+		int maxIdBytes = Integer.getInteger("footprint.maxIdBytes", 16);
+		System.out.printf("%-12s %14s %14s %14s%n", "repository", "heap B/acct", "direct B/acct", "total B/acct");
+		measure("DECIMAL", accounts, () -> new AccountsRepositoryInMemory(AccountStorage.DECIMAL));
+		measure("MINOR_UNITS", accounts, () -> new AccountsRepositoryInMemory(AccountStorage.MINOR_UNITS));
+		measure("OFF_HEAP", accounts, () -> {
+			OffHeapProperties properties = new OffHeapProperties();
+			properties.setInitialCapacity(accounts);
+			properties.setMaxIdBytes(maxIdBytes);
+			return new OffHeapAccountsRepository(properties);
+		});
+	}
+
+	private static void measure(String name, int accounts, Supplier<AccountsRepository> factory) {
+		long heapBefore = usedHeap();
+		long directBefore = usedDirect();
+		AccountsRepository repository = factory.get();
+		for (int i = 0; i < accounts; i++) {
+			// distinct balances, as in production, not one shared instance
+			repository.createAccount(new Account(BenchmarkFixture.accountId(i), BigDecimal.valueOf(100_000 + i, 2)));
+		}
+		double heap = (double) (usedHeap() - heapBefore) / accounts;
+		double direct = (double) (usedDirect() - directBefore) / accounts;
+		System.out.printf("%-12s %14.1f %14.1f %14.1f%n", name, heap, direct, heap + direct);
+		// keep the repository reachable until it has been measured
+		repository.clearAccounts();
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long usedDirect() {
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if ("direct".equals(pool.getName())) {
+				return pool.getMemoryUsed();
+			}
+		}
+		return 0;
+	}
+
+}
@@ -0,0 +1,124 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.db.awmd.challenge.DevChallengeApplication;
+import com.db.awmd.challenge.repository.partition.ConsistentHashRing;
+import com.db.awmd.challenge.repository.partition.PartitionProperties;
+import com.db.awmd.challenge.service.metrics.LatencyHistogram;
+
+/**
+ * Starts partitioned clusters of growing size on localhost, in this JVM,
+ * and runs the same closed-loop transfer load against each: every client
+ * sends its transfer to the node owning the account debited, about
+ * {@code (nodes - 1) / nodes} of the transfers credit another node. Nodes
+ * share the machine, the scaling measured is the one left by the
+ * cross-partition calls, not the one of separate machines.
+ * <p>
+ * {@code ./gradlew partitionscale [-Ppartitionscale.nodes=1,2,3] [-Ppartitionscale.connections=64]
+ * [-Ppartitionscale.seconds=20] [-Ppartitionscale.accounts=1000]}
+ *
+ */
+public class PartitionScaling {
+
+	public static void main(String[] args) throws Exception {
+		int connections = Integer.getInteger("partitionscale.connections", 64);
+		int seconds = Integer.getInteger("partitionscale.seconds", 20);
+		int warmupSeconds = Integer.getInteger("partitionscale.warmup-seconds", 5);
+		int accounts = Integer.getInteger("partitionscale.accounts", 1000);
+		for (String nodes : System.getProperty("partitionscale.nodes", "1,2,3").split(",")) {
+			run(Integer.parseInt(nodes.trim()), connections, seconds, warmupSeconds, accounts);
+		}
+	}
+
+	private static void run(int nodeCount, int connections, int seconds, int warmupSeconds, int accounts)
+			throws Exception {
+		List<String> urls = new ArrayList<>();
+		for (int i = 0; i < nodeCount; i++) {
+			try (ServerSocket socket = new ServerSocket(0)) {
+				urls.add("http://localhost:" + socket.getLocalPort());
+			}
+		}
+		List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+		try {
+			for (String url : urls) {
+				nodes.add(new SpringApplicationBuilder(DevChallengeApplication.class).run(
+						"--server.port=" + url.substring(url.lastIndexOf(':') + 1),
+						"--accounts.partition.enabled=true",
+						"--accounts.partition.self=" + url,
+						"--accounts.partition.nodes=" + String.join(",", urls),
+						"--accounts.partition.secret=partitionscale",
+						"--accounts.web.execution=ASYNC",
+						"--accounts.ledger.enabled=false",
+						"--spring.jmx.enabled=false",
+						"--endpoints.jmx.enabled=false",
+						"--logging.level.root=WARN"));
+			}
+			ConsistentHashRing ring = new ConsistentHashRing(urls, new PartitionProperties().getVirtualNodes());
+			for (int i = 0; i < accounts; i++) {
+				String accountId = BenchmarkFixture.accountId(i);
+				TransferLoadTest.send(new URL(ring.ownerOf(accountId) + "/v1/accounts"), "POST",
+						"{\"accountId\":\"" + accountId + "\",\"balance\":" + BenchmarkFixture.INITIAL_BALANCE + "}");
+			}
+
+			LatencyHistogram latency = new LatencyHistogram();
+			LongAdder completed = new LongAdder();
+			LongAdder crossPartition = new LongAdder();
+			long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+			long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+			CountDownLatch done = new CountDownLatch(connections);
+			for (int c = 0; c < connections; c++) {
+				SplittableRandom random = new SplittableRandom(c);
+				Thread client = new Thread(() -> {
+					try {
+						long now;
+						while ((now = System.nanoTime()) < end) {
+							int from = random.nextInt(accounts);
+							int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+							String accountFrom = BenchmarkFixture.accountId(from);
+							String accountTo = BenchmarkFixture.accountId(to);
+							int status = TransferLoadTest.send(new URL(ring.ownerOf(accountFrom) + "/v1/accounts"), "PUT",
+									"{\"accountFrom\":\"" + accountFrom + "\",\"accountTo\":\"" + accountTo
+											+ "\",\"amount\":" + BenchmarkFixture.AMOUNT + "}");
+							if (now >= measureFrom && status == 200) {
+								latency.record(System.nanoTime() - now);
+								completed.increment();
+								if (ring.indexOf(accountFrom) != ring.indexOf(accountTo)) {
+									crossPartition.increment();
+								}
+							}
+						}
+					} catch (IOException e) {
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}, "partition-load-" + c);
+				client.setDaemon(true);
+				client.start();
+			}
+			done.await();
+
+			LatencyHistogram.Snapshot snapshot = latency.snapshot();
+			System.out.printf("%d nodes, %d connections, %d s: %.0f transfers/s, %.0f%% cross-partition, latency ms p50 %.2f p99 %.2f max %.2f%n",
+					nodeCount, connections, seconds, completed.sum() / (double) seconds,
+					100.0 * crossPartition.sum() / Math.max(1, completed.sum()),
+					TransferLoadTest.millis(snapshot.getValueAtPercentile(50)),
+					TransferLoadTest.millis(snapshot.getValueAtPercentile(99)), TransferLoadTest.millis(snapshot.getMax()));
+		} finally {
+			nodes.forEach(ConfigurableApplicationContext::close);
+		}
+	}
+
+}
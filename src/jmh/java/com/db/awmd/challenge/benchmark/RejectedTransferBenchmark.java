@@ -0,0 +1,92 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.repository.AccountStorage;
+
+/**
+ * Cost of a refused transfer, an empty account debited or an unknown one,
+ * when the reason is thrown ({@code transferAsync}) and when it is
+ * returned ({@code tryTransferAsync}). Run with {@code -prof gc} to see
+ * the allocations per refusal.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RejectedTransferBenchmark {
+
+	private static final String EMPTY = "empty";
+
+	private static final String UNKNOWN = "unknown";
+
+	@Param({ "DECIMAL", "MINOR_UNITS", "OFF_HEAP" })
+	public String storage;
+
+	BenchmarkFixture fixture;
+
+	String accountTo;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		fixture = "OFF_HEAP".equals(storage)
+				? new BenchmarkFixture(BenchmarkFixture.offHeapRepository(16), 16)
+				: new BenchmarkFixture(AccountStorage.valueOf(storage), 16);
+		fixture.service.createAccount(new Account(EMPTY, BigDecimal.ZERO));
+		accountTo = fixture.accountIds[0];
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		fixture.close();
+	}
+
+	@Benchmark
+	public Object insufficientFundsThrown() {
+		return thrown(fixture.service.transferAsync(EMPTY, accountTo, BenchmarkFixture.AMOUNT));
+	}
+
+	@Benchmark
+	public TransferRejection insufficientFundsReturned() {
+		return fixture.service.tryTransferAsync(EMPTY, accountTo, BenchmarkFixture.AMOUNT).join();
+	}
+
+	@Benchmark
+	public Object accountNotFoundThrown() {
+		return thrown(fixture.service.transferAsync(UNKNOWN, accountTo, BenchmarkFixture.AMOUNT));
+	}
+
+	@Benchmark
+	public TransferRejection accountNotFoundReturned() {
+		return fixture.service.tryTransferAsync(UNKNOWN, accountTo, BenchmarkFixture.AMOUNT).join();
+	}
+
+	/**
+	 * @return the exception, as the REST controller reads it for its message
+	 */
+	private static Object thrown(CompletableFuture<Void> result) {
+		return result.handle((ignored, e) -> e.getCause() != null ? e.getCause().getMessage() : e.getMessage()).join();
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.dto.Recurrence;
+import com.db.awmd.challenge.repository.AccountStorage;
+import com.db.awmd.challenge.service.schedule.ScheduleProperties;
+import com.db.awmd.challenge.service.schedule.TransferScheduler;
+
+/**
+ * Cost of scheduling and cancelling a transfer with many others pending,
+ * which the timing wheel keeps constant. The log is not forced, so the
+ * time is the wheel's and a write to the page cache. The heap taken per
+ * pending schedule is printed on setup.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ScheduledTransferBenchmark {
+
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	@Param({ "1000", "1000000" })
+	public int pending;
+
+	BenchmarkFixture fixture;
+
+	Path directory;
+
+	TransferScheduler scheduler;
+
+	long now;
+
+	long next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		fixture = new BenchmarkFixture(AccountStorage.DECIMAL, 64);
+		directory = Files.createTempDirectory("schedule-benchmark");
+		ScheduleProperties properties = new ScheduleProperties();
+		properties.setDirectory(directory.toString());
+		properties.setFsync(false);
+		now = System.currentTimeMillis();
+		scheduler = new TransferScheduler(properties, fixture.service, () -> now);
+		long before = usedHeap();
+		for (int i = 0; i < pending; i++) {
+			// spread over a year, standing orders and one-off transfers
+			scheduler.schedule(fixture.accountIds[i % 64], fixture.accountIds[(i + 1) % 64], BenchmarkFixture.AMOUNT,
+					now + 1000 + (i * 7919L) % (365 * DAY_MILLIS), Recurrence.values()[i % 4]);
+		}
+		System.out.printf("%n%d pending schedules, %d bytes of heap each%n", pending, (usedHeap() - before) / pending);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		scheduler.close();
+		fixture.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public boolean scheduleAndCancel() {
+		long runAt = now + 1000 + (next++ * 7919L) % (365 * DAY_MILLIS);
+		long scheduleId = scheduler.schedule(fixture.accountIds[0], fixture.accountIds[1], BenchmarkFixture.AMOUNT,
+				runAt, Recurrence.MONTHLY).getScheduleId();
+		return scheduler.cancel(scheduleId);
+	}
+
+	private static long usedHeap() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountStorage;
+import com.db.awmd.challenge.repository.mvcc.SnapshotRead;
+
+/**
+ * Reading the balances of many accounts at one version
+ * ({@code snapshotRead}) against reading them one by one, which doesn't
+ * add up while transfers run ({@code accountByAccount}), alone and next to
+ * a thread of transfers. The retained and reclaimed versions are printed
+ * at the end of every trial.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotReadBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int accounts;
+
+	BenchmarkFixture fixture;
+
+	List<String> accountIds;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		fixture = new BenchmarkFixture(AccountStorage.DECIMAL, accounts);
+		fixture.versionedBalances(100);
+		accountIds = Arrays.asList(fixture.accountIds);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		fixture.close();
+	}
+
+	@State(Scope.Thread)
+	public static class Picker {
+
+		SplittableRandom random = new SplittableRandom(17);
+
+	}
+
+	@Benchmark
+	public SnapshotRead snapshotRead() {
+		return fixture.versions.read(accountIds);
+	}
+
+	@Benchmark
+	public BigDecimal accountByAccount() {
+		BigDecimal total = BigDecimal.ZERO;
+		for (String accountId : accountIds) {
+			total = total.add(fixture.service.getAccount(accountId).getBalance());
+		}
+		return total;
+	}
+
+	@Benchmark
+	@Group("whileTransferring")
+	@GroupThreads(1)
+	public SnapshotRead snapshotReadWhileTransferring() {
+		return fixture.versions.read(accountIds);
+	}
+
+	@Benchmark
+	@Group("whileTransferring")
+	@GroupThreads(1)
+	public void transfer(Picker picker, Blackhole blackhole) {
+		int from = picker.random.nextInt(accounts);
+		int to = (from + 1 + picker.random.nextInt(accounts - 1)) % accounts;
+		try {
+			fixture.service.transfer(fixture.accountIds[from], fixture.accountIds[to], BenchmarkFixture.AMOUNT);
+		} catch (TransactionException e) {
+			blackhole.consume(e);
+		}
+	}
+
+}
@@ -0,0 +1,195 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountStorage;
+import com.db.awmd.challenge.repository.HotAccountProperties;
+
+/**
+ * {@code AccountsService.transfer} under the access patterns seen in
+ * production: every thread on the same pair, every thread on its own pair,
+ * a single hot account taking most of the traffic and a Zipfian spread.
+ * The thread count is set by the runner, see {@link BenchmarkRunner}.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+	public enum Pattern {
+		/** every thread moves money back and forth between accounts 0 and 1 */
+		CONTENDED,
+		/** every thread owns a pair of accounts nobody else touches */
+		UNCONTENDED,
+		/** {@link #HOT_RATIO} of the transfers credit account 0 */
+		HOT_ACCOUNT,
+		/** both sides drawn from a Zipfian distribution over all accounts */
+		ZIPFIAN
+	}
+
+	static final double HOT_RATIO = 0.9;
+
+	@Param({ "CONTENDED", "UNCONTENDED", "HOT_ACCOUNT", "ZIPFIAN" })
+	public Pattern pattern;
+
+	@Param({ "1000", "100000" })
+	public int accounts;
+
+	@Param({ "DECIMAL", "MINOR_UNITS" })
+	public AccountStorage storage;
+
+	/** account 0 kept as a hot account, compare with -p hotAccount=false,true */
+	@Param({ "false" })
+	public boolean hotAccount;
+
+	/**
+	 * LOCKING or SHARDED, compare with -p execution=LOCKING,SHARDED -p storage=MINOR_UNITS,
+	 * the sharded engine needs MINOR_UNITS storage
+	 */
+	@Param({ "LOCKING" })
+	public String execution;
+
+	/** shard threads of the SHARDED execution */
+	@Param({ "4" })
+	public int shards;
+
+	/**
+	 * OFF, IDLE (auditor attached, no audit running) or CONTINUOUS (audits
+	 * back to back) to measure what the balance auditor costs the transfers,
+	 * compare with -p audit=OFF,IDLE,CONTINUOUS -p execution=LOCKING
+	 */
+	@Param({ "OFF" })
+	public String audit;
+
+	/** CPU budget of the continuous auditor's scan */
+	@Param({ "100" })
+	public int auditMaxCpuPercent;
+
+	/**
+	 * Versions of the balances kept for snapshot reads, compare with
+	 * -p mvcc=false,true -p audit=OFF -p execution=LOCKING
+	 */
+	@Param({ "false" })
+	public boolean mvcc;
+
+	BenchmarkFixture fixture;
+
+	ZipfianGenerator zipfian;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		HotAccountProperties hotAccounts = new HotAccountProperties();
+		if (hotAccount) {
+			hotAccounts.getAccountIds().add(BenchmarkFixture.accountId(0));
+		}
+		fixture = new BenchmarkFixture(storage, accounts, hotAccounts);
+		if ("SHARDED".equals(execution)) {
+			fixture.shardedEngine(shards, storage);
+		}
+		if (!"OFF".equals(audit)) {
+			fixture.balanceAuditor("CONTINUOUS".equals(audit), auditMaxCpuPercent);
+		}
+		if (mvcc) {
+			fixture.versionedBalances(100);
+		}
+		if (pattern == Pattern.ZIPFIAN) {
+			zipfian = new ZipfianGenerator(accounts);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		fixture.close();
+	}
+
+	@State(Scope.Thread)
+	public static class Picker {
+
+		SplittableRandom random;
+
+		int ownFrom;
+
+		int ownTo;
+
+		boolean flip;
+
+		@Setup(Level.Trial)
+		public void setUp(TransferBenchmark benchmark, ThreadParams threadParams) {
+			int thread = threadParams.getThreadIndex();
+			random = new SplittableRandom(31L * thread + 17);
+			ownFrom = (2 * thread) % benchmark.accounts;
+			ownTo = (2 * thread + 1) % benchmark.accounts;
+		}
+
+		/**
+		 * @return the source account in the high 32 bits, the destination in the low ones
+		 */
+		long next(TransferBenchmark benchmark) {
+			int from;
+			int to;
+			switch (benchmark.pattern) {
+			case CONTENDED:
+				from = 0;
+				to = 1;
+				break;
+			case UNCONTENDED:
+				from = ownFrom;
+				to = ownTo;
+				break;
+			case HOT_ACCOUNT:
+				// the hot account is a merchant: it receives, it doesn't pay
+				from = 1 + random.nextInt(benchmark.accounts - 1);
+				to = random.nextDouble() < HOT_RATIO ? 0 : 1 + random.nextInt(benchmark.accounts - 1);
+				if (from == to) {
+					to = 1 + to % (benchmark.accounts - 1);
+				}
+				return ((long) from << 32) | to;
+			default:
+				from = benchmark.zipfian.next(random.nextDouble());
+				to = benchmark.zipfian.next(random.nextDouble());
+				break;
+			}
+			if (from == to) {
+				to = (to + 1) % benchmark.accounts;
+			}
+			// alternate directions so balances random-walk instead of draining
+			flip = !flip;
+			return flip ? ((long) from << 32) | to : ((long) to << 32) | from;
+		}
+
+	}
+
+	@Benchmark
+	public void transfer(Picker picker, Blackhole blackhole) {
+		long pair = picker.next(this);
+		String[] ids = fixture.accountIds;
+		try {
+			fixture.service.transfer(ids[(int) (pair >>> 32)], ids[(int) pair], BenchmarkFixture.AMOUNT);
+		} catch (TransactionException e) {
+			blackhole.consume(e);
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.db.awmd.challenge.service.metrics.LatencyHistogram;
+import com.db.awmd.challenge.web.binary.BinaryProtocolClient;
+
+/**
+ * Closed-loop load on the transfers of a running instance, to compare the
+ * BLOCKING and ASYNC values of {@code accounts.web.execution}, or the REST
+ * API with the binary protocol. Every client sends its next transfer as soon
+ * as the previous one is answered; with more connections than servlet
+ * threads, BLOCKING queues them in Tomcat while ASYNC keeps them all in
+ * flight.
+ * <p>
+ * {@code ./gradlew loadtest [-Ploadtest.url=http://localhost:18080] [-Ploadtest.connections=400]
+ * [-Ploadtest.seconds=30] [-Ploadtest.accounts=1000]}, against an instance
+ * started with the journal enabled and the same {@code server.tomcat.max-threads}
+ * for both runs.
+ * <p>
+ * {@code -Ploadtest.protocol=BINARY [-Ploadtest.binary-port=18090] [-Ploadtest.pipeline=1]}
+ * sends them over the binary protocol instead, to an instance started with
+ * {@code accounts.binary.enabled=true}, each connection shared by
+ * {@code pipeline} clients whose requests are in flight together.
+ *
+ */
+public class TransferLoadTest {
+
+	public static void main(String[] args) throws Exception {
+		String url = System.getProperty("loadtest.url", "http://localhost:18080") + "/v1/accounts";
+		String protocol = System.getProperty("loadtest.protocol", "REST");
+		int connections = Integer.getInteger("loadtest.connections", 400);
+		int pipeline = "BINARY".equals(protocol) ? Integer.getInteger("loadtest.pipeline", 1) : 1;
+		int seconds = Integer.getInteger("loadtest.seconds", 30);
+		int warmupSeconds = Integer.getInteger("loadtest.warmup-seconds", 5);
+		int accounts = Integer.getInteger("loadtest.accounts", 1000);
+
+		BinaryProtocolClient[] binaryClients = new BinaryProtocolClient[connections];
+		if ("BINARY".equals(protocol)) {
+			String host = new URL(url).getHost();
+			int port = Integer.getInteger("loadtest.binary-port", 18090);
+			for (int c = 0; c < connections; c++) {
+				binaryClients[c] = new BinaryProtocolClient(host, port);
+			}
+		}
+
+		// the accounts may be left over from a previous run
+		for (int i = 0; i < accounts; i++) {
+			send(new URL(url), "POST", "{\"accountId\":\"" + BenchmarkFixture.accountId(i) + "\",\"balance\":" + BenchmarkFixture.INITIAL_BALANCE + "}");
+		}
+
+		LatencyHistogram latency = new LatencyHistogram();
+		LongAdder completed = new LongAdder();
+		LongAdder failed = new LongAdder();
+		long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+		long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+		CountDownLatch done = new CountDownLatch(connections * pipeline);
+		for (int c = 0; c < connections * pipeline; c++) {
+			SplittableRandom random = new SplittableRandom(c);
+			BinaryProtocolClient binaryClient = binaryClients[c / pipeline];
+			Thread client = new Thread(() -> {
+				try {
+					URL target = new URL(url);
+					long now;
+					while ((now = System.nanoTime()) < end) {
+						int from = random.nextInt(accounts);
+						int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+						boolean transferred;
+						if (binaryClient != null) {
+							transferred = transfer(binaryClient, BenchmarkFixture.accountId(from), BenchmarkFixture.accountId(to));
+						} else {
+							transferred = send(target, "PUT", "{\"accountFrom\":\"" + BenchmarkFixture.accountId(from)
+									+ "\",\"accountTo\":\"" + BenchmarkFixture.accountId(to) + "\",\"amount\":" + BenchmarkFixture.AMOUNT + "}") == 200;
+						}
+						long answered = System.nanoTime();
+						if (now >= measureFrom) {
+							latency.record(answered - now);
+							(transferred ? completed : failed).increment();
+						}
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					done.countDown();
+				}
+			}, "load-" + c);
+			client.setDaemon(true);
+			client.start();
+		}
+		done.await();
+		for (BinaryProtocolClient binaryClient : binaryClients) {
+			if (binaryClient != null) {
+				binaryClient.close();
+			}
+		}
+
+		LatencyHistogram.Snapshot snapshot = latency.snapshot();
+		System.out.printf("%s, %d connections x %d in flight, %d s: %.0f transfers/s, %d failed, latency ms p50 %.2f p99 %.2f p999 %.2f max %.2f%n",
+				protocol, connections, pipeline, seconds, completed.sum() / (double) seconds, failed.sum(),
+				millis(snapshot.getValueAtPercentile(50)), millis(snapshot.getValueAtPercentile(99)),
+				millis(snapshot.getValueAtPercentile(99.9)), millis(snapshot.getMax()));
+	}
+
+	private static boolean transfer(BinaryProtocolClient client, String accountFrom, String accountTo) {
+		try {
+			client.transfer(accountFrom, accountTo, BenchmarkFixture.AMOUNT).join();
+			return true;
+		} catch (CompletionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the status, the connection is kept alive for the next request
+	 */
+	static int send(URL url, String method, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		connection.setRequestProperty("Content-Type", "application/json");
+		connection.setDoOutput(true);
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		connection.setFixedLengthStreamingMode(bytes.length);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(bytes);
+		}
+		int status = connection.getResponseCode();
+		// the body has to be read to the end for the connection to be reused
+		try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			if (in != null) {
+				while (in.read() != -1) {
+				}
+			}
+		}
+		return status;
+	}
+
+	static double millis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+
+}
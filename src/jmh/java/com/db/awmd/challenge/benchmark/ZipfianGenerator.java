@@ -0,0 +1,61 @@
+package com.db.awmd.challenge.benchmark;
+
+/**
+ * Zipfian distribution over {@code [0, items)}, item 0 being the most
+ * popular, following Gray et al., "Quickly Generating Billion-Record
+ * Synthetic Databases" (the generator YCSB uses). The zeta constant is
+ * computed once, so an instance is immutable and can be shared by threads
+ * each drawing with their own uniform source.
+ *
+ */
+class ZipfianGenerator {
+
+	static final double DEFAULT_THETA = 0.99;
+
+	private final int items;
+
+	private final double theta;
+
+	private final double alpha;
+
+	private final double zetan;
+
+	private final double eta;
+
+	ZipfianGenerator(int items) {
+		this(items, DEFAULT_THETA);
+	}
+
+	ZipfianGenerator(int items, double theta) {
+		this.items = items;
+		this.theta = theta;
+		this.alpha = 1.0 / (1.0 - theta);
+		this.zetan = zeta(items, theta);
+		double zeta2 = zeta(2, theta);
+		this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+	}
+
+	/**
+	 * @param u uniform in {@code [0, 1)}
+	 */
+	int next(double u) {
+		double uz = u * zetan;
+		if (uz < 1.0) {
+			return 0;
+		}
+		if (uz < 1.0 + Math.pow(0.5, theta)) {
+			return 1;
+		}
+		int item = (int) (items * Math.pow(eta * u - eta + 1, alpha));
+		return Math.min(item, items - 1);
+	}
+
+	private static double zeta(int n, double theta) {
+		double sum = 0;
+		for (int i = 1; i <= n; i++) {
+			sum += 1 / Math.pow(i, theta);
+		}
+		return sum;
+	}
+
+}
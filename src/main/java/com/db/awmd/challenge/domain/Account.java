@@ -3,6 +3,7 @@ package com.db.awmd.challenge.domain;
 import java.math.BigDecimal;
 
 import com.db.awmd.challenge.domain.dto.AccountDto;
+import com.db.awmd.challenge.exception.InsufficientFundsException;
 import com.db.awmd.challenge.exception.TransactionException;
 
 import lombok.Data;
@@ -29,11 +30,23 @@ public class Account {
 	}
 
 	public void withdraw(BigDecimal amount) throws TransactionException {
+		if (!tryWithdraw(amount)) {
+			throw new InsufficientFundsException("Account " + this.getAccountId() + " has not enought money to make this transaction.");
+		}
+	}
+
+	/**
+	 * Withdraws the amount if the balance covers it.
+	 * 
+	 * @return false, leaving the balance untouched, if there is not enough money
+	 */
+	public boolean tryWithdraw(BigDecimal amount) {
 		BigDecimal balance = this.getBalance();
 		if (amount.compareTo(balance) == 1) {
-			throw new TransactionException("Account " + this.getAccountId() + " has not enought money to make this transaction.");
+			return false;
 		}
 		this.setBalance(balance.subtract(amount));
+		return true;
 	}
 
 	public void deposit(BigDecimal amount) {
@@ -0,0 +1,111 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import com.db.awmd.challenge.exception.InsufficientFundsException;
+import com.db.awmd.challenge.exception.TransactionException;
+
+/**
+ * Account keeping its balance as long minor units (see {@link Money}).
+ * Deposits and withdrawals are applied with compare-and-set, so they don't
+ * need any outside lock and don't allocate.
+ *
+ */
+public class AtomicAccount extends Account {
+
+	private static final AtomicLongFieldUpdater<AtomicAccount> MINOR_UNITS =
+			AtomicLongFieldUpdater.newUpdater(AtomicAccount.class, "minorUnits");
+
+	private volatile long minorUnits;
+
+	public AtomicAccount(String accountId, long minorUnits) {
+		super(accountId);
+		this.minorUnits = minorUnits;
+	}
+
+	public AtomicAccount(Account account) {
+		this(account.getAccountId(), Money.toMinorUnits(account.getBalance()));
+	}
+
+	public long getMinorUnits() {
+		return this.minorUnits;
+	}
+
+	@Override
+	public BigDecimal getBalance() {
+		return Money.fromMinorUnits(this.minorUnits);
+	}
+
+	@Override
+	public void setBalance(BigDecimal balance) {
+		this.minorUnits = Money.toMinorUnits(balance);
+	}
+
+	/**
+	 * Withdraws the amount if the balance covers it.
+	 * 
+	 * @return false, leaving the balance untouched, if there is not enough money
+	 */
+	public boolean tryWithdraw(long amount) {
+		long balance;
+		do {
+			balance = this.minorUnits;
+			if (amount > balance) {
+				return false;
+			}
+		} while (!MINOR_UNITS.compareAndSet(this, balance, balance - amount));
+		return true;
+	}
+
+	public void withdraw(long amount) throws TransactionException {
+		if (!tryWithdraw(amount)) {
+			throw new InsufficientFundsException("Account " + this.getAccountId() + " has not enought money to make this transaction.");
+		}
+	}
+
+	public void deposit(long amount) throws TransactionException {
+		long balance;
+		long updated;
+		do {
+			balance = this.minorUnits;
+			updated = balance + amount;
+			if (((balance ^ updated) & (amount ^ updated)) < 0) {
+				throw new TransactionException("Account " + this.getAccountId() + " balance overflow.");
+			}
+		} while (!MINOR_UNITS.compareAndSet(this, balance, updated));
+	}
+
+	/**
+	 * Moves money to another account: the debit is applied first and only a
+	 * successful debit is followed by the credit, which can't fail for lack of
+	 * funds. No money is created or lost even without locking both accounts,
+	 * readers may only see it in flight between the two steps.
+	 */
+	public void transferTo(AtomicAccount accountTo, long amount) throws TransactionException {
+		withdraw(amount);
+		try {
+			accountTo.deposit(amount);
+		} catch (TransactionException e) {
+			// give the money back, it was taken from this account a moment ago
+			deposit(amount);
+			throw e;
+		}
+	}
+
+	@Override
+	public void withdraw(BigDecimal amount) throws TransactionException {
+		withdraw(Money.toMinorUnits(amount));
+	}
+
+	@Override
+	public boolean tryWithdraw(BigDecimal amount) {
+		return tryWithdraw(Money.toMinorUnits(amount));
+	}
+
+	@Override
+	public void deposit(BigDecimal amount) {
+		deposit(Money.toMinorUnits(amount));
+	}
+
+}
@@ -0,0 +1,126 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.db.awmd.challenge.exception.TransactionException;
+
+/**
+ * Account receiving a large share of all deposits, e.g. a merchant or
+ * treasury account. Deposits are added to one of several padded cells,
+ * picked by thread, instead of all racing on the balance, and are folded
+ * into the balance lazily: when a withdrawal finds the balance short and
+ * whenever the balance is read. Reads therefore include every deposit
+ * that completed before them and withdrawals can't overdraw the account.
+ *
+ */
+public class HotAccount extends AtomicAccount {
+
+	/**
+	 * Longs between two cells, keeping each on its own pair of cache lines
+	 */
+	private static final int PADDING = 16;
+
+	private final AtomicLongArray cells;
+
+	private final int mask;
+
+	private volatile long folds;
+
+	public HotAccount(String accountId, long minorUnits, int cells) {
+		super(accountId, minorUnits);
+		int size = 1;
+		while (size < cells) {
+			size <<= 1;
+		}
+		this.cells = new AtomicLongArray(size * PADDING);
+		this.mask = size - 1;
+	}
+
+	public HotAccount(Account account, int cells) {
+		this(account.getAccountId(), Money.toMinorUnits(account.getBalance()), cells);
+	}
+
+	@Override
+	public long getMinorUnits() {
+		fold();
+		return super.getMinorUnits();
+	}
+
+	@Override
+	public BigDecimal getBalance() {
+		return Money.fromMinorUnits(getMinorUnits());
+	}
+
+	/**
+	 * Replaces the balance, deposits not folded yet included
+	 */
+	@Override
+	public synchronized void setBalance(BigDecimal balance) {
+		for (int i = 0; i <= mask; i++) {
+			cells.set(i * PADDING, 0);
+		}
+		super.setBalance(balance);
+	}
+
+	@Override
+	public boolean tryWithdraw(long amount) {
+		if (super.tryWithdraw(amount)) {
+			return true;
+		}
+		// the money may be sitting in the cells
+		fold();
+		return super.tryWithdraw(amount);
+	}
+
+	@Override
+	public void deposit(long amount) throws TransactionException {
+		if (amount < 0) {
+			super.deposit(amount);
+			return;
+		}
+		int cell = (int) Thread.currentThread().getId() & mask;
+		cells.getAndAdd(cell * PADDING, amount);
+	}
+
+	/**
+	 * @return deposits not folded into the balance yet
+	 */
+	public long getPendingMinorUnits() {
+		long pending = 0;
+		for (int i = 0; i <= mask; i++) {
+			pending += cells.get(i * PADDING);
+		}
+		return pending;
+	}
+
+	public long getFolds() {
+		return folds;
+	}
+
+	/**
+	 * Moves the cells into the balance. Each cell is emptied atomically, so
+	 * a deposit racing with the fold is either moved now or left for the
+	 * next one, never lost.
+	 */
+	private synchronized void fold() {
+		boolean folded = false;
+		for (int i = 0; i <= mask; i++) {
+			if (cells.get(i * PADDING) == 0) {
+				continue;
+			}
+			long amount = cells.getAndSet(i * PADDING, 0);
+			try {
+				super.deposit(amount);
+			} catch (TransactionException e) {
+				cells.getAndAdd(i * PADDING, amount);
+				throw e;
+			}
+			folded = true;
+		}
+		if (folded) {
+			folds++;
+		}
+	}
+
+}
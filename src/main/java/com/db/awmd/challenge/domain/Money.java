@@ -0,0 +1,31 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+import com.db.awmd.challenge.exception.TransactionException;
+
+/**
+ * Conversions between decimal amounts, as used by the DTOs, and long minor
+ * units with a fixed scale, as used by the lock-free accounts
+ *
+ */
+public final class Money {
+
+	public static final int SCALE = 2;
+
+	private Money() {
+	}
+
+	public static long toMinorUnits(BigDecimal amount) throws TransactionException {
+		try {
+			return amount.setScale(SCALE).unscaledValue().longValueExact();
+		} catch (ArithmeticException e) {
+			throw new TransactionException("Amount " + amount + " can't be represented with " + SCALE + " decimal places.");
+		}
+	}
+
+	public static BigDecimal fromMinorUnits(long minorUnits) {
+		return BigDecimal.valueOf(minorUnits, SCALE);
+	}
+
+}
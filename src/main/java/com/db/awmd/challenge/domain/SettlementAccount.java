@@ -0,0 +1,53 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * Account of a partition standing for the other partitions: money reserved
+ * for a transfer to another partition is moved into it, money received
+ * from another partition is taken out of it. Its balance is what the
+ * partition sent minus what it received, negative when it received more,
+ * so withdrawals are never refused: money only leaves it for a credit
+ * whose reservation the node of the account debited confirmed, see
+ * {@link com.db.awmd.challenge.service.partition.PartitionRouter}. It is
+ * changed by concurrent transfers without their locks, every access is
+ * synchronized.
+ *
+ */
+public class SettlementAccount extends Account {
+
+	public SettlementAccount(String accountId, BigDecimal balance) {
+		super(accountId, balance);
+	}
+
+	public SettlementAccount(Account account) {
+		this(account.getAccountId(), account.getBalance());
+	}
+
+	@Override
+	public synchronized BigDecimal getBalance() {
+		return super.getBalance();
+	}
+
+	@Override
+	public synchronized void setBalance(BigDecimal balance) {
+		super.setBalance(balance);
+	}
+
+	@Override
+	public synchronized void withdraw(BigDecimal amount) {
+		super.setBalance(super.getBalance().subtract(amount));
+	}
+
+	@Override
+	public boolean tryWithdraw(BigDecimal amount) {
+		withdraw(amount);
+		return true;
+	}
+
+	@Override
+	public synchronized void deposit(BigDecimal amount) {
+		super.setBalance(super.getBalance().add(amount));
+	}
+
+}
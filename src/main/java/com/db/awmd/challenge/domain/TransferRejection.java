@@ -0,0 +1,73 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.InsufficientFundsException;
+import com.db.awmd.challenge.exception.TransactionException;
+
+/**
+ * Expected reasons for a transfer to be refused, returned by the
+ * result-typed transfer path instead of thrown. Each reason is a constant
+ * with its completed future, a rejection allocates nothing; the message,
+ * the one of the exception the throwing path raises, is only built if
+ * someone reads it.
+ *
+ */
+public enum TransferRejection {
+
+	ACCOUNT_FROM_NOT_FOUND,
+
+	ACCOUNT_TO_NOT_FOUND,
+
+	INSUFFICIENT_FUNDS,
+
+	SAME_ACCOUNTS;
+
+	private static final CompletableFuture<TransferRejection> APPLIED = CompletableFuture.completedFuture(null);
+
+	private final CompletableFuture<TransferRejection> future = CompletableFuture.completedFuture(this);
+
+	/**
+	 * @return a future completed with this rejection, shared by all callers
+	 */
+	public CompletableFuture<TransferRejection> future() {
+		return future;
+	}
+
+	/**
+	 * @return a future completed with no rejection, shared by all callers
+	 */
+	public static CompletableFuture<TransferRejection> applied() {
+		return APPLIED;
+	}
+
+	public String message(String accountIdFrom, String accountIdTo) {
+		switch (this) {
+		case ACCOUNT_FROM_NOT_FOUND:
+			return "Account id " + accountIdFrom + " not found";
+		case ACCOUNT_TO_NOT_FOUND:
+			return "Account id " + accountIdTo + " not found";
+		case INSUFFICIENT_FUNDS:
+			return "Account " + accountIdFrom + " has not enought money to make this transaction.";
+		default:
+			return "Accounts must be different.";
+		}
+	}
+
+	/**
+	 * @return the exception the throwing path raises for this rejection
+	 */
+	public RuntimeException exception(String accountIdFrom, String accountIdTo) {
+		switch (this) {
+		case ACCOUNT_FROM_NOT_FOUND:
+		case ACCOUNT_TO_NOT_FOUND:
+			return new AccountNotFoundException(message(accountIdFrom, accountIdTo));
+		case INSUFFICIENT_FUNDS:
+			return new InsufficientFundsException(message(accountIdFrom, accountIdTo));
+		default:
+			return new TransactionException(message(accountIdFrom, accountIdTo));
+		}
+	}
+
+}
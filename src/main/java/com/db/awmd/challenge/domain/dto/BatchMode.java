@@ -0,0 +1,19 @@
+package com.db.awmd.challenge.domain.dto;
+
+/**
+ * How a batch of transfers reacts to a rejected transfer
+ *
+ */
+public enum BatchMode {
+
+	/**
+	 * Either every transfer of the batch is applied or none is
+	 */
+	ATOMIC,
+
+	/**
+	 * Every transfer is applied on its own, rejected ones don't affect the others
+	 */
+	BEST_EFFORT
+
+}
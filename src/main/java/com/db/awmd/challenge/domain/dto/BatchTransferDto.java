@@ -0,0 +1,38 @@
+package com.db.awmd.challenge.domain.dto;
+
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Data;
+
+/**
+ * Batch Transfer - Data Transfer Object
+ * Used to apply many transfers in a single request, in the given order
+ *
+ */
+@Data
+public class BatchTransferDto {
+
+	@NotNull
+	@NotEmpty
+	@Valid
+	private List<TransferDto> transfers;
+
+	@NotNull
+	private BatchMode mode;
+
+	@JsonCreator
+	public BatchTransferDto(@JsonProperty("transfers") List<TransferDto> transfers,
+			@JsonProperty("mode") BatchMode mode) {
+		this.transfers = transfers;
+		this.mode = mode == null ? BatchMode.BEST_EFFORT : mode;
+	}
+
+}
@@ -0,0 +1,23 @@
+package com.db.awmd.challenge.domain.dto;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Batch Transfer Result - Data Transfer Object
+ * Used to report the outcome of every transfer of a batch, in request order
+ *
+ */
+@Data
+public class BatchTransferResultDto {
+
+	private final BatchMode mode;
+
+	private final int completed;
+
+	private final int rejected;
+
+	private final List<TransferResultDto> results;
+
+}
@@ -0,0 +1,24 @@
+package com.db.awmd.challenge.domain.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+/**
+ * Import Error - Data Transfer Object
+ * Used to report a line of a bulk account import which was not created
+ *
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ImportErrorDto {
+
+	private final long line;
+
+	private final String accountId;
+
+	private final ImportStatus status;
+
+	private final String message;
+
+}
@@ -0,0 +1,19 @@
+package com.db.awmd.challenge.domain.dto;
+
+/**
+ * Why a line of a bulk account import was not created
+ *
+ */
+public enum ImportStatus {
+
+	/**
+	 * An account with the same id already exists
+	 */
+	DUPLICATE,
+
+	/**
+	 * The line is not a valid account
+	 */
+	INVALID
+
+}
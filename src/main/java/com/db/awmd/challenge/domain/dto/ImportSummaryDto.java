@@ -0,0 +1,19 @@
+package com.db.awmd.challenge.domain.dto;
+
+import lombok.Data;
+
+/**
+ * Import Summary - Data Transfer Object
+ * Used as the last line of a bulk account import response
+ *
+ */
+@Data
+public class ImportSummaryDto {
+
+	private final long created;
+
+	private final long duplicates;
+
+	private final long invalid;
+
+}
@@ -0,0 +1,43 @@
+package com.db.awmd.challenge.domain.dto;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+/**
+ * How often a scheduled transfer runs after its first run. Months are
+ * calendar months in UTC, counted from the first run: a transfer first run
+ * on the 31st runs on the last day of shorter months.
+ *
+ */
+public enum Recurrence {
+
+	ONCE,
+
+	DAILY,
+
+	WEEKLY,
+
+	MONTHLY;
+
+	private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+	/**
+	 * @param run
+	 *            0 for the first run
+	 * @return when the run is due, in epoch milliseconds, or
+	 *         {@link Long#MAX_VALUE} if there is no such run
+	 */
+	public long runAt(long firstRunAt, long run) {
+		switch (this) {
+		case ONCE:
+			return run == 0 ? firstRunAt : Long.MAX_VALUE;
+		case DAILY:
+			return firstRunAt + run * DAY_MILLIS;
+		case WEEKLY:
+			return firstRunAt + run * 7 * DAY_MILLIS;
+		default:
+			return Instant.ofEpochMilli(firstRunAt).atZone(ZoneOffset.UTC).plusMonths(run).toInstant().toEpochMilli();
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.db.awmd.challenge.domain.dto;
+
+import java.math.BigDecimal;
+
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Data;
+
+/**
+ * Schedule - Data Transfer Object
+ * Used to schedule a transfer, once or as a standing order
+ *
+ */
+@Data
+public class ScheduleDto {
+
+	@NotNull
+	@NotEmpty
+	private String accountFrom;
+
+	@NotNull
+	@NotEmpty
+	private String accountTo;
+
+	@NotNull
+	@DecimalMin(value = "0.01", message = "Value to be transferred must be positive and greater than $0")
+	private BigDecimal amount;
+
+	/**
+	 * ISO-8601 instant of the first run, a past one runs at once
+	 */
+	@NotNull
+	@NotEmpty
+	private String firstRunAt;
+
+	@NotNull
+	private Recurrence recurrence;
+
+	@JsonCreator
+	public ScheduleDto(@JsonProperty("accountFrom") String accountFrom,
+			@JsonProperty("accountTo") String accountTo,
+			@JsonProperty("amount") BigDecimal amount,
+			@JsonProperty("firstRunAt") String firstRunAt,
+			@JsonProperty("recurrence") Recurrence recurrence) {
+		this.accountFrom = accountFrom;
+		this.accountTo = accountTo;
+		this.amount = amount;
+		this.firstRunAt = firstRunAt;
+		this.recurrence = recurrence == null ? Recurrence.ONCE : recurrence;
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.db.awmd.challenge.domain.dto;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+/**
+ * Scheduled Transfer - Data Transfer Object
+ * Used to report a scheduled transfer and how its runs went
+ *
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ScheduledTransferDto {
+
+	private final long scheduleId;
+
+	private final String accountFrom;
+
+	private final String accountTo;
+
+	private final BigDecimal amount;
+
+	private final Recurrence recurrence;
+
+	/**
+	 * ISO-8601 instant of the next run, absent once there is none
+	 */
+	private final String nextRunAt;
+
+	/**
+	 * Runs done so far, whatever their outcome
+	 */
+	private final long runs;
+
+	/**
+	 * Outcome of the last run, absent before the first one
+	 */
+	private final TransferStatus lastStatus;
+
+}
@@ -0,0 +1,31 @@
+package com.db.awmd.challenge.domain.dto;
+
+import java.util.List;
+
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Data;
+
+/**
+ * Snapshot Read - Data Transfer Object
+ * Used to read the balances of many accounts as of one instant
+ *
+ */
+@Data
+public class SnapshotReadDto {
+
+	@NotNull
+	@NotEmpty
+	private final List<String> accountIds;
+
+	@JsonCreator
+	public SnapshotReadDto(@JsonProperty("accountIds") List<String> accountIds) {
+		this.accountIds = accountIds;
+	}
+
+}
@@ -0,0 +1,34 @@
+package com.db.awmd.challenge.domain.dto;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+/**
+ * Snapshot Read Result - Data Transfer Object
+ * Used to return the balances of many accounts as of one version
+ *
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SnapshotReadResultDto {
+
+	/**
+	 * Transfers committed up to this version are in the balances, later ones
+	 * aren't. Counted from the start of the node.
+	 */
+	private final long version;
+
+	/**
+	 * The accounts existing at that version, in request order
+	 */
+	private final List<AccountDto> balances;
+
+	/**
+	 * Accounts that didn't exist at that version, absent if there are none
+	 */
+	private final List<String> missing;
+
+}
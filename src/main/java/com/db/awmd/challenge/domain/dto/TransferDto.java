@@ -4,6 +4,7 @@ import java.math.BigDecimal;
 
 import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
 
 import org.hibernate.validator.constraints.NotEmpty;
 
@@ -32,6 +33,13 @@ public class TransferDto {
 	@DecimalMin(value = "0.01", message = "Value to be transferred must be positive and greater than $0")
 	private BigDecimal amount;
 	
+	/**
+	 * Optional, a transfer sent again with the same key is applied only once.
+	 * The {@code Idempotency-Key} header takes precedence.
+	 */
+	@Size(max = 128)
+	private String idempotencyKey;
+	
 	@JsonCreator
 	public TransferDto(@JsonProperty("accountFrom") String accountFrom,
 			@JsonProperty("accountTo") String accountTo,
@@ -0,0 +1,25 @@
+package com.db.awmd.challenge.domain.dto;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+/**
+ * Transfer History - Data Transfer Object
+ * Used to return a page of the transfers of an account, newest first
+ *
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransferHistoryDto {
+
+	private final List<TransferRecordDto> transfers;
+
+	/**
+	 * Cursor of the next page, absent on the last one
+	 */
+	private final String nextCursor;
+
+}
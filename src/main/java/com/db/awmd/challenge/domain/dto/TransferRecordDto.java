@@ -0,0 +1,40 @@
+package com.db.awmd.challenge.domain.dto;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+/**
+ * Transfer Record - Data Transfer Object
+ * Used to report a completed transfer in the history of an account, with
+ * the balances it left both accounts with
+ *
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransferRecordDto {
+
+	private final long id;
+
+	private final String accountFrom;
+
+	private final String accountTo;
+
+	private final BigDecimal amount;
+
+	/**
+	 * ISO-8601 instant the transfer was recorded at
+	 */
+	private final String timestamp;
+
+	/**
+	 * Absent if partitioned and the account is kept by another node, as
+	 * {@code balanceTo}
+	 */
+	private final BigDecimal balanceFrom;
+
+	private final BigDecimal balanceTo;
+
+}
@@ -0,0 +1,22 @@
+package com.db.awmd.challenge.domain.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+/**
+ * Transfer Result - Data Transfer Object
+ * Used to report what happened to one transfer of a batch
+ *
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransferResultDto {
+
+	private final int index;
+
+	private final TransferStatus status;
+
+	private final String message;
+
+}
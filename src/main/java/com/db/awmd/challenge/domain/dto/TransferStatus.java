@@ -0,0 +1,23 @@
+package com.db.awmd.challenge.domain.dto;
+
+/**
+ * Outcome of a single transfer inside a batch
+ *
+ */
+public enum TransferStatus {
+
+	COMPLETED,
+
+	REJECTED,
+
+	/**
+	 * Applied and then undone because another transfer of an atomic batch was rejected
+	 */
+	ROLLED_BACK,
+
+	/**
+	 * Not attempted because an earlier transfer of an atomic batch was rejected
+	 */
+	SKIPPED
+
+}
@@ -0,0 +1,13 @@
+package com.db.awmd.challenge.exception;
+
+/**
+ * Exception to be thrown if the account to be debited has not enough money
+ *
+ */
+public class InsufficientFundsException extends TransactionException {
+
+	public InsufficientFundsException(String message) {
+		super(message);
+	}
+	
+}
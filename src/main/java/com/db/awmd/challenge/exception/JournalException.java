@@ -0,0 +1,25 @@
+package com.db.awmd.challenge.exception;
+
+/**
+ * Exception to be thrown if a change can't be written to the accounts journal
+ *
+ */
+public class JournalException extends RuntimeException {
+
+	/** whether the change was applied to the accounts before it failed */
+	private final boolean applied;
+
+	public JournalException(String message, Throwable cause) {
+		this(message, cause, true);
+	}
+
+	public JournalException(String message, Throwable cause, boolean applied) {
+		super(message, cause);
+		this.applied = applied;
+	}
+
+	public boolean isApplied() {
+		return applied;
+	}
+
+}
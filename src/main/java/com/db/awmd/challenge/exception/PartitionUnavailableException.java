@@ -0,0 +1,30 @@
+package com.db.awmd.challenge.exception;
+
+/**
+ * Exception to be thrown if the node owning an account can't be reached or
+ * doesn't give a usable answer
+ *
+ */
+public class PartitionUnavailableException extends RuntimeException {
+
+	/** whether the call may have changed the accounts before it failed */
+	private final boolean applied;
+
+	public PartitionUnavailableException(String message) {
+		this(message, null, true);
+	}
+
+	public PartitionUnavailableException(String message, Throwable cause) {
+		this(message, cause, true);
+	}
+
+	public PartitionUnavailableException(String message, Throwable cause, boolean applied) {
+		super(message, cause);
+		this.applied = applied;
+	}
+
+	public boolean isApplied() {
+		return applied;
+	}
+
+}
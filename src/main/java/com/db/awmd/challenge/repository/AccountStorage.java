@@ -0,0 +1,19 @@
+package com.db.awmd.challenge.repository;
+
+/**
+ * How the in-memory repository keeps account balances
+ *
+ */
+public enum AccountStorage {
+
+	/**
+	 * Mutable {@link java.math.BigDecimal} balance, changed under the service locks
+	 */
+	DECIMAL,
+
+	/**
+	 * Long minor units changed with compare-and-set, see {@link com.db.awmd.challenge.domain.AtomicAccount}
+	 */
+	MINOR_UNITS
+
+}
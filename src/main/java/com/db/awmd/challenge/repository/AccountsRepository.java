@@ -1,20 +1,148 @@
 package com.db.awmd.challenge.repository;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRejection;
 import com.db.awmd.challenge.exception.AccountNotFoundException;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InsufficientFundsException;
 import com.db.awmd.challenge.exception.TransactionException;
 
 public interface AccountsRepository {
 
 	void createAccount(Account account) throws DuplicateAccountIdException;
 
+	/**
+	 * Checked by imports before the accounts are created, by repositories
+	 * that can't keep every id
+	 * 
+	 * @throws TransactionException if an account with this id can't be created
+	 */
+	default void checkAccountId(String accountId) throws TransactionException {
+	}
+
+	/**
+	 * Checked by imports before the accounts are created, by repositories
+	 * that can't keep every amount exactly
+	 * 
+	 * @throws TransactionException if this balance or amount can't be stored
+	 */
+	default void checkAmount(BigDecimal amount) throws TransactionException {
+	}
+
+	/**
+	 * Creates a chunk of accounts, duplicates don't stop the others from being created.
+	 * 
+	 * @return one entry per account, in the same order: null if it was created,
+	 * the duplicate exception otherwise
+	 */
+	default List<DuplicateAccountIdException> createAccounts(List<Account> accounts) {
+		List<DuplicateAccountIdException> duplicates = new ArrayList<>(accounts.size());
+		for (Account account : accounts) {
+			try {
+				createAccount(account);
+				duplicates.add(null);
+			} catch (DuplicateAccountIdException e) {
+				duplicates.add(e);
+			}
+		}
+		return duplicates;
+	}
+
 	Account getAccount(String accountId) throws AccountNotFoundException;
 
+	/**
+	 * Same as {@link #getAccount(String)} for callers expecting unknown ids,
+	 * such as transfers, without the cost of an exception.
+	 * 
+	 * @return null if there is no account with this id
+	 */
+	default Account findAccount(String accountId) {
+		try {
+			return getAccount(accountId);
+		} catch (AccountNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Visits every account, balances are read one account at a time while transfers keep running.
+	 */
+	void forEachAccount(Consumer<Account> action);
+
 	void clearAccounts();
 
 	void transfer(Account accountFrom, Account accountTo, BigDecimal amount) throws TransactionException;
 
+	/**
+	 * Applies the transfer like {@link #transfer(Account, Account, BigDecimal)}
+	 * without waiting for it to be durable, so the caller can release the
+	 * accounts and its thread in the meantime.
+	 * 
+	 * @return completed once the transfer is durable
+	 */
+	default CompletableFuture<?> transferAsync(Account accountFrom, Account accountTo, BigDecimal amount)
+			throws TransactionException {
+		transfer(accountFrom, accountTo, amount);
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * Same as {@link #transfer(Account, Account, BigDecimal)}, a lack of money
+	 * is returned instead of thrown.
+	 * 
+	 * @return null if the transfer was applied, why it wasn't otherwise
+	 */
+	default TransferRejection tryTransfer(Account accountFrom, Account accountTo, BigDecimal amount)
+			throws TransactionException {
+		try {
+			transfer(accountFrom, accountTo, amount);
+			return null;
+		} catch (InsufficientFundsException e) {
+			return TransferRejection.INSUFFICIENT_FUNDS;
+		}
+	}
+
+	/**
+	 * Same as {@link #transferAsync(Account, Account, BigDecimal)}, a lack of
+	 * money is the value of the future instead of an exception.
+	 * 
+	 * @return completed with null once the transfer is durable, or already
+	 * completed with why it wasn't applied
+	 */
+	default CompletableFuture<TransferRejection> tryTransferAsync(Account accountFrom, Account accountTo,
+			BigDecimal amount) throws TransactionException {
+		CompletableFuture<?> durable;
+		try {
+			durable = transferAsync(accountFrom, accountTo, amount);
+		} catch (InsufficientFundsException e) {
+			return TransferRejection.INSUFFICIENT_FUNDS.future();
+		}
+		return durable.thenApply(ignored -> null);
+	}
+
+	/**
+	 * Checked before a change is applied directly on the accounts, as the
+	 * sharded transfer engine does, by repositories that may stop accepting
+	 * changes
+	 */
+	default void checkWritable() {
+	}
+
+	/**
+	 * Records a transfer whose debit and credit were applied directly on the
+	 * accounts, as the sharded transfer engine does. Repositories logging
+	 * their changes log it like a transfer.
+	 * 
+	 * @return completed once the transfer is as durable as any other change
+	 */
+	default CompletableFuture<?> transferApplied(Account accountFrom, Account accountTo, BigDecimal amount) {
+		return CompletableFuture.completedFuture(null);
+	}
+
 }
\ No newline at end of file
@@ -2,28 +2,123 @@ package com.db.awmd.challenge.repository;
 
 import java.math.BigDecimal;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AtomicAccount;
+import com.db.awmd.challenge.domain.HotAccount;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.SettlementAccount;
+import com.db.awmd.challenge.domain.TransferRejection;
 import com.db.awmd.challenge.exception.AccountNotFoundException;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
 import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.audit.BalanceAuditor;
+import com.db.awmd.challenge.repository.mvcc.VersionedBalances;
+import com.db.awmd.challenge.repository.partition.PartitionProperties;
 
-@Repository
+import lombok.Setter;
+
+@Repository("accountsStore")
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "IN_MEMORY", matchIfMissing = true)
 public class AccountsRepositoryInMemory implements AccountsRepository {
 
 	private final Map<String, Account> accounts = new ConcurrentHashMap<>();
 
+	private final AccountStorage storage;
+
+	private final HotAccountProperties hotAccounts;
+
+	/**
+	 * The settlement account of a partitioned deployment, kept as a
+	 * {@link SettlementAccount} whatever the storage, null if not partitioned
+	 */
+	private final String settlementAccountId;
+
+	/**
+	 * Sees every write to the accounts to take consistent snapshots, if enabled
+	 */
+	@Setter
+	private BalanceAuditor auditor;
+
+	/**
+	 * Keeps the versions of the balances written for snapshot reads, if enabled
+	 */
+	@Setter
+	private VersionedBalances versions;
+
+	public AccountsRepositoryInMemory() {
+		this(AccountStorage.DECIMAL);
+	}
+
+	public AccountsRepositoryInMemory(AccountStorage storage) {
+		this(storage, new HotAccountProperties());
+	}
+
+	public AccountsRepositoryInMemory(AccountStorage storage, HotAccountProperties hotAccounts) {
+		this(storage, hotAccounts, new PartitionProperties());
+	}
+
+	@Autowired
+	public AccountsRepositoryInMemory(@Value("${accounts.storage:DECIMAL}") AccountStorage storage,
+			HotAccountProperties hotAccounts, PartitionProperties partitions) {
+		this.storage = storage;
+		this.hotAccounts = hotAccounts;
+		this.settlementAccountId = partitions.isEnabled() ? partitions.getSettlementAccountId() : null;
+	}
+
 	@Override
 	public void createAccount(Account account) throws DuplicateAccountIdException {
-		Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
-		if (previousAccount != null) {
+		if (account.getAccountId().equals(settlementAccountId)) {
+			// also when restored from the journal, which only knows plain accounts
+			if (!(account instanceof SettlementAccount)) {
+				account = new SettlementAccount(account);
+			}
+		} else if (hotAccounts.getAccountIds().contains(account.getAccountId())) {
+			if (!(account instanceof HotAccount)) {
+				account = new HotAccount(account, hotAccounts.getCells());
+			}
+		} else if (storage == AccountStorage.MINOR_UNITS && !(account instanceof AtomicAccount)) {
+			account = new AtomicAccount(account);
+		}
+		Account created = account;
+		boolean inserted;
+		if (versions != null) {
+			inserted = versions.create(created, () -> insert(created));
+		} else {
+			inserted = auditor == null ? insert(created) : insertAudited(auditor, created);
+		}
+		if (!inserted) {
 			throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
 		}
 	}
 
+	private boolean insert(Account account) {
+		return accounts.putIfAbsent(account.getAccountId(), account) == null;
+	}
+
+	private boolean insertAudited(BalanceAuditor auditor, Account account) {
+		long epoch = auditor.enter();
+		try {
+			BalanceAuditor.Snapshot snapshot = auditor.snapshot(epoch);
+			boolean inserted = snapshot == null ? insert(account)
+					: snapshot.create(epoch, account.getAccountId(), () -> insert(account));
+			if (inserted) {
+				auditor.created(epoch, account.getBalance());
+			}
+			return inserted;
+		} finally {
+			auditor.exit(epoch);
+		}
+	}
+
 	@Override
 	public Account getAccount(String accountId) throws AccountNotFoundException {
 		Account account = accounts.get(accountId);
@@ -34,15 +129,146 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
 		return account;
 	}
 
+	@Override
+	public Account findAccount(String accountId) {
+		return accounts.get(accountId);
+	}
+
+	@Override
+	public void forEachAccount(Consumer<Account> action) {
+		accounts.values().forEach(action);
+	}
+
 	@Override
 	public void clearAccounts() {
 		accounts.clear();
+		if (auditor != null) {
+			auditor.cleared();
+		}
+		if (versions != null) {
+			versions.cleared();
+		}
 	}
 
 	@Override
 	public void transfer(Account accountFrom, Account accountTo, BigDecimal amount) throws TransactionException {
+		VersionedBalances versions = this.versions;
+		if (versions != null) {
+			versions.transfer(accountFrom, accountTo, amount);
+			return;
+		}
+		BalanceAuditor auditor = this.auditor;
+		if (auditor == null) {
+			apply(accountFrom, accountTo, amount);
+			return;
+		}
+		long epoch = auditor.enter();
+		try {
+			BalanceAuditor.Snapshot snapshot = auditor.snapshot(epoch);
+			if (snapshot == null) {
+				apply(accountFrom, accountTo, amount);
+			} else {
+				// an audit is running, each leg goes through its snapshot
+				snapshot.withdraw(epoch, accountFrom, amount);
+				try {
+					snapshot.deposit(epoch, accountTo, amount);
+				} catch (TransactionException e) {
+					// a lock-free account may refuse the credit, the money goes back like in AtomicAccount.transferTo
+					snapshot.deposit(epoch, accountFrom, amount);
+					throw e;
+				}
+			}
+		} finally {
+			auditor.exit(epoch);
+		}
+	}
+
+	/**
+	 * Doesn't throw for a lack of money unless an audit is running, its
+	 * snapshot only has the throwing withdrawal
+	 */
+	@Override
+	public TransferRejection tryTransfer(Account accountFrom, Account accountTo, BigDecimal amount)
+			throws TransactionException {
+		VersionedBalances versions = this.versions;
+		if (versions != null) {
+			return versions.tryTransfer(accountFrom, accountTo, amount);
+		}
+		BalanceAuditor auditor = this.auditor;
+		if (auditor == null) {
+			return tryApply(accountFrom, accountTo, amount);
+		}
+		long epoch = auditor.enter();
+		try {
+			if (auditor.snapshot(epoch) == null) {
+				return tryApply(accountFrom, accountTo, amount);
+			}
+		} finally {
+			auditor.exit(epoch);
+		}
+		return AccountsRepository.super.tryTransfer(accountFrom, accountTo, amount);
+	}
+
+	@Override
+	public CompletableFuture<TransferRejection> tryTransferAsync(Account accountFrom, Account accountTo,
+			BigDecimal amount) throws TransactionException {
+		TransferRejection rejection = tryTransfer(accountFrom, accountTo, amount);
+		return rejection != null ? rejection.future() : TransferRejection.applied();
+	}
+
+	private TransferRejection tryApply(Account accountFrom, Account accountTo, BigDecimal amount)
+			throws TransactionException {
+		if (accountFrom instanceof AtomicAccount && accountTo instanceof AtomicAccount) {
+			long minorUnits = Money.toMinorUnits(amount);
+			if (!((AtomicAccount) accountFrom).tryWithdraw(minorUnits)) {
+				return TransferRejection.INSUFFICIENT_FUNDS;
+			}
+			try {
+				((AtomicAccount) accountTo).deposit(minorUnits);
+			} catch (TransactionException e) {
+				// give the money back like AtomicAccount.transferTo
+				((AtomicAccount) accountFrom).deposit(minorUnits);
+				throw e;
+			}
+			return null;
+		}
+		checkMinorUnits(accountFrom, accountTo, amount);
+		if (!accountFrom.tryWithdraw(amount)) {
+			return TransferRejection.INSUFFICIENT_FUNDS;
+		}
+		deposit(accountFrom, accountTo, amount);
+		return null;
+	}
+
+	private void apply(Account accountFrom, Account accountTo, BigDecimal amount) throws TransactionException {
+		if (accountFrom instanceof AtomicAccount && accountTo instanceof AtomicAccount) {
+			((AtomicAccount) accountFrom).transferTo((AtomicAccount) accountTo, Money.toMinorUnits(amount));
+			return;
+		}
+		checkMinorUnits(accountFrom, accountTo, amount);
 		accountFrom.withdraw(amount);
-		accountTo.deposit(amount);
+		deposit(accountFrom, accountTo, amount);
+	}
+
+	/**
+	 * A plain account next to a lock-free one, e.g. a hot account credited:
+	 * an amount the lock-free one can't hold is refused before the debit
+	 */
+	private static void checkMinorUnits(Account accountFrom, Account accountTo, BigDecimal amount)
+			throws TransactionException {
+		if (accountFrom instanceof AtomicAccount || accountTo instanceof AtomicAccount) {
+			Money.toMinorUnits(amount);
+		}
+	}
+
+	private static void deposit(Account accountFrom, Account accountTo, BigDecimal amount) throws TransactionException {
+		try {
+			accountTo.deposit(amount);
+		} catch (TransactionException e) {
+			// give the money back like AtomicAccount.transferTo
+			accountFrom.deposit(amount);
+			throw e;
+		}
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,27 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Accounts kept as {@link com.db.awmd.challenge.domain.HotAccount}, whatever the storage
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.hot")
+public class HotAccountProperties {
+
+	private Set<String> accountIds = new LinkedHashSet<>();
+
+	/**
+	 * Deposit cells per hot account, rounded up to a power of two
+	 */
+	private int cells = Runtime.getRuntime().availableProcessors();
+
+}
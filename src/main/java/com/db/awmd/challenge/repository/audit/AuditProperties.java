@@ -0,0 +1,32 @@
+package com.db.awmd.challenge.repository.audit;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of the balance auditor
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.audit")
+public class AuditProperties {
+
+	private boolean enabled = false;
+
+	private long intervalSeconds = 60;
+
+	/**
+	 * Share of one processor the auditor may use while scanning, the scan
+	 * sleeps between chunks to stay under it
+	 */
+	private int maxCpuPercent = 10;
+
+	/**
+	 * Accounts scanned between two checks of the CPU budget
+	 */
+	private int chunkSize = 4096;
+
+}
@@ -0,0 +1,55 @@
+package com.db.awmd.challenge.repository.audit;
+
+import java.math.BigDecimal;
+
+import lombok.Data;
+
+/**
+ * Outcome of one audit: the total of the balances in the snapshot against
+ * the total of the initial balances of the accounts it holds
+ *
+ */
+@Data
+public class AuditReport {
+
+	/**
+	 * Epoch the snapshot was taken at, transfers of later epochs aren't in it
+	 */
+	private final long epoch;
+
+	private final long accounts;
+
+	private final BigDecimal total;
+
+	private final BigDecimal expected;
+
+	/**
+	 * Time spent waiting for the transfers of earlier epochs to complete
+	 */
+	private final long graceNanos;
+
+	private final long durationNanos;
+
+	/**
+	 * CPU time of the auditor thread, -1 if the JVM doesn't measure it
+	 */
+	private final long cpuNanos;
+
+	/**
+	 * Account writes made while the audit was running, each one paying for
+	 * the snapshot bookkeeping
+	 */
+	private final long auditedWrites;
+
+	/**
+	 * @return money created (positive) or destroyed (negative) according to the snapshot
+	 */
+	public BigDecimal getDrift() {
+		return total.subtract(expected);
+	}
+
+	public boolean isBalanced() {
+		return total.compareTo(expected) == 0;
+	}
+
+}
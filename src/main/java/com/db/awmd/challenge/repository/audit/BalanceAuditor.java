@@ -0,0 +1,417 @@
+package com.db.awmd.challenge.repository.audit;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Checks, while transfers keep running, that no money is created or
+ * destroyed: the balances of all accounts at one point in time must add up
+ * to the initial balances of the accounts created up to that point.
+ * <p>
+ * Every write to the accounts, transfer or creation, registers in the
+ * current epoch. An audit moves the epoch forward twice and takes its
+ * snapshot between the two: writes of the first new epoch are in the
+ * snapshot, writes of the second aren't. Writes registered in an epoch the
+ * audit covers go through a copy-on-write map: the first write of the
+ * second epoch to an account saves the balance it had before, writes of
+ * the first epoch reaching an account already saved add their change to
+ * the saved balance. The scan reads the saved balance if there is one and
+ * the live one otherwise, so every account is read as of the snapshot
+ * however long the scan takes, and only the accounts written during the
+ * audit are copied.
+ * <p>
+ * Nothing is stopped: the audit only waits for the writes already in
+ * progress in the epochs it moved past, which is the time of one transfer.
+ * Between audits a write costs an epoch registration; during one, a map
+ * update per account written. The scan sleeps between chunks of accounts
+ * to stay within its CPU budget.
+ * <p>
+ * The accounts may already hold money when the auditor is attached, after
+ * a journal replay for instance: the first audit takes it as its baseline
+ * and only the following ones can find a drift.
+ * <p>
+ * Only the writes going through {@link AccountsRepositoryInMemory} are
+ * seen, the sharded transfer engine updates the accounts directly and
+ * isn't supported.
+ *
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.audit", name = "enabled", havingValue = "true")
+public class BalanceAuditor {
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final AccountsRepositoryInMemory repository;
+
+	private final AuditProperties properties;
+
+	/** writes in progress, by epoch parity: an audit never has more than two epochs in flight */
+	private final LongAdder[] writers = { new LongAdder(), new LongAdder() };
+
+	private volatile long epoch;
+
+	private volatile Snapshot snapshot;
+
+	private final Object creations = new Object();
+
+	/**
+	 * money the accounts held before the auditor was attached, taken from
+	 * the first audit, null until then. Guarded by creations.
+	 */
+	private BigDecimal baseline;
+
+	/** initial balances of the accounts created in completed epochs, guarded by creations */
+	private BigDecimal settled = BigDecimal.ZERO;
+
+	/** initial balances of the accounts created in epochs still in flight, by parity, guarded by creations */
+	private final BigDecimal[] created = { BigDecimal.ZERO, BigDecimal.ZERO };
+
+	/** changed when the accounts are cleared, the audit running at that time is discarded */
+	private volatile long generation;
+
+	private volatile long audits;
+
+	private volatile long drifts;
+
+	private volatile AuditReport lastReport;
+
+	private ScheduledExecutorService scheduler;
+
+	@Autowired
+	public BalanceAuditor(AuditProperties properties, @Qualifier("accountsStore") AccountsRepository accountsStore,
+			@Value("${accounts.execution:LOCKING}") String execution) {
+		if (!(accountsStore instanceof AccountsRepositoryInMemory)) {
+			throw new IllegalStateException("The balance auditor needs accounts.repository IN_MEMORY");
+		}
+		if ("SHARDED".equals(execution)) {
+			throw new IllegalStateException("The balance auditor doesn't see the transfers of the sharded engine, "
+					+ "use accounts.execution LOCKING");
+		}
+		this.properties = properties;
+		this.repository = (AccountsRepositoryInMemory) accountsStore;
+		this.repository.setAuditor(this);
+	}
+
+	@PostConstruct
+	public void start() {
+		long interval = properties.getIntervalSeconds();
+		if (interval <= 0) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "balance-auditor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				audit();
+			} catch (Exception e) {
+				log.error("Balance audit failed, it will be retried", e);
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void close() throws InterruptedException {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+	/**
+	 * Registers a write to the accounts, to be followed by {@link #exit(long)}.
+	 *
+	 * @return the epoch of the write
+	 */
+	public long enter() {
+		while (true) {
+			long current = epoch;
+			LongAdder counter = writers[(int) current & 1];
+			counter.increment();
+			// the epoch may have moved before the write was counted, the audit wouldn't wait for it
+			if (epoch == current) {
+				return current;
+			}
+			counter.decrement();
+		}
+	}
+
+	public void exit(long epoch) {
+		writers[(int) epoch & 1].decrement();
+	}
+
+	/**
+	 * @return the snapshot the write has to go through, null if no audit is
+	 * concerned by its epoch
+	 */
+	public Snapshot snapshot(long epoch) {
+		Snapshot current = this.snapshot;
+		return current != null && epoch >= current.firstEpoch ? current : null;
+	}
+
+	/**
+	 * Counts the initial balance of an account created in the given epoch
+	 */
+	public void created(long epoch, BigDecimal balance) {
+		synchronized (creations) {
+			created[(int) epoch & 1] = created[(int) epoch & 1].add(balance);
+		}
+	}
+
+	/**
+	 * The accounts were all removed, the money created so far is forgotten
+	 */
+	public void cleared() {
+		synchronized (creations) {
+			baseline = BigDecimal.ZERO;
+			settled = BigDecimal.ZERO;
+			created[0] = BigDecimal.ZERO;
+			created[1] = BigDecimal.ZERO;
+			generation++;
+		}
+	}
+
+	/**
+	 * Takes a snapshot of all balances and checks their total.
+	 *
+	 * @return the outcome, null if the accounts were cleared in the meantime
+	 */
+	public synchronized AuditReport audit() {
+		long start = System.nanoTime();
+		long cpuStart = cpuTime();
+		long generation = this.generation;
+		long previous = epoch;
+
+		// writes of the previous epoch may have missed the snapshot, they're done before any balance is saved
+		Snapshot snapshot = new Snapshot(previous + 1);
+		this.snapshot = snapshot;
+		epoch = previous + 1;
+		awaitWriters(previous);
+		settle(previous);
+		epoch = previous + 2;
+		// the accounts created in the first epoch are in the repository before the scan starts
+		awaitWriters(previous + 1);
+		settle(previous + 1);
+		long grace = System.nanoTime() - start;
+		BigDecimal baseline;
+		BigDecimal settled;
+		synchronized (creations) {
+			baseline = this.baseline;
+			settled = this.settled;
+		}
+
+		Scan scan = new Scan(snapshot);
+		repository.forEachAccount(scan);
+		this.snapshot = null;
+		if (baseline == null) {
+			// accounts may have been created before, the first audit can only tell how much they hold
+			baseline = scan.total.subtract(settled);
+			synchronized (creations) {
+				if (generation == this.generation) {
+					this.baseline = baseline;
+				}
+			}
+			log.info("Balance auditor baseline of {} taken at epoch {}", baseline, previous + 1);
+		}
+		BigDecimal expected = baseline.add(settled);
+
+		long end = System.nanoTime();
+		long cpuEnd = cpuTime();
+		if (generation != this.generation) {
+			log.info("Accounts cleared during the balance audit of epoch {}, discarded", previous + 1);
+			return null;
+		}
+		AuditReport report = new AuditReport(previous + 1, scan.accounts, scan.total, expected, grace, end - start,
+				cpuStart < 0 || cpuEnd < 0 ? -1 : cpuEnd - cpuStart, snapshot.writes.sum());
+		audits++;
+		lastReport = report;
+		if (report.isBalanced()) {
+			log.debug("Balance audit of {} accounts at epoch {}: total {} in {} ms", report.getAccounts(),
+					report.getEpoch(), report.getTotal(), TimeUnit.NANOSECONDS.toMillis(report.getDurationNanos()));
+		} else {
+			drifts++;
+			log.error("Balance drift of {} at epoch {}: {} accounts hold {}, {} was created", report.getDrift(),
+					report.getEpoch(), report.getAccounts(), report.getTotal(), report.getExpected());
+		}
+		return report;
+	}
+
+	public long getAudits() {
+		return audits;
+	}
+
+	public long getDrifts() {
+		return drifts;
+	}
+
+	public AuditReport getLastReport() {
+		return lastReport;
+	}
+
+	private void awaitWriters(long epoch) {
+		LongAdder counter = writers[(int) epoch & 1];
+		while (counter.sum() != 0) {
+			Thread.yield();
+		}
+	}
+
+	private void settle(long epoch) {
+		synchronized (creations) {
+			settled = settled.add(created[(int) epoch & 1]);
+			created[(int) epoch & 1] = BigDecimal.ZERO;
+		}
+	}
+
+	private static long cpuTime() {
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+	}
+
+	/**
+	 * Balances saved for an audit. Writes are applied inside the map update
+	 * of their account so saving a balance and changing it can't interleave.
+	 */
+	public static final class Snapshot {
+
+		/** writes of this epoch are in the snapshot, those of the next one aren't */
+		private final long firstEpoch;
+
+		private final ConcurrentHashMap<String, BigDecimal> balances = new ConcurrentHashMap<>();
+
+		private final LongAdder writes = new LongAdder();
+
+		Snapshot(long firstEpoch) {
+			this.firstEpoch = firstEpoch;
+		}
+
+		public void withdraw(long epoch, Account account, BigDecimal amount) throws TransactionException {
+			writes.increment();
+			balances.compute(account.getAccountId(), (accountId, saved) -> {
+				BigDecimal before = account.getBalance();
+				account.withdraw(amount);
+				return save(epoch, saved, before, amount.negate());
+			});
+		}
+
+		public void deposit(long epoch, Account account, BigDecimal amount) {
+			writes.increment();
+			balances.compute(account.getAccountId(), (accountId, saved) -> {
+				BigDecimal before = account.getBalance();
+				account.deposit(amount);
+				return save(epoch, saved, before, amount);
+			});
+		}
+
+		/**
+		 * @param insert
+		 *            adds the account to the repository
+		 * @return whether it was added
+		 */
+		public boolean create(long epoch, String accountId, BooleanSupplier insert) {
+			boolean[] inserted = new boolean[1];
+			balances.compute(accountId, (id, saved) -> {
+				inserted[0] = insert.getAsBoolean();
+				// an account created after the snapshot didn't exist in it
+				return saved == null && inserted[0] && epoch > firstEpoch ? BigDecimal.ZERO : saved;
+			});
+			return inserted[0];
+		}
+
+		private BigDecimal save(long epoch, BigDecimal saved, BigDecimal before, BigDecimal change) {
+			if (epoch > firstEpoch) {
+				return saved == null ? before : saved;
+			}
+			// in the snapshot: the live balance has it, a balance saved before has to get it too
+			return saved == null ? null : saved.add(change);
+		}
+
+		/**
+		 * @return the saved balance, the live one if the account wasn't
+		 * written since the snapshot. Read under the map update of the
+		 * account, nothing is saved: writes coming after don't matter.
+		 */
+		BigDecimal balanceOf(Account account) {
+			BigDecimal[] balance = new BigDecimal[1];
+			balances.compute(account.getAccountId(), (accountId, saved) -> {
+				balance[0] = saved != null ? saved : account.getBalance();
+				return saved;
+			});
+			return balance[0];
+		}
+
+	}
+
+	/**
+	 * Adds up the balances of the snapshot, pausing between chunks of
+	 * accounts to keep within the CPU budget
+	 */
+	private final class Scan implements Consumer<Account> {
+
+		private final Snapshot snapshot;
+
+		private final int chunkSize = Math.max(1, properties.getChunkSize());
+
+		private final int maxCpuPercent = Math.min(100, Math.max(1, properties.getMaxCpuPercent()));
+
+		private long chunkStart = System.nanoTime();
+
+		private long chunkCpuStart = cpuTime();
+
+		BigDecimal total = BigDecimal.ZERO;
+
+		long accounts;
+
+		Scan(Snapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+
+		@Override
+		public void accept(Account account) {
+			total = total.add(snapshot.balanceOf(account));
+			if (++accounts % chunkSize == 0 && maxCpuPercent < 100) {
+				// the chunk may take longer than the CPU it used when the processors are busy
+				long now = System.nanoTime();
+				long cpuNow = cpuTime();
+				long used = chunkCpuStart < 0 || cpuNow < 0 ? now - chunkStart : cpuNow - chunkCpuStart;
+				long pause = used * 100 / maxCpuPercent - (now - chunkStart);
+				if (pause > 0) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(pause);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				chunkStart = System.nanoTime();
+				chunkCpuStart = cpuTime();
+			}
+		}
+
+	}
+
+}
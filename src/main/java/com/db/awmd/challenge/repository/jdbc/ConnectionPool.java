@@ -0,0 +1,118 @@
+package com.db.awmd.challenge.repository.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Fixed set of connections opened up front, each with its statements
+ * prepared once, handed to one request at a time. A request finding none
+ * free waits up to the connection timeout.
+ *
+ */
+@Slf4j
+class ConnectionPool implements AutoCloseable {
+
+	private static final String SCHEMA = "CREATE TABLE IF NOT EXISTS accounts ("
+			+ "id VARCHAR(255) PRIMARY KEY, "
+			+ "balance DECIMAL(38, 10) NOT NULL CHECK (balance >= 0))";
+
+	private final JdbcProperties properties;
+
+	private final BlockingQueue<PooledConnection> idle;
+
+	private final List<PooledConnection> connections = new ArrayList<>();
+
+	private final LongAdder waits = new LongAdder();
+
+	ConnectionPool(JdbcProperties properties) throws SQLException {
+		this.properties = properties;
+		int size = Math.max(1, properties.getPoolSize());
+		this.idle = new ArrayBlockingQueue<>(size);
+		try (Connection connection = open(); Statement statement = connection.createStatement()) {
+			statement.execute(SCHEMA);
+		}
+		for (int i = 0; i < size; i++) {
+			PooledConnection connection = new PooledConnection(open());
+			connections.add(connection);
+			idle.add(connection);
+		}
+		log.info("Opened {} connections to {}", size, properties.getUrl());
+	}
+
+	PooledConnection borrow() {
+		PooledConnection connection = idle.poll();
+		if (connection != null) {
+			return connection;
+		}
+		waits.increment();
+		try {
+			connection = idle.poll(properties.getConnectionTimeoutMillis(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (connection == null) {
+			throw new IllegalStateException("No database connection free after "
+					+ properties.getConnectionTimeoutMillis() + " ms");
+		}
+		return connection;
+	}
+
+	/**
+	 * Gives the connection back, replaced by a new one if it was closed
+	 */
+	void release(PooledConnection connection) {
+		if (!connection.isValid()) {
+			synchronized (connections) {
+				connections.remove(connection);
+				try {
+					connection = new PooledConnection(open());
+				} catch (SQLException e) {
+					log.error("Could not replace a closed database connection, the pool shrinks", e);
+					return;
+				}
+				connections.add(connection);
+			}
+		}
+		idle.add(connection);
+	}
+
+	/**
+	 * @return how many times a request had to wait for a connection
+	 */
+	long getWaits() {
+		return waits.sum();
+	}
+
+	int getIdle() {
+		return idle.size();
+	}
+
+	@Override
+	public void close() {
+		synchronized (connections) {
+			for (PooledConnection connection : connections) {
+				try {
+					connection.close();
+				} catch (SQLException e) {
+					log.warn("Could not close a database connection", e);
+				}
+			}
+			connections.clear();
+		}
+	}
+
+	private Connection open() throws SQLException {
+		return DriverManager.getConnection(properties.getUrl(), properties.getUsername(), properties.getPassword());
+	}
+
+}
@@ -0,0 +1,41 @@
+package com.db.awmd.challenge.repository.jdbc;
+
+import java.math.BigDecimal;
+
+import com.db.awmd.challenge.domain.Account;
+
+/**
+ * View of an account stored in the database. It holds no balance, every
+ * read and update is a statement, so the balance is always the committed one.
+ *
+ */
+public class JdbcAccount extends Account {
+
+	private final JdbcAccountsRepository repository;
+
+	JdbcAccount(String accountId, JdbcAccountsRepository repository) {
+		super(accountId);
+		this.repository = repository;
+	}
+
+	@Override
+	public BigDecimal getBalance() {
+		return repository.balanceOf(getAccountId());
+	}
+
+	@Override
+	public void setBalance(BigDecimal balance) {
+		repository.setBalance(getAccountId(), balance);
+	}
+
+	@Override
+	public boolean tryWithdraw(BigDecimal amount) {
+		return repository.withdraw(getAccountId(), amount);
+	}
+
+	@Override
+	public void deposit(BigDecimal amount) {
+		repository.deposit(getAccountId(), amount);
+	}
+
+}
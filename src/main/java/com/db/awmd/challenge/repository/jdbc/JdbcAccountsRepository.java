@@ -0,0 +1,429 @@
+package com.db.awmd.challenge.repository.jdbc;
+
+import java.math.BigDecimal;
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.HotAccountProperties;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Repository keeping the accounts in a relational database through JDBC,
+ * an embedded H2 one by default, so the balances survive a restart without
+ * the journal. Accounts are handed out as {@link JdbcAccount} views.
+ * <p>
+ * A transfer is one database transaction of two updates: the debit only
+ * matches a row holding the amount ({@code WHERE balance >= ?}), the
+ * balance is never read first. Account creations of a chunk are sent as
+ * one JDBC batch and committed together.
+ * <p>
+ * With write-behind, credits to the hot accounts are added up in memory
+ * and flushed as one update per account, the debit committing alone.
+ * Balances read include the credits not flushed yet; the credits not
+ * flushed when the node crashes are lost.
+ * <p>
+ * Balances are stored with 10 decimals and read back without trailing zeros.
+ * Amounts and balances with more decimals are refused up front: the database
+ * would round the debit and the credit of a transfer each on its own.
+ *
+ */
+@Slf4j
+@Repository("accountsStore")
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "JDBC")
+public class JdbcAccountsRepository implements AccountsRepository {
+
+	/** SQLSTATE of a unique constraint violation */
+	private static final String DUPLICATE_KEY = "23505";
+
+	private static final int IDS_PAGE = 1000;
+
+	/** Decimals of the balance column */
+	static final int SCALE = 10;
+
+	private final ConnectionPool pool;
+
+	private final WriteBehindCredits writeBehind;
+
+	private final LongAdder flushes = new LongAdder();
+
+	private ScheduledExecutorService flusher;
+
+	@Autowired
+	public JdbcAccountsRepository(JdbcProperties properties, HotAccountProperties hotAccounts) throws SQLException {
+		this.pool = new ConnectionPool(properties);
+		if (properties.isWriteBehind() && !hotAccounts.getAccountIds().isEmpty()) {
+			this.writeBehind = new WriteBehindCredits(hotAccounts.getAccountIds());
+			this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "jdbc-write-behind");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long interval = Math.max(1, properties.getWriteBehindMillis());
+			this.flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+		} else {
+			this.writeBehind = null;
+		}
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		checkAmount(account.getBalance());
+		PooledConnection connection = pool.borrow();
+		try {
+			connection.insert(account.getAccountId(), account.getBalance());
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollbackQuietly();
+			if (DUPLICATE_KEY.equals(e.getSQLState())) {
+				throw duplicate(account);
+			}
+			throw failure("create account " + account.getAccountId(), e);
+		} finally {
+			pool.release(connection);
+		}
+	}
+
+	/**
+	 * Inserts the chunk as one batch in one transaction, the accounts
+	 * refused as duplicates leaving the others in.
+	 */
+	@Override
+	public List<DuplicateAccountIdException> createAccounts(List<Account> accounts) {
+		for (Account account : accounts) {
+			checkAmount(account.getBalance());
+		}
+		List<DuplicateAccountIdException> duplicates = new ArrayList<>(accounts.size());
+		PooledConnection connection = pool.borrow();
+		try {
+			for (Account account : accounts) {
+				connection.addInsert(account.getAccountId(), account.getBalance());
+			}
+			int[] counts;
+			try {
+				counts = connection.executeInserts();
+			} catch (BatchUpdateException e) {
+				// the other inserts of the batch went through
+				counts = e.getUpdateCounts();
+				if (counts == null || counts.length != accounts.size()) {
+					throw e;
+				}
+			}
+			connection.commit();
+			for (int i = 0; i < accounts.size(); i++) {
+				duplicates.add(counts[i] == Statement.EXECUTE_FAILED ? duplicate(accounts.get(i)) : null);
+			}
+			return duplicates;
+		} catch (SQLException e) {
+			connection.rollbackQuietly();
+			throw failure("create " + accounts.size() + " accounts", e);
+		} finally {
+			pool.release(connection);
+		}
+	}
+
+	@Override
+	public void checkAmount(BigDecimal amount) throws TransactionException {
+		if (amount != null && amount.stripTrailingZeros().scale() > SCALE) {
+			throw new TransactionException("Amount " + amount.toPlainString() + " can't be represented with " + SCALE + " decimal places.");
+		}
+	}
+
+	@Override
+	public Account getAccount(String accountId) throws AccountNotFoundException {
+		Account account = findAccount(accountId);
+		// if there is no account with this id, it will throw an exception
+		if (account == null) {
+			throw new AccountNotFoundException("Account id " + accountId + " not found");
+		}
+		return account;
+	}
+
+	@Override
+	public Account findAccount(String accountId) {
+		PooledConnection connection = pool.borrow();
+		try {
+			BigDecimal balance = connection.balance(accountId);
+			connection.commit();
+			return balance == null ? null : new JdbcAccount(accountId, this);
+		} catch (SQLException e) {
+			connection.rollbackQuietly();
+			throw failure("read account " + accountId, e);
+		} finally {
+			pool.release(connection);
+		}
+	}
+
+	/**
+	 * Reads the ids a page at a time, no connection is held while the action runs
+	 */
+	@Override
+	public void forEachAccount(Consumer<Account> action) {
+		String last = "";
+		while (true) {
+			List<String> ids;
+			PooledConnection connection = pool.borrow();
+			try {
+				ids = connection.idsAfter(last, IDS_PAGE);
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollbackQuietly();
+				throw failure("list accounts", e);
+			} finally {
+				pool.release(connection);
+			}
+			for (String accountId : ids) {
+				action.accept(new JdbcAccount(accountId, this));
+			}
+			if (ids.size() < IDS_PAGE) {
+				return;
+			}
+			last = ids.get(ids.size() - 1);
+		}
+	}
+
+	@Override
+	public void clearAccounts() {
+		if (writeBehind != null) {
+			writeBehind.clear();
+		}
+		PooledConnection connection = pool.borrow();
+		try {
+			connection.deleteAll();
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollbackQuietly();
+			throw failure("clear accounts", e);
+		} finally {
+			pool.release(connection);
+		}
+	}
+
+	@Override
+	public void transfer(Account accountFrom, Account accountTo, BigDecimal amount) throws TransactionException {
+		if (apply(accountFrom.getAccountId(), accountTo.getAccountId(), amount) != null) {
+			throw TransferRejection.INSUFFICIENT_FUNDS.exception(accountFrom.getAccountId(), accountTo.getAccountId());
+		}
+	}
+
+	@Override
+	public TransferRejection tryTransfer(Account accountFrom, Account accountTo, BigDecimal amount)
+			throws TransactionException {
+		return apply(accountFrom.getAccountId(), accountTo.getAccountId(), amount);
+	}
+
+	/**
+	 * @return the connections not in use, for the metrics
+	 */
+	public int getIdleConnections() {
+		return pool.getIdle();
+	}
+
+	/**
+	 * @return how many times a request had to wait for a connection
+	 */
+	public long getConnectionWaits() {
+		return pool.getWaits();
+	}
+
+	/**
+	 * @return the credits to hot accounts written behind instead of one by one
+	 */
+	public long getCoalescedCredits() {
+		return writeBehind == null ? 0 : writeBehind.getCoalesced();
+	}
+
+	public long getFlushes() {
+		return flushes.sum();
+	}
+
+	/**
+	 * Flushes the credits written behind and closes the connections
+	 */
+	@PreDestroy
+	public void close() throws InterruptedException {
+		if (flusher != null) {
+			flusher.shutdown();
+			flusher.awaitTermination(1, TimeUnit.MINUTES);
+			flush();
+		}
+		pool.close();
+	}
+
+	/**
+	 * Writes the credits to the hot accounts added up since the last flush,
+	 * one update per account in one batch
+	 */
+	void flush() {
+		Map<String, BigDecimal> credits = writeBehind.drainAll();
+		if (credits.isEmpty()) {
+			return;
+		}
+		PooledConnection connection = pool.borrow();
+		try {
+			for (Map.Entry<String, BigDecimal> credit : credits.entrySet()) {
+				connection.addCredit(credit.getKey(), credit.getValue());
+			}
+			connection.executeCredits();
+			connection.commit();
+			flushes.increment();
+		} catch (SQLException | RuntimeException e) {
+			connection.rollbackQuietly();
+			credits.forEach(writeBehind::restore);
+			log.error("Could not write the credits of {} hot accounts, retrying at the next flush", credits.size(), e);
+		} finally {
+			pool.release(connection);
+		}
+	}
+
+	/**
+	 * @return null if the transfer was committed, why it wasn't otherwise
+	 */
+	private TransferRejection apply(String accountFrom, String accountTo, BigDecimal amount) {
+		checkAmount(amount);
+		boolean creditBehind = writeBehind != null && writeBehind.isWrittenBehind(accountTo);
+		// a hot account debited takes its pending credits along, in the same update
+		BigDecimal pending = writeBehind == null ? BigDecimal.ZERO : writeBehind.drain(accountFrom);
+		PooledConnection connection = pool.borrow();
+		try {
+			if (!connection.debit(accountFrom, amount.subtract(pending))) {
+				connection.rollbackQuietly();
+				restore(accountFrom, pending);
+				return TransferRejection.INSUFFICIENT_FUNDS;
+			}
+			if (!creditBehind && !connection.credit(accountTo, amount)) {
+				connection.rollbackQuietly();
+				restore(accountFrom, pending);
+				throw new AccountNotFoundException("Account id " + accountTo + " not found");
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollbackQuietly();
+			restore(accountFrom, pending);
+			throw failure("transfer from " + accountFrom + " to " + accountTo, e);
+		} finally {
+			pool.release(connection);
+		}
+		if (creditBehind) {
+			writeBehind.add(accountTo, amount);
+		}
+		return null;
+	}
+
+	BigDecimal balanceOf(String accountId) {
+		PooledConnection connection = pool.borrow();
+		BigDecimal balance;
+		try {
+			balance = connection.balance(accountId);
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollbackQuietly();
+			throw failure("read account " + accountId, e);
+		} finally {
+			pool.release(connection);
+		}
+		if (balance == null) {
+			throw new AccountNotFoundException("Account id " + accountId + " not found");
+		}
+		if (writeBehind != null) {
+			balance = balance.add(writeBehind.peek(accountId));
+		}
+		balance = balance.stripTrailingZeros();
+		return balance.scale() < 0 ? balance.setScale(0) : balance;
+	}
+
+	void setBalance(String accountId, BigDecimal balance) {
+		checkAmount(balance);
+		PooledConnection connection = pool.borrow();
+		try {
+			if (writeBehind != null) {
+				writeBehind.drain(accountId);
+			}
+			if (!connection.update(accountId, balance)) {
+				throw new AccountNotFoundException("Account id " + accountId + " not found");
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollbackQuietly();
+			throw failure("update account " + accountId, e);
+		} finally {
+			pool.release(connection);
+		}
+	}
+
+	boolean withdraw(String accountId, BigDecimal amount) {
+		checkAmount(amount);
+		BigDecimal pending = writeBehind == null ? BigDecimal.ZERO : writeBehind.drain(accountId);
+		PooledConnection connection = pool.borrow();
+		try {
+			boolean withdrawn = connection.debit(accountId, amount.subtract(pending));
+			connection.commit();
+			if (!withdrawn) {
+				restore(accountId, pending);
+			}
+			return withdrawn;
+		} catch (SQLException e) {
+			connection.rollbackQuietly();
+			restore(accountId, pending);
+			throw failure("withdraw from account " + accountId, e);
+		} finally {
+			pool.release(connection);
+		}
+	}
+
+	void deposit(String accountId, BigDecimal amount) {
+		checkAmount(amount);
+		if (writeBehind != null && writeBehind.isWrittenBehind(accountId)) {
+			writeBehind.add(accountId, amount);
+			return;
+		}
+		PooledConnection connection = pool.borrow();
+		try {
+			if (!connection.credit(accountId, amount)) {
+				throw new AccountNotFoundException("Account id " + accountId + " not found");
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollbackQuietly();
+			throw failure("deposit to account " + accountId, e);
+		} finally {
+			pool.release(connection);
+		}
+	}
+
+	private void restore(String accountId, BigDecimal pending) {
+		if (writeBehind != null) {
+			writeBehind.restore(accountId, pending);
+		}
+	}
+
+	private static DuplicateAccountIdException duplicate(Account account) {
+		return new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+	}
+
+	private static IllegalStateException failure(String action, SQLException e) {
+		return new IllegalStateException("Could not " + action + ": " + e.getMessage(), e);
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.db.awmd.challenge.repository.jdbc;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of the JDBC accounts repository
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.jdbc")
+public class JdbcProperties {
+
+	/**
+	 * Embedded H2 database by default, created on first use
+	 */
+	private String url = "jdbc:h2:./data/accounts";
+
+	private String username = "sa";
+
+	private String password = "";
+
+	/**
+	 * Connections opened up front and shared by all requests
+	 */
+	private int poolSize = 16;
+
+	/**
+	 * How long a request waits for a free connection before failing
+	 */
+	private long connectionTimeoutMillis = 5000;
+
+	/**
+	 * Credits to the hot accounts ({@code accounts.hot.account-ids}) are added
+	 * up in memory and written every {@link #writeBehindMillis}, instead of
+	 * one update each. Those not written yet are lost on a crash.
+	 */
+	private boolean writeBehind = false;
+
+	private long writeBehindMillis = 50;
+
+}
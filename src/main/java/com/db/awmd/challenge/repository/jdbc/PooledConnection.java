@@ -0,0 +1,164 @@
+package com.db.awmd.challenge.repository.jdbc;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A connection of the {@link ConnectionPool} with the statements of the
+ * repository prepared once for its lifetime. Transactions are committed
+ * explicitly. Used by one thread at a time.
+ *
+ */
+class PooledConnection implements AutoCloseable {
+
+	private final Connection connection;
+
+	private final PreparedStatement select;
+
+	private final PreparedStatement selectIds;
+
+	private final PreparedStatement insert;
+
+	private final PreparedStatement debit;
+
+	private final PreparedStatement credit;
+
+	private final PreparedStatement update;
+
+	private final PreparedStatement deleteAll;
+
+	PooledConnection(Connection connection) throws SQLException {
+		this.connection = connection;
+		connection.setAutoCommit(false);
+		this.select = connection.prepareStatement("SELECT balance FROM accounts WHERE id = ?");
+		this.selectIds = connection.prepareStatement("SELECT id FROM accounts WHERE id > ? ORDER BY id LIMIT ?");
+		this.insert = connection.prepareStatement("INSERT INTO accounts (id, balance) VALUES (?, ?)");
+		// the balance is checked by the update itself, nothing is read before
+		this.debit = connection.prepareStatement("UPDATE accounts SET balance = balance - ? WHERE id = ? AND balance >= ?");
+		this.credit = connection.prepareStatement("UPDATE accounts SET balance = balance + ? WHERE id = ?");
+		this.update = connection.prepareStatement("UPDATE accounts SET balance = ? WHERE id = ?");
+		this.deleteAll = connection.prepareStatement("DELETE FROM accounts");
+	}
+
+	/**
+	 * @return null if there is no such account
+	 */
+	BigDecimal balance(String accountId) throws SQLException {
+		select.setString(1, accountId);
+		try (ResultSet result = select.executeQuery()) {
+			return result.next() ? result.getBigDecimal(1) : null;
+		}
+	}
+
+	/**
+	 * @return up to limit account ids following the given one, in id order
+	 */
+	List<String> idsAfter(String accountId, int limit) throws SQLException {
+		selectIds.setString(1, accountId);
+		selectIds.setInt(2, limit);
+		List<String> ids = new ArrayList<>(limit);
+		try (ResultSet result = selectIds.executeQuery()) {
+			while (result.next()) {
+				ids.add(result.getString(1));
+			}
+		}
+		return ids;
+	}
+
+	void insert(String accountId, BigDecimal balance) throws SQLException {
+		bindInsert(accountId, balance);
+		insert.executeUpdate();
+	}
+
+	void addInsert(String accountId, BigDecimal balance) throws SQLException {
+		bindInsert(accountId, balance);
+		insert.addBatch();
+	}
+
+	int[] executeInserts() throws SQLException {
+		return insert.executeBatch();
+	}
+
+	/**
+	 * @return false if the account doesn't hold the amount or doesn't exist
+	 */
+	boolean debit(String accountId, BigDecimal amount) throws SQLException {
+		debit.setBigDecimal(1, amount);
+		debit.setString(2, accountId);
+		debit.setBigDecimal(3, amount);
+		return debit.executeUpdate() == 1;
+	}
+
+	/**
+	 * @return false if the account doesn't exist
+	 */
+	boolean credit(String accountId, BigDecimal amount) throws SQLException {
+		bindCredit(accountId, amount);
+		return credit.executeUpdate() == 1;
+	}
+
+	void addCredit(String accountId, BigDecimal amount) throws SQLException {
+		bindCredit(accountId, amount);
+		credit.addBatch();
+	}
+
+	int[] executeCredits() throws SQLException {
+		return credit.executeBatch();
+	}
+
+	boolean update(String accountId, BigDecimal balance) throws SQLException {
+		update.setBigDecimal(1, balance);
+		update.setString(2, accountId);
+		return update.executeUpdate() == 1;
+	}
+
+	void deleteAll() throws SQLException {
+		deleteAll.executeUpdate();
+	}
+
+	void commit() throws SQLException {
+		connection.commit();
+	}
+
+	/**
+	 * Rolls back after a failure, which is the one reported
+	 */
+	void rollbackQuietly() {
+		try {
+			insert.clearBatch();
+			credit.clearBatch();
+			connection.rollback();
+		} catch (SQLException e) {
+			// the connection is checked when it is given back
+		}
+	}
+
+	boolean isValid() {
+		try {
+			return !connection.isClosed();
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void close() throws SQLException {
+		connection.close();
+	}
+
+	private void bindInsert(String accountId, BigDecimal balance) throws SQLException {
+		insert.setString(1, accountId);
+		insert.setBigDecimal(2, balance);
+	}
+
+	private void bindCredit(String accountId, BigDecimal amount) throws SQLException {
+		credit.setBigDecimal(1, amount);
+		credit.setString(2, accountId);
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.db.awmd.challenge.repository.jdbc;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Credits to hot accounts not written to the database yet, added up per
+ * account: however many transfers credit a hot account between two
+ * flushes, the flush is a single update of it.
+ *
+ */
+class WriteBehindCredits {
+
+	/** one entry per hot account, the map itself never changes */
+	private final Map<String, Pending> pending = new HashMap<>();
+
+	private final LongAdder coalesced = new LongAdder();
+
+	WriteBehindCredits(Set<String> accountIds) {
+		for (String accountId : accountIds) {
+			pending.put(accountId, new Pending());
+		}
+	}
+
+	boolean isWrittenBehind(String accountId) {
+		return pending.containsKey(accountId);
+	}
+
+	void add(String accountId, BigDecimal amount) {
+		pending.get(accountId).add(amount);
+		coalesced.increment();
+	}
+
+	/**
+	 * Gives back credits taken out by {@link #drain} and not written after all
+	 */
+	void restore(String accountId, BigDecimal amount) {
+		if (amount.signum() != 0) {
+			pending.get(accountId).add(amount);
+		}
+	}
+
+	/**
+	 * @return the credits of the account not written yet, zero if it isn't a hot account
+	 */
+	BigDecimal peek(String accountId) {
+		Pending credits = pending.get(accountId);
+		return credits == null ? BigDecimal.ZERO : credits.peek();
+	}
+
+	/**
+	 * Takes out the credits of the account, for the caller to write
+	 * 
+	 * @return zero if there are none or it isn't a hot account
+	 */
+	BigDecimal drain(String accountId) {
+		Pending credits = pending.get(accountId);
+		return credits == null ? BigDecimal.ZERO : credits.drain();
+	}
+
+	/**
+	 * Takes out the credits of every hot account having some
+	 */
+	Map<String, BigDecimal> drainAll() {
+		Map<String, BigDecimal> drained = new HashMap<>();
+		for (Map.Entry<String, Pending> entry : pending.entrySet()) {
+			BigDecimal amount = entry.getValue().drain();
+			if (amount.signum() != 0) {
+				drained.put(entry.getKey(), amount);
+			}
+		}
+		return drained;
+	}
+
+	void clear() {
+		drainAll();
+	}
+
+	/**
+	 * @return the credits added up in memory instead of written one by one
+	 */
+	long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	private static class Pending {
+
+		private BigDecimal amount = BigDecimal.ZERO;
+
+		synchronized void add(BigDecimal credit) {
+			amount = amount.add(credit);
+		}
+
+		synchronized BigDecimal peek() {
+			return amount;
+		}
+
+		synchronized BigDecimal drain() {
+			BigDecimal drained = amount;
+			amount = BigDecimal.ZERO;
+			return drained;
+		}
+
+	}
+
+}
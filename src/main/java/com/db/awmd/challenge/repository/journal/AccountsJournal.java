@@ -0,0 +1,477 @@
+package com.db.awmd.challenge.repository.journal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only log of the changes made to the accounts, written through a
+ * {@link FileChannel} by a single writer thread. Every record gets a log
+ * sequence number (LSN) in append order. Records appended while the writer is
+ * busy are written together and share one fsync (group commit), following
+ * the configured {@link FsyncPolicy}. The appends of a group commit are
+ * completed on the completion threads, so what waits for durability
+ * (responses, notifications, metrics) never holds up the writer.
+ * <p>
+ * Record layout: payload length (int), LSN (long), payload, CRC32 of LSN and
+ * payload (int). A torn record at the end of the log, left by a crash in the
+ * middle of a write, is discarded when the log is opened.
+ * <p>
+ * The log is split in segment files named after the LSN of their first
+ * record. Only the last segment is written to; closed segments can be folded
+ * into a snapshot and deleted, see {@link JournalCompactor}.
+ *
+ */
+@Slf4j
+public class AccountsJournal implements Closeable {
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static final int FRAME_OVERHEAD = 4 + 8 + 4;
+
+	private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+	private static final long IDLE_POLL_MILLIS = 100;
+
+	private final Path directory;
+
+	private final JournalProperties properties;
+
+	private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+
+	private final Queue<CompletableFuture<Long>> rotations = new ConcurrentLinkedQueue<>();
+
+	private final LongAdder appended = new LongAdder();
+
+	private final LongAdder groupCommits = new LongAdder();
+
+	private final LongAdder fsyncs = new LongAdder();
+
+	private FileChannel channel;
+
+	private volatile Path activeSegment;
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+	private long nextLsn = 1;
+
+	private volatile IOException failure;
+
+	private volatile boolean running;
+
+	private Thread writer;
+
+	private ExecutorService completer;
+
+	public AccountsJournal(JournalProperties properties) throws IOException {
+		this.properties = properties;
+		this.directory = Paths.get(properties.getDirectory());
+		Files.createDirectories(this.directory);
+	}
+
+	/**
+	 * Replays, in order, every record of the log from the given LSN on, then
+	 * starts accepting appends.
+	 * 
+	 * @return the number of records replayed
+	 */
+	public synchronized long open(long fromLsn, Consumer<JournalRecord> consumer) throws IOException {
+		LongAdder replayed = new LongAdder();
+		List<Path> segments = segments();
+		nextLsn = Math.max(nextLsn, fromLsn);
+		for (int i = 0; i < segments.size(); i++) {
+			Path segment = segments.get(i);
+			nextLsn = Math.max(nextLsn, firstLsnOf(segment));
+			long lastLsn = replay(segment, i == segments.size() - 1, fromLsn, Long.MAX_VALUE, record -> {
+				replayed.increment();
+				consumer.accept(record);
+			});
+			nextLsn = Math.max(nextLsn, lastLsn + 1);
+		}
+		this.activeSegment = segments.isEmpty() ? segmentPath(nextLsn) : segments.get(segments.size() - 1);
+		this.channel = FileChannel.open(activeSegment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		this.channel.position(this.channel.size());
+
+		running = true;
+		AtomicInteger threads = new AtomicInteger();
+		completer = Executors.newFixedThreadPool(Math.max(1, properties.getCompletionThreads()), runnable -> {
+			Thread thread = new Thread(runnable, "accounts-journal-completer-" + threads.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		writer = new Thread(this::write, "accounts-journal-writer");
+		writer.setDaemon(true);
+		writer.start();
+		log.info("Accounts journal opened in {}, next LSN {}", directory, nextLsn);
+		return replayed.sum();
+	}
+
+	/**
+	 * Queues the record for the writer thread.
+	 *
+	 * @return completed with the LSN of the record once it is as durable as the fsync policy allows
+	 */
+	public CompletableFuture<Long> append(JournalRecord record) {
+		CompletableFuture<Long> future = new CompletableFuture<>();
+		if (failure != null) {
+			future.completeExceptionally(failure);
+			return future;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			record.writeTo(out);
+		} catch (IOException e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+		queue.add(new PendingRecord(bytes.toByteArray(), future));
+		if (failure != null) {
+			// the writer may have failed after the check above, nobody would complete the record
+			fail(new ArrayList<>(), failure);
+		}
+		return future;
+	}
+
+	/**
+	 * Closes the active segment and starts a new one.
+	 * 
+	 * @return completed with the first LSN of the new segment: every record
+	 * before it is in a closed segment
+	 */
+	public CompletableFuture<Long> rotate() {
+		CompletableFuture<Long> future = new CompletableFuture<>();
+		rotations.add(future);
+		return future;
+	}
+
+	/**
+	 * Reads the records of the closed segments with an LSN in [fromLsn, toLsn).
+	 * It doesn't interfere with appends, which only touch the active segment.
+	 */
+	public void replayClosed(long fromLsn, long toLsn, Consumer<JournalRecord> consumer) throws IOException {
+		Path active = this.activeSegment;
+		for (Path segment : segments()) {
+			if (!segment.equals(active) && firstLsnOf(segment) < toLsn) {
+				replay(segment, false, fromLsn, toLsn, consumer);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the closed segments holding only records before the given LSN.
+	 * 
+	 * @return the number of deleted segments
+	 */
+	public int deleteClosedBefore(long lsn) throws IOException {
+		Path active = this.activeSegment;
+		List<Path> segments = segments();
+		int deleted = 0;
+		for (int i = 0; i + 1 < segments.size(); i++) {
+			Path segment = segments.get(i);
+			if (!segment.equals(active) && firstLsnOf(segments.get(i + 1)) <= lsn) {
+				Files.delete(segment);
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * @return why the writer stopped, or null while it accepts appends
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+
+	public long getAppended() {
+		return appended.sum();
+	}
+
+	public long getGroupCommits() {
+		return groupCommits.sum();
+	}
+
+	public long getFsyncs() {
+		return fsyncs.sum();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		running = false;
+		if (writer != null) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			writer = null;
+		}
+		if (failure == null) {
+			// appends after close would never complete
+			fail(new ArrayList<>(), new IOException("Journal closed"));
+		}
+		if (completer != null) {
+			// the durable appends are completed before close returns
+			completer.shutdown();
+			try {
+				completer.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			completer = null;
+		}
+		if (channel != null && channel.isOpen()) {
+			channel.force(false);
+			channel.close();
+		}
+	}
+
+	private void write() {
+		FsyncPolicy policy = properties.getFsyncPolicy();
+		long intervalNanos = TimeUnit.MILLISECONDS.toNanos(properties.getFsyncIntervalMillis());
+		long pollMillis = policy == FsyncPolicy.INTERVAL ? properties.getFsyncIntervalMillis() : IDLE_POLL_MILLIS;
+		List<PendingRecord> batch = new ArrayList<>();
+		long lastForce = System.nanoTime();
+		boolean unforced = false;
+
+		while (running || !queue.isEmpty()) {
+			try {
+				PendingRecord first = queue.poll(pollMillis, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					long bytes = first.payload.length;
+					PendingRecord next;
+					while (bytes < properties.getMaxBatchBytes() && (next = queue.poll()) != null) {
+						batch.add(next);
+						bytes += next.payload.length;
+					}
+					writeBatch(batch);
+					unforced = true;
+				}
+				if (unforced && (policy == FsyncPolicy.EVERY_COMMIT
+						|| (policy == FsyncPolicy.INTERVAL && System.nanoTime() - lastForce >= intervalNanos))) {
+					channel.force(false);
+					fsyncs.increment();
+					lastForce = System.nanoTime();
+					unforced = false;
+				}
+				if (!batch.isEmpty()) {
+					complete(new ArrayList<>(batch));
+					batch.clear();
+				}
+				CompletableFuture<Long> rotation;
+				while ((rotation = rotations.poll()) != null) {
+					rotateSegment();
+					unforced = false;
+					rotation.complete(nextLsn);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				fail(batch, new IOException("Journal writer interrupted"));
+				return;
+			} catch (IOException e) {
+				log.error("Accounts journal failed, no more changes will be accepted", e);
+				fail(batch, e);
+				return;
+			} finally {
+				batch.clear();
+			}
+		}
+		CompletableFuture<Long> rotation;
+		while ((rotation = rotations.poll()) != null) {
+			rotation.completeExceptionally(new IOException("Journal closed"));
+		}
+	}
+
+	private void rotateSegment() throws IOException {
+		if (channel.size() == 0) {
+			return;
+		}
+		channel.force(false);
+		channel.close();
+		activeSegment = segmentPath(nextLsn);
+		channel = FileChannel.open(activeSegment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		log.info("Accounts journal rotated to {}", activeSegment);
+	}
+
+	private void writeBatch(List<PendingRecord> batch) throws IOException {
+		int size = 0;
+		for (PendingRecord record : batch) {
+			size += FRAME_OVERHEAD + record.payload.length;
+		}
+		if (buffer.capacity() < size) {
+			buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(size) << 1);
+		}
+		buffer.clear();
+		CRC32 crc = new CRC32();
+		byte[] lsnBytes = new byte[8];
+		for (PendingRecord record : batch) {
+			record.lsn = nextLsn++;
+			ByteBuffer.wrap(lsnBytes).putLong(record.lsn);
+			crc.reset();
+			crc.update(lsnBytes);
+			crc.update(record.payload);
+			buffer.putInt(record.payload.length).put(lsnBytes).put(record.payload).putInt((int) crc.getValue());
+		}
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		appended.add(batch.size());
+		groupCommits.increment();
+	}
+
+	/**
+	 * Completes the appends of a group commit off the writer thread
+	 */
+	private void complete(List<PendingRecord> durable) {
+		completer.execute(() -> {
+			for (PendingRecord record : durable) {
+				record.future.complete(record.lsn);
+			}
+		});
+	}
+
+	/**
+	 * Failed appends are completed right away, the writer stops anyway
+	 */
+	private void fail(List<PendingRecord> batch, IOException e) {
+		failure = e;
+		running = false;
+		for (PendingRecord record : batch) {
+			record.future.completeExceptionally(e);
+		}
+		PendingRecord record;
+		while ((record = queue.poll()) != null) {
+			record.future.completeExceptionally(e);
+		}
+		CompletableFuture<Long> rotation;
+		while ((rotation = rotations.poll()) != null) {
+			rotation.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * @return the LSN of the last valid record of the segment, 0 if there is none
+	 */
+	private long replay(Path segment, boolean last, long fromLsn, long toLsn, Consumer<JournalRecord> consumer)
+			throws IOException {
+		long validLength = 0;
+		long records = 0;
+		long lastLsn = 0;
+		CRC32 crc = new CRC32();
+		try (InputStream stream = Files.newInputStream(segment);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024))) {
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				byte[] lsnBytes = new byte[8];
+				byte[] payload;
+				int checksum;
+				try {
+					if (length < 0 || length > MAX_RECORD_BYTES) {
+						throw new EOFException("Invalid record length " + length);
+					}
+					in.readFully(lsnBytes);
+					payload = new byte[length];
+					in.readFully(payload);
+					checksum = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				crc.reset();
+				crc.update(lsnBytes);
+				crc.update(payload);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				long lsn = ByteBuffer.wrap(lsnBytes).getLong();
+				if (lsn >= fromLsn && lsn < toLsn) {
+					consumer.accept(JournalRecord.readFrom(new DataInputStream(new ByteArrayInputStream(payload))));
+					records++;
+				}
+				lastLsn = lsn;
+				validLength += FRAME_OVERHEAD + length;
+			}
+		}
+		long size = Files.size(segment);
+		if (validLength < size) {
+			if (!last) {
+				throw new IOException("Journal segment " + segment + " is corrupted at offset " + validLength);
+			}
+			log.warn("Discarding {} bytes of torn record at the end of {}", size - validLength, segment);
+			try (FileChannel truncate = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+				truncate.truncate(validLength);
+			}
+		}
+		log.debug("Replayed {} records from {}", records, segment);
+		return lastLsn;
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static long firstLsnOf(Path segment) {
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private Path segmentPath(long firstLsn) {
+		return directory.resolve(String.format("%020d%s", firstLsn, SEGMENT_SUFFIX));
+	}
+
+	private static class PendingRecord {
+
+		private final byte[] payload;
+
+		private final CompletableFuture<Long> future;
+
+		private long lsn;
+
+		PendingRecord(byte[] payload, CompletableFuture<Long> future) {
+			this.payload = payload;
+			this.future = future;
+		}
+
+	}
+
+}
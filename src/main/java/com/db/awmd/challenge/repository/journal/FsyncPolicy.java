@@ -0,0 +1,26 @@
+package com.db.awmd.challenge.repository.journal;
+
+/**
+ * When the journal forces written records to disk, trading latency for durability
+ *
+ */
+public enum FsyncPolicy {
+
+	/**
+	 * Every change is on disk before it is acknowledged. Changes waiting together
+	 * share a single fsync (group commit).
+	 */
+	EVERY_COMMIT,
+
+	/**
+	 * Changes are acknowledged once written and forced to disk every interval,
+	 * a crash may lose the last interval.
+	 */
+	INTERVAL,
+
+	/**
+	 * The operating system decides when written changes reach the disk
+	 */
+	OS
+
+}
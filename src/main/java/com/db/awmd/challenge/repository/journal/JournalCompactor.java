@@ -0,0 +1,149 @@
+package com.db.awmd.challenge.repository.journal;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Periodically folds the closed journal segments into a new snapshot and
+ * deletes them, so restarts only replay what was written after it.
+ * <p>
+ * The snapshot is built from the previous snapshot and the closed segments,
+ * never from the live accounts: the journal is rotated, which only briefly
+ * involves the writer thread, and everything else happens on the compactor
+ * thread while transfers keep going.
+ *
+ */
+@Slf4j
+public class JournalCompactor {
+
+	private final AccountsJournal journal;
+
+	private final SnapshotStore snapshotStore;
+
+	private final JournalProperties properties;
+
+	private ScheduledExecutorService scheduler;
+
+	private long lastAppended;
+
+	private volatile long snapshots;
+
+	private volatile long lastSnapshotLsn;
+
+	private volatile long lastSnapshotMillis;
+
+	private volatile long lastSnapshotBytes;
+
+	private volatile long lastSnapshotAccounts;
+
+	private volatile long deletedSegments;
+
+	public JournalCompactor(AccountsJournal journal, SnapshotStore snapshotStore, JournalProperties properties) {
+		this.journal = journal;
+		this.snapshotStore = snapshotStore;
+		this.properties = properties;
+	}
+
+	public void start() {
+		long interval = properties.getSnapshotIntervalSeconds();
+		if (interval <= 0) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "accounts-journal-compactor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				if (journal.getAppended() - lastAppended >= properties.getSnapshotMinRecords()) {
+					compact();
+				}
+			} catch (Exception e) {
+				log.error("Journal compaction failed, it will be retried", e);
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	public void close() throws InterruptedException {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+	/**
+	 * Writes a snapshot covering every record written so far and deletes the
+	 * segments and snapshots it makes obsolete.
+	 */
+	public synchronized void compact() throws IOException {
+		long start = System.nanoTime();
+		lastAppended = journal.getAppended();
+		long boundary = journal.rotate().join();
+
+		Map<String, BigDecimal> balances = new HashMap<>();
+		long snapshotLsn = snapshotStore.loadLatest(balances::put);
+		if (snapshotLsn >= boundary - 1) {
+			return;
+		}
+		journal.replayClosed(snapshotLsn + 1, boundary, record -> apply(balances, record));
+
+		lastSnapshotBytes = snapshotStore.write(boundary - 1, balances);
+		snapshotStore.deleteBefore(boundary - 1);
+		deletedSegments += journal.deleteClosedBefore(boundary);
+
+		lastSnapshotLsn = boundary - 1;
+		lastSnapshotAccounts = balances.size();
+		lastSnapshotMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		snapshots++;
+		log.info("Snapshot of {} accounts up to LSN {} written in {} ms ({} bytes)", balances.size(), lastSnapshotLsn,
+				lastSnapshotMillis, lastSnapshotBytes);
+	}
+
+	public long getSnapshots() {
+		return snapshots;
+	}
+
+	public long getLastSnapshotLsn() {
+		return lastSnapshotLsn;
+	}
+
+	public long getLastSnapshotMillis() {
+		return lastSnapshotMillis;
+	}
+
+	public long getLastSnapshotBytes() {
+		return lastSnapshotBytes;
+	}
+
+	public long getLastSnapshotAccounts() {
+		return lastSnapshotAccounts;
+	}
+
+	public long getDeletedSegments() {
+		return deletedSegments;
+	}
+
+	private static void apply(Map<String, BigDecimal> balances, JournalRecord record) {
+		switch (record.getType()) {
+		case CREATE:
+			balances.put(record.getAccountId(), record.getAmount());
+			break;
+		case TRANSFER:
+			balances.merge(record.getAccountId(), record.getAmount().negate(), BigDecimal::add);
+			balances.merge(record.getAccountIdTo(), record.getAmount(), BigDecimal::add);
+			break;
+		case CLEAR:
+			balances.clear();
+			break;
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package com.db.awmd.challenge.repository.journal;
+
+import java.io.IOException;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import com.db.awmd.challenge.repository.AccountsRepository;
+
+/**
+ * Wraps the configured repository with the journal when accounts.journal.enabled is set.
+ * The JDBC repository is durable on its own, replaying the journal into it would
+ * apply every change twice.
+ *
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "accounts.journal", name = "enabled", havingValue = "true")
+public class JournalConfiguration {
+
+	@Bean
+	public AccountsJournal accountsJournal(JournalProperties properties,
+			@Value("${accounts.repository:IN_MEMORY}") String repository) throws IOException {
+		if ("JDBC".equals(repository)) {
+			throw new IllegalStateException("The JDBC repository keeps its changes itself, "
+					+ "disable accounts.journal with the JDBC repository");
+		}
+		return new AccountsJournal(properties);
+	}
+
+	@Bean
+	public SnapshotStore snapshotStore(JournalProperties properties) throws IOException {
+		return new SnapshotStore(properties);
+	}
+
+	@Bean
+	@Primary
+	public JournaledAccountsRepository journaledAccountsRepository(@Qualifier("accountsStore") AccountsRepository accountsStore,
+			AccountsJournal accountsJournal, SnapshotStore snapshotStore) throws IOException {
+		return new JournaledAccountsRepository(accountsStore, accountsJournal, snapshotStore);
+	}
+
+	/**
+	 * Depends on the repository so the journal is opened before the first compaction
+	 */
+	@Bean(initMethod = "start", destroyMethod = "close")
+	public JournalCompactor journalCompactor(JournaledAccountsRepository journaledAccountsRepository,
+			AccountsJournal accountsJournal, SnapshotStore snapshotStore, JournalProperties properties) {
+		return new JournalCompactor(accountsJournal, snapshotStore, properties);
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.db.awmd.challenge.repository.journal;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of the accounts journal
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.journal")
+public class JournalProperties {
+
+	private boolean enabled = false;
+
+	private String directory = "data/journal";
+
+	private FsyncPolicy fsyncPolicy = FsyncPolicy.EVERY_COMMIT;
+
+	private long fsyncIntervalMillis = 10;
+
+	/**
+	 * Upper bound of the bytes written by one group commit
+	 */
+	private int maxBatchBytes = 1024 * 1024;
+
+	/**
+	 * Threads completing the durable appends, running what waited for them
+	 */
+	private int completionThreads = 2;
+
+	/**
+	 * How often the journal is compacted into a snapshot, 0 to disable it
+	 */
+	private long snapshotIntervalSeconds = 300;
+
+	/**
+	 * Records that must have been written since the last snapshot to take a new one
+	 */
+	private long snapshotMinRecords = 10_000;
+
+}
@@ -0,0 +1,76 @@
+package com.db.awmd.challenge.repository.journal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import lombok.Data;
+
+/**
+ * Change to the accounts written to the journal, replayed in order on startup
+ *
+ */
+@Data
+public class JournalRecord {
+
+	public enum Type {
+		CREATE, TRANSFER, CLEAR
+	}
+
+	private final Type type;
+
+	/**
+	 * Created account, or the account money is taken from
+	 */
+	private final String accountId;
+
+	private final String accountIdTo;
+
+	/**
+	 * Initial balance, or amount transferred
+	 */
+	private final BigDecimal amount;
+
+	public static JournalRecord create(String accountId, BigDecimal balance) {
+		return new JournalRecord(Type.CREATE, accountId, null, balance);
+	}
+
+	public static JournalRecord transfer(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+		return new JournalRecord(Type.TRANSFER, accountIdFrom, accountIdTo, amount);
+	}
+
+	public static JournalRecord clear() {
+		return new JournalRecord(Type.CLEAR, null, null, null);
+	}
+
+	void writeTo(DataOutput out) throws IOException {
+		out.writeByte(type.ordinal());
+		switch (type) {
+		case CREATE:
+			out.writeUTF(accountId);
+			out.writeUTF(amount.toPlainString());
+			break;
+		case TRANSFER:
+			out.writeUTF(accountId);
+			out.writeUTF(accountIdTo);
+			out.writeUTF(amount.toPlainString());
+			break;
+		case CLEAR:
+			break;
+		}
+	}
+
+	static JournalRecord readFrom(DataInput in) throws IOException {
+		Type type = Type.values()[in.readByte()];
+		switch (type) {
+		case CREATE:
+			return create(in.readUTF(), new BigDecimal(in.readUTF()));
+		case TRANSFER:
+			return transfer(in.readUTF(), in.readUTF(), new BigDecimal(in.readUTF()));
+		default:
+			return clear();
+		}
+	}
+
+}
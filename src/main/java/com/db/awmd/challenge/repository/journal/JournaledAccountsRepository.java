@@ -0,0 +1,272 @@
+package com.db.awmd.challenge.repository.journal;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.JournalException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Makes the changes of another repository survive restarts. Every successful
+ * change is appended to the {@link AccountsJournal} and only returns once the
+ * journal says it is durable, so a change is never acknowledged and then
+ * lost. On startup the latest snapshot is loaded into the wrapped repository
+ * and only the journal records written after it are replayed; a record that
+ * doesn't apply fails the startup.
+ * <p>
+ * Once the journal fails no change is accepted any more, each is refused
+ * before it touches the wrapped repository. Changes in flight when it
+ * failed stay applied in memory, answered as not durable, until the restart
+ * rebuilds the accounts from the journal.
+ *
+ */
+@Slf4j
+public class JournaledAccountsRepository implements AccountsRepository {
+
+	private final AccountsRepository delegate;
+
+	private final AccountsJournal journal;
+
+	private final long snapshotLoadMillis;
+
+	private final long replayMillis;
+
+	private final long restoredAccounts;
+
+	private final long replayedRecords;
+
+	public JournaledAccountsRepository(AccountsRepository delegate, AccountsJournal journal, SnapshotStore snapshotStore)
+			throws IOException {
+		this.delegate = delegate;
+		this.journal = journal;
+
+		long start = System.nanoTime();
+		LongAdder accounts = new LongAdder();
+		long snapshotLsn = snapshotStore.loadLatest((accountId, balance) -> {
+			this.delegate.createAccount(new Account(accountId, balance));
+			accounts.increment();
+		});
+		long loaded = System.nanoTime();
+		this.replayedRecords = journal.open(snapshotLsn + 1, this::replay);
+		long replayed = System.nanoTime();
+
+		this.restoredAccounts = accounts.sum();
+		this.snapshotLoadMillis = TimeUnit.NANOSECONDS.toMillis(loaded - start);
+		this.replayMillis = TimeUnit.NANOSECONDS.toMillis(replayed - loaded);
+		log.info("Accounts restored in {} ms: {} accounts from snapshot in {} ms, {} journal records in {} ms",
+				snapshotLoadMillis + replayMillis, restoredAccounts, snapshotLoadMillis, replayedRecords, replayMillis);
+	}
+
+	public long getStartupMillis() {
+		return this.snapshotLoadMillis + this.replayMillis;
+	}
+
+	public long getSnapshotLoadMillis() {
+		return this.snapshotLoadMillis;
+	}
+
+	public long getReplayMillis() {
+		return this.replayMillis;
+	}
+
+	public long getRestoredAccounts() {
+		return this.restoredAccounts;
+	}
+
+	public long getReplayedRecords() {
+		return this.replayedRecords;
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		checkWritable();
+		this.delegate.createAccount(account);
+		await(this.journal.append(JournalRecord.create(account.getAccountId(), account.getBalance())));
+	}
+
+	/**
+	 * Appends all created accounts before waiting, so a chunk costs a single group commit.
+	 */
+	@Override
+	public List<DuplicateAccountIdException> createAccounts(List<Account> accounts) {
+		checkWritable();
+		List<DuplicateAccountIdException> duplicates = this.delegate.createAccounts(accounts);
+		CompletableFuture<Long> last = null;
+		for (int i = 0; i < accounts.size(); i++) {
+			if (duplicates.get(i) == null) {
+				Account account = accounts.get(i);
+				last = this.journal.append(JournalRecord.create(account.getAccountId(), account.getBalance()));
+			}
+		}
+		if (last != null) {
+			await(last);
+		}
+		return duplicates;
+	}
+
+	@Override
+	public void checkAccountId(String accountId) throws TransactionException {
+		this.delegate.checkAccountId(accountId);
+	}
+
+	@Override
+	public void checkAmount(BigDecimal amount) throws TransactionException {
+		this.delegate.checkAmount(amount);
+	}
+
+	@Override
+	public Account getAccount(String accountId) throws AccountNotFoundException {
+		return this.delegate.getAccount(accountId);
+	}
+
+	@Override
+	public Account findAccount(String accountId) {
+		return this.delegate.findAccount(accountId);
+	}
+
+	@Override
+	public void forEachAccount(Consumer<Account> action) {
+		this.delegate.forEachAccount(action);
+	}
+
+	@Override
+	public void clearAccounts() {
+		checkWritable();
+		this.delegate.clearAccounts();
+		await(this.journal.append(JournalRecord.clear()));
+	}
+
+	/**
+	 * Called with the accounts locked, so the journal order of conflicting
+	 * transfers is the order they were applied in, except for deposits to hot
+	 * accounts which are made without their lock. Replay doesn't depend on
+	 * that order, see {@link #replay(JournalRecord)}.
+	 */
+	@Override
+	public void transfer(Account accountFrom, Account accountTo, BigDecimal amount) throws TransactionException {
+		checkWritable();
+		this.delegate.transfer(accountFrom, accountTo, amount);
+		await(this.journal.append(JournalRecord.transfer(accountFrom.getAccountId(), accountTo.getAccountId(), amount)));
+	}
+
+	/**
+	 * Appended before the accounts are unlocked, so the journal keeps the
+	 * order of conflicting transfers while nobody waits for the fsync under
+	 * the locks. A transfer depending on one not yet durable is appended
+	 * after it, a crash can't keep the second and lose the first.
+	 */
+	@Override
+	public CompletableFuture<Long> transferAsync(Account accountFrom, Account accountTo, BigDecimal amount)
+			throws TransactionException {
+		checkWritable();
+		this.delegate.transfer(accountFrom, accountTo, amount);
+		CompletableFuture<Long> durable = new CompletableFuture<>();
+		this.journal.append(JournalRecord.transfer(accountFrom.getAccountId(), accountTo.getAccountId(), amount))
+				.whenComplete((lsn, e) -> {
+					if (e == null) {
+						durable.complete(lsn);
+					} else {
+						durable.completeExceptionally(new JournalException("Change applied but not made durable",
+								e instanceof CompletionException ? e.getCause() : e));
+					}
+				});
+		return durable;
+	}
+
+	/**
+	 * Same as {@link #transferAsync(Account, Account, BigDecimal)}, a refused
+	 * transfer isn't journaled
+	 */
+	@Override
+	public CompletableFuture<TransferRejection> tryTransferAsync(Account accountFrom, Account accountTo,
+			BigDecimal amount) throws TransactionException {
+		checkWritable();
+		TransferRejection rejection = this.delegate.tryTransfer(accountFrom, accountTo, amount);
+		if (rejection != null) {
+			return rejection.future();
+		}
+		CompletableFuture<TransferRejection> durable = new CompletableFuture<>();
+		this.journal.append(JournalRecord.transfer(accountFrom.getAccountId(), accountTo.getAccountId(), amount))
+				.whenComplete((lsn, e) -> {
+					if (e == null) {
+						durable.complete(null);
+					} else {
+						durable.completeExceptionally(new JournalException("Change applied but not made durable",
+								e instanceof CompletionException ? e.getCause() : e));
+					}
+				});
+		return durable;
+	}
+
+	/**
+	 * Doesn't wait for durability, the caller gets the future instead
+	 */
+	@Override
+	public CompletableFuture<?> transferApplied(Account accountFrom, Account accountTo, BigDecimal amount) {
+		return this.journal.append(JournalRecord.transfer(accountFrom.getAccountId(), accountTo.getAccountId(), amount));
+	}
+
+	/**
+	 * @throws JournalException once the journal failed
+	 */
+	@Override
+	public void checkWritable() throws JournalException {
+		IOException failure = this.journal.getFailure();
+		if (failure != null) {
+			throw new JournalException("Accounts journal failed, no more changes are accepted", failure, false);
+		}
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		this.journal.close();
+	}
+
+	private void replay(JournalRecord record) {
+		try {
+			switch (record.getType()) {
+			case CREATE:
+				this.delegate.createAccount(new Account(record.getAccountId(), record.getAmount()));
+				break;
+			case TRANSFER:
+				// only successful transfers are journaled, applying them without the overdraft
+				// check gives the same balances whatever order concurrent ones were appended in
+				Account accountFrom = this.delegate.getAccount(record.getAccountId());
+				Account accountTo = this.delegate.getAccount(record.getAccountIdTo());
+				accountFrom.setBalance(accountFrom.getBalance().subtract(record.getAmount()));
+				accountTo.setBalance(accountTo.getBalance().add(record.getAmount()));
+				break;
+			case CLEAR:
+				this.delegate.clearAccounts();
+				break;
+			}
+		} catch (DuplicateAccountIdException | AccountNotFoundException | TransactionException e) {
+			// only successful changes are journaled, a failure means the journal doesn't match the state
+			throw new IllegalStateException("Journal record " + record + " can't be replayed, the journal doesn't match the accounts", e);
+		}
+	}
+
+	private void await(CompletableFuture<Long> durable) {
+		try {
+			durable.join();
+		} catch (CompletionException e) {
+			throw new JournalException("Change applied but not made durable", e.getCause());
+		}
+	}
+
+}
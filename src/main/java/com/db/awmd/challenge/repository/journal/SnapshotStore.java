@@ -0,0 +1,159 @@
+package com.db.awmd.challenge.repository.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Point-in-time copies of every account balance, stored next to the journal.
+ * A snapshot named after LSN n holds the state once every record up to n is
+ * applied, so a restart only replays the records after it.
+ * <p>
+ * Binary layout: magic (int), version (int), LSN (long), account count (int),
+ * then for every account its id (short length and UTF-8 bytes), the balance
+ * scale (short) and unscaled value (byte length and two's-complement bytes),
+ * and a final CRC32 of everything before it (int).
+ *
+ */
+@Slf4j
+public class SnapshotStore {
+
+	private static final int MAGIC = 0x41434e53;
+
+	private static final int VERSION = 1;
+
+	private static final String SUFFIX = ".snapshot";
+
+	private final Path directory;
+
+	public SnapshotStore(JournalProperties properties) throws IOException {
+		this.directory = Paths.get(properties.getDirectory());
+		Files.createDirectories(this.directory);
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file first, so a crash never leaves a
+	 * partial snapshot behind.
+	 * 
+	 * @return the size of the snapshot in bytes
+	 */
+	public long write(long lsn, Map<String, BigDecimal> balances) throws IOException {
+		Path temporary = directory.resolve(String.format("%020d%s.tmp", lsn, SUFFIX));
+		CRC32 crc = new CRC32();
+		try (OutputStream file = Files.newOutputStream(temporary);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc), 64 * 1024))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(lsn);
+			out.writeInt(balances.size());
+			for (Map.Entry<String, BigDecimal> entry : balances.entrySet()) {
+				byte[] accountId = entry.getKey().getBytes(StandardCharsets.UTF_8);
+				byte[] unscaled = entry.getValue().unscaledValue().toByteArray();
+				out.writeShort(accountId.length);
+				out.write(accountId);
+				out.writeShort(entry.getValue().scale());
+				out.writeByte(unscaled.length);
+				out.write(unscaled);
+			}
+			out.flush();
+			out.writeInt((int) crc.getValue());
+		}
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		Path snapshot = directory.resolve(String.format("%020d%s", lsn, SUFFIX));
+		Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE);
+		return Files.size(snapshot);
+	}
+
+	/**
+	 * Reads the latest snapshot through a memory-mapped file.
+	 * 
+	 * @return the LSN of the snapshot, 0 if there is none
+	 */
+	public long loadLatest(BiConsumer<String, BigDecimal> consumer) throws IOException {
+		List<Path> snapshots = snapshots();
+		if (snapshots.isEmpty()) {
+			return 0;
+		}
+		Path latest = snapshots.get(snapshots.size() - 1);
+		try (FileChannel channel = FileChannel.open(latest, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			verify(latest, buffer);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException("Unsupported snapshot " + latest);
+			}
+			long lsn = buffer.getLong();
+			int count = buffer.getInt();
+			for (int i = 0; i < count; i++) {
+				byte[] accountId = new byte[buffer.getShort() & 0xffff];
+				buffer.get(accountId);
+				int scale = buffer.getShort();
+				byte[] unscaled = new byte[buffer.get() & 0xff];
+				buffer.get(unscaled);
+				consumer.accept(new String(accountId, StandardCharsets.UTF_8), new BigDecimal(new BigInteger(unscaled), scale));
+			}
+			log.info("Loaded {} accounts from snapshot {}", count, latest);
+			return lsn;
+		}
+	}
+
+	/**
+	 * Deletes every snapshot older than the given LSN.
+	 */
+	public void deleteBefore(long lsn) throws IOException {
+		for (Path snapshot : snapshots()) {
+			if (lsnOf(snapshot) < lsn) {
+				Files.delete(snapshot);
+			}
+		}
+	}
+
+	private static void verify(Path snapshot, ByteBuffer buffer) throws IOException {
+		if (buffer.limit() < 4) {
+			throw new IOException("Truncated snapshot " + snapshot);
+		}
+		CRC32 crc = new CRC32();
+		ByteBuffer content = buffer.duplicate();
+		content.limit(buffer.limit() - 4);
+		crc.update(content);
+		if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+			throw new IOException("Corrupted snapshot " + snapshot);
+		}
+	}
+
+	private List<Path> snapshots() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static long lsnOf(Path snapshot) {
+		String name = snapshot.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+	}
+
+}
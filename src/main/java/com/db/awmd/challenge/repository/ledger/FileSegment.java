@@ -0,0 +1,205 @@
+package com.db.awmd.challenge.repository.ledger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Ledger segment rolled to disk: a data file holding the entries one after
+ * the other and an index file holding, for every account, the id,
+ * timestamp and data file offset of each of its entries. A query loads the
+ * index and reads only the entries it returns.
+ * <p>
+ * Index layout: magic (int), version (int), first and last id (long),
+ * first and last timestamp (long), account count (int), then for every
+ * account its id (UTF), entry count (int) and for each entry its id
+ * (long), timestamp (long) and offset (int). The index is written last, a
+ * data file without one is a segment whose rolling didn't complete.
+ *
+ */
+class FileSegment {
+
+	static final String DATA_SUFFIX = ".ledger";
+
+	static final String INDEX_SUFFIX = ".index";
+
+	private static final int MAGIC = 0x4c444752;
+
+	private static final int VERSION = 1;
+
+	private final Path data;
+
+	@Getter
+	private final Path index;
+
+	@Getter
+	private final long firstId;
+
+	@Getter
+	private final long lastId;
+
+	@Getter
+	private final long firstTimestamp;
+
+	@Getter
+	private final long lastTimestamp;
+
+	private FileSegment(Path data, Path index, long firstId, long lastId, long firstTimestamp, long lastTimestamp) {
+		this.data = data;
+		this.index = index;
+		this.firstId = firstId;
+		this.lastId = lastId;
+		this.firstTimestamp = firstTimestamp;
+		this.lastTimestamp = lastTimestamp;
+	}
+
+	/**
+	 * Writes the segment, data first, and forces both files to disk
+	 */
+	static FileSegment write(Path directory, MemorySegment segment) throws IOException {
+		String name = String.format("%020d", segment.firstId());
+		Path data = directory.resolve(name + DATA_SUFFIX);
+		int[] offsets = new int[segment.size()];
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(data), 64 * 1024))) {
+			for (int i = 0; i < segment.size(); i++) {
+				offsets[i] = out.size();
+				segment.get(i).writeTo(out);
+			}
+		}
+		force(data);
+
+		LedgerEntry first = segment.get(0);
+		LedgerEntry last = segment.get(segment.size() - 1);
+		Path temporary = directory.resolve(name + INDEX_SUFFIX + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(first.getId());
+			out.writeLong(last.getId());
+			out.writeLong(first.getTimestamp());
+			out.writeLong(last.getTimestamp());
+			out.writeInt(segment.index().size());
+			for (Map.Entry<String, MemorySegment.Positions> account : segment.index().entrySet()) {
+				MemorySegment.Positions positions = account.getValue();
+				out.writeUTF(account.getKey());
+				out.writeInt(positions.size);
+				for (int i = 0; i < positions.size; i++) {
+					LedgerEntry entry = segment.get(positions.values[i]);
+					out.writeLong(entry.getId());
+					out.writeLong(entry.getTimestamp());
+					out.writeInt(offsets[positions.values[i]]);
+				}
+			}
+		}
+		force(temporary);
+		Path index = directory.resolve(name + INDEX_SUFFIX);
+		Files.move(temporary, index, StandardCopyOption.ATOMIC_MOVE);
+		return new FileSegment(data, index, first.getId(), last.getId(), first.getTimestamp(), last.getTimestamp());
+	}
+
+	/**
+	 * Opens a segment written before, reading only the header of its index
+	 */
+	static FileSegment open(Path index) throws IOException {
+		String name = index.getFileName().toString();
+		Path data = index.resolveSibling(name.substring(0, name.length() - INDEX_SUFFIX.length()) + DATA_SUFFIX);
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(index))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unsupported ledger segment " + index);
+			}
+			return new FileSegment(data, index, in.readLong(), in.readLong(), in.readLong(), in.readLong());
+		}
+	}
+
+	/**
+	 * @return the entries of every account in the segment
+	 */
+	Map<String, AccountIndex> readIndex() throws IOException {
+		try (InputStream file = Files.newInputStream(index);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(file, 64 * 1024))) {
+			// header, already known
+			in.skipBytes(4 + 4 + 8 + 8 + 8 + 8);
+			int accounts = in.readInt();
+			Map<String, AccountIndex> entries = new HashMap<>(accounts * 4 / 3 + 1);
+			for (int i = 0; i < accounts; i++) {
+				String accountId = in.readUTF();
+				AccountIndex account = new AccountIndex(in.readInt());
+				for (int j = 0; j < account.ids.length; j++) {
+					account.ids[j] = in.readLong();
+					account.timestamps[j] = in.readLong();
+					account.offsets[j] = in.readInt();
+				}
+				entries.put(accountId, account);
+			}
+			return entries;
+		}
+	}
+
+	/**
+	 * Same as {@link MemorySegment#collect}, given the account's index
+	 */
+	void collect(AccountIndex account, long beforeId, long since, long until, int limit, List<LedgerEntry> out)
+			throws IOException {
+		int low = 0;
+		int high = account.ids.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (account.ids[middle] < beforeId) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		try (RandomAccessFile file = new RandomAccessFile(data.toFile(), "r")) {
+			for (int i = high; i >= 0 && out.size() < limit; i--) {
+				if (account.timestamps[i] < since) {
+					return;
+				}
+				if (account.timestamps[i] < until) {
+					file.seek(account.offsets[i]);
+					out.add(LedgerEntry.readFrom(file));
+				}
+			}
+		}
+	}
+
+	static void force(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Entries of one account in a rolled segment, in id order
+	 */
+	static final class AccountIndex {
+
+		final long[] ids;
+
+		final long[] timestamps;
+
+		final int[] offsets;
+
+		AccountIndex(int entries) {
+			this.ids = new long[entries];
+			this.timestamps = new long[entries];
+			this.offsets = new int[entries];
+		}
+
+	}
+
+}
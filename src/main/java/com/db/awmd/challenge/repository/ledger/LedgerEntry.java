@@ -0,0 +1,66 @@
+package com.db.awmd.challenge.repository.ledger;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import lombok.Data;
+
+/**
+ * A transfer as recorded by the ledger, with the balances it left both
+ * accounts with. If partitioned, the balance of an account kept by another
+ * node is null, each node records its own leg of the transfer.
+ *
+ */
+@Data
+public class LedgerEntry {
+
+	/**
+	 * Increasing in the order transfers are recorded
+	 */
+	private final long id;
+
+	/**
+	 * Epoch milliseconds, never lower than the one of the previous entry
+	 */
+	private final long timestamp;
+
+	private final String accountFrom;
+
+	private final String accountTo;
+
+	private final BigDecimal amount;
+
+	private final BigDecimal balanceFrom;
+
+	private final BigDecimal balanceTo;
+
+	void writeTo(DataOutput out) throws IOException {
+		out.writeLong(id);
+		out.writeLong(timestamp);
+		out.writeUTF(accountFrom);
+		out.writeUTF(accountTo);
+		out.writeUTF(amount.toPlainString());
+		writeBalance(out, balanceFrom);
+		writeBalance(out, balanceTo);
+	}
+
+	static LedgerEntry readFrom(DataInput in) throws IOException {
+		return new LedgerEntry(in.readLong(), in.readLong(), in.readUTF(), in.readUTF(), new BigDecimal(in.readUTF()),
+				readBalance(in), readBalance(in));
+	}
+
+	/**
+	 * An empty string for a balance kept by another node
+	 */
+	private static void writeBalance(DataOutput out, BigDecimal balance) throws IOException {
+		out.writeUTF(balance == null ? "" : balance.toPlainString());
+	}
+
+	private static BigDecimal readBalance(DataInput in) throws IOException {
+		String balance = in.readUTF();
+		return balance.isEmpty() ? null : new BigDecimal(balance);
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.db.awmd.challenge.repository.ledger;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of the transfer ledger
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.ledger")
+public class LedgerProperties {
+
+	private boolean enabled = true;
+
+	private String directory = "data/ledger";
+
+	/**
+	 * Entries kept in memory before the segment is rolled to a file
+	 */
+	private int segmentEntries = 100_000;
+
+	/**
+	 * Per-account indexes of rolled segments kept in memory, least recently used first out
+	 */
+	private int cachedIndexes = 4;
+
+}
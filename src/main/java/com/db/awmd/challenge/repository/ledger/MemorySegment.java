@@ -0,0 +1,123 @@
+package com.db.awmd.challenge.repository.ledger;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latest entries of the ledger, with the position of every account's
+ * entries. Appended to under the ledger lock, immutable once full.
+ *
+ */
+class MemorySegment {
+
+	private final LedgerEntry[] entries;
+
+	private int size;
+
+	private final Map<String, Positions> index = new HashMap<>();
+
+	MemorySegment(int capacity) {
+		this.entries = new LedgerEntry[capacity];
+	}
+
+	/**
+	 * @return true if the segment is full
+	 */
+	boolean add(LedgerEntry entry) {
+		entries[size] = entry;
+		// an account without a balance is kept, and its history queried, on another node
+		if (entry.getBalanceFrom() != null) {
+			positions(entry.getAccountFrom()).add(size);
+		}
+		if (entry.getBalanceTo() != null) {
+			positions(entry.getAccountTo()).add(size);
+		}
+		return ++size == entries.length;
+	}
+
+	private Positions positions(String accountId) {
+		Positions positions = index.get(accountId);
+		if (positions == null) {
+			positions = new Positions();
+			index.put(accountId, positions);
+		}
+		return positions;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	LedgerEntry get(int position) {
+		return entries[position];
+	}
+
+	long firstId() {
+		return entries[0].getId();
+	}
+
+	long lastTimestamp() {
+		return entries[size - 1].getTimestamp();
+	}
+
+	Map<String, Positions> index() {
+		return index;
+	}
+
+	/**
+	 * Adds the entries of the account older than {@code beforeId} and within
+	 * the time range to {@code out}, newest first, until it holds {@code limit}.
+	 */
+	void collect(String accountId, long beforeId, long since, long until, int limit, List<LedgerEntry> out) {
+		Positions positions = index.get(accountId);
+		if (positions == null) {
+			return;
+		}
+		// positions are in id order, start from the last one before the cursor
+		int low = 0;
+		int high = positions.size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (entries[positions.values[middle]].getId() < beforeId) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		for (int i = high; i >= 0 && out.size() < limit; i--) {
+			LedgerEntry entry = entries[positions.values[i]];
+			if (entry.getTimestamp() < since) {
+				return;
+			}
+			if (entry.getTimestamp() < until) {
+				out.add(entry);
+			}
+		}
+	}
+
+	static final class Positions {
+
+		int[] values = new int[4];
+
+		int size;
+
+		void add(int position) {
+			// a transfer between the same account would be indexed twice
+			if (size > 0 && values[size - 1] == position) {
+				return;
+			}
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = position;
+		}
+
+	}
+
+}
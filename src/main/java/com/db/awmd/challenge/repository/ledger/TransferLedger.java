@@ -0,0 +1,378 @@
+package com.db.awmd.challenge.repository.ledger;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only record of the completed transfers, with the balances they left
+ * both accounts with, queried per account newest first.
+ * <p>
+ * The latest entries are kept in a {@link MemorySegment} indexed by account.
+ * Once it holds {@code segment-entries} entries it is rolled to a
+ * {@link FileSegment} by a background writer, memory is bounded by one
+ * segment being filled and the ones still being written. Only the header of
+ * rolled segments stays in memory; the per-account index of the most
+ * recently queried ones is cached and entries are read from disk as pages
+ * are requested.
+ * <p>
+ * Entries are appended while the accounts of the transfer are locked, so the
+ * ledger order of an account is the order its balance changed in. Appends
+ * only queue the entry, without a lock; the writer, or a query needing the
+ * latest entries, moves the queued entries to the segment being filled and
+ * numbers them in queue order.
+ * <p>
+ * The segment being filled is not written to disk before it is full and is
+ * lost on a crash, the journal being the durable record of the balances.
+ * Ids are reserved on disk in blocks of {@value #ID_BLOCK} before being
+ * given, so the ids of lost entries are not given again and cursors
+ * handed out before a crash stay valid.
+ *
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.ledger", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class TransferLedger implements Closeable {
+
+	static final int ID_BLOCK = 1 << 20;
+
+	private static final String NEXT_ID = "next-id";
+
+	private final Path directory;
+
+	private final int segmentEntries;
+
+	private final int cachedIndexes;
+
+	/** rolled segments, oldest first */
+	private final List<FileSegment> files = new ArrayList<>();
+
+	/** full segments being rolled, oldest first */
+	private final List<MemorySegment> rolling = new ArrayList<>();
+
+	private final Map<FileSegment, Map<String, FileSegment.AccountIndex>> indexes;
+
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "transfer-ledger-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** appended entries not numbered yet, in append order */
+	private final Queue<Appended> queued = new ConcurrentLinkedQueue<>();
+
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+	private final LongAdder appended = new LongAdder();
+
+	private final LongAdder indexLoads = new LongAdder();
+
+	private MemorySegment active;
+
+	private long nextId = 1;
+
+	private long lastTimestamp;
+
+	/** ids below it may have been given, they are not given again after a restart */
+	private long reservedId;
+
+	@Autowired
+	public TransferLedger(LedgerProperties properties) throws IOException {
+		this.directory = Paths.get(properties.getDirectory());
+		this.segmentEntries = Math.max(1, properties.getSegmentEntries());
+		this.cachedIndexes = Math.max(1, properties.getCachedIndexes());
+		this.indexes = new LinkedHashMap<FileSegment, Map<String, FileSegment.AccountIndex>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<FileSegment, Map<String, FileSegment.AccountIndex>> eldest) {
+				return size() > cachedIndexes;
+			}
+
+		};
+		this.active = new MemorySegment(segmentEntries);
+		Files.createDirectories(directory);
+		open();
+	}
+
+	private void open() throws IOException {
+		try (Stream<Path> paths = Files.list(directory)) {
+			for (Path path : paths.sorted().collect(Collectors.toList())) {
+				String name = path.getFileName().toString();
+				if (name.endsWith(FileSegment.INDEX_SUFFIX)) {
+					FileSegment segment = FileSegment.open(path);
+					files.add(segment);
+					nextId = Math.max(nextId, segment.getLastId() + 1);
+					lastTimestamp = Math.max(lastTimestamp, segment.getLastTimestamp());
+				} else if (name.endsWith(".tmp") || name.endsWith(FileSegment.DATA_SUFFIX) && !Files.exists(
+						path.resolveSibling(name.replace(FileSegment.DATA_SUFFIX, FileSegment.INDEX_SUFFIX)))) {
+					// rolling didn't complete, the entries were lost with the process anyway
+					Files.delete(path);
+				}
+			}
+		}
+		Path reserved = directory.resolve(NEXT_ID);
+		if (Files.exists(reserved)) {
+			try (DataInputStream in = new DataInputStream(Files.newInputStream(reserved))) {
+				nextId = Math.max(nextId, in.readLong());
+			}
+		}
+		reserve(nextId + ID_BLOCK);
+		log.info("Transfer ledger opened in {} with {} segments, next id {}", directory, files.size(), nextId);
+	}
+
+	/**
+	 * Records a completed transfer, called while both accounts are still
+	 * locked. Takes no lock, the entry is numbered once the writer or a query
+	 * picks it up. The balance of an account of another node is null, the
+	 * entry is then not listed in its history here.
+	 */
+	public void append(String accountFrom, String accountTo, BigDecimal amount, BigDecimal balanceFrom,
+			BigDecimal balanceTo) {
+		queued.add(new Appended(System.currentTimeMillis(), accountFrom, accountTo, amount, balanceFrom, balanceTo));
+		appended.increment();
+		if (!drainScheduled.get() && drainScheduled.compareAndSet(false, true)) {
+			try {
+				writer.execute(() -> {
+					drainScheduled.set(false);
+					drain();
+				});
+			} catch (RejectedExecutionException e) {
+				// closed, the entry would have been lost with the segment being filled anyway
+			}
+		}
+	}
+
+	/**
+	 * Numbers the queued entries and adds them to the segment being filled
+	 */
+	private synchronized void drain() {
+		Appended next;
+		while ((next = queued.poll()) != null) {
+			if (nextId >= reservedId) {
+				try {
+					reserve(nextId + ID_BLOCK);
+				} catch (IOException e) {
+					// entries are still numbered, only a crash before the next reservation could give their ids again
+					log.error("Could not reserve transfer ledger ids", e);
+					reservedId = nextId + ID_BLOCK;
+				}
+			}
+			lastTimestamp = Math.max(lastTimestamp, next.timestamp);
+			if (active.add(new LedgerEntry(nextId++, lastTimestamp, next.accountFrom, next.accountTo, next.amount,
+					next.balanceFrom, next.balanceTo))) {
+				MemorySegment full = active;
+				active = new MemorySegment(segmentEntries);
+				rolling.add(full);
+				writer.execute(() -> roll(full));
+			}
+		}
+	}
+
+	/**
+	 * Records on disk that ids below the given one may have been given
+	 */
+	private void reserve(long id) throws IOException {
+		Path temporary = directory.resolve(NEXT_ID + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary))) {
+			out.writeLong(id);
+		}
+		FileSegment.force(temporary);
+		Files.move(temporary, directory.resolve(NEXT_ID), StandardCopyOption.ATOMIC_MOVE);
+		reservedId = id;
+	}
+
+	private void roll(MemorySegment segment) {
+		FileSegment file;
+		try {
+			file = FileSegment.write(directory, segment);
+		} catch (IOException e) {
+			// still queryable from memory, the next segments may succeed
+			log.error("Could not roll transfer ledger segment " + segment.firstId(), e);
+			return;
+		}
+		synchronized (this) {
+			rolling.remove(segment);
+			files.add(file);
+		}
+	}
+
+	/**
+	 * @param beforeId
+	 *            only entries with a lower id are returned, the id of the
+	 *            last entry of the previous page
+	 * @param since
+	 *            epoch millis, inclusive
+	 * @param until
+	 *            epoch millis, exclusive
+	 * @return the entries of the account, newest first
+	 */
+	public List<LedgerEntry> history(String accountId, long beforeId, long since, long until, int limit) {
+		List<LedgerEntry> out = new ArrayList<>(Math.min(limit, 64));
+		List<FileSegment> candidates;
+		synchronized (this) {
+			// entries appended before the query are part of it
+			drain();
+			active.collect(accountId, beforeId, since, until, limit, out);
+			for (int i = rolling.size() - 1; i >= 0 && out.size() < limit; i--) {
+				rolling.get(i).collect(accountId, beforeId, since, until, limit, out);
+			}
+			if (out.size() >= limit) {
+				return out;
+			}
+			candidates = new ArrayList<>(files);
+		}
+		// segments no longer change once rolled, they're read without the lock
+		for (int i = candidates.size() - 1; i >= 0 && out.size() < limit; i--) {
+			FileSegment segment = candidates.get(i);
+			if (segment.getLastTimestamp() < since) {
+				break;
+			}
+			if (segment.getFirstId() >= beforeId || segment.getFirstTimestamp() >= until) {
+				continue;
+			}
+			try {
+				FileSegment.AccountIndex account = indexOf(segment).get(accountId);
+				if (account != null) {
+					segment.collect(account, beforeId, since, until, limit, out);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not read transfer ledger segment " + segment.getIndex(), e);
+			}
+		}
+		return out;
+	}
+
+	private Map<String, FileSegment.AccountIndex> indexOf(FileSegment segment) throws IOException {
+		synchronized (indexes) {
+			Map<String, FileSegment.AccountIndex> index = indexes.get(segment);
+			if (index != null) {
+				return index;
+			}
+		}
+		// loaded outside the lock, two queries may load the same index once
+		Map<String, FileSegment.AccountIndex> index = segment.readIndex();
+		indexLoads.increment();
+		synchronized (indexes) {
+			indexes.put(segment, index);
+		}
+		return index;
+	}
+
+	public long getAppended() {
+		return appended.sum();
+	}
+
+	public synchronized int getFileSegments() {
+		return files.size();
+	}
+
+	public synchronized int getMemoryEntries() {
+		drain();
+		int entries = active.size();
+		for (MemorySegment segment : rolling) {
+			entries += segment.size();
+		}
+		return entries;
+	}
+
+	public long getIndexLoads() {
+		return indexLoads.sum();
+	}
+
+	/**
+	 * Rolls the segment being filled so no entry is lost on a clean shutdown,
+	 * the next start goes on with the next id
+	 */
+	@PreDestroy
+	@Override
+	public void close() {
+		MemorySegment last;
+		synchronized (this) {
+			drain();
+			last = active;
+			active = new MemorySegment(segmentEntries);
+			if (!last.isEmpty()) {
+				rolling.add(last);
+			}
+		}
+		if (!last.isEmpty()) {
+			writer.execute(() -> roll(last));
+		}
+		writer.shutdown();
+		try {
+			if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+				log.warn("Transfer ledger segments still being written on shutdown");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			try {
+				reserve(nextId);
+			} catch (IOException e) {
+				log.warn("Could not record the next transfer ledger id, ids of the last block are skipped", e);
+			}
+		}
+	}
+
+	/**
+	 * A transfer appended but not numbered yet
+	 */
+	private static final class Appended {
+
+		private final long timestamp;
+
+		private final String accountFrom;
+
+		private final String accountTo;
+
+		private final BigDecimal amount;
+
+		private final BigDecimal balanceFrom;
+
+		private final BigDecimal balanceTo;
+
+		Appended(long timestamp, String accountFrom, String accountTo, BigDecimal amount, BigDecimal balanceFrom,
+				BigDecimal balanceTo) {
+			this.timestamp = timestamp;
+			this.accountFrom = accountFrom;
+			this.accountTo = accountTo;
+			this.amount = amount;
+			this.balanceFrom = balanceFrom;
+			this.balanceTo = balanceTo;
+		}
+
+	}
+
+}
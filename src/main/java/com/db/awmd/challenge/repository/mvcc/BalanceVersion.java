@@ -0,0 +1,43 @@
+package com.db.awmd.challenge.repository.mvcc;
+
+import java.math.BigDecimal;
+
+/**
+ * Balance of an account as of a version, linked to the version it replaced
+ *
+ */
+final class BalanceVersion {
+
+	/**
+	 * Version of the balance an account had before it was first written,
+	 * seen by every read
+	 */
+	static final long BASE = 0;
+
+	/**
+	 * Version of a balance installed by a transfer not committed yet
+	 */
+	static final long PENDING = Long.MAX_VALUE;
+
+	/**
+	 * Version of a balance removed by a refused transfer, above every read
+	 * so a read still holding it moves on to the older one
+	 */
+	static final long ABORTED = Long.MAX_VALUE - 1;
+
+	final BigDecimal balance;
+
+	volatile long version;
+
+	/**
+	 * The version replaced, cut once no read can reach it
+	 */
+	volatile BalanceVersion older;
+
+	BalanceVersion(long version, BigDecimal balance, BalanceVersion older) {
+		this.version = version;
+		this.balance = balance;
+		this.older = older;
+	}
+
+}
@@ -0,0 +1,30 @@
+package com.db.awmd.challenge.repository.mvcc;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of the versioned balances behind snapshot reads
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.mvcc")
+public class MvccProperties {
+
+	private boolean enabled = false;
+
+	/**
+	 * Accounts one snapshot read may ask for, the versions it can reach are
+	 * kept until it ends
+	 */
+	private int maxAccounts = 10_000;
+
+	/**
+	 * Pause between two passes of the reclaimer, 0 for none
+	 */
+	private long reclaimMillis = 100;
+
+}
@@ -0,0 +1,26 @@
+package com.db.awmd.challenge.repository.mvcc;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Balances of many accounts as of one version
+ *
+ */
+@Data
+public class SnapshotRead {
+
+	/**
+	 * Transfers committed up to this version are in the balances, later ones aren't
+	 */
+	private final long version;
+
+	/**
+	 * One per account asked for, in the same order, null if the account
+	 * didn't exist at that version
+	 */
+	private final List<BigDecimal> balances;
+
+}
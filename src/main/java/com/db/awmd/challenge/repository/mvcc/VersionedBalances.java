@@ -0,0 +1,455 @@
+package com.db.awmd.challenge.repository.mvcc;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.audit.AuditProperties;
+import com.db.awmd.challenge.repository.journal.JournaledAccountsRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps versions of the balances of the in-memory accounts, so that many
+ * accounts can be read as of one instant while transfers keep running.
+ * <p>
+ * Every write to an account, a transfer leg or a creation, is applied inside
+ * the map update of the account and installs the balance it leaves as a
+ * pending version on top of the versions of the account. Once both legs are
+ * installed, the transfer takes the next value of the version clock and
+ * commits its versions with it. A write never installs over a pending
+ * version, it waits for that transfer to commit: the versions of an account
+ * are ordered by the clock, newest first. The two legs are installed in
+ * account id order, so a transfer only waits for accounts after the one it
+ * holds pending: hot accounts, credited without their lock, can pay each
+ * other both ways without two transfers waiting for each other.
+ * <p>
+ * A snapshot read takes the clock as its version and, for every account,
+ * the newest version at or below it. A pending version may commit at or
+ * below it, the read waits for that commit, the time of one transfer leg.
+ * Writers never wait for readers.
+ * <p>
+ * Versions no read can reach are reclaimed by epochs: reads register in the
+ * current epoch, a reclaim pass notes the clock, moves the epoch forward and
+ * waits for the reads of the previous one to end. Reads registered after
+ * that use a version at or above the noted clock, so the versions below the
+ * newest one at or below it are cut. Only the accounts written since the
+ * previous pass are visited; in between, an account keeps one version plus
+ * one per write.
+ * <p>
+ * Only the writes going through {@link AccountsRepositoryInMemory} are
+ * versioned: the sharded transfer engine updates the accounts directly and
+ * the balance auditor takes its own path through the repository, neither is
+ * supported.
+ *
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.mvcc", name = "enabled", havingValue = "true")
+public class VersionedBalances {
+
+	private final AccountsRepositoryInMemory repository;
+
+	private final MvccProperties properties;
+
+	/** newest version of every account written or read since versions are kept */
+	private final ConcurrentHashMap<String, BalanceVersion> chains = new ConcurrentHashMap<>();
+
+	/** accounts holding more than one version, visited by the next reclaim pass */
+	private final ConcurrentLinkedQueue<String> reclaimable = new ConcurrentLinkedQueue<>();
+
+	/** last version committed */
+	private final AtomicLong clock = new AtomicLong();
+
+	/** reads in progress, by epoch parity: a pass never has more than two epochs in flight */
+	private final LongAdder[] readers = { new LongAdder(), new LongAdder() };
+
+	private volatile long epoch;
+
+	private final LongAdder reads = new LongAdder();
+
+	private final LongAdder retained = new LongAdder();
+
+	private volatile long reclaimed;
+
+	private volatile long reclaimPasses;
+
+	/**
+	 * Replayed before the versions are attached, the replay sets the balances
+	 * of the accounts directly
+	 */
+	@Autowired(required = false)
+	private JournaledAccountsRepository journaledAccountsRepository;
+
+	private ScheduledExecutorService scheduler;
+
+	@Autowired
+	public VersionedBalances(MvccProperties properties, @Qualifier("accountsStore") AccountsRepository accountsStore,
+			@Value("${accounts.execution:LOCKING}") String execution, AuditProperties audit) {
+		if (!(accountsStore instanceof AccountsRepositoryInMemory)) {
+			throw new IllegalStateException("Versioned balances need accounts.repository IN_MEMORY");
+		}
+		if ("SHARDED".equals(execution)) {
+			throw new IllegalStateException("Versioned balances don't see the transfers of the sharded engine, "
+					+ "use accounts.execution LOCKING");
+		}
+		if (audit.isEnabled()) {
+			throw new IllegalStateException("Versioned balances and the balance auditor can't be enabled together");
+		}
+		this.properties = properties;
+		this.repository = (AccountsRepositoryInMemory) accountsStore;
+	}
+
+	@PostConstruct
+	public void start() {
+		this.repository.setVersions(this);
+		long interval = properties.getReclaimMillis();
+		if (interval <= 0) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "mvcc-reclaimer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				reclaim();
+			} catch (Exception e) {
+				log.error("Reclaiming balance versions failed, it will be retried", e);
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void close() throws InterruptedException {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+	/**
+	 * Adds the account with a version of its own: reads at earlier versions
+	 * don't find it.
+	 *
+	 * @param insert
+	 *            adds the account to the repository
+	 * @return whether it was added
+	 */
+	public boolean create(Account account, BooleanSupplier insert) {
+		BalanceVersion[] created = new BalanceVersion[1];
+		chains.compute(account.getAccountId(), (accountId, head) -> {
+			if (!insert.getAsBoolean()) {
+				return head;
+			}
+			created[0] = new BalanceVersion(BalanceVersion.PENDING, account.getBalance(), null);
+			return created[0];
+		});
+		if (created[0] == null) {
+			return false;
+		}
+		retained.increment();
+		commit(created[0], null);
+		return true;
+	}
+
+	/**
+	 * Same as {@link AccountsRepository#tryTransfer}, both legs committed at
+	 * one version
+	 */
+	public TransferRejection tryTransfer(Account accountFrom, Account accountTo, BigDecimal amount)
+			throws TransactionException {
+		if (accountFrom.getAccountId().equals(accountTo.getAccountId())) {
+			// the credit would wait for the debit to commit
+			return TransferRejection.SAME_ACCOUNTS;
+		}
+		Predicate<Account> debit = account -> account.tryWithdraw(amount);
+		Predicate<Account> credit = account -> {
+			account.deposit(amount);
+			return true;
+		};
+		if (accountFrom.getAccountId().compareTo(accountTo.getAccountId()) < 0) {
+			BalanceVersion debited = install(accountFrom, debit);
+			if (debited == null) {
+				return TransferRejection.INSUFFICIENT_FUNDS;
+			}
+			BalanceVersion credited;
+			try {
+				credited = install(accountTo, credit);
+			} catch (RuntimeException e) {
+				// a lock-free account may refuse the credit, the money goes back like in AtomicAccount.transferTo
+				uninstall(accountFrom, debited, account -> account.deposit(amount));
+				throw e;
+			}
+			commit(debited, credited);
+			return null;
+		}
+		BalanceVersion credited = install(accountTo, credit);
+		BalanceVersion debited;
+		try {
+			debited = install(accountFrom, debit);
+		} catch (RuntimeException e) {
+			uninstall(accountTo, credited, account -> account.withdraw(amount));
+			throw e;
+		}
+		if (debited == null) {
+			// nobody wrote the account credited since, the money is still there
+			uninstall(accountTo, credited, account -> account.withdraw(amount));
+			return TransferRejection.INSUFFICIENT_FUNDS;
+		}
+		commit(debited, credited);
+		return null;
+	}
+
+	public void transfer(Account accountFrom, Account accountTo, BigDecimal amount) throws TransactionException {
+		TransferRejection rejection = tryTransfer(accountFrom, accountTo, amount);
+		if (rejection != null) {
+			throw rejection.exception(accountFrom.getAccountId(), accountTo.getAccountId());
+		}
+	}
+
+	/**
+	 * The accounts were all removed, their versions go with them
+	 */
+	public void cleared() {
+		chains.clear();
+		reclaimable.clear();
+		retained.reset();
+	}
+
+	/**
+	 * Reads the balances of the accounts at the last committed version,
+	 * without stopping the transfers.
+	 *
+	 * @return the balances, null for the accounts that didn't exist at that
+	 * version
+	 */
+	public SnapshotRead read(List<String> accountIds) {
+		long epoch = enter();
+		try {
+			long version = clock.get();
+			List<BigDecimal> balances = new ArrayList<>(accountIds.size());
+			for (String accountId : accountIds) {
+				balances.add(balanceAt(accountId, version));
+			}
+			reads.increment();
+			return new SnapshotRead(version, balances);
+		} finally {
+			exit(epoch);
+		}
+	}
+
+	/**
+	 * Cuts the versions no read can reach any more.
+	 *
+	 * @return the number of versions cut
+	 */
+	public synchronized long reclaim() {
+		long horizon = clock.get();
+		long previous = epoch;
+		epoch = previous + 1;
+		// reads of the previous epoch may use a version below the horizon
+		awaitReaders(previous);
+
+		long[] cut = new long[1];
+		for (int visits = reclaimable.size(); visits > 0; visits--) {
+			String accountId = reclaimable.poll();
+			if (accountId == null) {
+				break;
+			}
+			chains.computeIfPresent(accountId, (id, head) -> {
+				BalanceVersion kept = head;
+				while (kept != null && kept.version > horizon) {
+					kept = kept.older;
+				}
+				if (kept != head) {
+					// versions newer than the horizon stay for the next pass
+					reclaimable.add(id);
+				}
+				if (kept != null) {
+					for (BalanceVersion older = kept.older; older != null; older = older.older) {
+						cut[0]++;
+					}
+					kept.older = null;
+				}
+				return head;
+			});
+		}
+		retained.add(-cut[0]);
+		reclaimed += cut[0];
+		reclaimPasses++;
+		return cut[0];
+	}
+
+	/**
+	 * @return the last version committed
+	 */
+	public long getVersion() {
+		return clock.get();
+	}
+
+	public long getReads() {
+		return reads.sum();
+	}
+
+	/**
+	 * @return the versions held, one per account written or read at least
+	 * plus those not reclaimed yet
+	 */
+	public long getRetained() {
+		return retained.sum();
+	}
+
+	public long getReclaimed() {
+		return reclaimed;
+	}
+
+	public long getReclaimPasses() {
+		return reclaimPasses;
+	}
+
+	/**
+	 * Applies the change to the account and installs the balance it leaves,
+	 * once the version below is committed.
+	 *
+	 * @return the pending version, null if the change was refused
+	 */
+	private BalanceVersion install(Account account, Predicate<Account> change) {
+		BalanceVersion[] installed = new BalanceVersion[1];
+		boolean[] busy = new boolean[1];
+		do {
+			busy[0] = false;
+			chains.compute(account.getAccountId(), (accountId, head) -> {
+				if (head != null && head.version == BalanceVersion.PENDING) {
+					busy[0] = true;
+					return head;
+				}
+				BigDecimal before = account.getBalance();
+				if (!change.test(account)) {
+					return head;
+				}
+				if (head == null) {
+					head = new BalanceVersion(BalanceVersion.BASE, before, null);
+					retained.increment();
+				}
+				if (head.older == null) {
+					reclaimable.add(accountId);
+				}
+				installed[0] = new BalanceVersion(BalanceVersion.PENDING, account.getBalance(), head);
+				retained.increment();
+				return installed[0];
+			});
+			if (busy[0]) {
+				Thread.yield();
+			}
+		} while (busy[0]);
+		return installed[0];
+	}
+
+	/**
+	 * Reverts a leg and removes its version, still the newest as nothing is
+	 * installed over a pending version. A read may already hold it, it is
+	 * marked aborted for the read not to wait on it forever
+	 */
+	private void uninstall(Account account, BalanceVersion installed, Consumer<Account> revert) {
+		chains.compute(account.getAccountId(), (accountId, head) -> {
+			revert.accept(account);
+			return installed.older;
+		});
+		installed.version = BalanceVersion.ABORTED;
+		retained.decrement();
+	}
+
+	private void commit(BalanceVersion first, BalanceVersion second) {
+		long version = clock.incrementAndGet();
+		first.version = version;
+		if (second != null) {
+			second.version = version;
+		}
+	}
+
+	/**
+	 * @return the balance of the newest version at or below the given one,
+	 * null if the account didn't exist then
+	 */
+	private BigDecimal balanceAt(String accountId, long version) {
+		BalanceVersion current = chains.get(accountId);
+		if (current == null) {
+			Account account = repository.findAccount(accountId);
+			if (account == null) {
+				return null;
+			}
+			// never written since versions are kept: read under the map update, as a write would install it
+			current = chains.computeIfAbsent(accountId, id -> {
+				retained.increment();
+				return new BalanceVersion(BalanceVersion.BASE, account.getBalance(), null);
+			});
+		}
+		for (; current != null; current = current.older) {
+			long installed;
+			while ((installed = current.version) == BalanceVersion.PENDING) {
+				// it may commit at or below the version read
+				Thread.yield();
+			}
+			if (installed <= version) {
+				return current.balance;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Registers a read, to be followed by {@link #exit(long)}.
+	 *
+	 * @return the epoch of the read
+	 */
+	private long enter() {
+		while (true) {
+			long current = epoch;
+			LongAdder counter = readers[(int) current & 1];
+			counter.increment();
+			// the epoch may have moved before the read was counted, the reclaimer wouldn't wait for it
+			if (epoch == current) {
+				return current;
+			}
+			counter.decrement();
+		}
+	}
+
+	private void exit(long epoch) {
+		readers[(int) epoch & 1].decrement();
+	}
+
+	private void awaitReaders(long epoch) {
+		LongAdder counter = readers[(int) epoch & 1];
+		while (counter.sum() != 0) {
+			Thread.yield();
+		}
+	}
+
+}
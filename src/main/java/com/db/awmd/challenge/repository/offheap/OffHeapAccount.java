@@ -0,0 +1,81 @@
+package com.db.awmd.challenge.repository.offheap;
+
+import java.math.BigDecimal;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.exception.InsufficientFundsException;
+import com.db.awmd.challenge.exception.TransactionException;
+
+/**
+ * Flyweight view of an account stored off-heap. It holds no balance, every
+ * read and update goes to the account slot, so views are cheap to create and
+ * any number of them see the same account.
+ *
+ */
+public class OffHeapAccount extends Account {
+
+	private final OffHeapTable table;
+
+	private final int hash;
+
+	private final byte[] key;
+
+	OffHeapAccount(String accountId, OffHeapTable table, int hash, byte[] key) {
+		super(accountId);
+		this.table = table;
+		this.hash = hash;
+		this.key = key;
+	}
+
+	public long getMinorUnits() {
+		return table.balance(hash, key);
+	}
+
+	@Override
+	public BigDecimal getBalance() {
+		return Money.fromMinorUnits(getMinorUnits());
+	}
+
+	@Override
+	public void setBalance(BigDecimal balance) {
+		table.setBalance(hash, key, Money.toMinorUnits(balance));
+	}
+
+	/**
+	 * @return false, without throwing, if the balance is lower than the amount
+	 */
+	public boolean tryWithdraw(long amount) {
+		return table.withdraw(hash, key, amount);
+	}
+
+	public void withdraw(long amount) throws TransactionException {
+		if (!tryWithdraw(amount)) {
+			throw new InsufficientFundsException("Account " + this.getAccountId() + " has not enought money to make this transaction.");
+		}
+	}
+
+	public void deposit(long amount) throws TransactionException {
+		try {
+			table.deposit(hash, key, amount);
+		} catch (ArithmeticException e) {
+			throw new TransactionException("Account " + this.getAccountId() + " balance overflow.");
+		}
+	}
+
+	@Override
+	public void withdraw(BigDecimal amount) throws TransactionException {
+		withdraw(Money.toMinorUnits(amount));
+	}
+
+	@Override
+	public boolean tryWithdraw(BigDecimal amount) {
+		return tryWithdraw(Money.toMinorUnits(amount));
+	}
+
+	@Override
+	public void deposit(BigDecimal amount) {
+		deposit(Money.toMinorUnits(amount));
+	}
+
+}
@@ -0,0 +1,211 @@
+package com.db.awmd.challenge.repository.offheap;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+
+/**
+ * Repository keeping accounts outside of the Java heap, for account counts
+ * where one object graph per account would mean gigabytes of heap and long
+ * collections. Accounts live in a segmented off-heap hash table (see
+ * {@link OffHeapTable}) and are handed out as {@link OffHeapAccount} views.
+ * Balances are kept in minor units, hot accounts are not supported.
+ * <p>
+ * Direct memory is limited by {@code -XX:MaxDirectMemorySize}, which
+ * defaults to the maximum heap size.
+ *
+ */
+@Repository("accountsStore")
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "OFF_HEAP")
+public class OffHeapAccountsRepository implements AccountsRepository {
+
+	private final OffHeapTable[] segments;
+
+	private final int segmentMask;
+
+	private final int maxIdBytes;
+
+	@Autowired
+	public OffHeapAccountsRepository(OffHeapProperties properties) {
+		int size = 1;
+		while (size < properties.getSegments()) {
+			size <<= 1;
+		}
+		if (size > 256) {
+			throw new IllegalArgumentException("At most 256 off-heap segments are supported");
+		}
+		this.segments = new OffHeapTable[size];
+		for (int i = 0; i < size; i++) {
+			this.segments[i] = new OffHeapTable(properties.getInitialCapacity() / size, properties.getMaxIdBytes());
+		}
+		this.segmentMask = size - 1;
+		this.maxIdBytes = properties.getMaxIdBytes();
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		checkAccountId(account.getAccountId());
+		byte[] key = keyOf(account.getAccountId());
+		int hash = hashOf(key);
+		if (!segmentOf(hash).insert(hash, key, Money.toMinorUnits(account.getBalance()))) {
+			throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+		}
+	}
+
+	/**
+	 * @throws TransactionException if the id doesn't fit a slot
+	 */
+	@Override
+	public void checkAccountId(String accountId) throws TransactionException {
+		if (keyOf(accountId) == null) {
+			throw new TransactionException("Account id " + accountId + " is longer than " + maxIdBytes + " bytes.");
+		}
+	}
+
+	@Override
+	public Account getAccount(String accountId) throws AccountNotFoundException {
+		Account account = findAccount(accountId);
+		// if there is no account with this id, it will throw an exception
+		if (account == null) {
+			throw new AccountNotFoundException("Account id " + accountId + " not found");
+		}
+		return account;
+	}
+
+	/**
+	 * An id too long to be kept is not found
+	 */
+	@Override
+	public Account findAccount(String accountId) {
+		byte[] key = keyOf(accountId);
+		if (key == null) {
+			return null;
+		}
+		int hash = hashOf(key);
+		OffHeapTable segment = segmentOf(hash);
+		return segment.contains(hash, key) ? new OffHeapAccount(accountId, segment, hash, key) : null;
+	}
+
+	@Override
+	public void forEachAccount(Consumer<Account> action) {
+		for (OffHeapTable segment : segments) {
+			for (String accountId : segment.ids()) {
+				byte[] key = keyOf(accountId);
+				action.accept(new OffHeapAccount(accountId, segment, hashOf(key), key));
+			}
+		}
+	}
+
+	@Override
+	public void clearAccounts() {
+		for (OffHeapTable segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * Debits then credits, each under its own segment lock, giving the money
+	 * back if the credit fails. Both accounts are locked by the caller.
+	 */
+	@Override
+	public void transfer(Account accountFrom, Account accountTo, BigDecimal amount) throws TransactionException {
+		if (tryTransfer(accountFrom, accountTo, amount) != null) {
+			throw TransferRejection.INSUFFICIENT_FUNDS.exception(accountFrom.getAccountId(), accountTo.getAccountId());
+		}
+	}
+
+	/**
+	 * Same as {@link #transfer(Account, Account, BigDecimal)}, a lack of money
+	 * builds no exception
+	 */
+	@Override
+	public TransferRejection tryTransfer(Account accountFrom, Account accountTo, BigDecimal amount)
+			throws TransactionException {
+		long minorUnits = Money.toMinorUnits(amount);
+		OffHeapAccount from = view(accountFrom);
+		OffHeapAccount to = view(accountTo);
+		if (!from.tryWithdraw(minorUnits)) {
+			return TransferRejection.INSUFFICIENT_FUNDS;
+		}
+		try {
+			to.deposit(minorUnits);
+		} catch (TransactionException e) {
+			from.deposit(minorUnits);
+			throw e;
+		}
+		return null;
+	}
+
+	@Override
+	public CompletableFuture<TransferRejection> tryTransferAsync(Account accountFrom, Account accountTo,
+			BigDecimal amount) throws TransactionException {
+		TransferRejection rejection = tryTransfer(accountFrom, accountTo, amount);
+		return rejection != null ? rejection.future() : TransferRejection.applied();
+	}
+
+	public long getAccounts() {
+		long accounts = 0;
+		for (OffHeapTable segment : segments) {
+			accounts += segment.size();
+		}
+		return accounts;
+	}
+
+	/**
+	 * @return the direct memory taken by the table
+	 */
+	public long getOffHeapBytes() {
+		long bytes = 0;
+		for (OffHeapTable segment : segments) {
+			bytes += segment.capacityBytes();
+		}
+		return bytes;
+	}
+
+	private OffHeapAccount view(Account account) {
+		if (account instanceof OffHeapAccount) {
+			return (OffHeapAccount) account;
+		}
+		return (OffHeapAccount) getAccount(account.getAccountId());
+	}
+
+	/**
+	 * @return the UTF-8 bytes of the id, null if they don't fit a slot
+	 */
+	private byte[] keyOf(String accountId) {
+		byte[] key = accountId.getBytes(StandardCharsets.UTF_8);
+		return key.length > maxIdBytes ? null : key;
+	}
+
+	/**
+	 * @return a well mixed non zero hash, zero marks empty slots
+	 */
+	private static int hashOf(byte[] key) {
+		int h = 1;
+		for (byte b : key) {
+			h = 31 * h + b;
+		}
+		h *= 0x9E3779B9;
+		h ^= h >>> 15;
+		return h == 0 ? 1 : h;
+	}
+
+	private OffHeapTable segmentOf(int hash) {
+		// the slot comes from the low bits, the segment from the high ones
+		return segments[(hash >>> 24) & segmentMask];
+	}
+
+}
@@ -0,0 +1,32 @@
+package com.db.awmd.challenge.repository.offheap;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of the off-heap accounts repository
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.offheap")
+public class OffHeapProperties {
+
+	/**
+	 * Accounts the table is sized for up front, it grows one segment at a time past that
+	 */
+	private int initialCapacity = 1 << 20;
+
+	/**
+	 * Independently locked and resized parts of the table, rounded up to a power of two
+	 */
+	private int segments = 64;
+
+	/**
+	 * Longest account id in UTF-8 bytes, every slot reserves that much
+	 */
+	private int maxIdBytes = 42;
+
+}
@@ -0,0 +1,223 @@
+package com.db.awmd.challenge.repository.offheap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+
+/**
+ * One segment of the off-heap account index: an open-addressing hash table
+ * with linear probing in a direct {@link ByteBuffer}. Every slot has a
+ * fixed width:
+ *
+ * <pre>
+ * int   hash (0 for an empty slot)
+ * short id length
+ * byte  id[maxIdBytes], UTF-8
+ * long  balance, minor units, 8-byte aligned
+ * </pre>
+ *
+ * The table doubles when it is three quarters full. All access goes through
+ * the segment monitor, held for a probe and a few reads or writes, so slots
+ * can move on resize without readers noticing.
+ *
+ */
+class OffHeapTable {
+
+	private static final int HASH = 0;
+
+	private static final int LENGTH = 4;
+
+	private static final int ID = 6;
+
+	private static final int MAX_BYTES = Integer.MAX_VALUE - 8;
+
+	private final int initialCapacity;
+
+	private final int slotSize;
+
+	private final int balanceOffset;
+
+	private ByteBuffer slots;
+
+	private int mask;
+
+	private int size;
+
+	OffHeapTable(int initialCapacity, int maxIdBytes) {
+		this.balanceOffset = (ID + maxIdBytes + 7) & ~7;
+		this.slotSize = this.balanceOffset + 8;
+		int capacity = 16;
+		while (capacity < initialCapacity * 4 / 3) {
+			capacity <<= 1;
+		}
+		this.initialCapacity = capacity;
+		allocate(capacity);
+	}
+
+	int getSlotSize() {
+		return slotSize;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	synchronized long capacityBytes() {
+		return slots.capacity();
+	}
+
+	/**
+	 * @return false if the id is already in the table
+	 */
+	synchronized boolean insert(int hash, byte[] id, long balance) {
+		if (find(hash, id) >= 0) {
+			return false;
+		}
+		if (size + 1 > (mask + 1) / 4 * 3) {
+			resize();
+		}
+		int offset = emptySlot(hash);
+		slots.putInt(offset + HASH, hash);
+		slots.putShort(offset + LENGTH, (short) id.length);
+		for (int i = 0; i < id.length; i++) {
+			slots.put(offset + ID + i, id[i]);
+		}
+		slots.putLong(offset + balanceOffset, balance);
+		size++;
+		return true;
+	}
+
+	synchronized boolean contains(int hash, byte[] id) {
+		return find(hash, id) >= 0;
+	}
+
+	synchronized long balance(int hash, byte[] id) {
+		return slots.getLong(existing(hash, id) + balanceOffset);
+	}
+
+	synchronized void setBalance(int hash, byte[] id, long balance) {
+		slots.putLong(existing(hash, id) + balanceOffset, balance);
+	}
+
+	/**
+	 * @return false, leaving the balance untouched, if it doesn't cover the amount
+	 */
+	synchronized boolean withdraw(int hash, byte[] id, long amount) {
+		int offset = existing(hash, id) + balanceOffset;
+		long balance = slots.getLong(offset);
+		if (amount > balance) {
+			return false;
+		}
+		slots.putLong(offset, balance - amount);
+		return true;
+	}
+
+	/**
+	 * @throws ArithmeticException if the balance would overflow
+	 */
+	synchronized void deposit(int hash, byte[] id, long amount) {
+		int offset = existing(hash, id) + balanceOffset;
+		slots.putLong(offset, Math.addExact(slots.getLong(offset), amount));
+	}
+
+	/**
+	 * @return the ids in the segment at the time of the call
+	 */
+	synchronized List<String> ids() {
+		List<String> ids = new ArrayList<>(size);
+		byte[] id = new byte[balanceOffset - ID];
+		for (int slot = 0; slot <= mask; slot++) {
+			int offset = slot * slotSize;
+			if (slots.getInt(offset + HASH) != 0) {
+				int length = slots.getShort(offset + LENGTH);
+				for (int i = 0; i < length; i++) {
+					id[i] = slots.get(offset + ID + i);
+				}
+				ids.add(new String(id, 0, length, StandardCharsets.UTF_8));
+			}
+		}
+		return ids;
+	}
+
+	synchronized void clear() {
+		allocate(initialCapacity);
+	}
+
+	private void allocate(int capacity) {
+		if ((long) capacity * slotSize > MAX_BYTES) {
+			throw new IllegalStateException("Off-heap segment can't grow past " + (mask + 1) + " accounts, add segments");
+		}
+		// direct buffers are zeroed, every slot starts empty
+		this.slots = ByteBuffer.allocateDirect(capacity * slotSize).order(ByteOrder.nativeOrder());
+		this.mask = capacity - 1;
+		this.size = 0;
+	}
+
+	private void resize() {
+		ByteBuffer old = slots;
+		int oldCapacity = mask + 1;
+		allocate(oldCapacity * 2);
+		for (int slot = 0; slot < oldCapacity; slot++) {
+			int from = slot * slotSize;
+			int hash = old.getInt(from + HASH);
+			if (hash != 0) {
+				int to = emptySlot(hash);
+				for (int i = 0; i < slotSize; i++) {
+					slots.put(to + i, old.get(from + i));
+				}
+				size++;
+			}
+		}
+	}
+
+	private int emptySlot(int hash) {
+		int slot = hash & mask;
+		while (slots.getInt(slot * slotSize + HASH) != 0) {
+			slot = (slot + 1) & mask;
+		}
+		return slot * slotSize;
+	}
+
+	/**
+	 * @return the offset of the slot holding the id, -1 if there is none
+	 */
+	private int find(int hash, byte[] id) {
+		int slot = hash & mask;
+		while (true) {
+			int offset = slot * slotSize;
+			int slotHash = slots.getInt(offset + HASH);
+			if (slotHash == 0) {
+				return -1;
+			}
+			if (slotHash == hash && matches(offset, id)) {
+				return offset;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean matches(int offset, byte[] id) {
+		if (slots.getShort(offset + LENGTH) != id.length) {
+			return false;
+		}
+		for (int i = 0; i < id.length; i++) {
+			if (slots.get(offset + ID + i) != id[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int existing(int hash, byte[] id) {
+		int offset = find(hash, id);
+		if (offset < 0) {
+			throw new AccountNotFoundException("Account id " + new String(id, StandardCharsets.UTF_8) + " not found");
+		}
+		return offset;
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.db.awmd.challenge.repository.partition;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps account ids to the nodes owning them. Every node has many points on
+ * a ring of 64 bit hashes, an account belongs to the node of the first
+ * point at or after the hash of its id. Adding or removing a node only
+ * moves the accounts between its points and the previous ones, about
+ * {@code 1 / nodes} of them. Immutable, the same nodes give the same
+ * mapping on every node.
+ *
+ */
+public final class ConsistentHashRing {
+
+	private final String[] nodes;
+
+	/** sorted */
+	private final long[] points;
+
+	/** node index of every point */
+	private final int[] owners;
+
+	public ConsistentHashRing(List<String> nodes, int virtualNodes) {
+		if (nodes.isEmpty()) {
+			throw new IllegalArgumentException("A ring needs at least one node");
+		}
+		this.nodes = nodes.toArray(new String[0]);
+		int size = this.nodes.length * virtualNodes;
+		long[] keys = new long[size];
+		for (int node = 0; node < this.nodes.length; node++) {
+			for (int i = 0; i < virtualNodes; i++) {
+				keys[node * virtualNodes + i] = hash(this.nodes[node] + '#' + i);
+			}
+		}
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+		this.points = new long[size];
+		this.owners = new int[size];
+		for (int i = 0; i < size; i++) {
+			this.points[i] = keys[order[i]];
+			this.owners[i] = order[i] / virtualNodes;
+		}
+	}
+
+	public String ownerOf(String accountId) {
+		return nodes[indexOf(accountId)];
+	}
+
+	/**
+	 * @return the index of the owner in the list of nodes
+	 */
+	public int indexOf(String accountId) {
+		int point = Arrays.binarySearch(points, hash(accountId));
+		if (point < 0) {
+			point = -point - 1;
+		}
+		return owners[point == points.length ? 0 : point];
+	}
+
+	public List<String> getNodes() {
+		return Arrays.asList(nodes);
+	}
+
+	/**
+	 * FNV-1a over the chars, finished with the murmur3 mix so ids differing
+	 * only at the end still land far apart
+	 */
+	static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h = (h ^ value.charAt(i)) * 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
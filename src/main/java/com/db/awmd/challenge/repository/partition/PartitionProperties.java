@@ -0,0 +1,72 @@
+package com.db.awmd.challenge.repository.partition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of a partitioned deployment, every node is given the same list
+ * of nodes and its own url in it
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.partition")
+public class PartitionProperties {
+
+	private boolean enabled = false;
+
+	/**
+	 * Base url of this node, as it appears in {@link #nodes}
+	 */
+	private String self = "http://localhost:18080";
+
+	/**
+	 * Base urls of all nodes, the same list in the same order on every node
+	 */
+	private List<String> nodes = new ArrayList<>();
+
+	/**
+	 * Points of every node on the hash ring, more spread the accounts more evenly
+	 */
+	private int virtualNodes = 160;
+
+	/**
+	 * Shared by all nodes and sent with every internal call, the internal
+	 * endpoints refuse calls without it
+	 */
+	private String secret;
+
+	/**
+	 * Account of each node holding the money in transit to and from the
+	 * other nodes, see {@link com.db.awmd.challenge.domain.SettlementAccount}
+	 */
+	private String settlementAccountId = "~settlement";
+
+	/**
+	 * Threads calling the other nodes
+	 */
+	private int clientThreads = 32;
+
+	private int connectTimeoutMillis = 1000;
+
+	private int readTimeoutMillis = 5000;
+
+	/**
+	 * A credit prepared and not committed within this time is aborted
+	 */
+	private long preparedTimeoutSeconds = 30;
+
+	/**
+	 * Outcomes of credits are remembered this long, a coordinator keeps
+	 * retrying an unanswered commit for as long
+	 */
+	private long decisionRetentionSeconds = 3600;
+
+	private long commitRetryMillis = 1000;
+
+}
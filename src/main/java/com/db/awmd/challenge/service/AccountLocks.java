@@ -0,0 +1,105 @@
+package com.db.awmd.challenge.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Striped locks used to serialize operations touching the same accounts.
+ * Each account id is mapped to one stripe and stripes are always acquired
+ * in ascending order, so transfers in opposite directions can't deadlock.
+ *
+ */
+@Component
+public class AccountLocks {
+
+	private final Lock[] stripes;
+
+	private final int mask;
+
+	@Autowired
+	public AccountLocks(@Value("${accounts.locks.stripes:1024}") int stripes) {
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		this.stripes = new Lock[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+		this.mask = size - 1;
+	}
+
+	public int stripeOf(String accountId) {
+		int h = accountId.hashCode();
+		// spread the higher bits, account ids often differ only at the end
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	public void lock(String accountId) {
+		stripes[stripeOf(accountId)].lock();
+	}
+
+	public void unlock(String accountId) {
+		stripes[stripeOf(accountId)].unlock();
+	}
+
+	public void lock(String accountIdA, String accountIdB) {
+		int a = stripeOf(accountIdA);
+		int b = stripeOf(accountIdB);
+		if (a == b) {
+			stripes[a].lock();
+		} else {
+			stripes[Math.min(a, b)].lock();
+			stripes[Math.max(a, b)].lock();
+		}
+	}
+
+	/**
+	 * @return the distinct stripes of the given accounts, in the order they must be locked
+	 */
+	public int[] stripesOf(Collection<String> accountIds) {
+		int[] stripes = new int[accountIds.size()];
+		int i = 0;
+		for (String accountId : accountIds) {
+			stripes[i++] = stripeOf(accountId);
+		}
+		Arrays.sort(stripes);
+		int distinct = 0;
+		for (int j = 0; j < stripes.length; j++) {
+			if (distinct == 0 || stripes[distinct - 1] != stripes[j]) {
+				stripes[distinct++] = stripes[j];
+			}
+		}
+		return Arrays.copyOf(stripes, distinct);
+	}
+
+	public void lock(int[] sortedStripes) {
+		for (int i = 0; i < sortedStripes.length; i++) {
+			stripes[sortedStripes[i]].lock();
+		}
+	}
+
+	public void unlock(int[] sortedStripes) {
+		for (int i = sortedStripes.length - 1; i >= 0; i--) {
+			stripes[sortedStripes[i]].unlock();
+		}
+	}
+
+	public void unlock(String accountIdA, String accountIdB) {
+		int a = stripeOf(accountIdA);
+		int b = stripeOf(accountIdB);
+		if (a == b) {
+			stripes[a].unlock();
+		} else {
+			stripes[Math.max(a, b)].unlock();
+			stripes[Math.min(a, b)].unlock();
+		}
+	}
+
+}
@@ -1,16 +1,40 @@
 package com.db.awmd.challenge.service;
 
 import java.math.BigDecimal;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.HotAccount;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.domain.dto.BatchMode;
+import com.db.awmd.challenge.domain.dto.TransferDto;
+import com.db.awmd.challenge.domain.dto.TransferResultDto;
+import com.db.awmd.challenge.domain.dto.TransferStatus;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.JournalException;
+import com.db.awmd.challenge.exception.TransactionException;
 import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.ledger.LedgerEntry;
+import com.db.awmd.challenge.repository.ledger.TransferLedger;
+import com.db.awmd.challenge.service.engine.ShardedTransferEngine;
+import com.db.awmd.challenge.service.metrics.TransferMetrics;
+import com.db.awmd.challenge.service.metrics.TransferOutcome;
+import com.db.awmd.challenge.service.notification.NotificationDispatcher;
+import com.db.awmd.challenge.service.partition.PartitionRouter;
 
 import lombok.Getter;
+import lombok.Setter;
 
 @Service
 public class AccountsService {
@@ -18,43 +42,417 @@ public class AccountsService {
 	@Getter
 	private final AccountsRepository accountsRepository;
 	
-	private final EmailNotificationService emailNotificationService;
+	private final AccountLocks accountLocks;
 	
-	private final Lock lock = new ReentrantLock();
+	private final NotificationDispatcher notificationDispatcher;
+	
+	private final TransferMetrics transferMetrics;
+	
+	/**
+	 * Number of best-effort batch transfers applied under one acquisition of their account locks
+	 */
+	@Setter
+	@Value("${accounts.batch.chunk-size:256}")
+	private int batchChunkSize = 256;
+
+	/**
+	 * Single-writer engine applying the transfers instead of the account locks, if enabled
+	 */
+	@Setter
+	@Autowired(required = false)
+	private ShardedTransferEngine transferEngine;
+
+	/**
+	 * Records the completed transfers for the account history, if enabled
+	 */
+	@Setter
+	@Autowired(required = false)
+	private TransferLedger ledger;
+
+	/**
+	 * Sends what concerns accounts of other nodes to their owner, if partitioned
+	 */
+	@Setter
+	@Autowired(required = false)
+	private PartitionRouter partitionRouter;
 
 	@Autowired
-	public AccountsService(AccountsRepository accountsRepository,
-			EmailNotificationService emailNotificationService) {
+	public AccountsService(AccountsRepository accountsRepository, AccountLocks accountLocks,
+			NotificationDispatcher notificationDispatcher, TransferMetrics transferMetrics) {
 		this.accountsRepository = accountsRepository;
-		this.emailNotificationService = emailNotificationService;
+		this.accountLocks = accountLocks;
+		this.notificationDispatcher = notificationDispatcher;
+		this.transferMetrics = transferMetrics;
 	}
 
 	public void createAccount(Account account) {
+		if (this.partitionRouter != null) {
+			this.partitionRouter.createAccount(account);
+			return;
+		}
 		this.accountsRepository.createAccount(account);
 	}
 
+	/**
+	 * @return one entry per account: null if it was created, the duplicate exception otherwise
+	 */
+	public List<DuplicateAccountIdException> createAccounts(List<Account> accounts) {
+		if (this.partitionRouter != null) {
+			return this.partitionRouter.createAccounts(accounts);
+		}
+		return this.accountsRepository.createAccounts(accounts);
+	}
+
+	/**
+	 * @return the account, a copy read from its owner if it belongs to another node
+	 */
 	public Account getAccount(String accountId) {
+		if (this.partitionRouter != null) {
+			return this.partitionRouter.getAccount(accountId);
+		}
 		return this.accountsRepository.getAccount(accountId);
 	}
 
+	/**
+	 * Visits the accounts of this node only, if partitioned
+	 */
+	public void forEachAccount(Consumer<Account> action) {
+		if (this.partitionRouter != null) {
+			PartitionRouter partitionRouter = this.partitionRouter;
+			this.accountsRepository.forEachAccount(account -> {
+				if (!partitionRouter.isSettlementAccount(account.getAccountId())) {
+					action.accept(account);
+				}
+			});
+			return;
+		}
+		this.accountsRepository.forEachAccount(action);
+	}
+
+	/**
+	 * @return the transfers of the account recorded by the ledger, newest
+	 * first, see {@link TransferLedger#history}
+	 */
+	public List<LedgerEntry> getTransfers(String accountId, long beforeId, long since, long until, int limit) {
+		if (this.ledger == null) {
+			throw new IllegalStateException("The transfer ledger is disabled");
+		}
+		if (this.partitionRouter != null && !this.partitionRouter.isLocal(accountId)) {
+			throw new IllegalStateException("The transfers of account " + accountId + " are kept by "
+					+ this.partitionRouter.ownerOf(accountId));
+		}
+		// unknown accounts are reported rather than given an empty history
+		getAccount(accountId);
+		return this.ledger.history(accountId, beforeId, since, until, limit);
+	}
+
 	public void transfer(String accountIdFrom, String accountIdTo, BigDecimal amount) {
-		lock.lock();
 		try {
-			// get accounts
-			Account accountFrom = getAccount(accountIdFrom);
-			Account accountTo = getAccount(accountIdTo);
-			
-			// transfer money
-			this.accountsRepository.transfer(accountFrom, accountTo, amount);
-			
-			// send notification to both accounts
-			this.emailNotificationService.notifyAboutTransfer(accountTo, amount + " sent from " + accountFrom.getAccountId());
-			this.emailNotificationService.notifyAboutTransfer(accountFrom, amount + " sent to " + accountTo.getAccountId());
-		} catch (Exception e) {
-			throw e;
+			transferAsync(accountIdFrom, accountIdTo, amount).join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+		}
+	}
+
+	/**
+	 * Same as {@link #transfer(String, String, BigDecimal)} without waiting for
+	 * the transfer to be durable: the calling thread is only held while the
+	 * accounts are locked, or not at all with the sharded engine.
+	 * <p>
+	 * If partitioned, a transfer debiting an account of another node is
+	 * applied by that node, one crediting an account of another node is
+	 * applied in two phases, see {@link PartitionRouter}.
+	 * 
+	 * @return completed once the transfer is applied and durable, or
+	 * exceptionally with the reason it was rejected
+	 */
+	public CompletableFuture<Void> transferAsync(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+		return tryTransferAsync(accountIdFrom, accountIdTo, amount).thenApply(rejection -> {
+			if (rejection != null) {
+				throw rejection.exception(accountIdFrom, accountIdTo);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Same as {@link #transferAsync(String, String, BigDecimal)}, an unknown
+	 * account or a lack of money is the value of the future instead of an
+	 * exception. A rejected local transfer allocates nothing, its future is
+	 * the shared one of the {@link TransferRejection}; transfers forwarded to
+	 * another node or applied by the sharded engine still fail exceptionally.
+	 * 
+	 * @return completed with null once the transfer is applied and durable,
+	 * with why it wasn't applied, or exceptionally if it failed otherwise
+	 */
+	public CompletableFuture<TransferRejection> tryTransferAsync(String accountIdFrom, String accountIdTo,
+			BigDecimal amount) {
+		if (this.partitionRouter != null && !this.partitionRouter.isLocal(accountIdFrom)) {
+			// the owner records and notifies the transfer
+			return this.partitionRouter.forwardTransfer(accountIdFrom, accountIdTo, amount).thenApply(ignored -> null);
+		}
+		long start = System.nanoTime();
+		// get accounts
+		Account accountFrom = findLocalAccount(accountIdFrom);
+		if (accountFrom == null) {
+			return reject(TransferRejection.ACCOUNT_FROM_NOT_FOUND);
+		}
+		Account accountTo;
+		CompletableFuture<?> applied;
+		try {
+			if (this.partitionRouter != null && !this.partitionRouter.isLocal(accountIdTo)) {
+				// the owner checks the account exists when the credit is prepared
+				accountTo = new Account(accountIdTo);
+				applied = this.partitionRouter.transferOut(accountFrom, accountIdTo, amount);
+			} else {
+				accountTo = findLocalAccount(accountIdTo);
+				if (accountTo == null) {
+					return reject(TransferRejection.ACCOUNT_TO_NOT_FOUND);
+				}
+				if (this.transferEngine != null) {
+					applied = this.transferEngine.submit(accountFrom, accountTo, amount);
+				} else {
+					CompletableFuture<TransferRejection> locked = transferLocked(accountFrom, accountTo, amount);
+					TransferRejection rejection = rejectionOf(locked);
+					if (rejection != null) {
+						return reject(rejection);
+					}
+					applied = locked;
+				}
+			}
+		} catch (AccountNotFoundException | TransactionException e) {
+			this.transferMetrics.recordFailure(e);
+			CompletableFuture<TransferRejection> result = new CompletableFuture<>();
+			result.completeExceptionally(e);
+			return result;
+		}
+
+		CompletableFuture<TransferRejection> result = new CompletableFuture<>();
+		applied.whenComplete((ignored, e) -> {
+			if (e != null) {
+				Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+				if (cause instanceof RuntimeException) {
+					this.transferMetrics.recordFailure((RuntimeException) cause);
+				}
+				result.completeExceptionally(cause);
+				return;
+			}
+			// notify both accounts once the transfer is committed, delivery happens in background
+			long notificationStart = System.nanoTime();
+			this.notificationDispatcher.publish(accountTo, amount + " sent from " + accountFrom.getAccountId());
+			this.notificationDispatcher.publish(accountFrom, amount + " sent to " + accountTo.getAccountId());
+			long end = System.nanoTime();
+			this.transferMetrics.getNotification().record(end - notificationStart);
+			this.transferMetrics.getTotal().record(end - start);
+			this.transferMetrics.recordOutcome(TransferOutcome.COMPLETED);
+			result.complete(null);
+		});
+		return result;
+	}
+
+	private CompletableFuture<TransferRejection> reject(TransferRejection rejection) {
+		this.transferMetrics.recordRejection(rejection);
+		return rejection.future();
+	}
+
+	/**
+	 * @return the account of this node, null if there is none with this id
+	 */
+	private Account findLocalAccount(String accountId) {
+		if (this.partitionRouter != null && this.partitionRouter.isSettlementAccount(accountId)) {
+			return null;
+		}
+		return this.accountsRepository.findAccount(accountId);
+	}
+
+	/**
+	 * @return the rejection the future is already completed with, null if
+	 * the transfer was applied or the future is not completed yet
+	 */
+	private static TransferRejection rejectionOf(CompletableFuture<TransferRejection> future) {
+		return future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+	}
+
+	/**
+	 * @return completed once the transfer, already applied, is durable, or
+	 * already completed with why it wasn't applied
+	 */
+	private CompletableFuture<TransferRejection> transferLocked(Account accountFrom, Account accountTo,
+			BigDecimal amount) {
+		// only the two accounts involved are locked, always in the same order. Deposits
+		// to a hot account are safe without its lock, only the account debited is locked
+		boolean hotAccountTo = accountTo instanceof HotAccount;
+		long lockStart = System.nanoTime();
+		if (hotAccountTo) {
+			this.accountLocks.lock(accountFrom.getAccountId());
+		} else {
+			this.accountLocks.lock(accountFrom.getAccountId(), accountTo.getAccountId());
+		}
+		long locked = System.nanoTime();
+		this.transferMetrics.getLockWait().record(locked - lockStart);
+		try {
+			// transfer money, durability is waited for once the accounts are unlocked
+			CompletableFuture<TransferRejection> durable = this.accountsRepository.tryTransferAsync(accountFrom,
+					accountTo, amount);
+			if (rejectionOf(durable) == null) {
+				record(accountFrom, accountTo, amount);
+			}
+			return durable;
+		} finally {
+			if (hotAccountTo) {
+				this.accountLocks.unlock(accountFrom.getAccountId());
+			} else {
+				this.accountLocks.unlock(accountFrom.getAccountId(), accountTo.getAccountId());
+			}
+			this.transferMetrics.getRepository().record(System.nanoTime() - locked);
+		}
+	}
+
+	/**
+	 * Applies the transfers in the given order. Transfers are grouped in chunks
+	 * whose accounts are locked together, an atomic batch being a single chunk,
+	 * so later transfers always see the effect of earlier ones. Durability is
+	 * waited for once the chunk is unlocked, a transfer applied but not made
+	 * durable is reported rejected.
+	 * <p>
+	 * Atomic batches are refused with the sharded engine: its shards debit
+	 * accounts without the locks, a transfer to undo could find its money
+	 * gone and leave the batch half applied.
+	 * 
+	 * @return the result of every transfer, in request order
+	 * @throws TransactionException for an atomic batch with the sharded engine
+	 */
+	public List<TransferResultDto> transferBatch(List<TransferDto> transfers, BatchMode mode) {
+		if (mode == BatchMode.ATOMIC && this.transferEngine != null) {
+			throw new TransactionException("Atomic batches can't be rolled back with the sharded engine, use BEST_EFFORT.");
+		}
+		TransferResultDto[] results = new TransferResultDto[transfers.size()];
+		int chunkSize = mode == BatchMode.ATOMIC ? transfers.size() : Math.max(1, this.batchChunkSize);
+		for (int start = 0; start < transfers.size(); start += chunkSize) {
+			transferChunk(transfers, start, Math.min(start + chunkSize, transfers.size()), mode, results);
+		}
+		return Arrays.asList(results);
+	}
+
+	private void transferChunk(List<TransferDto> transfers, int start, int end, BatchMode mode,
+			TransferResultDto[] results) {
+		Set<String> accountIds = new HashSet<>();
+		for (int i = start; i < end; i++) {
+			accountIds.add(transfers.get(i).getAccountFrom());
+			accountIds.add(transfers.get(i).getAccountTo());
+		}
+		Account[] accountsFrom = new Account[end - start];
+		Account[] accountsTo = new Account[end - start];
+		// nobody waits for the journal under the locks of the chunk
+		CompletableFuture<?>[] durable = new CompletableFuture<?>[end - start];
+
+		int[] stripes = this.accountLocks.stripesOf(accountIds);
+		this.accountLocks.lock(stripes);
+		try {
+			for (int i = start; i < end; i++) {
+				TransferDto transfer = transfers.get(i);
+				try {
+					if (transfer.getAccountFrom().equals(transfer.getAccountTo())) {
+						throw new TransactionException("Accounts must be different.");
+					}
+					Account accountFrom = getLocalAccount(transfer.getAccountFrom());
+					Account accountTo = getLocalAccount(transfer.getAccountTo());
+					durable[i - start] = this.accountsRepository.transferAsync(accountFrom, accountTo, transfer.getAmount());
+					record(accountFrom, accountTo, transfer.getAmount());
+					accountsFrom[i - start] = accountFrom;
+					accountsTo[i - start] = accountTo;
+					results[i] = new TransferResultDto(i, TransferStatus.COMPLETED, null);
+				} catch (AccountNotFoundException | TransactionException | JournalException e) {
+					// a journal that failed refuses the transfer before it is applied
+					results[i] = new TransferResultDto(i, TransferStatus.REJECTED, e.getMessage());
+					this.transferMetrics.recordFailure(e);
+					if (mode == BatchMode.ATOMIC) {
+						rollback(transfers, start, i, accountsFrom, accountsTo, durable, results);
+						for (int j = i + 1; j < end; j++) {
+							results[j] = new TransferResultDto(j, TransferStatus.SKIPPED, null);
+						}
+						break;
+					}
+				}
+			}
 		} finally {
-			lock.unlock();	
+			this.accountLocks.unlock(stripes);
+		}
+
+		for (int i = start; i < end; i++) {
+			if (durable[i - start] == null) {
+				continue;
+			}
+			try {
+				durable[i - start].join();
+			} catch (CompletionException e) {
+				RuntimeException cause = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+				this.transferMetrics.recordFailure(cause);
+				if (results[i].getStatus() == TransferStatus.COMPLETED) {
+					// applied in memory only, lost when the accounts are rebuilt from the journal
+					results[i] = new TransferResultDto(i, TransferStatus.REJECTED, cause.getMessage());
+				}
+			}
+		}
+		for (int i = start; i < end; i++) {
+			if (results[i].getStatus() == TransferStatus.COMPLETED) {
+				this.transferMetrics.recordOutcome(TransferOutcome.COMPLETED);
+				BigDecimal amount = transfers.get(i).getAmount();
+				this.notificationDispatcher.publish(accountsTo[i - start], amount + " sent from " + accountsFrom[i - start].getAccountId());
+				this.notificationDispatcher.publish(accountsFrom[i - start], amount + " sent to " + accountsTo[i - start].getAccountId());
+			}
+		}
+	}
+
+	/**
+	 * Batch transfers are applied under the locks of this node, their accounts must be on it
+	 */
+	private Account getLocalAccount(String accountId) {
+		if (this.partitionRouter != null && !this.partitionRouter.isLocal(accountId)) {
+			throw new TransactionException("Account " + accountId + " is on another partition, batch transfers stay within one.");
+		}
+		return getAccount(accountId);
+	}
+
+	/**
+	 * Undoes, newest first, the transfers applied before the rejected one. Locks
+	 * are still held and, without the sharded engine, every debit takes them, so
+	 * every reverse transfer finds the money it has to move.
+	 * <p>
+	 * A reverse transfer is journaled after the transfer it undoes, waiting for
+	 * it covers both. Once the journal failed it refuses the reverse transfer,
+	 * which is then only applied in memory, as the sharded engine gives a
+	 * refund back; the restart rebuilds the accounts from the journal.
+	 */
+	private void rollback(List<TransferDto> transfers, int start, int rejected, Account[] accountsFrom,
+			Account[] accountsTo, CompletableFuture<?>[] durable, TransferResultDto[] results) {
+		for (int i = rejected - 1; i >= start; i--) {
+			Account accountFrom = accountsTo[i - start];
+			Account accountTo = accountsFrom[i - start];
+			BigDecimal amount = transfers.get(i).getAmount();
+			try {
+				durable[i - start] = this.accountsRepository.transferAsync(accountFrom, accountTo, amount);
+			} catch (JournalException e) {
+				accountFrom.withdraw(amount);
+				accountTo.deposit(amount);
+				durable[i - start] = null;
+			}
+			record(accountFrom, accountTo, amount);
+			results[i] = new TransferResultDto(i, TransferStatus.ROLLED_BACK, null);
+		}
+	}
+
+	/**
+	 * Adds the transfer, just applied, to the ledger. Called with the accounts
+	 * locked so the ledger sees every account's transfers in the order they
+	 * were applied; a hot account credited isn't locked, its balance may
+	 * already include concurrent deposits.
+	 */
+	private void record(Account accountFrom, Account accountTo, BigDecimal amount) {
+		if (this.ledger != null) {
+			this.ledger.append(accountFrom.getAccountId(), accountTo.getAccountId(), amount, accountFrom.getBalance(),
+					accountTo.getBalance());
 		}
 	}
 
-}
\ No newline at end of file
+}
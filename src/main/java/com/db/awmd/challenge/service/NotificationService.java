@@ -1,9 +1,22 @@
 package com.db.awmd.challenge.service;
 
+import java.util.List;
+
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.notification.TransferNotification;
 
 public interface NotificationService {
 
 	void notifyAboutTransfer(Account account, String transferDescription);
 
-}
\ No newline at end of file
+	/**
+	 * Delivers a batch of notifications, implementations able to send them in
+	 * one go should override it.
+	 */
+	default void notifyAboutTransfers(List<TransferNotification> notifications) {
+		for (TransferNotification notification : notifications) {
+			notifyAboutTransfer(notification.getAccount(), notification.getTransferDescription());
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package com.db.awmd.challenge.service.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limit on the transfers in progress, adjusted to their latency in the
+ * spirit of the gradient limits of Netflix's concurrency-limits. Each
+ * window, the average latency of the window is compared with a long-term
+ * average: as long as it stays within the tolerance the limit grows by its
+ * square root, beyond it the limit shrinks in proportion, down to half.
+ * Requests past the limit are turned away instead of queueing behind the
+ * account locks, so the latency of those let in stays close to the
+ * uncontended one.
+ * <p>
+ * Acquiring and releasing are a compare-and-set and a few relaxed
+ * increments; the limit is recomputed once per window by the thread
+ * closing it.
+ *
+ */
+public class AdaptiveConcurrencyLimit {
+
+	/** weight of the new value in the limit and in the long-term latency */
+	private static final double SMOOTHING = 0.2;
+
+	private static final double LONG_TERM_SMOOTHING = 0.05;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final double tolerance;
+
+	private final long windowNanos;
+
+	private final int minWindowSamples;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private volatile int limit;
+
+	private final LongAdder windowLatency = new LongAdder();
+
+	private final LongAdder windowSamples = new LongAdder();
+
+	private final AtomicLong windowEnd;
+
+	/** most transfers in progress seen during the window, racy but only a hint */
+	private volatile int windowPeak;
+
+	/** guarded by this, only the thread closing a window updates them */
+	private double estimatedLimit;
+
+	private double longTermLatency;
+
+	private volatile double lastLatency;
+
+	public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, long windowNanos,
+			int minWindowSamples, long now) {
+		if (minLimit < 1 || maxLimit < minLimit) {
+			throw new IllegalArgumentException("The concurrency limits must be 1 <= min-limit <= max-limit");
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.tolerance = tolerance;
+		this.windowNanos = windowNanos;
+		this.minWindowSamples = minWindowSamples;
+		this.estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+		this.limit = (int) estimatedLimit;
+		this.windowEnd = new AtomicLong(now + windowNanos);
+	}
+
+	/**
+	 * @return false if the limit is reached, otherwise {@link #release} must follow
+	 */
+	public boolean tryAcquire() {
+		for (;;) {
+			int current = inFlight.get();
+			if (current >= limit) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				if (current + 1 > windowPeak) {
+					windowPeak = current + 1;
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @param latencyNanos
+	 *            how long the transfer took since it was let in
+	 */
+	public void release(long latencyNanos, long now) {
+		inFlight.decrementAndGet();
+		windowLatency.add(latencyNanos);
+		windowSamples.increment();
+		long end = windowEnd.get();
+		if (now - end >= 0 && windowEnd.compareAndSet(end, now + windowNanos)) {
+			update();
+		}
+	}
+
+	private synchronized void update() {
+		long samples = windowSamples.sumThenReset();
+		long latency = windowLatency.sumThenReset();
+		if (samples < minWindowSamples) {
+			// too few to tell, they count in the next window
+			windowSamples.add(samples);
+			windowLatency.add(latency);
+			return;
+		}
+		int peak = windowPeak;
+		windowPeak = inFlight.get();
+		double shortTermLatency = (double) latency / samples;
+		lastLatency = shortTermLatency;
+		if (longTermLatency == 0) {
+			longTermLatency = shortTermLatency;
+		} else {
+			longTermLatency += (shortTermLatency - longTermLatency) * LONG_TERM_SMOOTHING;
+			if (longTermLatency > 2 * shortTermLatency) {
+				// back from a long overload, don't take that long to forget it
+				longTermLatency *= 0.95;
+			}
+		}
+		if (peak < estimatedLimit / 2) {
+			// the limit isn't what holds transfers back, its latency says nothing about it
+			return;
+		}
+		double gradient = Math.max(0.5, Math.min(1.0, tolerance * longTermLatency / shortTermLatency));
+		double target = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+		estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit + (target - estimatedLimit) * SMOOTHING));
+		limit = (int) estimatedLimit;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return the average latency of the last window, in nanoseconds
+	 */
+	public double getLastLatency() {
+		return lastLatency;
+	}
+
+	public synchronized double getLongTermLatency() {
+		return longTermLatency;
+	}
+
+}
@@ -0,0 +1,204 @@
+package com.db.awmd.challenge.service.admission;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides whether a transfer is let in, before it waits for anything: a
+ * token bucket per client and one per account debited, so one partner or
+ * one hot account can't take everyone's share, then the
+ * {@link AdaptiveConcurrencyLimit}. A transfer turned away costs a few
+ * atomic operations and allocates nothing.
+ * <p>
+ * Buckets are created on first use. A full bucket is the same as no
+ * bucket, so once there are more than {@code max-buckets} the full ones
+ * are dropped.
+ *
+ */
+@Component
+@ConditionalOnProperty(prefix = "accounts.admission", name = "enabled", havingValue = "true")
+public class AdmissionControl {
+
+	private final AdmissionProperties properties;
+
+	private final LongSupplier nanoClock;
+
+	private final ConcurrentHashMap<String, TokenBucket> clientBuckets = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<String, TokenBucket> accountBuckets = new ConcurrentHashMap<>();
+
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+
+	private final AdaptiveConcurrencyLimit concurrencyLimit;
+
+	private final LongAdder admitted = new LongAdder();
+
+	private final LongAdder[] rejected = new LongAdder[AdmissionRejection.values().length];
+
+	@Autowired
+	public AdmissionControl(AdmissionProperties properties) {
+		this(properties, System::nanoTime);
+	}
+
+	public AdmissionControl(AdmissionProperties properties, LongSupplier nanoClock) {
+		this.properties = properties;
+		this.nanoClock = nanoClock;
+		this.concurrencyLimit = new AdaptiveConcurrencyLimit(properties.getInitialLimit(), properties.getMinLimit(),
+				properties.getMaxLimit(), properties.getLatencyTolerance(),
+				TimeUnit.MILLISECONDS.toNanos(properties.getWindowMillis()), properties.getMinWindowSamples(),
+				nanoClock.getAsLong());
+		for (int i = 0; i < rejected.length; i++) {
+			rejected[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @param accountFrom
+	 *            the account debited, null for a batch
+	 * @param permits
+	 *            transfers requested, a batch takes at most a burst of tokens
+	 * @return null if the transfer is let in and {@link #release} must follow
+	 * once it is over, why it isn't otherwise
+	 */
+	public AdmissionRejection tryAdmit(String clientId, String accountFrom, int permits) {
+		long now = nanoClock.getAsLong();
+		TokenBucket client = clientBucket(clientId, now);
+		if (client != null && !client.tryAcquire(permits, now)) {
+			return reject(AdmissionRejection.CLIENT_RATE);
+		}
+		TokenBucket account = accountFrom != null ? accountBucket(accountFrom, now) : null;
+		if (account != null && !account.tryAcquire(permits, now)) {
+			return reject(AdmissionRejection.ACCOUNT_RATE);
+		}
+		if (!concurrencyLimit.tryAcquire()) {
+			return reject(AdmissionRejection.CONCURRENCY);
+		}
+		admitted.increment();
+		return null;
+	}
+
+	/**
+	 * @param admittedAt
+	 *            {@link #now()} when the transfer was let in
+	 */
+	public void release(long admittedAt) {
+		long now = nanoClock.getAsLong();
+		concurrencyLimit.release(now - admittedAt, now);
+	}
+
+	public long now() {
+		return nanoClock.getAsLong();
+	}
+
+	private AdmissionRejection reject(AdmissionRejection rejection) {
+		rejected[rejection.ordinal()].increment();
+		return rejection;
+	}
+
+	private TokenBucket clientBucket(String clientId, long now) {
+		Double override = properties.getClientRates().get(clientId);
+		double rate = override != null ? override : properties.getClientRate();
+		if (rate <= 0) {
+			return null;
+		}
+		int burst = override == null || properties.getClientRate() <= 0 ? properties.getClientBurst()
+				: (int) Math.max(1, Math.round(properties.getClientBurst() * rate / properties.getClientRate()));
+		return bucket(clientBuckets, clientId, rate, burst, now);
+	}
+
+	private TokenBucket accountBucket(String accountId, long now) {
+		if (properties.getAccountRate() <= 0) {
+			return null;
+		}
+		return bucket(accountBuckets, accountId, properties.getAccountRate(), properties.getAccountBurst(), now);
+	}
+
+	private TokenBucket bucket(ConcurrentHashMap<String, TokenBucket> buckets, String key, double rate, int burst,
+			long now) {
+		// the common case only reads the map
+		TokenBucket bucket = buckets.get(key);
+		if (bucket != null) {
+			return bucket;
+		}
+		TokenBucket created = new TokenBucket(rate, burst, now);
+		bucket = buckets.putIfAbsent(key, created);
+		if (bucket != null) {
+			return bucket;
+		}
+		if (buckets.size() > properties.getMaxBuckets()) {
+			sweep(buckets, now);
+		}
+		return created;
+	}
+
+	/**
+	 * Drops the full buckets. A caller still holding one it just got may take
+	 * a token from it after it is dropped, letting that key in a burst early
+	 * at worst.
+	 */
+	private void sweep(Map<String, TokenBucket> buckets, long now) {
+		if (!sweeping.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			buckets.values().removeIf(bucket -> bucket.isFull(now));
+		} finally {
+			sweeping.set(false);
+		}
+	}
+
+	public long getAdmitted() {
+		return admitted.sum();
+	}
+
+	public long getRejected(AdmissionRejection rejection) {
+		return rejected[rejection.ordinal()].sum();
+	}
+
+	public int getLimit() {
+		return concurrencyLimit.getLimit();
+	}
+
+	public int getInFlight() {
+		return concurrencyLimit.getInFlight();
+	}
+
+	public double getLastLatencyNanos() {
+		return concurrencyLimit.getLastLatency();
+	}
+
+	public double getLongTermLatencyNanos() {
+		return concurrencyLimit.getLongTermLatency();
+	}
+
+	public int getClientBuckets() {
+		return clientBuckets.size();
+	}
+
+	public int getAccountBuckets() {
+		return accountBuckets.size();
+	}
+
+	/**
+	 * @return the header naming the client
+	 */
+	public String getClientHeader() {
+		return properties.getClientHeader();
+	}
+
+	/**
+	 * @return whether a request from this address may name its client
+	 */
+	public boolean isTrustedProxy(String remoteAddress) {
+		return properties.getTrustedProxies().contains(remoteAddress);
+	}
+
+}
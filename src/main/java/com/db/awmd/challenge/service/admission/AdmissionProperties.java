@@ -0,0 +1,85 @@
+package com.db.awmd.challenge.service.admission;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of the admission control in front of the transfer endpoints.
+ * Rates are transfers per second, 0 turns the limit off.
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.admission")
+public class AdmissionProperties {
+
+	private boolean enabled = false;
+
+	/**
+	 * Header naming the client, only taken from {@link #trustedProxies}
+	 */
+	private String clientHeader = "X-Client-Id";
+
+	/**
+	 * Remote addresses of the proxies allowed to name the client, other
+	 * requests are counted against their remote address
+	 */
+	private List<String> trustedProxies = new ArrayList<>();
+
+	private double clientRate = 1000;
+
+	/**
+	 * Transfers a client may send at once after being idle
+	 */
+	private int clientBurst = 2000;
+
+	/**
+	 * Rates of given clients instead of {@link #clientRate}, their burst is
+	 * scaled alike
+	 */
+	private Map<String, Double> clientRates = new HashMap<>();
+
+	/**
+	 * Transfers debiting the same account
+	 */
+	private double accountRate = 50;
+
+	private int accountBurst = 100;
+
+	/**
+	 * Client and account buckets kept each, full ones are dropped beyond it
+	 */
+	private int maxBuckets = 100_000;
+
+	/**
+	 * Transfers in progress at most, before the first latency samples adjust it
+	 */
+	private int initialLimit = 64;
+
+	private int minLimit = 8;
+
+	private int maxLimit = 1024;
+
+	/**
+	 * How much slower than usual transfers may get before the limit shrinks
+	 */
+	private double latencyTolerance = 1.5;
+
+	/**
+	 * Latencies are averaged over windows this long before the limit is adjusted
+	 */
+	private long windowMillis = 100;
+
+	/**
+	 * Windows with fewer transfers are merged into the next one
+	 */
+	private int minWindowSamples = 20;
+
+}
@@ -0,0 +1,25 @@
+package com.db.awmd.challenge.service.admission;
+
+/**
+ * Why a transfer was not let in, the client should retry later
+ *
+ */
+public enum AdmissionRejection {
+
+	CLIENT_RATE("Too many transfers from this client, retry later."),
+
+	ACCOUNT_RATE("Too many transfers from this account, retry later."),
+
+	CONCURRENCY("Too many transfers in progress, retry later.");
+
+	private final String message;
+
+	AdmissionRejection(String message) {
+		this.message = message;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.db.awmd.challenge.service.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as a single timestamp, the generic cell rate
+ * algorithm: the time at which the bucket would be full again. Taking a
+ * token moves it one refill interval later, which is refused once it would
+ * be more than a burst ahead of now. One compare-and-set per acquisition,
+ * no lock and no refill thread.
+ *
+ */
+public class TokenBucket {
+
+	private final long intervalNanos;
+
+	private final long burstNanos;
+
+	private final int burst;
+
+	/** when the bucket is full again, in {@link System#nanoTime()} time */
+	private final AtomicLong fullAt;
+
+	/**
+	 * @param rate
+	 *            tokens added per second
+	 * @param burst
+	 *            tokens the bucket holds, it starts full
+	 */
+	public TokenBucket(double rate, int burst, long now) {
+		if (rate <= 0 || burst < 1) {
+			throw new IllegalArgumentException("A token bucket needs a positive rate and burst");
+		}
+		this.intervalNanos = Math.max(1, (long) (1_000_000_000L / rate));
+		this.burst = burst;
+		this.burstNanos = intervalNanos * burst;
+		this.fullAt = new AtomicLong(now);
+	}
+
+	/**
+	 * @param permits
+	 *            tokens to take, at most the burst is taken
+	 * @return false, taking nothing, if the bucket doesn't have them
+	 */
+	public boolean tryAcquire(int permits, long now) {
+		long cost = intervalNanos * Math.min(permits, burst);
+		for (;;) {
+			long current = fullAt.get();
+			long next = Math.max(current - now, 0) + cost;
+			if (next > burstNanos) {
+				return false;
+			}
+			if (fullAt.compareAndSet(current, now + next)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return whether the bucket is full, a fresh bucket would behave the same
+	 */
+	public boolean isFull(long now) {
+		return fullAt.get() - now <= 0;
+	}
+
+}
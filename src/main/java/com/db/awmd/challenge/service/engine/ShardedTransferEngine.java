@@ -0,0 +1,330 @@
+package com.db.awmd.challenge.service.engine;
+
+import java.math.BigDecimal;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.exception.JournalException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountStorage;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.ledger.TransferLedger;
+import com.db.awmd.challenge.service.engine.TransferEvent.Step;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Transfer execution without locks. Accounts are hash-partitioned into
+ * shards and every shard is owned by one thread, the only one applying
+ * transfers to its accounts. Transfers are submitted to the ring of the
+ * shard owning the account debited.
+ * <p>
+ * A transfer between two shards is done in two steps: the source shard
+ * debits the money, which is then reserved, in flight, and passes the
+ * credit to the destination shard through its inbox. Should the credit
+ * fail the destination sends the reserved money back. Shards never wait on
+ * each other, so the rings can't deadlock.
+ * <p>
+ * Other writers, the batch transfers and the journal replay, still work on
+ * the accounts directly, so accounts must be safe to update concurrently:
+ * MINOR_UNITS storage or the OFF_HEAP repository.
+ *
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "accounts.execution", havingValue = "SHARDED")
+public class ShardedTransferEngine {
+
+	private static final int BATCH = 256;
+
+	private static final int SPINS = 100;
+
+	private final AccountsRepository accountsRepository;
+
+	private final Shard[] shards;
+
+	private final int mask;
+
+	private final LongAdder reservedMinorUnits = new LongAdder();
+
+	private final LongAdder crossShard = new LongAdder();
+
+	private volatile boolean running;
+
+	/**
+	 * Records the transfers applied, if enabled
+	 */
+	@Setter
+	@Autowired(required = false)
+	private TransferLedger ledger;
+
+	@Autowired
+	public ShardedTransferEngine(AccountsRepository accountsRepository,
+			@Value("${accounts.engine.shards:0}") int shards,
+			@Value("${accounts.engine.ring-size:4096}") int ringSize,
+			@Value("${accounts.repository:IN_MEMORY}") String repository,
+			@Value("${accounts.storage:DECIMAL}") AccountStorage storage) {
+		if ("JDBC".equals(repository)) {
+			throw new IllegalStateException("The sharded engine updates the accounts in memory, "
+					+ "use accounts.execution LOCKING with the JDBC repository");
+		}
+		if (!"OFF_HEAP".equals(repository) && storage == AccountStorage.DECIMAL) {
+			throw new IllegalStateException("The sharded engine needs accounts safe to update concurrently, "
+					+ "use accounts.storage MINOR_UNITS or accounts.repository OFF_HEAP");
+		}
+		this.accountsRepository = accountsRepository;
+		int size = 1;
+		while (size < (shards > 0 ? shards : Runtime.getRuntime().availableProcessors())) {
+			size <<= 1;
+		}
+		this.shards = new Shard[size];
+		for (int i = 0; i < size; i++) {
+			this.shards[i] = new Shard(i, ringSize);
+		}
+		this.mask = size - 1;
+	}
+
+	@PostConstruct
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		for (Shard shard : shards) {
+			shard.thread = new Thread(shard, "transfer-shard-" + shard.index);
+			shard.thread.setDaemon(true);
+			shard.thread.start();
+		}
+	}
+
+	/**
+	 * Stops the shards once every submitted transfer has been applied.
+	 */
+	@PreDestroy
+	public synchronized void stop() throws InterruptedException {
+		running = false;
+		for (Shard shard : shards) {
+			if (shard.thread != null) {
+				LockSupport.unpark(shard.thread);
+				shard.thread.join();
+				shard.thread = null;
+			}
+		}
+	}
+
+	/**
+	 * @return completed once the money is on the destination account and the
+	 * transfer durable, or exceptionally with the reason it was rejected
+	 */
+	public CompletableFuture<Void> submit(Account accountFrom, Account accountTo, BigDecimal amount) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		Shard shard = shardOf(accountFrom);
+		TransferRingBuffer ring = shard.ring;
+		long sequence = ring.claim();
+		ring.get(sequence).set(Step.DEBIT, accountFrom, accountTo, amount, result);
+		ring.publish(sequence);
+		shard.wakeUp();
+		return result;
+	}
+
+	public int getShards() {
+		return shards.length;
+	}
+
+	/**
+	 * @return money debited by cross-shard transfers and not credited yet, in minor units
+	 */
+	public long getReservedMinorUnits() {
+		return reservedMinorUnits.sum();
+	}
+
+	public long getCrossShardTransfers() {
+		return crossShard.sum();
+	}
+
+	public long getQueued() {
+		long queued = 0;
+		for (Shard shard : shards) {
+			queued += shard.ring.size() + shard.inbox.size();
+		}
+		return queued;
+	}
+
+	public long getApplied() {
+		long applied = 0;
+		for (Shard shard : shards) {
+			applied += shard.applied;
+		}
+		return applied;
+	}
+
+	private Shard shardOf(Account account) {
+		int h = account.getAccountId().hashCode();
+		return shards[(h ^ (h >>> 16)) & mask];
+	}
+
+	private final class Shard implements Runnable {
+
+		final int index;
+
+		final TransferRingBuffer ring;
+
+		/** credits and refunds sent by the other shards */
+		final Queue<TransferEvent> inbox = new ConcurrentLinkedQueue<>();
+
+		volatile boolean sleeping;
+
+		volatile long applied;
+
+		Thread thread;
+
+		Shard(int index, int ringSize) {
+			this.index = index;
+			this.ring = new TransferRingBuffer(ringSize);
+		}
+
+		void send(TransferEvent message) {
+			inbox.add(message);
+			wakeUp();
+		}
+
+		void wakeUp() {
+			if (sleeping) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		@Override
+		public void run() {
+			int idle = 0;
+			while (running || !ring.isEmpty() || !inbox.isEmpty() || reservedMinorUnits.sum() != 0) {
+				int work = 0;
+				TransferEvent message;
+				while (work < BATCH && (message = inbox.poll()) != null) {
+					handle(message);
+					work++;
+				}
+				work += ring.drain(this::handle, BATCH);
+				if (work > 0) {
+					applied += work;
+					idle = 0;
+				} else if (++idle < SPINS) {
+					Thread.yield();
+				} else {
+					sleeping = true;
+					// checked again after announcing it, a producer may have missed the flag
+					if (ring.isEmpty() && inbox.isEmpty() && running) {
+						LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+					}
+					sleeping = false;
+				}
+			}
+		}
+
+		private void handle(TransferEvent event) {
+			try {
+				switch (event.step) {
+				case DEBIT:
+					debit(event);
+					break;
+				case CREDIT:
+					credit(event);
+					break;
+				case REFUND:
+					refund(event);
+					break;
+				}
+			} catch (RuntimeException e) {
+				log.error("Unexpected error while applying a transfer step {}", event.step, e);
+				event.result.completeExceptionally(e);
+			}
+		}
+
+		private void debit(TransferEvent event) {
+			try {
+				accountsRepository.checkWritable();
+				event.accountFrom.withdraw(event.amount);
+			} catch (TransactionException | JournalException e) {
+				event.result.completeExceptionally(e);
+				return;
+			}
+			Shard destination = shardOf(event.accountTo);
+			if (destination == this) {
+				try {
+					event.accountTo.deposit(event.amount);
+				} catch (TransactionException e) {
+					event.accountFrom.deposit(event.amount);
+					event.result.completeExceptionally(e);
+					return;
+				}
+				complete(event.accountFrom, event.accountTo, event.amount,
+						ledger != null ? event.accountFrom.getBalance() : null, event.result);
+				return;
+			}
+			// the ring slot is reused once this returns, the other shard gets its own copy
+			TransferEvent credit = new TransferEvent();
+			credit.set(Step.CREDIT, event.accountFrom, event.accountTo, event.amount, event.result);
+			credit.balanceFrom = ledger != null ? event.accountFrom.getBalance() : null;
+			reservedMinorUnits.add(Money.toMinorUnits(event.amount));
+			crossShard.increment();
+			destination.send(credit);
+		}
+
+		private void credit(TransferEvent event) {
+			try {
+				event.accountTo.deposit(event.amount);
+			} catch (TransactionException e) {
+				event.step = Step.REFUND;
+				event.failure = e;
+				shardOf(event.accountFrom).send(event);
+				return;
+			}
+			reservedMinorUnits.add(-Money.toMinorUnits(event.amount));
+			complete(event.accountFrom, event.accountTo, event.amount, event.balanceFrom, event.result);
+		}
+
+		private void refund(TransferEvent event) {
+			event.accountFrom.deposit(event.amount);
+			reservedMinorUnits.add(-Money.toMinorUnits(event.amount));
+			event.result.completeExceptionally(event.failure);
+		}
+
+		/**
+		 * @param balanceFrom
+		 *            the balance the debit left the account debited with, read
+		 *            on its shard
+		 */
+		private void complete(Account accountFrom, Account accountTo, BigDecimal amount, BigDecimal balanceFrom,
+				CompletableFuture<Void> result) {
+			if (ledger != null) {
+				// the destination shard is the only writer of the account credited
+				ledger.append(accountFrom.getAccountId(), accountTo.getAccountId(), amount, balanceFrom,
+						accountTo.getBalance());
+			}
+			accountsRepository.transferApplied(accountFrom, accountTo, amount).whenComplete((lsn, e) -> {
+				if (e == null) {
+					result.complete(null);
+				} else {
+					result.completeExceptionally(new JournalException("Change applied but not made durable", e));
+				}
+			});
+		}
+
+	}
+
+}
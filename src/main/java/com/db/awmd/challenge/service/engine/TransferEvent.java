@@ -0,0 +1,60 @@
+package com.db.awmd.challenge.service.engine;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+
+import com.db.awmd.challenge.domain.Account;
+
+/**
+ * Slot of a {@link TransferRingBuffer}, filled by the submitting thread and
+ * reused once the shard has consumed it. Also the message carrying the credit
+ * or the refund of a cross-shard transfer to the other shard.
+ *
+ */
+class TransferEvent {
+
+	enum Step {
+		/** first step, on the shard of the account debited */
+		DEBIT,
+		/** second step of a cross-shard transfer, on the shard of the account credited */
+		CREDIT,
+		/** the credit failed, the reserved money goes back to the account debited */
+		REFUND
+	}
+
+	Step step;
+
+	Account accountFrom;
+
+	Account accountTo;
+
+	BigDecimal amount;
+
+	CompletableFuture<Void> result;
+
+	/** set on credits, the balance the debit left the account debited with */
+	BigDecimal balanceFrom;
+
+	/** set on refunds, the reason the credit failed */
+	RuntimeException failure;
+
+	void set(Step step, Account accountFrom, Account accountTo, BigDecimal amount, CompletableFuture<Void> result) {
+		this.step = step;
+		this.accountFrom = accountFrom;
+		this.accountTo = accountTo;
+		this.amount = amount;
+		this.result = result;
+		this.balanceFrom = null;
+		this.failure = null;
+	}
+
+	void clear() {
+		this.accountFrom = null;
+		this.accountTo = null;
+		this.amount = null;
+		this.result = null;
+		this.balanceFrom = null;
+		this.failure = null;
+	}
+
+}
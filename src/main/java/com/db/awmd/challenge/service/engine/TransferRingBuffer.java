@@ -0,0 +1,98 @@
+package com.db.awmd.challenge.service.engine;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bounded multi-producer, single-consumer ring of preallocated
+ * {@link TransferEvent}s, in the way of the LMAX Disruptor. Producers claim
+ * a sequence with one atomic increment, fill the slot in place and publish
+ * it by writing the slot's round; the consumer walks the sequences in order
+ * and only reads slots whose round matches. Nothing is allocated and no
+ * lock is taken on either side.
+ *
+ */
+class TransferRingBuffer {
+
+	private final TransferEvent[] events;
+
+	private final int mask;
+
+	private final int shift;
+
+	/** round of the sequence last published in each slot */
+	private final AtomicIntegerArray published;
+
+	private final AtomicLong claimed = new AtomicLong(-1);
+
+	/** last sequence consumed, only written by the consumer */
+	private volatile long consumed = -1;
+
+	TransferRingBuffer(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.events = new TransferEvent[size];
+		this.published = new AtomicIntegerArray(size);
+		for (int i = 0; i < size; i++) {
+			this.events[i] = new TransferEvent();
+			this.published.set(i, -1);
+		}
+		this.mask = size - 1;
+		this.shift = Integer.numberOfTrailingZeros(size);
+	}
+
+	/**
+	 * Claims the next slot, waiting for the consumer while the ring is full
+	 */
+	long claim() {
+		long sequence = claimed.incrementAndGet();
+		while (sequence - events.length > consumed) {
+			// backpressure, the shard is behind by a whole ring
+			Thread.yield();
+		}
+		return sequence;
+	}
+
+	TransferEvent get(long sequence) {
+		return events[(int) sequence & mask];
+	}
+
+	void publish(long sequence) {
+		published.lazySet((int) sequence & mask, (int) (sequence >>> shift));
+	}
+
+	/**
+	 * Hands the published events to the handler, in sequence order, stopping
+	 * at the first gap or after {@code limit} events.
+	 *
+	 * @return the number of events handled
+	 */
+	int drain(Consumer<TransferEvent> handler, int limit) {
+		long next = consumed + 1;
+		int handled = 0;
+		while (handled < limit && published.get((int) next & mask) == (int) (next >>> shift)) {
+			TransferEvent event = events[(int) next & mask];
+			handler.accept(event);
+			event.clear();
+			next++;
+			handled++;
+		}
+		if (handled > 0) {
+			consumed = next - 1;
+		}
+		return handled;
+	}
+
+	boolean isEmpty() {
+		long next = consumed + 1;
+		return published.get((int) next & mask) != (int) (next >>> shift);
+	}
+
+	int size() {
+		return (int) Math.max(0, claimed.get() - consumed);
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.db.awmd.challenge.service.idempotency;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.exception.JournalException;
+import com.db.awmd.challenge.exception.PartitionUnavailableException;
+import com.db.awmd.challenge.exception.TransactionException;
+
+/**
+ * Remembers the outcome of the requests carrying an idempotency key, so a
+ * client retrying a transfer gets the original outcome back instead of
+ * moving the money twice. A retry arriving while the original request is
+ * still running waits for its outcome.
+ * <p>
+ * Lookups are a single {@link ConcurrentHashMap} read. Every key lives for
+ * the same time, so insertion order is also expiry order: a FIFO queue
+ * gives both the expired keys and the oldest ones to evict once the cache
+ * is full, without scanning the map.
+ * <p>
+ * Transfers rejected for a business reason are outcomes and are
+ * remembered like completed ones, and so is any failure that may have
+ * happened once the transfer was applied, e.g. a change not made durable:
+ * a retry would apply it twice. Only a failure known to come before
+ * anything was applied, e.g. a journal refusing changes or a node that
+ * couldn't be connected to, forgets the key so the request can be retried.
+ *
+ */
+@Component
+public class IdempotencyCache {
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	/** entries in insertion order, which is expiry order */
+	private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger queued = new AtomicInteger();
+
+	private final int maxEntries;
+
+	private final long ttlNanos;
+
+	private final LongSupplier nanoClock;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	@Autowired
+	public IdempotencyCache(IdempotencyProperties properties) {
+		this(properties, System::nanoTime);
+	}
+
+	public IdempotencyCache(IdempotencyProperties properties, LongSupplier nanoClock) {
+		this.maxEntries = properties.getMaxEntries();
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(properties.getTtlSeconds());
+		this.nanoClock = nanoClock;
+	}
+
+	/**
+	 * Runs the action once per key.
+	 *
+	 * @param fingerprint
+	 *            what the request is about, a key sent again with another
+	 *            fingerprint is rejected
+	 * @return the outcome of the first request with this key
+	 */
+	public CompletableFuture<Void> execute(String key, String fingerprint, Supplier<CompletableFuture<Void>> action) {
+		long now = nanoClock.getAsLong();
+		// replays only read the map, nothing is allocated
+		Entry existing = entries.get(key);
+		if (existing != null && existing.expiresAt - now > 0) {
+			return replay(existing, key, fingerprint);
+		}
+		Entry created = new Entry(key, fingerprint, now + ttlNanos);
+		while ((existing = entries.putIfAbsent(key, created)) != null) {
+			if (existing.expiresAt - now > 0) {
+				return replay(existing, key, fingerprint);
+			}
+			entries.remove(key, existing);
+		}
+		misses.increment();
+		order.add(created);
+		queued.incrementAndGet();
+		evict(now);
+
+		CompletableFuture<Void> result;
+		try {
+			result = action.get();
+		} catch (RuntimeException e) {
+			result = new CompletableFuture<>();
+			result.completeExceptionally(e);
+		}
+		result.whenComplete((ignored, e) -> {
+			Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+			if (isNotApplied(cause)) {
+				entries.remove(key, created);
+			}
+			if (cause == null) {
+				created.result.complete(null);
+			} else {
+				created.result.completeExceptionally(cause);
+			}
+		});
+		return created.result;
+	}
+
+	/**
+	 * @return whether the failure is known to come before the transfer
+	 * changed anything: the journal refused it, or the node owning the
+	 * account couldn't be reached or gave the reservation back
+	 */
+	private static boolean isNotApplied(Throwable cause) {
+		return cause instanceof JournalException && !((JournalException) cause).isApplied()
+				|| cause instanceof PartitionUnavailableException && !((PartitionUnavailableException) cause).isApplied();
+	}
+
+	private CompletableFuture<Void> replay(Entry existing, String key, String fingerprint) {
+		hits.increment();
+		if (!existing.fingerprint.equals(fingerprint)) {
+			CompletableFuture<Void> rejected = new CompletableFuture<>();
+			rejected.completeExceptionally(
+					new TransactionException("Idempotency key " + key + " was already used for another transfer."));
+			return rejected;
+		}
+		return existing.result;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public int getSize() {
+		return entries.size();
+	}
+
+	private void evict(long now) {
+		Entry oldest;
+		while ((oldest = order.peek()) != null && (queued.get() > maxEntries || oldest.expiresAt - now <= 0)) {
+			if (order.remove(oldest)) {
+				queued.decrementAndGet();
+				if (entries.remove(oldest.key, oldest)) {
+					evictions.increment();
+				}
+			}
+		}
+	}
+
+	private static final class Entry {
+
+		final String key;
+
+		final String fingerprint;
+
+		final long expiresAt;
+
+		final CompletableFuture<Void> result = new CompletableFuture<>();
+
+		Entry(String key, String fingerprint, long expiresAt) {
+			this.key = key;
+			this.fingerprint = fingerprint;
+			this.expiresAt = expiresAt;
+		}
+
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.db.awmd.challenge.service.idempotency;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of the transfer deduplication cache
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.idempotency")
+public class IdempotencyProperties {
+
+	/**
+	 * Keys remembered at most, the oldest are evicted first
+	 */
+	private int maxEntries = 100_000;
+
+	/**
+	 * How long a key is remembered, retries arriving later are applied again
+	 */
+	private long ttlSeconds = 24 * 60 * 60;
+
+}
@@ -0,0 +1,292 @@
+package com.db.awmd.challenge.service.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.HotAccount;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.repository.HotAccountProperties;
+import com.db.awmd.challenge.repository.audit.AuditReport;
+import com.db.awmd.challenge.repository.audit.BalanceAuditor;
+import com.db.awmd.challenge.repository.jdbc.JdbcAccountsRepository;
+import com.db.awmd.challenge.repository.mvcc.VersionedBalances;
+import com.db.awmd.challenge.repository.journal.AccountsJournal;
+import com.db.awmd.challenge.repository.journal.JournalCompactor;
+import com.db.awmd.challenge.repository.journal.JournaledAccountsRepository;
+import com.db.awmd.challenge.repository.ledger.TransferLedger;
+import com.db.awmd.challenge.repository.offheap.OffHeapAccountsRepository;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.admission.AdmissionControl;
+import com.db.awmd.challenge.service.admission.AdmissionRejection;
+import com.db.awmd.challenge.service.schedule.TransferScheduler;
+import com.db.awmd.challenge.service.engine.ShardedTransferEngine;
+import com.db.awmd.challenge.service.idempotency.IdempotencyCache;
+import com.db.awmd.challenge.service.notification.NotificationDispatcher;
+import com.db.awmd.challenge.service.partition.PartitionRouter;
+import com.db.awmd.challenge.web.binary.BinaryProtocolServer;
+
+/**
+ * Publishes the accounts metrics on the actuator {@code /metrics} endpoint,
+ * {@code /metrics/transfers.*} narrows it down to the transfer path.
+ * Latencies are in microseconds, percentiles are over the whole uptime.
+ *
+ */
+@Component
+public class AccountsPublicMetrics implements PublicMetrics {
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	private final TransferMetrics transferMetrics;
+
+	private final AccountsService accountsService;
+
+	private final HotAccountProperties hotAccountProperties;
+
+	private final NotificationDispatcher notificationDispatcher;
+
+	private final IdempotencyCache idempotencyCache;
+
+	private final ObjectProvider<OffHeapAccountsRepository> offHeapAccountsRepository;
+
+	private final ObjectProvider<AccountsJournal> accountsJournal;
+
+	private final ObjectProvider<JournalCompactor> journalCompactor;
+
+	private final ObjectProvider<JournaledAccountsRepository> journaledAccountsRepository;
+
+	private final ObjectProvider<ShardedTransferEngine> transferEngine;
+
+	private final ObjectProvider<TransferLedger> transferLedger;
+
+	private final ObjectProvider<BalanceAuditor> balanceAuditor;
+
+	private final ObjectProvider<BinaryProtocolServer> binaryProtocolServer;
+
+	private final ObjectProvider<PartitionRouter> partitionRouter;
+
+	private final ObjectProvider<AdmissionControl> admissionControl;
+
+	private final ObjectProvider<TransferScheduler> transferScheduler;
+
+	private final ObjectProvider<JdbcAccountsRepository> jdbcAccountsRepository;
+
+	private final ObjectProvider<VersionedBalances> versionedBalances;
+
+	public AccountsPublicMetrics(TransferMetrics transferMetrics, AccountsService accountsService,
+			HotAccountProperties hotAccountProperties, NotificationDispatcher notificationDispatcher,
+			IdempotencyCache idempotencyCache,
+			ObjectProvider<OffHeapAccountsRepository> offHeapAccountsRepository,
+			ObjectProvider<AccountsJournal> accountsJournal, ObjectProvider<JournalCompactor> journalCompactor,
+			ObjectProvider<JournaledAccountsRepository> journaledAccountsRepository,
+			ObjectProvider<ShardedTransferEngine> transferEngine, ObjectProvider<TransferLedger> transferLedger,
+			ObjectProvider<BalanceAuditor> balanceAuditor, ObjectProvider<BinaryProtocolServer> binaryProtocolServer,
+			ObjectProvider<PartitionRouter> partitionRouter, ObjectProvider<AdmissionControl> admissionControl,
+			ObjectProvider<TransferScheduler> transferScheduler,
+			ObjectProvider<JdbcAccountsRepository> jdbcAccountsRepository,
+			ObjectProvider<VersionedBalances> versionedBalances) {
+		this.transferMetrics = transferMetrics;
+		this.accountsService = accountsService;
+		this.hotAccountProperties = hotAccountProperties;
+		this.notificationDispatcher = notificationDispatcher;
+		this.idempotencyCache = idempotencyCache;
+		this.offHeapAccountsRepository = offHeapAccountsRepository;
+		this.accountsJournal = accountsJournal;
+		this.journalCompactor = journalCompactor;
+		this.journaledAccountsRepository = journaledAccountsRepository;
+		this.transferEngine = transferEngine;
+		this.transferLedger = transferLedger;
+		this.balanceAuditor = balanceAuditor;
+		this.binaryProtocolServer = binaryProtocolServer;
+		this.partitionRouter = partitionRouter;
+		this.admissionControl = admissionControl;
+		this.transferScheduler = transferScheduler;
+		this.jdbcAccountsRepository = jdbcAccountsRepository;
+		this.versionedBalances = versionedBalances;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		for (TransferOutcome outcome : TransferOutcome.values()) {
+			metrics.add(new Metric<>("transfers." + outcome.name().toLowerCase().replace('_', '-'),
+					transferMetrics.getCount(outcome)));
+		}
+		addLatency(metrics, "transfers.latency.lock-wait", transferMetrics.getLockWait());
+		addLatency(metrics, "transfers.latency.repository", transferMetrics.getRepository());
+		addLatency(metrics, "transfers.latency.notification", transferMetrics.getNotification());
+		addLatency(metrics, "transfers.latency.total", transferMetrics.getTotal());
+
+		long hits = idempotencyCache.getHits();
+		long lookups = hits + idempotencyCache.getMisses();
+		metrics.add(new Metric<>("transfers.idempotency.hits", hits));
+		metrics.add(new Metric<>("transfers.idempotency.hit-ratio", lookups == 0 ? 0.0 : (double) hits / lookups));
+		metrics.add(new Metric<>("transfers.idempotency.size", idempotencyCache.getSize()));
+		metrics.add(new Metric<>("transfers.idempotency.evictions", idempotencyCache.getEvictions()));
+
+		ShardedTransferEngine engine = transferEngine.getIfAvailable();
+		if (engine != null) {
+			metrics.add(new Metric<>("transfers.engine.shards", engine.getShards()));
+			metrics.add(new Metric<>("transfers.engine.queued", engine.getQueued()));
+			metrics.add(new Metric<>("transfers.engine.applied", engine.getApplied()));
+			metrics.add(new Metric<>("transfers.engine.cross-shard", engine.getCrossShardTransfers()));
+			metrics.add(new Metric<>("transfers.engine.reserved", Money.fromMinorUnits(engine.getReservedMinorUnits())));
+		}
+
+		addHotAccounts(metrics);
+		OffHeapAccountsRepository offHeap = offHeapAccountsRepository.getIfAvailable();
+		if (offHeap != null) {
+			metrics.add(new Metric<>("accounts.offheap.accounts", offHeap.getAccounts()));
+			metrics.add(new Metric<>("accounts.offheap.bytes", offHeap.getOffHeapBytes()));
+		}
+
+		metrics.add(new Metric<>("notifications.queue-depth", notificationDispatcher.getQueueDepth()));
+		metrics.add(new Metric<>("notifications.lag-millis", notificationDispatcher.getLagMillis()));
+		metrics.add(new Metric<>("notifications.published", notificationDispatcher.getPublished()));
+		metrics.add(new Metric<>("notifications.dispatched", notificationDispatcher.getDispatched()));
+		metrics.add(new Metric<>("notifications.dropped", notificationDispatcher.getDropped()));
+		metrics.add(new Metric<>("notifications.spilled", notificationDispatcher.getSpilled()));
+		metrics.add(new Metric<>("notifications.retried", notificationDispatcher.getRetried()));
+		metrics.add(new Metric<>("notifications.failed", notificationDispatcher.getFailed()));
+
+		AccountsJournal journal = accountsJournal.getIfAvailable();
+		if (journal != null) {
+			metrics.add(new Metric<>("journal.appended", journal.getAppended()));
+			metrics.add(new Metric<>("journal.group-commits", journal.getGroupCommits()));
+			metrics.add(new Metric<>("journal.fsyncs", journal.getFsyncs()));
+		}
+		JournalCompactor compactor = journalCompactor.getIfAvailable();
+		if (compactor != null) {
+			metrics.add(new Metric<>("journal.snapshots", compactor.getSnapshots()));
+			metrics.add(new Metric<>("journal.last-snapshot-millis", compactor.getLastSnapshotMillis()));
+			metrics.add(new Metric<>("journal.last-snapshot-bytes", compactor.getLastSnapshotBytes()));
+			metrics.add(new Metric<>("journal.deleted-segments", compactor.getDeletedSegments()));
+		}
+		JournaledAccountsRepository repository = journaledAccountsRepository.getIfAvailable();
+		if (repository != null) {
+			metrics.add(new Metric<>("journal.startup-millis", repository.getStartupMillis()));
+			metrics.add(new Metric<>("journal.replayed-records", repository.getReplayedRecords()));
+		}
+		TransferLedger ledger = transferLedger.getIfAvailable();
+		if (ledger != null) {
+			metrics.add(new Metric<>("ledger.appended", ledger.getAppended()));
+			metrics.add(new Metric<>("ledger.memory-entries", ledger.getMemoryEntries()));
+			metrics.add(new Metric<>("ledger.file-segments", ledger.getFileSegments()));
+			metrics.add(new Metric<>("ledger.index-loads", ledger.getIndexLoads()));
+		}
+		BalanceAuditor auditor = balanceAuditor.getIfAvailable();
+		if (auditor != null) {
+			metrics.add(new Metric<>("audit.audits", auditor.getAudits()));
+			metrics.add(new Metric<>("audit.drifts", auditor.getDrifts()));
+			AuditReport report = auditor.getLastReport();
+			if (report != null) {
+				metrics.add(new Metric<>("audit.last.epoch", report.getEpoch()));
+				metrics.add(new Metric<>("audit.last.accounts", report.getAccounts()));
+				metrics.add(new Metric<>("audit.last.drift", report.getDrift()));
+				metrics.add(new Metric<>("audit.last.grace-micros", micros(report.getGraceNanos())));
+				metrics.add(new Metric<>("audit.last.duration-millis", report.getDurationNanos() / 1_000_000.0));
+				metrics.add(new Metric<>("audit.last.cpu-millis", report.getCpuNanos() / 1_000_000.0));
+				metrics.add(new Metric<>("audit.last.audited-writes", report.getAuditedWrites()));
+			}
+		}
+		BinaryProtocolServer binary = binaryProtocolServer.getIfAvailable();
+		if (binary != null) {
+			metrics.add(new Metric<>("binary.connections", binary.getConnections()));
+			metrics.add(new Metric<>("binary.requests", binary.getRequests()));
+		}
+		PartitionRouter router = partitionRouter.getIfAvailable();
+		if (router != null) {
+			metrics.add(new Metric<>("partition.forwarded", router.getForwarded()));
+			metrics.add(new Metric<>("partition.cross-partition", router.getCrossPartition()));
+			metrics.add(new Metric<>("partition.cancelled", router.getCancelled()));
+			metrics.add(new Metric<>("partition.commit-retries", router.getCommitRetries()));
+			metrics.add(new Metric<>("partition.pending-reservations", router.getPendingReservations()));
+			metrics.add(new Metric<>("partition.prepared-credits", router.getPreparedCredits()));
+			metrics.add(new Metric<>("partition.settlement-balance", router.getSettlementBalance()));
+		}
+		AdmissionControl admission = admissionControl.getIfAvailable();
+		if (admission != null) {
+			metrics.add(new Metric<>("transfers.admission.admitted", admission.getAdmitted()));
+			for (AdmissionRejection rejection : AdmissionRejection.values()) {
+				metrics.add(new Metric<>("transfers.admission.rejected." + rejection.name().toLowerCase().replace('_', '-'),
+						admission.getRejected(rejection)));
+			}
+			metrics.add(new Metric<>("transfers.admission.limit", admission.getLimit()));
+			metrics.add(new Metric<>("transfers.admission.in-flight", admission.getInFlight()));
+			metrics.add(new Metric<>("transfers.admission.latency-micros", micros((long) admission.getLastLatencyNanos())));
+			metrics.add(new Metric<>("transfers.admission.long-term-latency-micros",
+					micros((long) admission.getLongTermLatencyNanos())));
+			metrics.add(new Metric<>("transfers.admission.client-buckets", admission.getClientBuckets()));
+			metrics.add(new Metric<>("transfers.admission.account-buckets", admission.getAccountBuckets()));
+		}
+		TransferScheduler scheduler = transferScheduler.getIfAvailable();
+		if (scheduler != null) {
+			metrics.add(new Metric<>("schedules.pending", scheduler.getPending()));
+			metrics.add(new Metric<>("schedules.completed", scheduler.getCompleted()));
+			metrics.add(new Metric<>("schedules.rejected", scheduler.getRejected()));
+			metrics.add(new Metric<>("schedules.in-doubt", scheduler.getInDoubt()));
+			metrics.add(new Metric<>("schedules.batches", scheduler.getBatches()));
+			metrics.add(new Metric<>("schedules.lag-millis", scheduler.getLagMillis()));
+		}
+		JdbcAccountsRepository jdbc = jdbcAccountsRepository.getIfAvailable();
+		if (jdbc != null) {
+			metrics.add(new Metric<>("jdbc.connections.idle", jdbc.getIdleConnections()));
+			metrics.add(new Metric<>("jdbc.connections.waits", jdbc.getConnectionWaits()));
+			metrics.add(new Metric<>("jdbc.write-behind.coalesced-credits", jdbc.getCoalescedCredits()));
+			metrics.add(new Metric<>("jdbc.write-behind.flushes", jdbc.getFlushes()));
+		}
+
+		VersionedBalances versions = versionedBalances.getIfAvailable();
+		if (versions != null) {
+			metrics.add(new Metric<>("mvcc.version", versions.getVersion()));
+			metrics.add(new Metric<>("mvcc.snapshot-reads", versions.getReads()));
+			metrics.add(new Metric<>("mvcc.versions.retained", versions.getRetained()));
+			metrics.add(new Metric<>("mvcc.versions.reclaimed", versions.getReclaimed()));
+			metrics.add(new Metric<>("mvcc.reclaim-passes", versions.getReclaimPasses()));
+		}
+		return metrics;
+	}
+
+	private void addHotAccounts(List<Metric<?>> metrics) {
+		int hotAccounts = 0;
+		for (String accountId : hotAccountProperties.getAccountIds()) {
+			Account account;
+			try {
+				account = accountsService.getAccount(accountId);
+			} catch (AccountNotFoundException e) {
+				continue;
+			}
+			if (account instanceof HotAccount) {
+				HotAccount hotAccount = (HotAccount) account;
+				hotAccounts++;
+				metrics.add(new Metric<>("accounts.hot." + accountId + ".pending-deposits",
+						Money.fromMinorUnits(hotAccount.getPendingMinorUnits())));
+				metrics.add(new Metric<>("accounts.hot." + accountId + ".folds", hotAccount.getFolds()));
+			}
+		}
+		metrics.add(new Metric<>("accounts.hot.count", hotAccounts));
+	}
+
+	private static void addLatency(List<Metric<?>> metrics, String name, LatencyHistogram histogram) {
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		metrics.add(new Metric<>(name + ".count", snapshot.getCount()));
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			metrics.add(new Metric<>(name + "." + PERCENTILE_NAMES[i], micros(snapshot.getValueAtPercentile(PERCENTILES[i]))));
+		}
+		metrics.add(new Metric<>(name + ".max", micros(snapshot.getMax())));
+	}
+
+	private static double micros(long nanos) {
+		return nanos / 1000.0;
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.db.awmd.challenge.service.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the spirit of
+ * HdrHistogram: every power of two is split in {@value #SUB_BUCKETS} linear
+ * sub-buckets, so a recorded value is known within about 3% whatever its
+ * magnitude. Counts are striped by thread to keep concurrent recorders off
+ * each other's cache lines; reading sums the stripes.
+ * <p>
+ * Values are nanoseconds, up to about 18 minutes, larger ones are counted
+ * in the last bucket.
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int MAX_EXPONENT = 40;
+
+	static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray[] stripes;
+
+	private final int mask;
+
+	public LatencyHistogram() {
+		int size = 1;
+		while (size < Math.min(Runtime.getRuntime().availableProcessors(), 16)) {
+			size <<= 1;
+		}
+		this.stripes = new AtomicLongArray[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new AtomicLongArray(BUCKETS);
+		}
+		this.mask = size - 1;
+	}
+
+	public void record(long nanos) {
+		int stripe = (int) Thread.currentThread().getId() & mask;
+		stripes[stripe].getAndIncrement(bucketOf(Math.max(nanos, 0)));
+	}
+
+	public Snapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < BUCKETS; i++) {
+				long c = stripe.get(i);
+				counts[i] += c;
+				count += c;
+			}
+		}
+		return new Snapshot(counts, count);
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+		if (exponent == MAX_EXPONENT && value >= 1L << (MAX_EXPONENT + 1)) {
+			return BUCKETS - 1;
+		}
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the highest value counted in the bucket
+	 */
+	static long highestValueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * Counts at one point in time, concurrent recordings may or may not be included
+	 */
+	public static class Snapshot {
+
+		private final long[] counts;
+
+		private final long count;
+
+		Snapshot(long[] counts, long count) {
+			this.counts = counts;
+			this.count = count;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return the value below which the given percentage of recordings fall, 0 if there are none
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return highestValueOf(i);
+				}
+			}
+			return highestValueOf(counts.length - 1);
+		}
+
+		public long getMax() {
+			for (int i = counts.length - 1; i >= 0; i--) {
+				if (counts[i] > 0) {
+					return highestValueOf(i);
+				}
+			}
+			return 0;
+		}
+
+	}
+
+}
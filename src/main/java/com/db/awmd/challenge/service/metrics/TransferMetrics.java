@@ -0,0 +1,85 @@
+package com.db.awmd.challenge.service.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.InsufficientFundsException;
+
+import lombok.Getter;
+
+/**
+ * Timings and outcome counts of the transfer path. Recording is a few
+ * relaxed atomic increments, cheap enough to stay on under full load.
+ *
+ */
+@Component
+public class TransferMetrics {
+
+	/** time spent waiting for the account locks */
+	@Getter
+	private final LatencyHistogram lockWait = new LatencyHistogram();
+
+	/** time spent in the repository moving the money, locks held */
+	@Getter
+	private final LatencyHistogram repository = new LatencyHistogram();
+
+	/** time spent handing the notifications to the dispatcher */
+	@Getter
+	private final LatencyHistogram notification = new LatencyHistogram();
+
+	/** whole transfer, from account lookup to notification */
+	@Getter
+	private final LatencyHistogram total = new LatencyHistogram();
+
+	private final Map<TransferOutcome, LongAdder> outcomes = new EnumMap<>(TransferOutcome.class);
+
+	public TransferMetrics() {
+		for (TransferOutcome outcome : TransferOutcome.values()) {
+			outcomes.put(outcome, new LongAdder());
+		}
+	}
+
+	public void recordOutcome(TransferOutcome outcome) {
+		outcomes.get(outcome).increment();
+	}
+
+	/**
+	 * Counts the failure of a transfer from the exception it was rejected with
+	 */
+	public void recordFailure(RuntimeException e) {
+		if (e instanceof InsufficientFundsException) {
+			recordOutcome(TransferOutcome.INSUFFICIENT_FUNDS);
+		} else if (e instanceof AccountNotFoundException) {
+			recordOutcome(TransferOutcome.ACCOUNT_NOT_FOUND);
+		} else {
+			recordOutcome(TransferOutcome.REJECTED);
+		}
+	}
+
+	/**
+	 * Counts the failure of a transfer from the reason it was rejected for
+	 */
+	public void recordRejection(TransferRejection rejection) {
+		switch (rejection) {
+		case INSUFFICIENT_FUNDS:
+			recordOutcome(TransferOutcome.INSUFFICIENT_FUNDS);
+			break;
+		case ACCOUNT_FROM_NOT_FOUND:
+		case ACCOUNT_TO_NOT_FOUND:
+			recordOutcome(TransferOutcome.ACCOUNT_NOT_FOUND);
+			break;
+		default:
+			recordOutcome(TransferOutcome.REJECTED);
+		}
+	}
+
+	public long getCount(TransferOutcome outcome) {
+		return outcomes.get(outcome).sum();
+	}
+
+}
@@ -0,0 +1,13 @@
+package com.db.awmd.challenge.service.metrics;
+
+/**
+ * How a transfer ended, as counted by {@link TransferMetrics}
+ *
+ */
+public enum TransferOutcome {
+	COMPLETED,
+	INSUFFICIENT_FUNDS,
+	ACCOUNT_NOT_FOUND,
+	/** any other {@code TransactionException}, e.g. same accounts or an amount out of range */
+	REJECTED
+}
@@ -0,0 +1,24 @@
+package com.db.awmd.challenge.service.notification;
+
+/**
+ * What to do with a notification published while the dispatcher queue is full
+ *
+ */
+public enum BackpressurePolicy {
+
+	/**
+	 * Wait for room in the queue, slowing down the publishing transfer
+	 */
+	BLOCK,
+
+	/**
+	 * Discard the oldest queued notification to make room for the new one
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Append the notification to a spill file, delivered once the queue is drained
+	 */
+	SPILL
+
+}
@@ -0,0 +1,224 @@
+package com.db.awmd.challenge.service.notification;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.NotificationService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Delivers transfer notifications outside of the transfer critical section.
+ * Transfers publish to a bounded queue once committed and a single worker
+ * drains it in batches, handing them to the {@link NotificationService}.
+ * Delivery is at least once: a failed batch is retried as a whole.
+ * <p>
+ * Spilled notifications are delivered whenever the queue is empty, so
+ * those left by a previous run are picked up after a start, and before the
+ * worker stops.
+ *
+ */
+@Slf4j
+@Component
+public class NotificationDispatcher {
+
+	private static final long POLL_MILLIS = 100;
+
+	private final NotificationService notificationService;
+
+	private final NotificationProperties properties;
+
+	private final BlockingQueue<TransferNotification> queue;
+
+	private final NotificationSpill spill;
+
+	private final LongAdder published = new LongAdder();
+
+	private final LongAdder dispatched = new LongAdder();
+
+	private final LongAdder dropped = new LongAdder();
+
+	private final LongAdder spilled = new LongAdder();
+
+	private final LongAdder retried = new LongAdder();
+
+	private final LongAdder failed = new LongAdder();
+
+	private volatile long lagNanos;
+
+	private volatile boolean running;
+
+	private Thread worker;
+
+	@Autowired
+	public NotificationDispatcher(NotificationService notificationService, NotificationProperties properties) {
+		this.notificationService = notificationService;
+		this.properties = properties;
+		this.queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+		this.spill = new NotificationSpill(properties.getSpillFile());
+	}
+
+	@PostConstruct
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		worker = new Thread(this::dispatch, "notification-dispatcher");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Stops the worker once every queued and spilled notification has been delivered.
+	 */
+	@PreDestroy
+	public synchronized void stop() throws InterruptedException, IOException {
+		running = false;
+		if (worker != null) {
+			worker.join();
+			worker = null;
+		}
+		spill.close();
+	}
+
+	public void publish(Account account, String transferDescription) {
+		TransferNotification notification = new TransferNotification(account, transferDescription, System.nanoTime());
+		published.increment();
+		if (queue.offer(notification)) {
+			return;
+		}
+		switch (properties.getBackpressure()) {
+		case BLOCK:
+			try {
+				queue.put(notification);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				dropped.increment();
+				log.warn("Interrupted while publishing notification for {}, it was dropped", account.getAccountId());
+			}
+			break;
+		case DROP_OLDEST:
+			while (!queue.offer(notification)) {
+				if (queue.poll() != null) {
+					dropped.increment();
+				}
+			}
+			break;
+		case SPILL:
+			spill.append(notification);
+			spilled.increment();
+			break;
+		}
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return how long the oldest notification of the last delivered batch waited, in milliseconds
+	 */
+	public long getLagMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(lagNanos);
+	}
+
+	public long getPublished() {
+		return published.sum();
+	}
+
+	public long getDispatched() {
+		return dispatched.sum();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	public long getSpilled() {
+		return spilled.sum();
+	}
+
+	public long getRetried() {
+		return retried.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	private void dispatch() {
+		int batchSize = properties.getBatchSize();
+		List<TransferNotification> batch = new ArrayList<>(batchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				TransferNotification first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					if (spill.hasPending()) {
+						spill.drain(batchSize, this::deliver);
+					}
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+				deliver(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				log.error("Unexpected error while dispatching notifications", e);
+			} finally {
+				batch.clear();
+			}
+		}
+		try {
+			// spilled since the last empty poll, they would wait for the next start
+			if (spill.hasPending()) {
+				spill.drain(batchSize, this::deliver);
+			}
+		} catch (IOException e) {
+			log.error("Could not deliver the spilled notifications on stop", e);
+		}
+	}
+
+	private void deliver(List<TransferNotification> batch) {
+		lagNanos = System.nanoTime() - batch.get(0).getPublishedAtNanos();
+		long backoff = properties.getRetryBackoffMillis();
+		for (int attempt = 1;; attempt++) {
+			try {
+				notificationService.notifyAboutTransfers(batch);
+				dispatched.add(batch.size());
+				return;
+			} catch (RuntimeException e) {
+				if (attempt >= properties.getMaxAttempts()) {
+					failed.add(batch.size());
+					log.error("Giving up on {} notifications after {} attempts", batch.size(), attempt, e);
+					return;
+				}
+				retried.increment();
+				log.warn("Failed to deliver {} notifications, attempt {}", batch.size(), attempt, e);
+			}
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failed.add(batch.size());
+				return;
+			}
+			backoff *= 2;
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.db.awmd.challenge.service.notification;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of the asynchronous notification dispatcher
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.notifications")
+public class NotificationProperties {
+
+	private int queueCapacity = 10_000;
+
+	private int batchSize = 256;
+
+	private BackpressurePolicy backpressure = BackpressurePolicy.BLOCK;
+
+	/**
+	 * Under the data directory of the instance, like the journal: instances
+	 * sharing a spill file would deliver each other's notifications
+	 */
+	private String spillFile = "data/notifications/accounts-notifications.spill";
+
+	private int maxAttempts = 3;
+
+	private long retryBackoffMillis = 100;
+
+}
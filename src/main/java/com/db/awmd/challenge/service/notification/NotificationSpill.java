@@ -0,0 +1,129 @@
+package com.db.awmd.challenge.service.notification;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.db.awmd.challenge.domain.Account;
+
+/**
+ * File notifications overflow to when the dispatcher queue is full and the
+ * backpressure policy is {@link BackpressurePolicy#SPILL}. One line per
+ * notification: the account id and the description separated by a tab.
+ *
+ */
+class NotificationSpill {
+
+	private final Path file;
+
+	private final Path draining;
+
+	private BufferedWriter writer;
+
+	private long pending;
+
+	NotificationSpill(String file) {
+		this.file = Paths.get(file);
+		this.draining = Paths.get(file + ".draining");
+	}
+
+	synchronized void append(TransferNotification notification) {
+		try {
+			if (writer == null) {
+				if (file.getParent() != null) {
+					Files.createDirectories(file.getParent());
+				}
+				writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+						StandardOpenOption.APPEND);
+			}
+			writer.write(escape(notification.getAccount().getAccountId()));
+			writer.write('\t');
+			writer.write(escape(notification.getTransferDescription()));
+			writer.newLine();
+			pending++;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	synchronized boolean hasPending() {
+		return pending > 0 || Files.exists(file) || Files.exists(draining);
+	}
+
+	/**
+	 * Hands every spilled notification to the consumer in batches. Notifications
+	 * spilled while draining go to a fresh file and are picked up by the next call.
+	 */
+	void drain(int batchSize, Consumer<List<TransferNotification>> consumer) throws IOException {
+		synchronized (this) {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+			pending = 0;
+			if (!Files.exists(draining)) {
+				if (!Files.exists(file)) {
+					return;
+				}
+				Files.move(file, draining, StandardCopyOption.ATOMIC_MOVE);
+			}
+		}
+		List<TransferNotification> batch = new ArrayList<>(batchSize);
+		try (BufferedReader reader = Files.newBufferedReader(draining, StandardCharsets.UTF_8)) {
+			long now = System.nanoTime();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab < 0) {
+					continue;
+				}
+				Account account = new Account(unescape(line.substring(0, tab)));
+				batch.add(new TransferNotification(account, unescape(line.substring(tab + 1)), now));
+				if (batch.size() == batchSize) {
+					consumer.accept(batch);
+					batch.clear();
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			consumer.accept(batch);
+		}
+		Files.delete(draining);
+	}
+
+	synchronized void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+	}
+
+	private static String unescape(String value) {
+		StringBuilder builder = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				builder.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+}
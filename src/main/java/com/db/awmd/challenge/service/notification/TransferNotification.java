@@ -0,0 +1,20 @@
+package com.db.awmd.challenge.service.notification;
+
+import com.db.awmd.challenge.domain.Account;
+
+import lombok.Data;
+
+/**
+ * Notification about a committed transfer waiting to be delivered to the owner of an account
+ *
+ */
+@Data
+public class TransferNotification {
+
+	private final Account account;
+
+	private final String transferDescription;
+
+	private final long publishedAtNanos;
+
+}
@@ -0,0 +1,179 @@
+package com.db.awmd.challenge.service.partition;
+
+import java.math.BigDecimal;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.dto.AccountDto;
+import com.db.awmd.challenge.domain.dto.TransferDto;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.PartitionUnavailableException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.partition.PartitionProperties;
+import com.db.awmd.challenge.web.json.DtoJsonCodec;
+import com.db.awmd.challenge.web.json.JsonCodecException;
+
+/**
+ * Calls the {@code /internal/partitions} endpoints of the other nodes,
+ * blocking. Statuses are turned back into the exceptions the owner threw,
+ * anything unexpected into a {@link PartitionUnavailableException}, which
+ * tells whether the request may have reached the node.
+ *
+ */
+class PartitionClient {
+
+	static final String PATH = "/internal/partitions";
+
+	private final RestTemplate restTemplate;
+
+	private final String secret;
+
+	PartitionClient(PartitionProperties properties) {
+		this.secret = properties.getSecret();
+		SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+		requestFactory.setConnectTimeout(properties.getConnectTimeoutMillis());
+		requestFactory.setReadTimeout(properties.getReadTimeoutMillis());
+		this.restTemplate = new RestTemplate(requestFactory);
+		// statuses are part of the answer, mapped below
+		this.restTemplate.setErrorHandler(new ResponseErrorHandler() {
+
+			@Override
+			public boolean hasError(ClientHttpResponse response) {
+				return false;
+			}
+
+			@Override
+			public void handleError(ClientHttpResponse response) {
+			}
+
+		});
+	}
+
+	Account getAccount(String node, String accountId) {
+		ResponseEntity<byte[]> response = exchange(node, HttpMethod.GET, "/accounts/{accountId}", null, accountId);
+		checkNotFound(response);
+		AccountDto account;
+		try {
+			account = DtoJsonCodec.get().readAccount(response.getBody(), 0, response.getBody().length);
+		} catch (JsonCodecException e) {
+			throw new PartitionUnavailableException("Unreadable account from " + node, e);
+		}
+		return new Account(account.getAccountId(), account.getBalance());
+	}
+
+	void createAccount(String node, Account account) {
+		ResponseEntity<byte[]> response = exchange(node, HttpMethod.POST, "/accounts",
+				DtoJsonCodec.get().write(new AccountDto(account.getAccountId(), account.getBalance())));
+		if (response.getStatusCode() == HttpStatus.CONFLICT) {
+			throw new DuplicateAccountIdException(message(response));
+		}
+		check(node, response);
+	}
+
+	/**
+	 * Has the owner of the account debited apply the transfer
+	 */
+	void transfer(String node, String accountFrom, String accountTo, BigDecimal amount) {
+		ResponseEntity<byte[]> response = exchange(node, HttpMethod.POST, "/transfers",
+				DtoJsonCodec.get().write(new TransferDto(accountFrom, accountTo, amount)));
+		checkNotFound(response);
+		checkRejected(response);
+		check(node, response);
+	}
+
+	/**
+	 * First phase on the owner of the account credited, which checks it
+	 * exists and keeps the credit until it is committed or aborted
+	 */
+	void prepareCredit(String node, String transferId, String accountFrom, String accountTo, BigDecimal amount) {
+		ResponseEntity<byte[]> response = exchange(node, HttpMethod.POST, "/credits/{transferId}",
+				DtoJsonCodec.get().write(new TransferDto(accountFrom, accountTo, amount)), transferId);
+		checkNotFound(response);
+		check(node, response);
+	}
+
+	/**
+	 * @return false if the credit was aborted, or expired, and will never be
+	 * applied. A credit the owner doesn't know is unavailable, not aborted.
+	 */
+	boolean commitCredit(String node, String transferId) {
+		ResponseEntity<byte[]> response = exchange(node, HttpMethod.PUT, "/credits/{transferId}", null, transferId);
+		if (response.getStatusCode() == HttpStatus.GONE) {
+			return false;
+		}
+		check(node, response);
+		return true;
+	}
+
+	/**
+	 * @return whether the node holds the reservation of the credit, as given
+	 */
+	boolean isReserved(String node, String transferId, String accountFrom, String accountTo, BigDecimal amount) {
+		ResponseEntity<byte[]> response = exchange(node, HttpMethod.POST, "/reservations/{transferId}",
+				DtoJsonCodec.get().write(new TransferDto(accountFrom, accountTo, amount)), transferId);
+		if (response.getStatusCode() == HttpStatus.NOT_FOUND) {
+			return false;
+		}
+		check(node, response);
+		return true;
+	}
+
+	void abortCredit(String node, String transferId) {
+		check(node, exchange(node, HttpMethod.DELETE, "/credits/{transferId}", null, transferId));
+	}
+
+	private ResponseEntity<byte[]> exchange(String node, HttpMethod method, String path, byte[] body,
+			Object... variables) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(PartitionRouter.SECRET_HEADER, secret);
+		if (body != null) {
+			headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+		}
+		try {
+			return restTemplate.exchange(node + PATH + path, method, new HttpEntity<>(body, headers), byte[].class,
+					variables);
+		} catch (RestClientException e) {
+			// a connection refused never carried the request, the node did nothing
+			throw new PartitionUnavailableException("Partition " + node + " unavailable", e,
+					!(e.getCause() instanceof ConnectException));
+		}
+	}
+
+	private static void checkNotFound(ResponseEntity<byte[]> response) {
+		if (response.getStatusCode() == HttpStatus.NOT_FOUND) {
+			throw new AccountNotFoundException(message(response));
+		}
+	}
+
+	private static void checkRejected(ResponseEntity<byte[]> response) {
+		if (response.getStatusCode() == HttpStatus.BAD_REQUEST) {
+			throw new TransactionException(message(response));
+		}
+	}
+
+	private static void check(String node, ResponseEntity<byte[]> response) {
+		if (!response.getStatusCode().is2xxSuccessful()) {
+			throw new PartitionUnavailableException("Partition " + node + " answered " + response.getStatusCode()
+					+ ": " + message(response));
+		}
+	}
+
+	private static String message(ResponseEntity<byte[]> response) {
+		return response.getBody() == null ? "" : new String(response.getBody(), StandardCharsets.UTF_8);
+	}
+
+}
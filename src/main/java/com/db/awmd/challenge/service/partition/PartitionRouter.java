@@ -0,0 +1,590 @@
+package com.db.awmd.challenge.service.partition;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.SettlementAccount;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.PartitionUnavailableException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.ledger.TransferLedger;
+import com.db.awmd.challenge.repository.partition.ConsistentHashRing;
+import com.db.awmd.challenge.repository.partition.PartitionProperties;
+import com.db.awmd.challenge.service.AccountLocks;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Spreads the accounts over several nodes, each keeping its accounts in its
+ * own repository. A {@link ConsistentHashRing} gives the owner of every
+ * account, reads and creations of accounts owned elsewhere are sent to
+ * their owner, and a transfer is applied by the owner of the account
+ * debited, other nodes forward it there.
+ * <p>
+ * A transfer to an account of another node takes two phases:
+ * <ol>
+ * <li>the money is reserved: moved, under the lock of the account debited,
+ * into the local {@link SettlementAccount} and made durable</li>
+ * <li>the owner of the account credited is asked to prepare the credit,
+ * which checks the account exists and keeps the credit aside</li>
+ * <li>the credit is committed: the owner checks the node of the account
+ * debited holds a matching reservation, moves the money out of its own
+ * settlement account into the account credited and remembers the
+ * outcome</li>
+ * </ol>
+ * A credit not prepared, or aborted, gives the reservation back to the
+ * account debited. Once prepared the owner alone decides: a commit is
+ * applied if it arrives before the credit expires, after that it is
+ * refused and the reservation is given back. A commit left unanswered is
+ * retried until the owner answers either way, so money is never applied
+ * twice nor lost. Settlement accounts of all nodes add up to the money
+ * reserved and not committed yet.
+ * <p>
+ * Each node records its own leg in its ledger, with the balance of its
+ * account only: the debit once the money is reserved, the credit once it
+ * is applied, and the money given back if the credit is refused.
+ * <p>
+ * Outcomes are only kept in memory. A credit its owner doesn't know,
+ * after a restart, is left in doubt rather than given back: the money
+ * stays in the settlement account and an error is logged once the commit
+ * is given up.
+ * <p>
+ * Nodes call each other on the public port, every call carries the shared
+ * {@link PartitionProperties#getSecret() secret} and calls without it are
+ * refused: a settlement account can go negative, a forged credit would
+ * create money.
+ * <p>
+ * Accounts don't move when nodes are added, the list of nodes is fixed for
+ * the lifetime of the accounts. Batch transfers stay within a node.
+ *
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.partition", name = "enabled", havingValue = "true")
+public class PartitionRouter {
+
+	public static final String SECRET_HEADER = "X-Partition-Secret";
+
+	private final AccountsRepository accountsRepository;
+
+	private final AccountLocks accountLocks;
+
+	private final PartitionProperties properties;
+
+	private final ConsistentHashRing ring;
+
+	private final int self;
+
+	private final PartitionClient client;
+
+	private final ExecutorService clientExecutor;
+
+	/** expires prepared credits and retries unanswered commits */
+	private final ScheduledExecutorService resolver;
+
+	/** reservations of this node waiting for their credit, by transfer id */
+	private final Map<String, Reservation> reservations = new ConcurrentHashMap<>();
+
+	/** credits prepared on this node and their outcome, by transfer id */
+	private final Map<String, Credit> credits = new ConcurrentHashMap<>();
+
+	private final LongAdder forwarded = new LongAdder();
+
+	private final LongAdder crossPartition = new LongAdder();
+
+	private final LongAdder cancelled = new LongAdder();
+
+	private final LongAdder commitRetries = new LongAdder();
+
+	/**
+	 * Records the legs applied on this node for the account history, if enabled
+	 */
+	@Setter
+	@Autowired(required = false)
+	private TransferLedger ledger;
+
+	@Autowired
+	public PartitionRouter(AccountsRepository accountsRepository, AccountLocks accountLocks,
+			PartitionProperties properties) {
+		this.accountsRepository = accountsRepository;
+		this.accountLocks = accountLocks;
+		this.properties = properties;
+		this.ring = new ConsistentHashRing(properties.getNodes(), properties.getVirtualNodes());
+		this.self = properties.getNodes().indexOf(properties.getSelf());
+		if (this.self < 0) {
+			throw new IllegalStateException("accounts.partition.self " + properties.getSelf()
+					+ " is not one of accounts.partition.nodes " + properties.getNodes());
+		}
+		if (properties.getSecret() == null || properties.getSecret().isEmpty()) {
+			throw new IllegalStateException("accounts.partition needs accounts.partition.secret, shared by all nodes");
+		}
+		if (!(settlementAccount() instanceof SettlementAccount)) {
+			throw new IllegalStateException("accounts.partition needs the IN_MEMORY repository");
+		}
+		this.client = new PartitionClient(properties);
+		AtomicInteger threads = new AtomicInteger();
+		this.clientExecutor = Executors.newFixedThreadPool(properties.getClientThreads(), runnable -> {
+			Thread thread = new Thread(runnable, "partition-client-" + threads.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.resolver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "partition-resolver");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.resolver.scheduleWithFixedDelay(this::expireCredits, 1, 1, TimeUnit.SECONDS);
+		log.info("Partition {} of {}, settlement balance {}", properties.getSelf(), properties.getNodes(),
+				settlementAccount().getBalance());
+	}
+
+	/**
+	 * @return whether a call of another node carries the shared secret
+	 */
+	public boolean isTrusted(String secret) {
+		return secret != null && MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+				properties.getSecret().getBytes(StandardCharsets.UTF_8));
+	}
+
+	public boolean isLocal(String accountId) {
+		return ring.indexOf(accountId) == self;
+	}
+
+	public String ownerOf(String accountId) {
+		return ring.ownerOf(accountId);
+	}
+
+	/**
+	 * The settlement account is internal, it is never found
+	 */
+	public Account getAccount(String accountId) {
+		if (isSettlementAccount(accountId)) {
+			throw new AccountNotFoundException("Account id " + accountId + " not found");
+		}
+		return isLocal(accountId) ? accountsRepository.getAccount(accountId)
+				: client.getAccount(ownerOf(accountId), accountId);
+	}
+
+	public void createAccount(Account account) {
+		if (isSettlementAccount(account.getAccountId())) {
+			throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+		}
+		if (isLocal(account.getAccountId())) {
+			accountsRepository.createAccount(account);
+		} else {
+			client.createAccount(ownerOf(account.getAccountId()), account);
+		}
+	}
+
+	/**
+	 * Local accounts are created in one repository call, the others one by one on their owner
+	 *
+	 * @return one entry per account: null if it was created, the duplicate exception otherwise
+	 */
+	public List<DuplicateAccountIdException> createAccounts(List<Account> accounts) {
+		List<Account> local = new ArrayList<>(accounts.size());
+		for (Account account : accounts) {
+			if (isLocal(account.getAccountId()) && !isSettlementAccount(account.getAccountId())) {
+				local.add(account);
+			}
+		}
+		List<DuplicateAccountIdException> localDuplicates = accountsRepository.createAccounts(local);
+		List<DuplicateAccountIdException> duplicates = new ArrayList<>(accounts.size());
+		int next = 0;
+		for (Account account : accounts) {
+			if (isLocal(account.getAccountId()) && !isSettlementAccount(account.getAccountId())) {
+				duplicates.add(localDuplicates.get(next++));
+				continue;
+			}
+			try {
+				createAccount(account);
+				duplicates.add(null);
+			} catch (DuplicateAccountIdException e) {
+				duplicates.add(e);
+			}
+		}
+		return duplicates;
+	}
+
+	/**
+	 * Has the owner of the account debited, another node, apply the transfer
+	 *
+	 * @return completed once the owner answered
+	 */
+	public CompletableFuture<Void> forwardTransfer(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+		forwarded.increment();
+		return CompletableFuture.runAsync(() -> client.transfer(ownerOf(accountIdFrom), accountIdFrom, accountIdTo, amount),
+				clientExecutor);
+	}
+
+	/**
+	 * Reserves the money of the local account debited and credits the account
+	 * of another node in two phases. The reservation is made on the calling
+	 * thread, under the lock of the account debited; a lack of money is
+	 * thrown.
+	 *
+	 * @return completed once the credit is committed, or exceptionally once
+	 * the reservation is given back
+	 */
+	public CompletableFuture<Void> transferOut(Account accountFrom, String accountIdTo, BigDecimal amount)
+			throws TransactionException {
+		if (isSettlementAccount(accountIdTo)) {
+			throw new AccountNotFoundException("Account id " + accountIdTo + " not found");
+		}
+		crossPartition.increment();
+		Account settlement = settlementAccount();
+		CompletableFuture<?> reserved;
+		accountLocks.lock(accountFrom.getAccountId());
+		try {
+			reserved = accountsRepository.transferAsync(accountFrom, settlement, amount);
+			record(accountFrom.getAccountId(), accountIdTo, amount, accountFrom.getBalance(), null);
+		} finally {
+			accountLocks.unlock(accountFrom.getAccountId());
+		}
+		Reservation reservation = new Reservation(UUID.randomUUID().toString(), accountFrom, accountIdTo,
+				ownerOf(accountIdTo), amount);
+		reservations.put(reservation.transferId, reservation);
+		// the credit can't be prepared before the reservation would survive a restart
+		reserved.whenCompleteAsync((ignored, e) -> {
+			if (e != null) {
+				reservations.remove(reservation.transferId);
+				reservation.result.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+			} else {
+				prepare(reservation);
+			}
+		}, clientExecutor);
+		return reservation.result;
+	}
+
+	private void prepare(Reservation reservation) {
+		try {
+			client.prepareCredit(reservation.node, reservation.transferId, reservation.accountFrom.getAccountId(),
+					reservation.accountIdTo, reservation.amount);
+		} catch (AccountNotFoundException e) {
+			cancel(reservation, e);
+			return;
+		} catch (PartitionUnavailableException e) {
+			// the credit may have been prepared, it is aborted or left to expire, never applied
+			try {
+				client.abortCredit(reservation.node, reservation.transferId);
+			} catch (PartitionUnavailableException ignored) {
+				// expires on its own
+			}
+			// once the reservation is given back the transfer left nothing applied
+			cancel(reservation, new PartitionUnavailableException(e.getMessage(), e.getCause(), false));
+			return;
+		}
+		commit(reservation);
+	}
+
+	private void commit(Reservation reservation) {
+		boolean committed;
+		try {
+			committed = client.commitCredit(reservation.node, reservation.transferId);
+		} catch (PartitionUnavailableException e) {
+			// unreachable, or the credit unknown to its owner
+			// only the owner knows whether the credit was applied, ask again
+			if (System.nanoTime() - reservation.started > TimeUnit.SECONDS.toNanos(properties.getDecisionRetentionSeconds())) {
+				log.error("Transfer {} of {} from {} to {} left in doubt, the money stays in {}", reservation.transferId,
+						reservation.amount, reservation.accountFrom.getAccountId(), reservation.accountIdTo,
+						properties.getSettlementAccountId(), e);
+				reservation.result.completeExceptionally(e);
+				return;
+			}
+			commitRetries.increment();
+			resolver.schedule(() -> clientExecutor.execute(() -> commit(reservation)), properties.getCommitRetryMillis(),
+					TimeUnit.MILLISECONDS);
+			return;
+		}
+		if (!committed) {
+			cancel(reservation, new TransactionException("Transfer to " + reservation.accountIdTo + " expired."));
+			return;
+		}
+		reservations.remove(reservation.transferId);
+		reservation.result.complete(null);
+	}
+
+	/**
+	 * Gives the reservation back to the account debited
+	 */
+	private void cancel(Reservation reservation, RuntimeException reason) {
+		cancelled.increment();
+		Account accountFrom = reservation.accountFrom;
+		CompletableFuture<?> returned;
+		accountLocks.lock(accountFrom.getAccountId());
+		try {
+			returned = accountsRepository.transferAsync(settlementAccount(), accountFrom, reservation.amount);
+			// the history shows the money coming back, as for a batch rolled back
+			record(reservation.accountIdTo, accountFrom.getAccountId(), reservation.amount, null, accountFrom.getBalance());
+		} finally {
+			accountLocks.unlock(accountFrom.getAccountId());
+		}
+		returned.whenComplete((ignored, e) -> {
+			reservations.remove(reservation.transferId);
+			reservation.result.completeExceptionally(e != null ? (e instanceof CompletionException ? e.getCause() : e) : reason);
+		});
+	}
+
+	/**
+	 * First phase on the owner of the account credited
+	 */
+	public void prepareCredit(String transferId, String accountIdFrom, String accountIdTo, BigDecimal amount) {
+		if (isSettlementAccount(accountIdTo)) {
+			throw new AccountNotFoundException("Account id " + accountIdTo + " not found");
+		}
+		// fails if the account isn't there
+		accountsRepository.getAccount(accountIdTo);
+		credits.putIfAbsent(transferId, new Credit(accountIdFrom, accountIdTo, amount,
+				System.nanoTime() + TimeUnit.SECONDS.toNanos(properties.getPreparedTimeoutSeconds())));
+	}
+
+	/**
+	 * Applies a prepared credit, once, if the node of the account debited
+	 * holds a matching reservation. Answered again the same way when asked
+	 * again.
+	 *
+	 * @return COMMITTED, ABORTED if aborted, expired or not reserved, null if the credit is unknown
+	 * @throws PartitionUnavailableException if the reservation can't be checked, the credit stays prepared
+	 */
+	public CreditState commitCredit(String transferId) {
+		Credit credit = credits.get(transferId);
+		if (credit == null) {
+			return null;
+		}
+		synchronized (credit) {
+			if (credit.state == CreditState.PREPARED) {
+				if (System.nanoTime() - credit.deadline > 0) {
+					credit.decide(CreditState.ABORTED);
+				} else if (!isReservedBy(ownerOf(credit.accountIdFrom), transferId, credit)) {
+					log.warn("Credit {} of {} to {} has no matching reservation of {}, aborted", transferId, credit.amount,
+							credit.accountIdTo, credit.accountIdFrom);
+					credit.decide(CreditState.ABORTED);
+				} else {
+					CompletableFuture<?> durable = apply(credit);
+					credit.decide(CreditState.COMMITTED);
+					durable.join();
+				}
+			}
+			return credit.state;
+		}
+	}
+
+	private boolean isReservedBy(String node, String transferId, Credit credit) {
+		return node.equals(properties.getSelf())
+				? isReserved(transferId, credit.accountIdFrom, credit.accountIdTo, credit.amount)
+				: client.isReserved(node, transferId, credit.accountIdFrom, credit.accountIdTo, credit.amount);
+	}
+
+	/**
+	 * Asked by the owner of the account credited before it commits
+	 *
+	 * @return whether this node reserved the money of the transfer, for this credit
+	 */
+	public boolean isReserved(String transferId, String accountIdFrom, String accountIdTo, BigDecimal amount) {
+		Reservation reservation = reservations.get(transferId);
+		return reservation != null && reservation.accountFrom.getAccountId().equals(accountIdFrom)
+				&& reservation.accountIdTo.equals(accountIdTo) && reservation.amount.compareTo(amount) == 0;
+	}
+
+	/**
+	 * @return completed once the credit is durable
+	 */
+	private CompletableFuture<?> apply(Credit credit) {
+		Account accountTo = accountsRepository.getAccount(credit.accountIdTo);
+		accountLocks.lock(credit.accountIdTo);
+		try {
+			// the settlement account is never short
+			CompletableFuture<?> durable = accountsRepository.transferAsync(settlementAccount(), accountTo, credit.amount);
+			record(credit.accountIdFrom, credit.accountIdTo, credit.amount, null, accountTo.getBalance());
+			return durable;
+		} finally {
+			accountLocks.unlock(credit.accountIdTo);
+		}
+	}
+
+	/**
+	 * Adds the leg applied on this node to the ledger, under the lock of its
+	 * account; the balance of the account of the other node is null
+	 */
+	private void record(String accountIdFrom, String accountIdTo, BigDecimal amount, BigDecimal balanceFrom,
+			BigDecimal balanceTo) {
+		if (ledger != null) {
+			ledger.append(accountIdFrom, accountIdTo, amount, balanceFrom, balanceTo);
+		}
+	}
+
+	public void abortCredit(String transferId) {
+		Credit credit = credits.get(transferId);
+		if (credit != null) {
+			synchronized (credit) {
+				if (credit.state == CreditState.PREPARED) {
+					credit.decide(CreditState.ABORTED);
+				}
+			}
+		}
+	}
+
+	private void expireCredits() {
+		long now = System.nanoTime();
+		long retention = TimeUnit.SECONDS.toNanos(properties.getDecisionRetentionSeconds());
+		credits.values().removeIf(credit -> {
+			synchronized (credit) {
+				if (credit.state == CreditState.PREPARED && now - credit.deadline > 0) {
+					credit.decide(CreditState.ABORTED);
+				}
+				return credit.state != CreditState.PREPARED && now - credit.decided > retention;
+			}
+		});
+	}
+
+	public boolean isSettlementAccount(String accountId) {
+		return accountId.equals(properties.getSettlementAccountId());
+	}
+
+	/**
+	 * @return the settlement account of this node, created the first time
+	 */
+	private Account settlementAccount() {
+		String accountId = properties.getSettlementAccountId();
+		try {
+			return accountsRepository.getAccount(accountId);
+		} catch (AccountNotFoundException e) {
+			try {
+				accountsRepository.createAccount(new SettlementAccount(accountId, BigDecimal.ZERO));
+			} catch (DuplicateAccountIdException created) {
+				// by a concurrent transfer
+			}
+			return accountsRepository.getAccount(accountId);
+		}
+	}
+
+	public BigDecimal getSettlementBalance() {
+		return settlementAccount().getBalance();
+	}
+
+	/**
+	 * @return reservations of this node whose credit isn't committed yet
+	 */
+	public int getPendingReservations() {
+		return reservations.size();
+	}
+
+	public int getPreparedCredits() {
+		int prepared = 0;
+		for (Credit credit : credits.values()) {
+			if (credit.state == CreditState.PREPARED) {
+				prepared++;
+			}
+		}
+		return prepared;
+	}
+
+	public long getForwarded() {
+		return forwarded.sum();
+	}
+
+	public long getCrossPartition() {
+		return crossPartition.sum();
+	}
+
+	public long getCancelled() {
+		return cancelled.sum();
+	}
+
+	public long getCommitRetries() {
+		return commitRetries.sum();
+	}
+
+	@PreDestroy
+	public void close() {
+		resolver.shutdownNow();
+		clientExecutor.shutdownNow();
+	}
+
+	private static final class Reservation {
+
+		private final String transferId;
+
+		private final Account accountFrom;
+
+		private final String accountIdTo;
+
+		/** owner of the account credited */
+		private final String node;
+
+		private final BigDecimal amount;
+
+		private final long started = System.nanoTime();
+
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+		private Reservation(String transferId, Account accountFrom, String accountIdTo, String node, BigDecimal amount) {
+			this.transferId = transferId;
+			this.accountFrom = accountFrom;
+			this.accountIdTo = accountIdTo;
+			this.node = node;
+			this.amount = amount;
+		}
+
+	}
+
+	public enum CreditState {
+		PREPARED, COMMITTED, ABORTED
+	}
+
+	/**
+	 * Guarded by itself
+	 */
+	private static final class Credit {
+
+		private final String accountIdFrom;
+
+		private final String accountIdTo;
+
+		private final BigDecimal amount;
+
+		private final long deadline;
+
+		private volatile CreditState state = CreditState.PREPARED;
+
+		private long decided;
+
+		private Credit(String accountIdFrom, String accountIdTo, BigDecimal amount, long deadline) {
+			this.accountIdFrom = accountIdFrom;
+			this.accountIdTo = accountIdTo;
+			this.amount = amount;
+			this.deadline = deadline;
+		}
+
+		private void decide(CreditState state) {
+			this.state = state;
+			this.decided = System.nanoTime();
+		}
+
+	}
+
+}
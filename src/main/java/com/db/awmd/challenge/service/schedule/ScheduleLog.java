@@ -0,0 +1,304 @@
+package com.db.awmd.challenge.service.schedule;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.db.awmd.challenge.domain.dto.Recurrence;
+import com.db.awmd.challenge.domain.dto.TransferStatus;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only log of the schedules: their creation and cancellation, and
+ * every run, once before the transfer is attempted and once after with its
+ * outcome. A run started but never finished, because of a crash, is in
+ * doubt: it is not attempted again, a scheduled transfer runs at most once.
+ * <p>
+ * Record layout: payload length (int), payload, CRC32 of the payload (int).
+ * A torn record at the end of the log is discarded when it is opened. The
+ * log is rewritten with only the live schedules by {@link #compact}.
+ *
+ */
+@Slf4j
+class ScheduleLog implements Closeable {
+
+	private static final String LOG_FILE = "schedules.log";
+
+	private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+	private static final byte CREATE = 1;
+
+	private static final byte CANCEL = 2;
+
+	private static final byte RUN = 3;
+
+	private static final byte RAN = 4;
+
+	private static final TransferStatus[] STATUSES = TransferStatus.values();
+
+	private static final Recurrence[] RECURRENCES = Recurrence.values();
+
+	private final Path directory;
+
+	private final Path file;
+
+	private final boolean fsync;
+
+	private final CRC32 crc = new CRC32();
+
+	private FileChannel channel;
+
+	private long records;
+
+	ScheduleLog(String directory, boolean fsync) throws IOException {
+		this.directory = Paths.get(directory);
+		this.file = this.directory.resolve(LOG_FILE);
+		this.fsync = fsync;
+		Files.createDirectories(this.directory);
+	}
+
+	/**
+	 * Replays the log into the schedules still to run, then starts accepting
+	 * appends. The run in doubt of a schedule is counted as done.
+	 *
+	 * @return the number of runs in doubt
+	 */
+	synchronized long open(Map<Long, ScheduledTransfer> schedules) throws IOException {
+		Map<Long, Long> started = new HashMap<>();
+		long validLength = 0;
+		if (Files.exists(file)) {
+			try (InputStream stream = Files.newInputStream(file);
+					DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024))) {
+				while (true) {
+					byte[] payload;
+					int checksum;
+					try {
+						int length = in.readInt();
+						if (length < 0 || length > MAX_RECORD_BYTES) {
+							break;
+						}
+						payload = new byte[length];
+						in.readFully(payload);
+						checksum = in.readInt();
+					} catch (EOFException e) {
+						break;
+					}
+					crc.reset();
+					crc.update(payload);
+					if ((int) crc.getValue() != checksum) {
+						break;
+					}
+					replay(new DataInputStream(new ByteArrayInputStream(payload)), schedules, started);
+					records++;
+					validLength += 4 + payload.length + 4;
+				}
+			}
+			long size = Files.size(file);
+			if (validLength < size) {
+				log.warn("Discarding {} bytes of torn record at the end of {}", size - validLength, file);
+				try (FileChannel truncate = FileChannel.open(file, StandardOpenOption.WRITE)) {
+					truncate.truncate(validLength);
+				}
+			}
+		}
+		for (Map.Entry<Long, Long> run : started.entrySet()) {
+			if (schedules.containsKey(run.getKey())) {
+				log.warn("Run {} of scheduled transfer {} was interrupted and is not attempted again, "
+						+ "check the balances of its accounts", run.getValue(), run.getKey());
+			}
+		}
+		// one-off transfers already run are done
+		schedules.values().removeIf(schedule -> schedule.nextRunAt() == Long.MAX_VALUE);
+
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		channel.position(channel.size());
+		log.info("Schedule log opened in {}, {} schedules pending", directory, schedules.size());
+		return started.size();
+	}
+
+	/**
+	 * @return the number of records in the log
+	 */
+	synchronized long getRecords() {
+		return records;
+	}
+
+	synchronized void appendCreate(ScheduledTransfer schedule) throws IOException {
+		append(create(schedule));
+	}
+
+	synchronized void appendCancel(long id) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(9);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(CANCEL);
+		out.writeLong(id);
+		append(bytes.toByteArray());
+	}
+
+	/**
+	 * Records the runs about to be attempted, as one write
+	 */
+	synchronized void appendRuns(List<ScheduledTransfer> batch) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.size() * 17 + 4);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(RUN);
+		out.writeInt(batch.size());
+		for (ScheduledTransfer schedule : batch) {
+			out.writeLong(schedule.id);
+			out.writeLong(schedule.runs);
+		}
+		append(bytes.toByteArray());
+	}
+
+	/**
+	 * Records the outcome of the runs of {@link #appendRuns}, null if unknown
+	 */
+	synchronized void appendRan(List<ScheduledTransfer> batch, List<TransferStatus> statuses) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.size() * 17 + 4);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(RAN);
+		out.writeInt(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			out.writeLong(batch.get(i).id);
+			out.writeLong(batch.get(i).runs);
+			out.writeByte(statuses == null ? -1 : statuses.get(i).ordinal());
+		}
+		append(bytes.toByteArray());
+	}
+
+	/**
+	 * Forces the records appended so far to disk, if configured to
+	 */
+	synchronized void force() throws IOException {
+		if (fsync) {
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Replaces the log with the creation of the given schedules, with their
+	 * runs so far. The caller makes sure no other record is appended meanwhile.
+	 */
+	synchronized void compact(Collection<ScheduledTransfer> schedules) throws IOException {
+		Path temporary = directory.resolve(LOG_FILE + ".tmp");
+		try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (ScheduledTransfer schedule : schedules) {
+				write(out, create(schedule));
+			}
+			out.force(false);
+		}
+		long before = records;
+		channel.close();
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		channel.position(channel.size());
+		records = schedules.size();
+		log.info("Schedule log compacted from {} to {} records", before, records);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			force();
+			channel.close();
+		}
+	}
+
+	private static byte[] create(ScheduledTransfer schedule) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(CREATE);
+		out.writeLong(schedule.id);
+		out.writeUTF(schedule.accountFrom);
+		out.writeUTF(schedule.accountTo);
+		out.writeUTF(schedule.amount.toPlainString());
+		out.writeByte(schedule.recurrence.ordinal());
+		out.writeLong(schedule.firstRunAt);
+		out.writeLong(schedule.runs);
+		out.writeByte(schedule.lastStatus == null ? -1 : schedule.lastStatus.ordinal());
+		return bytes.toByteArray();
+	}
+
+	private void replay(DataInputStream in, Map<Long, ScheduledTransfer> schedules, Map<Long, Long> started)
+			throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case CREATE:
+			ScheduledTransfer schedule = new ScheduledTransfer(in.readLong(), in.readUTF(), in.readUTF(),
+					new BigDecimal(in.readUTF()), RECURRENCES[in.readByte()], in.readLong(), in.readLong());
+			schedule.lastStatus = statusOf(in.readByte());
+			schedules.put(schedule.id, schedule);
+			break;
+		case CANCEL:
+			schedules.remove(in.readLong());
+			break;
+		case RUN:
+			for (int i = in.readInt(); i > 0; i--) {
+				long id = in.readLong();
+				long run = in.readLong();
+				ScheduledTransfer running = schedules.get(id);
+				if (running != null) {
+					running.runs = run + 1;
+					running.lastStatus = null;
+					started.put(id, run);
+				}
+			}
+			break;
+		case RAN:
+			for (int i = in.readInt(); i > 0; i--) {
+				long id = in.readLong();
+				long run = in.readLong();
+				TransferStatus status = statusOf(in.readByte());
+				ScheduledTransfer ran = schedules.get(id);
+				if (ran != null && status != null) {
+					ran.lastStatus = status;
+				}
+				started.remove(id, run);
+			}
+			break;
+		default:
+			throw new IOException("Unknown schedule log record " + type);
+		}
+	}
+
+	private static TransferStatus statusOf(byte ordinal) {
+		return ordinal < 0 ? null : STATUSES[ordinal];
+	}
+
+	private void append(byte[] payload) throws IOException {
+		write(channel, payload);
+		records++;
+	}
+
+	private void write(FileChannel out, byte[] payload) throws IOException {
+		crc.reset();
+		crc.update(payload);
+		ByteBuffer frame = ByteBuffer.allocate(4 + payload.length + 4);
+		frame.putInt(payload.length).put(payload).putInt((int) crc.getValue()).flip();
+		while (frame.hasRemaining()) {
+			out.write(frame);
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+package com.db.awmd.challenge.service.schedule;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of the scheduled transfers
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.schedule")
+public class ScheduleProperties {
+
+	private boolean enabled = false;
+
+	/**
+	 * Where the schedule log is kept
+	 */
+	private String directory = "data/schedules";
+
+	/**
+	 * Resolution of the timing wheel, transfers run within a tick of their time
+	 */
+	private long tickMillis = 1000;
+
+	/**
+	 * Transfers due together are applied as best-effort batches of this size
+	 */
+	private int batchSize = 256;
+
+	/**
+	 * Force the log to disk before answering a schedule or a cancellation,
+	 * and before running a batch
+	 */
+	private boolean fsync = true;
+
+	/**
+	 * The log is rewritten with only the live schedules once it holds this
+	 * many records and four times as many as there are schedules
+	 */
+	private long compactMinRecords = 1_000_000;
+
+}
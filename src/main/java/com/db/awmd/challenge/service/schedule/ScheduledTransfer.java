@@ -0,0 +1,63 @@
+package com.db.awmd.challenge.service.schedule;
+
+import java.math.BigDecimal;
+
+import com.db.awmd.challenge.domain.dto.Recurrence;
+import com.db.awmd.challenge.domain.dto.TransferStatus;
+
+/**
+ * A pending scheduled transfer, also its own node in the lists of the
+ * {@link TimingWheel}: millions of them cost one small object each, no
+ * task or future. Guarded by the lock of the {@link TransferScheduler}.
+ *
+ */
+final class ScheduledTransfer {
+
+	final long id;
+
+	final String accountFrom;
+
+	final String accountTo;
+
+	final BigDecimal amount;
+
+	final Recurrence recurrence;
+
+	final long firstRunAt;
+
+	/** runs done, the next one is this index */
+	long runs;
+
+	TransferStatus lastStatus;
+
+	boolean cancelled;
+
+	/** tick of the next run */
+	long deadline;
+
+	/** list of the wheel holding it, -1 if none */
+	int slot = -1;
+
+	ScheduledTransfer prev;
+
+	ScheduledTransfer next;
+
+	ScheduledTransfer(long id, String accountFrom, String accountTo, BigDecimal amount, Recurrence recurrence,
+			long firstRunAt, long runs) {
+		this.id = id;
+		this.accountFrom = accountFrom;
+		this.accountTo = accountTo;
+		this.amount = amount;
+		this.recurrence = recurrence;
+		this.firstRunAt = firstRunAt;
+		this.runs = runs;
+	}
+
+	/**
+	 * @return when the next run is due, {@link Long#MAX_VALUE} if there is none
+	 */
+	long nextRunAt() {
+		return recurrence.runAt(firstRunAt, runs);
+	}
+
+}
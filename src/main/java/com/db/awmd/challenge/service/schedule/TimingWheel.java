@@ -0,0 +1,169 @@
+package com.db.awmd.challenge.service.schedule;
+
+/**
+ * Hierarchical timing wheel, as in the Linux kernel timers: {@value #LEVELS}
+ * levels of {@value #SLOTS} slots, a slot of level n spanning 64^n ticks.
+ * An entry goes to the lowest level whose range reaches its deadline and
+ * moves one level down each time the slot it is in comes up, so adding and
+ * removing are O(1) and an entry is moved at most once per level.
+ * <p>
+ * Slots are doubly linked lists through the entries themselves. Not thread
+ * safe, the caller holds a lock.
+ *
+ */
+final class TimingWheel {
+
+	private static final int SLOT_BITS = 6;
+
+	private static final int SLOTS = 1 << SLOT_BITS;
+
+	/** 64^7 ticks, over a century of millisecond ticks */
+	private static final int LEVELS = 7;
+
+	/** entries already due, handed over by the next {@link #advance} */
+	private static final int OVERDUE = LEVELS * SLOTS;
+
+	private final ScheduledTransfer[] heads = new ScheduledTransfer[LEVELS * SLOTS + 1];
+
+	private long current;
+
+	private int size;
+
+	/** due entries collected by {@link #advance}, chained through next */
+	private ScheduledTransfer dueHead;
+
+	private ScheduledTransfer dueTail;
+
+	TimingWheel(long currentTick) {
+		this.current = currentTick;
+	}
+
+	/**
+	 * Adds the entry for its {@code deadline}, a past one is due at the next advance
+	 */
+	void add(ScheduledTransfer entry) {
+		long deadline = entry.deadline;
+		if (deadline <= current) {
+			link(entry, OVERDUE);
+			return;
+		}
+		for (int level = 0; level < LEVELS; level++) {
+			int shift = level * SLOT_BITS;
+			if ((deadline >> shift) - (current >> shift) <= SLOTS) {
+				link(entry, level * SLOTS + (int) ((deadline >> shift) & (SLOTS - 1)));
+				return;
+			}
+		}
+		// beyond the last level, parked in its farthest slot and placed again when it comes up
+		int shift = (LEVELS - 1) * SLOT_BITS;
+		link(entry, (LEVELS - 1) * SLOTS + (int) (((current >> shift) + SLOTS) & (SLOTS - 1)));
+	}
+
+	/**
+	 * @return whether the entry was in the wheel
+	 */
+	boolean remove(ScheduledTransfer entry) {
+		if (entry.slot < 0) {
+			return false;
+		}
+		if (entry.prev == null) {
+			heads[entry.slot] = entry.next;
+		} else {
+			entry.prev.next = entry.next;
+		}
+		if (entry.next != null) {
+			entry.next.prev = entry.prev;
+		}
+		entry.prev = null;
+		entry.next = null;
+		entry.slot = -1;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Moves time forward to the tick, taking out the entries due by then.
+	 * 
+	 * @return the first due entry, the others follow through {@code next},
+	 *         null if none is due
+	 */
+	ScheduledTransfer advance(long tick) {
+		dueHead = null;
+		dueTail = null;
+		takeDue(OVERDUE);
+		while (current < tick) {
+			current++;
+			// slots of the upper levels whose span starts now move down
+			for (int level = 1; level < LEVELS; level++) {
+				int shift = level * SLOT_BITS;
+				if ((current & ((1L << shift) - 1)) != 0) {
+					break;
+				}
+				cascade(level * SLOTS + (int) ((current >> shift) & (SLOTS - 1)));
+			}
+			takeDue((int) (current & (SLOTS - 1)));
+			takeDue(OVERDUE);
+		}
+		return dueHead;
+	}
+
+	long getCurrent() {
+		return current;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void cascade(int slot) {
+		ScheduledTransfer entry = detach(slot);
+		while (entry != null) {
+			ScheduledTransfer next = entry.next;
+			entry.next = null;
+			add(entry);
+			entry = next;
+		}
+	}
+
+	private void takeDue(int slot) {
+		ScheduledTransfer entry = detach(slot);
+		while (entry != null) {
+			ScheduledTransfer next = entry.next;
+			entry.next = null;
+			if (dueTail == null) {
+				dueHead = entry;
+			} else {
+				dueTail.next = entry;
+			}
+			dueTail = entry;
+			entry = next;
+		}
+	}
+
+	/**
+	 * @return the entries of the slot, still chained through next
+	 */
+	private ScheduledTransfer detach(int slot) {
+		ScheduledTransfer head = heads[slot];
+		heads[slot] = null;
+		for (ScheduledTransfer entry = head; entry != null; entry = entry.next) {
+			entry.prev = null;
+			entry.slot = -1;
+			size--;
+		}
+		return head;
+	}
+
+	private void link(ScheduledTransfer entry, int slot) {
+		ScheduledTransfer head = heads[slot];
+		entry.prev = null;
+		entry.next = head;
+		if (head != null) {
+			head.prev = entry;
+		}
+		heads[slot] = entry;
+		entry.slot = slot;
+		size++;
+	}
+
+}
@@ -0,0 +1,360 @@
+package com.db.awmd.challenge.service.schedule;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.dto.BatchMode;
+import com.db.awmd.challenge.domain.dto.Recurrence;
+import com.db.awmd.challenge.domain.dto.ScheduledTransferDto;
+import com.db.awmd.challenge.domain.dto.TransferDto;
+import com.db.awmd.challenge.domain.dto.TransferResultDto;
+import com.db.awmd.challenge.domain.dto.TransferStatus;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.service.AccountsService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs transfers at a given time, once or again every day, week or month.
+ * <p>
+ * Pending schedules are entries of a {@link TimingWheel}: scheduling and
+ * cancelling are O(1) whatever their number, and a single thread wakes up
+ * every tick to take out the ones due. Those are applied as best-effort
+ * batches through {@link AccountsService#transferBatch}, so transfers due
+ * together share their lock acquisitions.
+ * <p>
+ * Schedules and runs are kept in a {@link ScheduleLog}. After a restart the
+ * runs missed while the node was down are all due at once and caught up in
+ * batches, a recurring schedule running once per missed occurrence. A run
+ * interrupted by a crash is not attempted again.
+ *
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.schedule", name = "enabled", havingValue = "true")
+public class TransferScheduler {
+
+	private final AccountsService accountsService;
+
+	private final ScheduleLog scheduleLog;
+
+	private final long tickMillis;
+
+	private final int batchSize;
+
+	private final long compactMinRecords;
+
+	private final LongSupplier clock;
+
+	/** the schedules and the wheel, guarded by this lock */
+	private final Object lock = new Object();
+
+	private final Map<Long, ScheduledTransfer> schedules = new HashMap<>();
+
+	private final TimingWheel wheel;
+
+	private final AtomicLong nextId;
+
+	private final LongAdder completed = new LongAdder();
+
+	private final LongAdder rejected = new LongAdder();
+
+	private final LongAdder inDoubt = new LongAdder();
+
+	private final LongAdder batches = new LongAdder();
+
+	private volatile long lagMillis;
+
+	private ScheduledExecutorService driver;
+
+	@Autowired
+	public TransferScheduler(ScheduleProperties properties, AccountsService accountsService) throws IOException {
+		this(properties, accountsService, System::currentTimeMillis);
+	}
+
+	public TransferScheduler(ScheduleProperties properties, AccountsService accountsService, LongSupplier clock)
+			throws IOException {
+		this.accountsService = accountsService;
+		this.tickMillis = Math.max(1, properties.getTickMillis());
+		this.batchSize = Math.max(1, properties.getBatchSize());
+		this.compactMinRecords = properties.getCompactMinRecords();
+		this.clock = clock;
+		this.scheduleLog = new ScheduleLog(properties.getDirectory(), properties.isFsync());
+		this.inDoubt.add(this.scheduleLog.open(this.schedules));
+		this.wheel = new TimingWheel(clock.getAsLong() / this.tickMillis);
+		long maxId = 0;
+		for (ScheduledTransfer schedule : this.schedules.values()) {
+			schedule.deadline = tickOf(schedule.nextRunAt());
+			this.wheel.add(schedule);
+			maxId = Math.max(maxId, schedule.id);
+		}
+		this.nextId = new AtomicLong(maxId + 1);
+		if (this.scheduleLog.getRecords() > this.schedules.size()) {
+			this.scheduleLog.compact(this.schedules.values());
+		}
+	}
+
+	@PostConstruct
+	public void start() {
+		driver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "transfer-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		driver.scheduleWithFixedDelay(() -> {
+			try {
+				runDue();
+			} catch (Exception e) {
+				log.error("Scheduled transfers failed, they will be retried", e);
+			}
+		}, 0, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void close() throws IOException, InterruptedException {
+		if (driver != null) {
+			driver.shutdown();
+			driver.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		scheduleLog.close();
+	}
+
+	/**
+	 * Schedules a transfer between two existing accounts, durably once it returns.
+	 * 
+	 * @param firstRunAt
+	 *            epoch millis of the first run, a past time runs at the next tick
+	 */
+	public ScheduledTransferDto schedule(String accountFrom, String accountTo, BigDecimal amount, long firstRunAt,
+			Recurrence recurrence) {
+		if (accountFrom.equals(accountTo)) {
+			throw new TransactionException("Accounts must be different.");
+		}
+		// the ids held by the accounts are shared by all their schedules
+		ScheduledTransfer schedule = new ScheduledTransfer(nextId.getAndIncrement(),
+				accountsService.getAccount(accountFrom).getAccountId(),
+				accountsService.getAccount(accountTo).getAccountId(), amount, recurrence, firstRunAt, 0);
+		schedule.deadline = tickOf(firstRunAt);
+		try {
+			// a compaction in between would lose the creation
+			synchronized (scheduleLog) {
+				scheduleLog.appendCreate(schedule);
+				synchronized (lock) {
+					schedules.put(schedule.id, schedule);
+					wheel.add(schedule);
+				}
+			}
+			scheduleLog.force();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not log the scheduled transfer", e);
+		}
+		return dtoOf(schedule);
+	}
+
+	/**
+	 * Cancels the next runs of the schedule, a run already started completes.
+	 * 
+	 * @return whether the schedule was pending
+	 */
+	public boolean cancel(long scheduleId) {
+		synchronized (lock) {
+			ScheduledTransfer schedule = schedules.remove(scheduleId);
+			if (schedule == null) {
+				return false;
+			}
+			schedule.cancelled = true;
+			wheel.remove(schedule);
+		}
+		try {
+			scheduleLog.appendCancel(scheduleId);
+			scheduleLog.force();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not log the cancelled transfer", e);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the schedule, null if it is unknown or has no run left
+	 */
+	public ScheduledTransferDto get(long scheduleId) {
+		synchronized (lock) {
+			ScheduledTransfer schedule = schedules.get(scheduleId);
+			return schedule == null ? null : dtoOf(schedule);
+		}
+	}
+
+	/**
+	 * Moves the wheel to the current time and runs the transfers due, in batches.
+	 * Called by the scheduler thread every tick.
+	 * 
+	 * @return the number of transfers attempted
+	 */
+	public int runDue() throws IOException {
+		long now = clock.getAsLong();
+		int attempted = 0;
+		List<ScheduledTransfer> batch = new ArrayList<>(batchSize);
+		List<TransferDto> transfers = new ArrayList<>(batchSize);
+		ScheduledTransfer due;
+		// runs missed while down are overdue once the previous one is done, until caught up
+		while ((due = advance(now)) != null) {
+			while (due != null) {
+				synchronized (lock) {
+					while (due != null && batch.size() < batchSize) {
+						ScheduledTransfer next = due.next;
+						due.next = null;
+						if (!due.cancelled) {
+							batch.add(due);
+						}
+						due = next;
+					}
+				}
+				if (batch.isEmpty()) {
+					continue;
+				}
+				for (ScheduledTransfer schedule : batch) {
+					transfers.add(new TransferDto(schedule.accountFrom, schedule.accountTo, schedule.amount));
+				}
+				lagMillis = now - batch.get(0).nextRunAt();
+				run(batch, transfers);
+				attempted += batch.size();
+				batch.clear();
+				transfers.clear();
+			}
+		}
+		if (attempted > 0) {
+			scheduleLog.force();
+		}
+		maybeCompact();
+		return attempted;
+	}
+
+	public int getPending() {
+		synchronized (lock) {
+			return schedules.size();
+		}
+	}
+
+	public long getCompleted() {
+		return completed.sum();
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	/**
+	 * @return runs interrupted by a crash or a failure, which may or may not have moved the money
+	 */
+	public long getInDoubt() {
+		return inDoubt.sum();
+	}
+
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	/**
+	 * @return how late, in milliseconds, the last batch ran
+	 */
+	public long getLagMillis() {
+		return lagMillis;
+	}
+
+	private void run(List<ScheduledTransfer> batch, List<TransferDto> transfers) throws IOException {
+		// durable before the money moves, a crash in between leaves the runs in doubt rather than run twice
+		scheduleLog.appendRuns(batch);
+		scheduleLog.force();
+		List<TransferStatus> statuses = null;
+		try {
+			List<TransferResultDto> results = accountsService.transferBatch(transfers, BatchMode.BEST_EFFORT);
+			statuses = new ArrayList<>(results.size());
+			for (TransferResultDto result : results) {
+				statuses.add(result.getStatus());
+				(result.getStatus() == TransferStatus.COMPLETED ? completed : rejected).increment();
+				if (result.getStatus() != TransferStatus.COMPLETED) {
+					ScheduledTransfer schedule = batch.get(result.getIndex());
+					log.info("Scheduled transfer {} rejected: {}", schedule.id, result.getMessage());
+				}
+			}
+		} catch (RuntimeException e) {
+			inDoubt.add(batch.size());
+			log.error("Batch of {} scheduled transfers failed, they are not attempted again", batch.size(), e);
+		}
+		scheduleLog.appendRan(batch, statuses);
+		batches.increment();
+
+		synchronized (lock) {
+			for (int i = 0; i < batch.size(); i++) {
+				ScheduledTransfer schedule = batch.get(i);
+				schedule.runs++;
+				schedule.lastStatus = statuses == null ? null : statuses.get(i);
+				long nextRunAt = schedule.nextRunAt();
+				if (schedule.cancelled) {
+					continue;
+				}
+				if (nextRunAt == Long.MAX_VALUE) {
+					schedules.remove(schedule.id);
+				} else {
+					schedule.deadline = tickOf(nextRunAt);
+					wheel.add(schedule);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the log once it is mostly records of past runs
+	 */
+	private void maybeCompact() throws IOException {
+		synchronized (scheduleLog) {
+			long records = scheduleLog.getRecords();
+			synchronized (lock) {
+				if (records < compactMinRecords || records < 4L * schedules.size()) {
+					return;
+				}
+				scheduleLog.compact(schedules.values());
+			}
+		}
+	}
+
+	private ScheduledTransfer advance(long now) {
+		synchronized (lock) {
+			return wheel.advance(now / tickMillis);
+		}
+	}
+
+	/**
+	 * @return the first tick at or after the time
+	 */
+	private long tickOf(long millis) {
+		return millis / tickMillis + (millis % tickMillis > 0 ? 1 : 0);
+	}
+
+	private static ScheduledTransferDto dtoOf(ScheduledTransfer schedule) {
+		long nextRunAt = schedule.nextRunAt();
+		return new ScheduledTransferDto(schedule.id, schedule.accountFrom, schedule.accountTo, schedule.amount,
+				schedule.recurrence, nextRunAt == Long.MAX_VALUE ? null : Instant.ofEpochMilli(nextRunAt).toString(),
+				schedule.runs, schedule.lastStatus);
+	}
+
+}
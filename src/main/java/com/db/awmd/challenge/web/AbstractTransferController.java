@@ -0,0 +1,161 @@
+package com.db.awmd.challenge.web;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.domain.dto.TransferDto;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.admission.AdmissionControl;
+import com.db.awmd.challenge.service.admission.AdmissionRejection;
+import com.db.awmd.challenge.service.idempotency.IdempotencyCache;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@code PUT /v1/accounts}, the single transfer. How the request thread is
+ * used is up to the subclass enabled by {@code accounts.web.execution}, the
+ * transfer and its responses are the same.
+ * <p>
+ * With admission control enabled, a transfer not let in is answered at
+ * once with a 429 and a {@code Retry-After}, before it is logged or looks
+ * anything up.
+ *
+ */
+@Slf4j
+abstract class AbstractTransferController {
+
+	private final AccountsService accountsService;
+
+	private final IdempotencyCache idempotencyCache;
+
+	/** the same responses for every transfer turned away */
+	private static final Map<AdmissionRejection, CompletableFuture<ResponseEntity<Object>>> TOO_MANY_REQUESTS = new EnumMap<>(
+			AdmissionRejection.class);
+
+	static {
+		for (AdmissionRejection rejection : AdmissionRejection.values()) {
+			HttpHeaders headers = new HttpHeaders();
+			headers.set(HttpHeaders.RETRY_AFTER, "1");
+			TOO_MANY_REQUESTS.put(rejection, CompletableFuture.completedFuture(
+					new ResponseEntity<>(rejection.getMessage(), headers, HttpStatus.TOO_MANY_REQUESTS)));
+		}
+	}
+
+	/**
+	 * Turns transfers away when a client, an account or the node is over its limit, if enabled
+	 */
+	@Setter
+	@Autowired(required = false)
+	private AdmissionControl admissionControl;
+
+	AbstractTransferController(AccountsService accountsService, IdempotencyCache idempotencyCache) {
+		this.accountsService = accountsService;
+		this.idempotencyCache = idempotencyCache;
+	}
+
+	/**
+	 * @return the response, once the transfer is applied and durable
+	 */
+	CompletableFuture<ResponseEntity<Object>> transfer(TransferDto transfer, String idempotencyKey,
+			HttpServletRequest request) {
+		AdmissionControl admissionControl = this.admissionControl;
+		if (admissionControl == null) {
+			return admitted(transfer, idempotencyKey);
+		}
+		AdmissionRejection rejection = admissionControl.tryAdmit(clientOf(admissionControl, request),
+				transfer.getAccountFrom(), 1);
+		if (rejection != null) {
+			return TOO_MANY_REQUESTS.get(rejection);
+		}
+		long admittedAt = admissionControl.now();
+		CompletableFuture<ResponseEntity<Object>> response;
+		try {
+			response = admitted(transfer, idempotencyKey);
+		} catch (RuntimeException e) {
+			admissionControl.release(admittedAt);
+			throw e;
+		}
+		response.whenComplete((ignored, e) -> admissionControl.release(admittedAt));
+		return response;
+	}
+
+	/**
+	 * @return the response to a request turned away by the admission control
+	 */
+	static ResponseEntity<Object> tooManyRequests(AdmissionRejection rejection) {
+		return TOO_MANY_REQUESTS.get(rejection).join();
+	}
+
+	/**
+	 * @return the client named by the configured header if the request came
+	 * through a trusted proxy, the remote address otherwise: anyone else
+	 * could pick a new name for every request
+	 */
+	static String clientOf(AdmissionControl admissionControl, HttpServletRequest request) {
+		String remoteAddress = request.getRemoteAddr();
+		if (admissionControl.isTrustedProxy(remoteAddress)) {
+			String clientId = request.getHeader(admissionControl.getClientHeader());
+			if (clientId != null) {
+				return clientId;
+			}
+		}
+		return remoteAddress;
+	}
+
+	private CompletableFuture<ResponseEntity<Object>> admitted(TransferDto transfer, String idempotencyKey) {
+		log.info("Transferring money between accounts {}", transfer);
+		String key = idempotencyKey != null ? idempotencyKey : transfer.getIdempotencyKey();
+		CompletableFuture<TransferRejection> result;
+		//checking if accounts are different
+		if (transfer.getAccountFrom().equals(transfer.getAccountTo())) {
+			result = TransferRejection.SAME_ACCOUNTS.future();
+		} else if (key == null) {
+			//make transaction, a rejection is returned rather than thrown
+			result = this.accountsService.tryTransferAsync(transfer.getAccountFrom(), transfer.getAccountTo(), transfer.getAmount());
+		} else {
+			//make transaction, only once per idempotency key
+			result = this.idempotencyCache.execute(key,
+					fingerprint(transfer),
+					() -> this.accountsService.transferAsync(transfer.getAccountFrom(), transfer.getAccountTo(),
+							transfer.getAmount())).thenApply(ignored -> null);
+		}
+		return result.handle((rejection, e) -> {
+			if (rejection != null) {
+				// the message is only built here, for the response
+				return new ResponseEntity<>(rejection.message(transfer.getAccountFrom(), transfer.getAccountTo()),
+						HttpStatus.BAD_REQUEST);
+			}
+			Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+			if (cause == null) {
+				return new ResponseEntity<>(HttpStatus.OK);
+			}
+			if (cause instanceof AccountNotFoundException || cause instanceof TransactionException) {
+				return new ResponseEntity<>(cause.getMessage(), HttpStatus.BAD_REQUEST);
+			}
+			throw cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+		});
+	}
+
+	/**
+	 * Each field is prefixed with its length, ids may contain any separator
+	 */
+	static String fingerprint(TransferDto transfer) {
+		String amount = transfer.getAmount().stripTrailingZeros().toPlainString();
+		return transfer.getAccountFrom().length() + ":" + transfer.getAccountFrom() + transfer.getAccountTo().length() + ":"
+				+ transfer.getAccountTo() + amount.length() + ":" + amount;
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.db.awmd.challenge.web;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.dto.AccountDto;
+import com.db.awmd.challenge.web.json.DtoJsonCodec;
+
+import lombok.Getter;
+
+/**
+ * Serialized {@link AccountDto}s, with their ETag, so polling an account
+ * whose balance didn't move costs neither a DTO nor its serialization.
+ * <p>
+ * A view is versioned by the balance it was built from rather than
+ * invalidated by the writers: every read takes the live balance from the
+ * account and only reuses the view if it matches. Balances change through
+ * many paths (locked and sharded transfers, lock-free hot deposits,
+ * batches, journal replay), none of which can forget to invalidate, and a
+ * read never shows a balance older than the one in the repository. Two
+ * reads racing to replace a view can at worst leave an outdated one
+ * behind, which the next read rebuilds.
+ *
+ */
+@Component
+public class AccountViewCache {
+
+	private final ConcurrentHashMap<String, View> views = new ConcurrentHashMap<>();
+
+	private final int maxEntries;
+
+	public AccountViewCache(@Value("${accounts.view-cache.max-entries:100000}") int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return the view of the account as it is now
+	 */
+	public View view(Account account) {
+		BigDecimal balance = account.getBalance();
+		View view = views.get(account.getAccountId());
+		if (view != null && (view.balance == balance || view.balance.equals(balance))) {
+			return view;
+		}
+		view = new View(balance, DtoJsonCodec.get().write(new AccountDto(account.getAccountId(), balance)));
+		if (views.size() >= maxEntries) {
+			// accounts outnumber the cache, start over rather than track usage on every read
+			views.clear();
+		}
+		views.put(account.getAccountId(), view);
+		return view;
+	}
+
+	@Getter
+	public static final class View {
+
+		private final BigDecimal balance;
+
+		private final byte[] json;
+
+		private final String etag;
+
+		View(BigDecimal balance, byte[] json) {
+			this.balance = balance;
+			this.json = json;
+			this.etag = "\"" + DigestUtils.md5DigestAsHex(json) + "\"";
+		}
+
+	}
+
+}
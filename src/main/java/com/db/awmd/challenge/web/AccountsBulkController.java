@@ -0,0 +1,253 @@
+package com.db.awmd.challenge.web;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.dto.AccountDto;
+import com.db.awmd.challenge.domain.dto.ImportErrorDto;
+import com.db.awmd.challenge.domain.dto.ImportStatus;
+import com.db.awmd.challenge.domain.dto.ImportSummaryDto;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.service.AccountsService;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bulk import and export of accounts as newline-delimited JSON, one
+ * {@link AccountDto} per line. Both directions are streamed, the payload is
+ * never held in memory as a whole.
+ *
+ */
+@RestController
+@Slf4j
+public class AccountsBulkController {
+
+	public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+	private final AccountsService accountsService;
+
+	private final ObjectMapper objectMapper;
+
+	private final Validator validator;
+
+	private final int chunkSize;
+
+	public AccountsBulkController(AccountsService accountsService, ObjectMapper objectMapper, Validator validator,
+			@Value("${accounts.import.chunk-size:1000}") int chunkSize) {
+		this.accountsService = accountsService;
+		this.objectMapper = objectMapper;
+		this.validator = validator;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Creates the accounts of every line, in chunks. The response streams one
+	 * line per account which was not created, followed by a summary line.
+	 * Invalid lines are reported as soon as they are read, duplicates once
+	 * the chunk they belong to has been created.
+	 */
+	@PostMapping(path = "/v1/accounts:import", consumes = APPLICATION_NDJSON_VALUE, produces = APPLICATION_NDJSON_VALUE)
+	public void importAccounts(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		log.info("Importing accounts");
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(APPLICATION_NDJSON_VALUE);
+
+		JsonFactory jsonFactory = this.objectMapper.getFactory();
+		List<Account> chunk = new ArrayList<>(this.chunkSize);
+		List<Long> chunkLines = new ArrayList<>(this.chunkSize);
+		long lineNumber = 0;
+		long created = 0;
+		long duplicates = 0;
+		long invalid = 0;
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+				JsonGenerator generator = jsonFactory.createGenerator(response.getOutputStream())) {
+			generator.setRootValueSeparator(null);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				AccountDto accountDto;
+				try {
+					accountDto = parse(jsonFactory, line);
+				} catch (JsonParseException e) {
+					write(generator, new ImportErrorDto(lineNumber, null, ImportStatus.INVALID, "Malformed JSON"));
+					invalid++;
+					continue;
+				}
+				String violations = validate(accountDto);
+				if (violations != null) {
+					write(generator, new ImportErrorDto(lineNumber, accountDto.getAccountId(), ImportStatus.INVALID, violations));
+					invalid++;
+					continue;
+				}
+				chunk.add(new Account(accountDto));
+				chunkLines.add(lineNumber);
+				if (chunk.size() == this.chunkSize) {
+					long chunkDuplicates = createChunk(generator, chunk, chunkLines);
+					created += chunk.size() - chunkDuplicates;
+					duplicates += chunkDuplicates;
+					chunk.clear();
+					chunkLines.clear();
+				}
+			}
+			if (!chunk.isEmpty()) {
+				long chunkDuplicates = createChunk(generator, chunk, chunkLines);
+				created += chunk.size() - chunkDuplicates;
+				duplicates += chunkDuplicates;
+				chunk.clear();
+				chunkLines.clear();
+			}
+			write(generator, new ImportSummaryDto(created, duplicates, invalid));
+		}
+		log.info("Imported {} accounts, {} duplicates, {} invalid lines", created, duplicates, invalid);
+	}
+
+	/**
+	 * Streams every account with its current balance, one line per account.
+	 */
+	@GetMapping(path = "/v1/accounts:export", produces = APPLICATION_NDJSON_VALUE)
+	public void exportAccounts(HttpServletResponse response) throws IOException {
+		log.info("Exporting accounts");
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(APPLICATION_NDJSON_VALUE);
+
+		try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+			generator.setRootValueSeparator(null);
+			this.accountsService.forEachAccount(account -> {
+				try {
+					generator.writeStartObject();
+					generator.writeStringField("accountId", account.getAccountId());
+					generator.writeNumberField("balance", account.getBalance());
+					generator.writeEndObject();
+					generator.writeRaw('\n');
+				} catch (IOException e) {
+					throw new ExportAbortedException(e);
+				}
+			});
+		} catch (ExportAbortedException e) {
+			throw e.getCause();
+		}
+	}
+
+	private long createChunk(JsonGenerator generator, List<Account> chunk, List<Long> chunkLines) throws IOException {
+		List<DuplicateAccountIdException> results = this.accountsService.createAccounts(chunk);
+		long duplicates = 0;
+		for (int i = 0; i < results.size(); i++) {
+			DuplicateAccountIdException duplicate = results.get(i);
+			if (duplicate != null) {
+				write(generator, new ImportErrorDto(chunkLines.get(i), chunk.get(i).getAccountId(), ImportStatus.DUPLICATE,
+						duplicate.getMessage()));
+				duplicates++;
+			}
+		}
+		return duplicates;
+	}
+
+	/**
+	 * Reads one line with the streaming parser, unknown fields are ignored as
+	 * they are by the JSON endpoints.
+	 */
+	private AccountDto parse(JsonFactory jsonFactory, String line) throws IOException {
+		String accountId = null;
+		BigDecimal balance = null;
+		try (JsonParser parser = jsonFactory.createParser(line)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "Expected an object");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if (!"accountId".equals(field) && !"balance".equals(field)) {
+					parser.skipChildren();
+				} else if (value == JsonToken.VALUE_NULL) {
+					continue;
+				} else if (!value.isScalarValue()) {
+					throw new JsonParseException(parser, "Unexpected value for " + field);
+				} else if ("accountId".equals(field)) {
+					accountId = parser.getText();
+				} else if (value.isNumeric()) {
+					balance = parser.getDecimalValue();
+				} else {
+					try {
+						balance = new BigDecimal(parser.getText().trim());
+					} catch (NumberFormatException e) {
+						throw new JsonParseException(parser, "Balance is not a number");
+					}
+				}
+			}
+			if (parser.getCurrentToken() != JsonToken.END_OBJECT || parser.nextToken() != null) {
+				throw new JsonParseException(parser, "Expected a single object");
+			}
+		}
+		return new AccountDto(accountId, balance);
+	}
+
+	private String validate(AccountDto accountDto) {
+		Set<ConstraintViolation<AccountDto>> violations = this.validator.validate(accountDto);
+		if (violations.isEmpty()) {
+			try {
+				// an id or a balance the repository can't keep would fail the whole chunk
+				this.accountsService.getAccountsRepository().checkAccountId(accountDto.getAccountId());
+				this.accountsService.getAccountsRepository().checkAmount(accountDto.getBalance());
+			} catch (TransactionException e) {
+				return e.getMessage();
+			}
+			return null;
+		}
+		return violations.stream()
+				.map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+				.sorted()
+				.collect(Collectors.joining(", "));
+	}
+
+	private void write(JsonGenerator generator, Object value) throws IOException {
+		this.objectMapper.writeValue(generator, value);
+		generator.writeRaw('\n');
+	}
+
+	/**
+	 * Carries an I/O failure out of the export callback
+	 */
+	private static class ExportAbortedException extends RuntimeException {
+
+		ExportAbortedException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+
+	}
+
+}
@@ -1,26 +1,37 @@
 package com.db.awmd.challenge.web;
 
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import com.db.awmd.challenge.domain.Account;
 import com.db.awmd.challenge.domain.dto.AccountDto;
-import com.db.awmd.challenge.domain.dto.TransferDto;
-import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.domain.dto.BatchTransferDto;
+import com.db.awmd.challenge.domain.dto.BatchTransferResultDto;
+import com.db.awmd.challenge.domain.dto.TransferResultDto;
+import com.db.awmd.challenge.domain.dto.TransferStatus;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
 import com.db.awmd.challenge.exception.TransactionException;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.admission.AdmissionControl;
+import com.db.awmd.challenge.service.admission.AdmissionRejection;
 
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 @RestController
@@ -30,8 +41,18 @@ public class AccountsController {
 
 	private final AccountsService accountsService;
 	
-	public AccountsController(AccountsService accountsService) {
+	private final AccountViewCache accountViewCache;
+	
+	/**
+	 * Turns batches away when their client or the node is over its limit, if enabled
+	 */
+	@Setter
+	@Autowired(required = false)
+	private AdmissionControl admissionControl;
+	
+	public AccountsController(AccountsService accountsService, AccountViewCache accountViewCache) {
 		this.accountsService = accountsService;
+		this.accountViewCache = accountViewCache;
 	}
 
 	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
@@ -41,34 +62,66 @@ public class AccountsController {
 			this.accountsService.createAccount(new Account(accountDto));
 		} catch (DuplicateAccountIdException daie) {
 			return new ResponseEntity<>(daie.getMessage(), HttpStatus.BAD_REQUEST);
+		} catch (TransactionException te) {
+			// an id the repository can't keep, or a balance a hot or minor units account can't hold
+			return new ResponseEntity<>(te.getMessage(), HttpStatus.BAD_REQUEST);
 		}
 
 		return new ResponseEntity<>(HttpStatus.CREATED);
 	}
 	
-	@PutMapping
-	public ResponseEntity<Object> transferMoneyBetweenAccounts(
-			@RequestBody @Valid TransferDto transfer) {
-		log.info("Transferring money between accounts {}", transfer);
+	@PostMapping(path = "/transfers:batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Object> transferBatch(@RequestBody @Valid BatchTransferDto batch, HttpServletRequest request) {
+		AdmissionControl admissionControl = this.admissionControl;
+		long admittedAt = 0;
+		if (admissionControl != null) {
+			// the batch takes a token per transfer from its client, accounts are checked by the single transfers only
+			AdmissionRejection rejection = admissionControl.tryAdmit(
+					AbstractTransferController.clientOf(admissionControl, request), null, batch.getTransfers().size());
+			if (rejection != null) {
+				return AbstractTransferController.tooManyRequests(rejection);
+			}
+			admittedAt = admissionControl.now();
+		}
+		log.info("Transferring money in a {} batch of {} transfers", batch.getMode(), batch.getTransfers().size());
+		List<TransferResultDto> results;
 		try {
-			//checking if accounts are different
-			if (transfer.getAccountFrom().equals(transfer.getAccountTo())) {
-				throw new TransactionException("Accounts must be different.");
+			results = this.accountsService.transferBatch(batch.getTransfers(), batch.getMode());
+		} catch (TransactionException te) {
+			// a mode this node can't apply
+			return new ResponseEntity<>(te.getMessage(), HttpStatus.BAD_REQUEST);
+		} finally {
+			if (admissionControl != null) {
+				admissionControl.release(admittedAt);
 			}
-			//make transaction
-			this.accountsService.transfer(transfer.getAccountFrom(), transfer.getAccountTo(), transfer.getAmount());
-		} catch (AccountNotFoundException | TransactionException e) {
-			return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
 		}
 		
-		return new ResponseEntity<>(HttpStatus.OK);
+		int completed = 0;
+		for (TransferResultDto result : results) {
+			if (result.getStatus() == TransferStatus.COMPLETED) {
+				completed++;
+			}
+		}
+		return new ResponseEntity<>(new BatchTransferResultDto(batch.getMode(), completed, results.size() - completed, results), HttpStatus.OK);
 	}
 
+	/**
+	 * The account as JSON, with an ETag. A matching {@code If-None-Match} is
+	 * answered with 304 and no body. The cached view is written as is,
+	 * without going through the message converters.
+	 */
 	@GetMapping(path = "/{accountId}")
-	public AccountDto getAccount(@PathVariable String accountId) {
+	public void getAccount(@PathVariable String accountId, WebRequest request, HttpServletResponse response)
+			throws IOException {
 		log.info("Retrieving account for id {}", accountId);
 		Account account = this.accountsService.getAccount(accountId);
-		return new AccountDto(account.getAccountId(), account.getBalance());
+		AccountViewCache.View view = this.accountViewCache.view(account);
+		if (request.checkNotModified(view.getEtag())) {
+			return;
+		}
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		response.setContentLength(view.getJson().length);
+		response.getOutputStream().write(view.getJson());
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,43 @@
+package com.db.awmd.challenge.web;
+
+import java.util.concurrent.CompletableFuture;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.validation.Valid;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.db.awmd.challenge.domain.dto.TransferDto;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.idempotency.IdempotencyCache;
+
+/**
+ * Transfers completing as Servlet 3 asynchronous requests: the servlet
+ * thread goes back to the pool as soon as the transfer is handed over, not
+ * once it is durable. Tomcat threads are then only held while the accounts
+ * are locked, or not at all with the sharded engine, and the number of
+ * transfers in flight is no longer capped by the thread pool.
+ *
+ */
+@RestController
+@RequestMapping("/v1/accounts")
+@ConditionalOnProperty(name = "accounts.web.execution", havingValue = "ASYNC")
+public class AsyncTransferController extends AbstractTransferController {
+
+	public AsyncTransferController(AccountsService accountsService, IdempotencyCache idempotencyCache) {
+		super(accountsService, idempotencyCache);
+	}
+
+	@PutMapping
+	public CompletableFuture<ResponseEntity<Object>> transferMoneyBetweenAccounts(@RequestBody @Valid TransferDto transfer,
+			@RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey, HttpServletRequest request) {
+		return transfer(transfer, idempotencyKey, request);
+	}
+
+}
@@ -0,0 +1,197 @@
+package com.db.awmd.challenge.web;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.validation.Valid;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.dto.AccountDto;
+import com.db.awmd.challenge.domain.dto.TransferDto;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.PartitionUnavailableException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.partition.PartitionRouter;
+import com.db.awmd.challenge.service.partition.PartitionRouter.CreditState;
+
+/**
+ * Node to node calls of a partitioned deployment, see {@link PartitionRouter}.
+ * Only accounts of this node are served, requests are never forwarded
+ * again: a node routing differently gets a 503. Calls without the shared
+ * secret of the nodes get a 403.
+ *
+ */
+@RestController
+@RequestMapping("/internal/partitions")
+@ConditionalOnProperty(prefix = "accounts.partition", name = "enabled", havingValue = "true")
+public class PartitionController {
+
+	private final AccountsService accountsService;
+
+	private final PartitionRouter partitionRouter;
+
+	public PartitionController(AccountsService accountsService, PartitionRouter partitionRouter) {
+		this.accountsService = accountsService;
+		this.partitionRouter = partitionRouter;
+	}
+
+	@GetMapping(path = "/accounts/{accountId}")
+	public ResponseEntity<Object> getAccount(@RequestHeader(name = PartitionRouter.SECRET_HEADER, required = false) String secret,
+			@PathVariable String accountId) {
+		if (!partitionRouter.isTrusted(secret)) {
+			return forbidden();
+		}
+		if (!partitionRouter.isLocal(accountId)) {
+			return misrouted(accountId);
+		}
+		try {
+			Account account = partitionRouter.getAccount(accountId);
+			return new ResponseEntity<>(new AccountDto(account.getAccountId(), account.getBalance()), HttpStatus.OK);
+		} catch (AccountNotFoundException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+		}
+	}
+
+	@PostMapping(path = "/accounts", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Object> createAccount(@RequestHeader(name = PartitionRouter.SECRET_HEADER, required = false) String secret,
+			@RequestBody @Valid AccountDto accountDto) {
+		if (!partitionRouter.isTrusted(secret)) {
+			return forbidden();
+		}
+		if (!partitionRouter.isLocal(accountDto.getAccountId())) {
+			return misrouted(accountDto.getAccountId());
+		}
+		try {
+			partitionRouter.createAccount(new Account(accountDto));
+		} catch (DuplicateAccountIdException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT);
+		}
+		return new ResponseEntity<>(HttpStatus.CREATED);
+	}
+
+	/**
+	 * A transfer forwarded by another node, answered once it is durable
+	 */
+	@PostMapping(path = "/transfers", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public CompletableFuture<ResponseEntity<Object>> transfer(
+			@RequestHeader(name = PartitionRouter.SECRET_HEADER, required = false) String secret,
+			@RequestBody @Valid TransferDto transfer) {
+		if (!partitionRouter.isTrusted(secret)) {
+			return CompletableFuture.completedFuture(forbidden());
+		}
+		if (!partitionRouter.isLocal(transfer.getAccountFrom())) {
+			return CompletableFuture.completedFuture(misrouted(transfer.getAccountFrom()));
+		}
+		CompletableFuture<Void> result;
+		if (transfer.getAccountFrom().equals(transfer.getAccountTo())) {
+			result = new CompletableFuture<>();
+			result.completeExceptionally(new TransactionException("Accounts must be different."));
+		} else {
+			result = accountsService.transferAsync(transfer.getAccountFrom(), transfer.getAccountTo(), transfer.getAmount());
+		}
+		return result.handle((ignored, e) -> {
+			Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+			if (cause == null) {
+				return new ResponseEntity<>(HttpStatus.OK);
+			}
+			if (cause instanceof AccountNotFoundException) {
+				return new ResponseEntity<>(cause.getMessage(), HttpStatus.NOT_FOUND);
+			}
+			if (cause instanceof TransactionException) {
+				return new ResponseEntity<>(cause.getMessage(), HttpStatus.BAD_REQUEST);
+			}
+			throw cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+		});
+	}
+
+	@PostMapping(path = "/credits/{transferId}", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Object> prepareCredit(@RequestHeader(name = PartitionRouter.SECRET_HEADER, required = false) String secret,
+			@PathVariable String transferId, @RequestBody @Valid TransferDto transfer) {
+		if (!partitionRouter.isTrusted(secret)) {
+			return forbidden();
+		}
+		if (!partitionRouter.isLocal(transfer.getAccountTo())) {
+			return misrouted(transfer.getAccountTo());
+		}
+		try {
+			partitionRouter.prepareCredit(transferId, transfer.getAccountFrom(), transfer.getAccountTo(),
+					transfer.getAmount());
+		} catch (AccountNotFoundException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(HttpStatus.OK);
+	}
+
+	/**
+	 * 410 once the credit is aborted, expired or found not reserved, 404 if
+	 * this node doesn't know it, 503 if the reservation can't be checked yet
+	 */
+	@PutMapping(path = "/credits/{transferId}")
+	public ResponseEntity<Object> commitCredit(@RequestHeader(name = PartitionRouter.SECRET_HEADER, required = false) String secret,
+			@PathVariable String transferId) {
+		if (!partitionRouter.isTrusted(secret)) {
+			return forbidden();
+		}
+		CreditState state;
+		try {
+			state = partitionRouter.commitCredit(transferId);
+		} catch (PartitionUnavailableException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		if (state == null) {
+			return new ResponseEntity<>("Transfer " + transferId + " unknown", HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(state == CreditState.COMMITTED ? HttpStatus.OK : HttpStatus.GONE);
+	}
+
+	@DeleteMapping(path = "/credits/{transferId}")
+	public ResponseEntity<Object> abortCredit(@RequestHeader(name = PartitionRouter.SECRET_HEADER, required = false) String secret,
+			@PathVariable String transferId) {
+		if (!partitionRouter.isTrusted(secret)) {
+			return forbidden();
+		}
+		partitionRouter.abortCredit(transferId);
+		return new ResponseEntity<>(HttpStatus.OK);
+	}
+
+	/**
+	 * Asked by the owner of the account credited before it commits the credit
+	 */
+	@PostMapping(path = "/reservations/{transferId}", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Object> checkReservation(@RequestHeader(name = PartitionRouter.SECRET_HEADER, required = false) String secret,
+			@PathVariable String transferId, @RequestBody @Valid TransferDto transfer) {
+		if (!partitionRouter.isTrusted(secret)) {
+			return forbidden();
+		}
+		if (!partitionRouter.isReserved(transferId, transfer.getAccountFrom(), transfer.getAccountTo(), transfer.getAmount())) {
+			return new ResponseEntity<>("Transfer " + transferId + " not reserved", HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(HttpStatus.OK);
+	}
+
+	private static ResponseEntity<Object> forbidden() {
+		return new ResponseEntity<>("Internal partition calls need the shared secret", HttpStatus.FORBIDDEN);
+	}
+
+	private ResponseEntity<Object> misrouted(String accountId) {
+		return new ResponseEntity<>("Account id " + accountId + " belongs to " + partitionRouter.ownerOf(accountId),
+				HttpStatus.SERVICE_UNAVAILABLE);
+	}
+
+}
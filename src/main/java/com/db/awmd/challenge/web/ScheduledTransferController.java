@@ -0,0 +1,75 @@
+package com.db.awmd.challenge.web;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+import javax.validation.Valid;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.db.awmd.challenge.domain.dto.ScheduleDto;
+import com.db.awmd.challenge.domain.dto.ScheduledTransferDto;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.service.schedule.TransferScheduler;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Transfers run later, once or as standing orders, in place of an external
+ * job calling the transfer endpoint
+ *
+ */
+@RestController
+@RequestMapping("/v1/accounts/schedules")
+@ConditionalOnProperty(prefix = "accounts.schedule", name = "enabled", havingValue = "true")
+@Slf4j
+public class ScheduledTransferController {
+
+	private final TransferScheduler transferScheduler;
+
+	public ScheduledTransferController(TransferScheduler transferScheduler) {
+		this.transferScheduler = transferScheduler;
+	}
+
+	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Object> schedule(@RequestBody @Valid ScheduleDto scheduleDto) {
+		log.info("Scheduling transfer {}", scheduleDto);
+		long firstRunAt;
+		try {
+			firstRunAt = Instant.parse(scheduleDto.getFirstRunAt()).toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return new ResponseEntity<>("Invalid first run time.", HttpStatus.BAD_REQUEST);
+		}
+		try {
+			ScheduledTransferDto scheduled = this.transferScheduler.schedule(scheduleDto.getAccountFrom(),
+					scheduleDto.getAccountTo(), scheduleDto.getAmount(), firstRunAt, scheduleDto.getRecurrence());
+			return new ResponseEntity<>(scheduled, HttpStatus.CREATED);
+		} catch (AccountNotFoundException | TransactionException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+	}
+
+	@GetMapping(path = "/{scheduleId}")
+	public ResponseEntity<ScheduledTransferDto> getSchedule(@PathVariable long scheduleId) {
+		ScheduledTransferDto scheduled = this.transferScheduler.get(scheduleId);
+		return new ResponseEntity<>(scheduled, scheduled == null ? HttpStatus.NOT_FOUND : HttpStatus.OK);
+	}
+
+	@DeleteMapping(path = "/{scheduleId}")
+	public ResponseEntity<Void> cancel(@PathVariable long scheduleId) {
+		log.info("Cancelling scheduled transfer {}", scheduleId);
+		return new ResponseEntity<>(this.transferScheduler.cancel(scheduleId) ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND);
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.db.awmd.challenge.web;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.validation.Valid;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.db.awmd.challenge.domain.dto.AccountDto;
+import com.db.awmd.challenge.domain.dto.SnapshotReadDto;
+import com.db.awmd.challenge.domain.dto.SnapshotReadResultDto;
+import com.db.awmd.challenge.repository.mvcc.MvccProperties;
+import com.db.awmd.challenge.repository.mvcc.SnapshotRead;
+import com.db.awmd.challenge.repository.mvcc.VersionedBalances;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Balances of many accounts of this node as of one version, for
+ * reconciliations whose totals have to add up while transfers keep running
+ *
+ */
+@RestController
+@ConditionalOnProperty(prefix = "accounts.mvcc", name = "enabled", havingValue = "true")
+@Slf4j
+public class SnapshotReadController {
+
+	private final VersionedBalances versionedBalances;
+
+	private final MvccProperties properties;
+
+	public SnapshotReadController(VersionedBalances versionedBalances, MvccProperties properties) {
+		this.versionedBalances = versionedBalances;
+		this.properties = properties;
+	}
+
+	@PostMapping(path = "/v1/accounts:snapshotRead", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Object> snapshotRead(@RequestBody @Valid SnapshotReadDto snapshotReadDto) {
+		List<String> accountIds = snapshotReadDto.getAccountIds();
+		if (accountIds.size() > properties.getMaxAccounts()) {
+			return new ResponseEntity<>("At most " + properties.getMaxAccounts() + " accounts can be read at once.",
+					HttpStatus.BAD_REQUEST);
+		}
+		log.info("Reading {} accounts at one version", accountIds.size());
+		SnapshotRead read = this.versionedBalances.read(accountIds);
+
+		List<AccountDto> balances = new ArrayList<>(accountIds.size());
+		List<String> missing = new ArrayList<>();
+		for (int i = 0; i < accountIds.size(); i++) {
+			BigDecimal balance = read.getBalances().get(i);
+			if (balance == null) {
+				missing.add(accountIds.get(i));
+			} else {
+				balances.add(new AccountDto(accountIds.get(i), balance));
+			}
+		}
+		return new ResponseEntity<>(new SnapshotReadResultDto(read.getVersion(), balances,
+				missing.isEmpty() ? null : missing), HttpStatus.OK);
+	}
+
+}
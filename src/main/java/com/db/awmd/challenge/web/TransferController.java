@@ -0,0 +1,43 @@
+package com.db.awmd.challenge.web;
+
+import java.util.concurrent.CompletionException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.validation.Valid;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.db.awmd.challenge.domain.dto.TransferDto;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.idempotency.IdempotencyCache;
+
+/**
+ * Transfers holding the servlet thread until they are durable
+ *
+ */
+@RestController
+@RequestMapping("/v1/accounts")
+@ConditionalOnProperty(name = "accounts.web.execution", havingValue = "BLOCKING", matchIfMissing = true)
+public class TransferController extends AbstractTransferController {
+
+	public TransferController(AccountsService accountsService, IdempotencyCache idempotencyCache) {
+		super(accountsService, idempotencyCache);
+	}
+
+	@PutMapping
+	public ResponseEntity<Object> transferMoneyBetweenAccounts(@RequestBody @Valid TransferDto transfer,
+			@RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey, HttpServletRequest request) {
+		try {
+			return transfer(transfer, idempotencyKey, request).join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+		}
+	}
+
+}
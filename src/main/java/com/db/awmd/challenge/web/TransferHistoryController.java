@@ -0,0 +1,90 @@
+package com.db.awmd.challenge.web;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.db.awmd.challenge.domain.dto.TransferHistoryDto;
+import com.db.awmd.challenge.domain.dto.TransferRecordDto;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.repository.ledger.LedgerEntry;
+import com.db.awmd.challenge.service.AccountsService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Transfer history of an account from the ledger, newest first. Pages are
+ * chained by cursor: the {@code nextCursor} of a page, passed back as
+ * {@code cursor}, returns the transfers older than that page, unaffected by
+ * the transfers recorded in the meantime.
+ *
+ */
+@RestController
+@RequestMapping("/v1/accounts")
+@ConditionalOnProperty(prefix = "accounts.ledger", name = "enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class TransferHistoryController {
+
+	static final int MAX_LIMIT = 1000;
+
+	private final AccountsService accountsService;
+
+	public TransferHistoryController(AccountsService accountsService) {
+		this.accountsService = accountsService;
+	}
+
+	/**
+	 * @param since
+	 *            ISO-8601 instant, inclusive
+	 * @param until
+	 *            ISO-8601 instant, exclusive
+	 */
+	@GetMapping(path = "/{accountId}/transfers")
+	public ResponseEntity<Object> getTransfers(@PathVariable String accountId,
+			@RequestParam(required = false) String cursor, @RequestParam(required = false) String since,
+			@RequestParam(required = false) String until, @RequestParam(defaultValue = "50") int limit) {
+		log.info("Retrieving transfers of account {} before {}", accountId, cursor);
+		if (limit < 1 || limit > MAX_LIMIT) {
+			return new ResponseEntity<>("Limit must be between 1 and " + MAX_LIMIT + ".", HttpStatus.BAD_REQUEST);
+		}
+		long beforeId;
+		long sinceMillis;
+		long untilMillis;
+		try {
+			beforeId = cursor == null ? Long.MAX_VALUE : Long.parseLong(cursor);
+			sinceMillis = since == null ? Long.MIN_VALUE : Instant.parse(since).toEpochMilli();
+			untilMillis = until == null ? Long.MAX_VALUE : Instant.parse(until).toEpochMilli();
+		} catch (NumberFormatException | DateTimeParseException e) {
+			return new ResponseEntity<>("Invalid cursor or time range.", HttpStatus.BAD_REQUEST);
+		}
+
+		List<LedgerEntry> entries;
+		try {
+			// one more than asked tells whether there's a next page
+			entries = this.accountsService.getTransfers(accountId, beforeId, sinceMillis, untilMillis, limit + 1);
+		} catch (AccountNotFoundException anfe) {
+			return new ResponseEntity<>(anfe.getMessage(), HttpStatus.NOT_FOUND);
+		}
+		boolean more = entries.size() > limit;
+		List<TransferRecordDto> transfers = new ArrayList<>(Math.min(entries.size(), limit));
+		for (int i = 0; i < entries.size() && i < limit; i++) {
+			LedgerEntry entry = entries.get(i);
+			transfers.add(new TransferRecordDto(entry.getId(), entry.getAccountFrom(), entry.getAccountTo(),
+					entry.getAmount(), Instant.ofEpochMilli(entry.getTimestamp()).toString(), entry.getBalanceFrom(),
+					entry.getBalanceTo()));
+		}
+		String nextCursor = more ? Long.toString(transfers.get(transfers.size() - 1).getId()) : null;
+		return new ResponseEntity<>(new TransferHistoryDto(transfers, nextCursor), HttpStatus.OK);
+	}
+
+}
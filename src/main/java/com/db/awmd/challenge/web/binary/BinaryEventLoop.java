@@ -0,0 +1,554 @@
+package com.db.awmd.challenge.web.binary;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.admission.AdmissionControl;
+import com.db.awmd.challenge.service.admission.AdmissionRejection;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One selector thread serving its share of the connections: it reads the
+ * pipelined requests, hands them to {@link AccountsService} and writes the
+ * responses of everything completed in one pass with a single write per
+ * connection.
+ * <p>
+ * Transfers complete on the thread that makes them durable, account
+ * creations on the server's executor since they may wait for the journal;
+ * their responses are queued back to the loop, which wakes up for the first
+ * one. Every connection keeps a direct buffer for each direction, taken
+ * from the loop's pool and returned to it on close. Responses that don't
+ * fit while the client is slow to read are kept on the heap until they can
+ * be written. A connection stops being read, and its buffered requests
+ * handled, while responses wait on the heap or once {@code max-in-flight}
+ * of its requests are waiting, which bounds them to the responses of one
+ * input buffer and of the requests in flight.
+ *
+ */
+@Slf4j
+class BinaryEventLoop implements Runnable {
+
+	private static final BigDecimal MIN_AMOUNT = new BigDecimal("0.01");
+
+	private final Selector selector;
+
+	private final AccountsService accountsService;
+
+	/**
+	 * Lets transfers in as it does for the REST API, if enabled
+	 */
+	private final AdmissionControl admissionControl;
+
+	private final Executor accountsExecutor;
+
+	private final BinaryProtocolProperties properties;
+
+	private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+
+	private final Queue<Completion> completions = new ConcurrentLinkedQueue<>();
+
+	private final AtomicBoolean wakingUp = new AtomicBoolean();
+
+	private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+
+	/** connections with responses to write, in the order they got them */
+	private final List<Connection> dirty = new ArrayList<>();
+
+	private final byte[] scratch = new byte[0x10000];
+
+	private final LongAdder requests;
+
+	private final LongAdder connections;
+
+	private volatile boolean running = true;
+
+	BinaryEventLoop(BinaryProtocolProperties properties, AccountsService accountsService,
+			AdmissionControl admissionControl, Executor accountsExecutor, LongAdder requests, LongAdder connections)
+			throws IOException {
+		this.selector = Selector.open();
+		this.properties = properties;
+		this.accountsService = accountsService;
+		this.admissionControl = admissionControl;
+		this.accountsExecutor = accountsExecutor;
+		this.requests = requests;
+		this.connections = connections;
+	}
+
+	/**
+	 * Hands an accepted connection over to the loop, from the acceptor thread
+	 */
+	void register(SocketChannel channel) {
+		accepted.add(channel);
+		wakeUp();
+	}
+
+	void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select();
+				wakingUp.set(false);
+				registerAccepted();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Connection connection = (Connection) key.attachment();
+					if (key.isValid() && key.isReadable()) {
+						read(connection);
+					}
+					if (key.isValid() && key.isWritable()) {
+						markDirty(connection);
+					}
+				}
+				drainCompletions();
+				flushDirty();
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			log.error("Binary protocol event loop stopped", e);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				close((Connection) key.attachment());
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				log.warn("Could not close the selector", e);
+			}
+		}
+	}
+
+	private void registerAccepted() {
+		for (SocketChannel channel; (channel = accepted.poll()) != null;) {
+			Connection connection = new Connection(channel, clientOf(channel), buffer(), buffer());
+			try {
+				connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+				connections.increment();
+			} catch (IOException e) {
+				log.warn("Could not register connection", e);
+				close(connection);
+			}
+		}
+	}
+
+	private void read(Connection connection) {
+		int read;
+		try {
+			read = connection.channel.read(connection.in);
+		} catch (IOException e) {
+			log.debug("Connection reset", e);
+			close(connection);
+			return;
+		}
+		if (read == -1) {
+			close(connection);
+			return;
+		}
+		process(connection);
+	}
+
+	/**
+	 * Handles the complete requests in the input buffer, as long as the
+	 * connection accepts more
+	 */
+	private void process(Connection connection) {
+		ByteBuffer in = connection.in;
+		in.flip();
+		while (in.remaining() >= 4 && accepting(connection)) {
+			int length = in.getInt(in.position());
+			if (length < BinaryProtocol.HEADER_SIZE - 4 || length > properties.getMaxFrameSize()) {
+				log.warn("Closing connection {} after a frame of {} bytes", connection.channel, length);
+				close(connection);
+				return;
+			}
+			if (in.remaining() < 4 + length) {
+				break;
+			}
+			int next = in.position() + 4 + length;
+			int limit = in.limit();
+			in.position(in.position() + 4).limit(next);
+			byte type = in.get();
+			long id = in.getLong();
+			try {
+				handle(connection, type, id, in);
+			} catch (BufferUnderflowException e) {
+				respond(connection, id, BinaryProtocol.INVALID, "Request shorter than its fields");
+			} catch (RuntimeException e) {
+				respond(connection, id, e);
+			}
+			in.limit(limit).position(next);
+		}
+		in.compact();
+		if (!accepting(connection)) {
+			interest(connection, connection.key.interestOps() & ~SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * @return whether more requests of the connection are handled: it has
+	 *         room for more in flight and no response waiting on the heap
+	 */
+	private boolean accepting(Connection connection) {
+		return connection.inFlight < properties.getMaxInFlight() && connection.spilled.isEmpty();
+	}
+
+	/**
+	 * Reads the connection again once it accepts requests, after handling
+	 * the ones left in the buffer while reading was paused
+	 */
+	private void resume(Connection connection) {
+		if (connection.closed || !accepting(connection) || (connection.key.interestOps() & SelectionKey.OP_READ) != 0) {
+			return;
+		}
+		interest(connection, connection.key.interestOps() | SelectionKey.OP_READ);
+		process(connection);
+	}
+
+	private void handle(Connection connection, byte type, long id, ByteBuffer in) {
+		requests.increment();
+		switch (type) {
+		case BinaryProtocol.TRANSFER: {
+			String accountFrom = BinaryProtocol.getString(in, scratch);
+			String accountTo = BinaryProtocol.getString(in, scratch);
+			BigDecimal amount = BinaryProtocol.getDecimal(in);
+			// the checks of TransferDto and of the REST controller
+			if (accountFrom.isEmpty() || accountTo.isEmpty()) {
+				respond(connection, id, BinaryProtocol.INVALID, "Account ids must not be empty");
+			} else if (amount.compareTo(MIN_AMOUNT) < 0) {
+				respond(connection, id, BinaryProtocol.INVALID, "Value to be transferred must be positive and greater than $0");
+			} else if (accountFrom.equals(accountTo)) {
+				respond(connection, id, BinaryProtocol.REJECTED, "Accounts must be different.");
+			} else if (admissionControl == null) {
+				track(connection, id, accountsService.transferAsync(accountFrom, accountTo, amount));
+			} else {
+				transferAdmitted(connection, id, accountFrom, accountTo, amount);
+			}
+			break;
+		}
+		case BinaryProtocol.GET_BALANCE: {
+			String accountId = BinaryProtocol.getString(in, scratch);
+			BigDecimal balance;
+			try {
+				balance = accountsService.getAccount(accountId).getBalance();
+			} catch (RuntimeException e) {
+				respond(connection, id, e);
+				break;
+			}
+			respond(connection, id, balance);
+			break;
+		}
+		case BinaryProtocol.CREATE_ACCOUNT: {
+			String accountId = BinaryProtocol.getString(in, scratch);
+			BigDecimal balance = BinaryProtocol.getDecimal(in);
+			// the checks of AccountDto
+			if (accountId.isEmpty()) {
+				respond(connection, id, BinaryProtocol.INVALID, "Account id must not be empty");
+			} else if (balance.signum() < 0) {
+				respond(connection, id, BinaryProtocol.INVALID, "Initial balance must be positive.");
+			} else {
+				track(connection, id, CompletableFuture.runAsync(
+						() -> accountsService.createAccount(new Account(accountId, balance)), accountsExecutor));
+			}
+			break;
+		}
+		default:
+			respond(connection, id, BinaryProtocol.INVALID, "Unknown request type " + type);
+		}
+	}
+
+	/**
+	 * Applies the transfer if the admission control lets it in, answers
+	 * {@link BinaryProtocol#TOO_MANY_REQUESTS} otherwise
+	 */
+	private void transferAdmitted(Connection connection, long id, String accountFrom, String accountTo,
+			BigDecimal amount) {
+		AdmissionRejection rejection = admissionControl.tryAdmit(connection.client, accountFrom, 1);
+		if (rejection != null) {
+			respond(connection, id, BinaryProtocol.TOO_MANY_REQUESTS, rejection.getMessage());
+			return;
+		}
+		long admittedAt = admissionControl.now();
+		CompletableFuture<Void> result;
+		try {
+			result = accountsService.transferAsync(accountFrom, accountTo, amount);
+		} catch (RuntimeException e) {
+			admissionControl.release(admittedAt);
+			throw e;
+		}
+		result.whenComplete((ignored, e) -> admissionControl.release(admittedAt));
+		track(connection, id, result);
+	}
+
+	/**
+	 * @return the remote address of the connection, its client for the admission control
+	 */
+	private static String clientOf(SocketChannel channel) {
+		try {
+			SocketAddress address = channel.getRemoteAddress();
+			if (address instanceof InetSocketAddress && ((InetSocketAddress) address).getAddress() != null) {
+				return ((InetSocketAddress) address).getAddress().getHostAddress();
+			}
+			return String.valueOf(address);
+		} catch (IOException e) {
+			return "unknown";
+		}
+	}
+
+	/**
+	 * Answers now if the request is already complete, once it is otherwise
+	 */
+	private void track(Connection connection, long id, CompletableFuture<Void> result) {
+		if (result.isDone()) {
+			respond(connection, id, result);
+			return;
+		}
+		connection.inFlight++;
+		result.whenComplete((ignored, e) -> {
+			completions.add(new Completion(connection, id, result));
+			wakeUp();
+		});
+	}
+
+	private void wakeUp() {
+		if (wakingUp.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
+	}
+
+	private void drainCompletions() {
+		for (Completion completion; (completion = completions.poll()) != null;) {
+			Connection connection = completion.connection;
+			if (connection.closed) {
+				continue;
+			}
+			connection.inFlight--;
+			respond(connection, completion.id, completion.result);
+			resume(connection);
+		}
+	}
+
+	private void respond(Connection connection, long id, CompletableFuture<Void> result) {
+		try {
+			result.join();
+		} catch (CompletionException e) {
+			respond(connection, id, e.getCause());
+			return;
+		}
+		respond(connection, id, (BigDecimal) null);
+	}
+
+	private void respond(Connection connection, long id, Throwable e) {
+		if (e instanceof AccountNotFoundException) {
+			respond(connection, id, BinaryProtocol.ACCOUNT_NOT_FOUND, e.getMessage());
+		} else if (e instanceof DuplicateAccountIdException) {
+			respond(connection, id, BinaryProtocol.DUPLICATE_ACCOUNT, e.getMessage());
+		} else if (e instanceof TransactionException) {
+			respond(connection, id, BinaryProtocol.REJECTED, e.getMessage());
+		} else {
+			log.error("Binary protocol request " + id + " failed", e);
+			respond(connection, id, BinaryProtocol.FAILED, String.valueOf(e.getMessage()));
+		}
+	}
+
+	/**
+	 * A successful response, with the balance if not null
+	 */
+	private void respond(Connection connection, long id, BigDecimal balance) {
+		if (balance != null && (balance.precision() > 18 || balance.scale() < Byte.MIN_VALUE || balance.scale() > Byte.MAX_VALUE)) {
+			respond(connection, id, BinaryProtocol.FAILED, "Balance " + balance + " can't be represented");
+			return;
+		}
+		ByteBuffer out = output(connection, BinaryProtocol.HEADER_SIZE + BinaryProtocol.DECIMAL_SIZE);
+		int start = BinaryProtocol.startFrame(out, BinaryProtocol.OK, id);
+		if (balance != null) {
+			BinaryProtocol.putDecimal(out, balance);
+		}
+		BinaryProtocol.endFrame(out, start);
+	}
+
+	private void respond(Connection connection, long id, byte status, String message) {
+		String bounded = message.length() > 1024 ? message.substring(0, 1024) : message;
+		ByteBuffer out = output(connection, BinaryProtocol.HEADER_SIZE + BinaryProtocol.stringSize(bounded));
+		int start = BinaryProtocol.startFrame(out, status, id);
+		BinaryProtocol.putString(out, bounded);
+		BinaryProtocol.endFrame(out, start);
+	}
+
+	/**
+	 * @return where to write a response of at most {@code size} bytes, the
+	 *         direct buffer unless earlier responses are still waiting on the
+	 *         heap
+	 */
+	private ByteBuffer output(Connection connection, int size) {
+		markDirty(connection);
+		if (connection.spilled.isEmpty() && connection.out.remaining() >= size) {
+			return connection.out;
+		}
+		ByteBuffer last = connection.spilled.peekLast();
+		if (last == null || last.remaining() < size) {
+			last = ByteBuffer.allocate(Math.max(size, 4096));
+			connection.spilled.add(last);
+		}
+		return last;
+	}
+
+	private void markDirty(Connection connection) {
+		if (!connection.dirty) {
+			connection.dirty = true;
+			dirty.add(connection);
+		}
+	}
+
+	private void flushDirty() {
+		for (int i = 0; i < dirty.size(); i++) {
+			Connection connection = dirty.get(i);
+			connection.dirty = false;
+			if (!connection.closed) {
+				flush(connection);
+			}
+		}
+		dirty.clear();
+	}
+
+	private void flush(Connection connection) {
+		try {
+			ByteBuffer out = connection.out;
+			out.flip();
+			connection.channel.write(out);
+			out.compact();
+			while (out.position() == 0 && !connection.spilled.isEmpty()) {
+				ByteBuffer spilled = connection.spilled.peek();
+				spilled.flip();
+				connection.channel.write(spilled);
+				if (spilled.hasRemaining()) {
+					spilled.compact();
+					break;
+				}
+				connection.spilled.poll();
+			}
+		} catch (IOException e) {
+			log.debug("Connection reset", e);
+			close(connection);
+			return;
+		}
+		int ops = connection.key.interestOps();
+		boolean pending = connection.out.position() > 0 || !connection.spilled.isEmpty();
+		interest(connection, pending ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+		// the heap is written out, responses of the next requests are marked dirty again
+		resume(connection);
+	}
+
+	private void interest(Connection connection, int ops) {
+		if (!connection.closed && connection.key.interestOps() != ops) {
+			connection.key.interestOps(ops);
+		}
+	}
+
+	private void close(Connection connection) {
+		if (connection.closed) {
+			return;
+		}
+		connection.closed = true;
+		if (connection.key != null) {
+			connection.key.cancel();
+			connections.decrement();
+		}
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+			log.debug("Could not close connection", e);
+		}
+		release(connection.in);
+		release(connection.out);
+	}
+
+	private ByteBuffer buffer() {
+		ByteBuffer buffer = buffers.poll();
+		return buffer != null ? buffer : ByteBuffer.allocateDirect(properties.getBufferSize());
+	}
+
+	private void release(ByteBuffer buffer) {
+		buffer.clear();
+		buffers.push(buffer);
+	}
+
+	private static final class Connection {
+
+		final SocketChannel channel;
+
+		/** remote address, the client for the admission control */
+		final String client;
+
+		/** in write mode between reads */
+		final ByteBuffer in;
+
+		/** in write mode between flushes */
+		final ByteBuffer out;
+
+		/** responses that didn't fit {@link #out}, in write mode until flushed */
+		final ArrayDeque<ByteBuffer> spilled = new ArrayDeque<>();
+
+		SelectionKey key;
+
+		int inFlight;
+
+		boolean dirty;
+
+		boolean closed;
+
+		Connection(SocketChannel channel, String client, ByteBuffer in, ByteBuffer out) {
+			this.channel = channel;
+			this.client = client;
+			this.in = in;
+			this.out = out;
+		}
+
+	}
+
+	private static final class Completion {
+
+		final Connection connection;
+
+		final long id;
+
+		final CompletableFuture<Void> result;
+
+		Completion(Connection connection, long id, CompletableFuture<Void> result) {
+			this.connection = connection;
+			this.id = id;
+			this.result = result;
+		}
+
+	}
+
+}
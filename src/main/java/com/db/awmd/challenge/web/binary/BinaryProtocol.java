@@ -0,0 +1,130 @@
+package com.db.awmd.challenge.web.binary;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames of the binary transfer protocol, big-endian.
+ * <p>
+ * A request is its length (int, the bytes after it), its type (byte), an id
+ * chosen by the client (long) and the fields of the type. The response
+ * carries the id of its request, a status (byte) in place of the type, and
+ * the balance for a {@link #GET_BALANCE}, nothing else for the other
+ * requests, or the error message if the status isn't {@link #OK}. Requests
+ * can be pipelined, responses come in the order requests complete.
+ * <ul>
+ * <li>{@link #TRANSFER}: account from (string), account to (string), amount (decimal)</li>
+ * <li>{@link #GET_BALANCE}: account (string)</li>
+ * <li>{@link #CREATE_ACCOUNT}: account (string), balance (decimal)</li>
+ * </ul>
+ * A string is its length in UTF-8 bytes (unsigned short) and the bytes, a
+ * decimal its scale (byte) and unscaled value (long).
+ *
+ */
+public final class BinaryProtocol {
+
+	public static final byte TRANSFER = 1;
+
+	public static final byte GET_BALANCE = 2;
+
+	public static final byte CREATE_ACCOUNT = 3;
+
+	public static final byte OK = 0;
+
+	public static final byte ACCOUNT_NOT_FOUND = 1;
+
+	/** the transfer was refused, same accounts or not enough money */
+	public static final byte REJECTED = 2;
+
+	public static final byte DUPLICATE_ACCOUNT = 3;
+
+	/** a field is missing or out of range, the request was not applied */
+	public static final byte INVALID = 4;
+
+	public static final byte FAILED = 5;
+
+	/** the transfer was turned away by the admission control, retry later */
+	public static final byte TOO_MANY_REQUESTS = 6;
+
+	/** length, type or status and id */
+	public static final int HEADER_SIZE = 4 + 1 + 8;
+
+	public static final int DECIMAL_SIZE = 1 + 8;
+
+	private BinaryProtocol() {
+	}
+
+	/**
+	 * @return the bytes {@link #putString} takes
+	 */
+	public static int stringSize(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) >= 0x80) {
+				return 2 + value.getBytes(StandardCharsets.UTF_8).length;
+			}
+		}
+		return 2 + value.length();
+	}
+
+	public static void putString(ByteBuffer buffer, String value) {
+		int size = stringSize(value) - 2;
+		if (size > 0xFFFF) {
+			throw new IllegalArgumentException("String of " + size + " bytes is too long");
+		}
+		buffer.putShort((short) size);
+		if (size == value.length()) {
+			for (int i = 0; i < size; i++) {
+				buffer.put((byte) value.charAt(i));
+			}
+		} else {
+			buffer.put(value.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * @param scratch
+	 *            at least 64 KiB, holds the bytes while they are decoded
+	 */
+	public static String getString(ByteBuffer buffer, byte[] scratch) {
+		int size = buffer.getShort() & 0xFFFF;
+		buffer.get(scratch, 0, size);
+		return new String(scratch, 0, size, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @throws ArithmeticException
+	 *             if the value has more than 18 digits or its scale doesn't fit a byte
+	 */
+	public static void putDecimal(ByteBuffer buffer, BigDecimal value) {
+		if (value.scale() < Byte.MIN_VALUE || value.scale() > Byte.MAX_VALUE) {
+			throw new ArithmeticException("Scale of " + value + " out of range");
+		}
+		long unscaled = value.unscaledValue().longValueExact();
+		buffer.put((byte) value.scale());
+		buffer.putLong(unscaled);
+	}
+
+	public static BigDecimal getDecimal(ByteBuffer buffer) {
+		int scale = buffer.get();
+		return BigDecimal.valueOf(buffer.getLong(), scale);
+	}
+
+	/**
+	 * Starts a frame at the buffer position, {@link #endFrame} writes its length
+	 *
+	 * @return where the frame starts
+	 */
+	public static int startFrame(ByteBuffer buffer, byte typeOrStatus, long id) {
+		int start = buffer.position();
+		buffer.putInt(0);
+		buffer.put(typeOrStatus);
+		buffer.putLong(id);
+		return start;
+	}
+
+	public static void endFrame(ByteBuffer buffer, int start) {
+		buffer.putInt(start, buffer.position() - start - 4);
+	}
+
+}
@@ -0,0 +1,166 @@
+package com.db.awmd.challenge.web.binary;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.TransactionException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Client of the {@link BinaryProtocolServer} over one connection, safe to
+ * share between threads. Requests are written as they are made and don't
+ * wait for the previous ones to be answered, a reader thread completes
+ * their futures. They fail with the exception the REST API maps to the
+ * same response: {@link AccountNotFoundException},
+ * {@link TransactionException}, {@link DuplicateAccountIdException}, an
+ * {@link IllegalArgumentException} for invalid requests.
+ *
+ */
+@Slf4j
+public class BinaryProtocolClient implements Closeable {
+
+	private final SocketChannel channel;
+
+	/** requests being written, guarded by itself */
+	private final ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024);
+
+	private final ConcurrentHashMap<Long, CompletableFuture<BigDecimal>> pending = new ConcurrentHashMap<>();
+
+	private long nextId;
+
+	private volatile boolean closed;
+
+	public BinaryProtocolClient(String host, int port) throws IOException {
+		this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+		this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		Thread reader = new Thread(this::read, "binary-protocol-client-" + port);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	public CompletableFuture<Void> transfer(String accountFrom, String accountTo, BigDecimal amount) {
+		return send(BinaryProtocol.TRANSFER, accountFrom, accountTo, amount).thenApply(balance -> null);
+	}
+
+	/**
+	 * @return the balance of the account
+	 */
+	public CompletableFuture<BigDecimal> getBalance(String accountId) {
+		return send(BinaryProtocol.GET_BALANCE, accountId, null, null);
+	}
+
+	public CompletableFuture<Void> createAccount(String accountId, BigDecimal balance) {
+		return send(BinaryProtocol.CREATE_ACCOUNT, accountId, null, balance).thenApply(ignored -> null);
+	}
+
+	private CompletableFuture<BigDecimal> send(byte type, String first, String second, BigDecimal decimal) {
+		CompletableFuture<BigDecimal> result = new CompletableFuture<>();
+		synchronized (out) {
+			if (closed) {
+				result.completeExceptionally(new IOException("Connection closed"));
+				return result;
+			}
+			long id = ++nextId;
+			try {
+				int start = BinaryProtocol.startFrame(out, type, id);
+				BinaryProtocol.putString(out, first);
+				if (second != null) {
+					BinaryProtocol.putString(out, second);
+				}
+				if (decimal != null) {
+					BinaryProtocol.putDecimal(out, decimal);
+				}
+				BinaryProtocol.endFrame(out, start);
+			} catch (RuntimeException e) {
+				out.clear();
+				result.completeExceptionally(e);
+				return result;
+			}
+			pending.put(id, result);
+			out.flip();
+			try {
+				while (out.hasRemaining()) {
+					channel.write(out);
+				}
+			} catch (IOException e) {
+				pending.remove(id);
+				result.completeExceptionally(e);
+			} finally {
+				out.clear();
+			}
+		}
+		return result;
+	}
+
+	private void read() {
+		ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+		byte[] scratch = new byte[0x10000];
+		try {
+			while (channel.read(in) != -1) {
+				in.flip();
+				while (in.remaining() >= 4 && in.remaining() >= 4 + in.getInt(in.position())) {
+					int next = in.position() + 4 + in.getInt();
+					byte status = in.get();
+					CompletableFuture<BigDecimal> result = pending.remove(in.getLong());
+					if (result != null) {
+						complete(result, status, in, next, scratch);
+					}
+					in.position(next);
+				}
+				in.compact();
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				log.warn("Binary protocol connection failed", e);
+			}
+		} finally {
+			synchronized (out) {
+				closed = true;
+			}
+			IOException e = new IOException("Connection closed");
+			pending.values().forEach(result -> result.completeExceptionally(e));
+			pending.clear();
+		}
+	}
+
+	private static void complete(CompletableFuture<BigDecimal> result, byte status, ByteBuffer in, int next, byte[] scratch) {
+		if (status == BinaryProtocol.OK) {
+			result.complete(in.position() < next ? BinaryProtocol.getDecimal(in) : null);
+			return;
+		}
+		String message = BinaryProtocol.getString(in, scratch);
+		switch (status) {
+		case BinaryProtocol.ACCOUNT_NOT_FOUND:
+			result.completeExceptionally(new AccountNotFoundException(message));
+			break;
+		case BinaryProtocol.REJECTED:
+			result.completeExceptionally(new TransactionException(message));
+			break;
+		case BinaryProtocol.DUPLICATE_ACCOUNT:
+			result.completeExceptionally(new DuplicateAccountIdException(message));
+			break;
+		case BinaryProtocol.INVALID:
+			result.completeExceptionally(new IllegalArgumentException(message));
+			break;
+		default:
+			result.completeExceptionally(new IllegalStateException(message));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		channel.close();
+	}
+
+}
@@ -0,0 +1,49 @@
+package com.db.awmd.challenge.web.binary;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings of the binary transfer protocol
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.binary")
+public class BinaryProtocolProperties {
+
+	private boolean enabled = false;
+
+	/**
+	 * Loopback only by default, the protocol has no authentication
+	 */
+	private String address = "127.0.0.1";
+
+	/**
+	 * 0 picks a free port
+	 */
+	private int port = 18090;
+
+	/**
+	 * Selector threads sharing the connections
+	 */
+	private int eventLoops = 1;
+
+	/**
+	 * Direct buffer kept per connection for each direction, in bytes
+	 */
+	private int bufferSize = 64 * 1024;
+
+	/**
+	 * Largest request accepted, a larger one closes the connection
+	 */
+	private int maxFrameSize = 4096;
+
+	/**
+	 * Requests of a connection being processed before it stops reading more
+	 */
+	private int maxInFlight = 1024;
+
+}
@@ -0,0 +1,123 @@
+package com.db.awmd.challenge.web.binary;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.admission.AdmissionControl;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Second front end to {@link AccountsService}, for internal callers to whom
+ * HTTP and JSON cost more than the transfer: {@link BinaryProtocol} frames
+ * over plain sockets, on their own port. Connections are accepted on one
+ * thread and spread over the {@link BinaryEventLoop}s.
+ * <p>
+ * It applies the checks of the REST API and answers with the same messages,
+ * transfers go through the same admission control, the client being the
+ * remote address. Idempotency keys are a REST feature, callers retrying a transfer here have
+ * to check its outcome before sending it again.
+ *
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.binary", name = "enabled", havingValue = "true")
+public class BinaryProtocolServer implements Closeable {
+
+	private final ServerSocketChannel serverChannel;
+
+	private final BinaryEventLoop[] loops;
+
+	/** creations may wait for the journal, they don't on the loops */
+	private final ExecutorService accountsExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "binary-protocol-accounts");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final LongAdder requests = new LongAdder();
+
+	private final LongAdder connections = new LongAdder();
+
+	public BinaryProtocolServer(BinaryProtocolProperties properties, AccountsService accountsService,
+			ObjectProvider<AdmissionControl> admissionControl) throws IOException {
+		if (properties.getBufferSize() < properties.getMaxFrameSize() + 4) {
+			throw new IllegalStateException("accounts.binary.buffer-size must hold a frame of max-frame-size");
+		}
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(new InetSocketAddress(properties.getAddress(), properties.getPort()), 1024);
+		this.loops = new BinaryEventLoop[Math.max(1, properties.getEventLoops())];
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new BinaryEventLoop(properties, accountsService, admissionControl.getIfAvailable(),
+					accountsExecutor, requests, connections);
+			Thread thread = new Thread(loops[i], "binary-protocol-loop-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		Thread acceptor = new Thread(this::accept, "binary-protocol-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		log.info("Binary protocol listening on {}", serverChannel.getLocalAddress());
+	}
+
+	private void accept() {
+		int next = 0;
+		while (serverChannel.isOpen()) {
+			try {
+				SocketChannel channel = serverChannel.accept();
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				loops[next++ % loops.length].register(channel);
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				log.warn("Could not accept a binary protocol connection", e);
+			}
+		}
+	}
+
+	/**
+	 * @return the port listened on, the one picked if configured as 0
+	 */
+	public int getPort() {
+		try {
+			return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+		} catch (IOException e) {
+			throw new IllegalStateException("Binary protocol server closed", e);
+		}
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	public long getConnections() {
+		return connections.sum();
+	}
+
+	@PreDestroy
+	@Override
+	public void close() throws IOException {
+		serverChannel.close();
+		for (BinaryEventLoop loop : loops) {
+			loop.stop();
+		}
+		accountsExecutor.shutdown();
+	}
+
+}
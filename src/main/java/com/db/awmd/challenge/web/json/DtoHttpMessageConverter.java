@@ -0,0 +1,62 @@
+package com.db.awmd.challenge.web.json;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.dto.AccountDto;
+import com.db.awmd.challenge.domain.dto.TransferDto;
+
+/**
+ * {@link TransferDto} and {@link AccountDto} bodies through the
+ * {@link DtoJsonCodec}. Spring Boot puts converter beans ahead of its own, so
+ * Jackson is left with the other DTOs and with bodies in another charset
+ * than UTF-8.
+ *
+ */
+@Component
+public class DtoHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+	public DtoHttpMessageConverter() {
+		super(StandardCharsets.UTF_8, MediaType.APPLICATION_JSON, new MediaType("application", "*+json"));
+	}
+
+	@Override
+	protected boolean supports(Class<?> clazz) {
+		return clazz == TransferDto.class || clazz == AccountDto.class;
+	}
+
+	@Override
+	protected boolean canRead(MediaType mediaType) {
+		if (!super.canRead(mediaType)) {
+			return false;
+		}
+		Charset charset = mediaType != null ? mediaType.getCharset() : null;
+		return charset == null || StandardCharsets.UTF_8.equals(charset);
+	}
+
+	@Override
+	protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+		DtoJsonCodec codec = DtoJsonCodec.get();
+		try {
+			return clazz == TransferDto.class ? codec.readTransfer(inputMessage.getBody())
+					: codec.readAccount(inputMessage.getBody());
+		} catch (JsonCodecException e) {
+			throw new HttpMessageNotReadableException("JSON parse error: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	protected void writeInternal(Object dto, HttpOutputMessage outputMessage) throws IOException {
+		DtoJsonCodec codec = DtoJsonCodec.get();
+		outputMessage.getBody().write(dto instanceof TransferDto ? codec.write((TransferDto) dto) : codec.write((AccountDto) dto));
+	}
+
+}
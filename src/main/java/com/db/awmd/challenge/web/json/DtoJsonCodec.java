@@ -0,0 +1,877 @@
+package com.db.awmd.challenge.web.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.db.awmd.challenge.domain.dto.AccountDto;
+import com.db.awmd.challenge.domain.dto.TransferDto;
+
+/**
+ * Reads and writes {@link TransferDto} and {@link AccountDto} straight from
+ * and to bytes, without Jackson's parser, deserializer lookup and token
+ * buffering, and checks their constraints while reading them.
+ * <p>
+ * The grammar and coercions are the ones of the {@code ObjectMapper} Spring
+ * Boot builds: strict JSON, unknown fields ignored, the last of repeated
+ * fields kept, numbers and booleans accepted as strings, strings accepted as
+ * amounts, content after the object ignored. Bodies it rejects are the ones
+ * Jackson rejects, and a body it accepts binds to an equal DTO, which
+ * {@code DtoJsonCodecTest} checks against Jackson itself. Unlike Jackson,
+ * which streams the body, it reads the body whole and refuses one larger
+ * than {@value #MAX_BODY_SIZE} bytes.
+ * <p>
+ * A codec belongs to a thread, see {@link #get()}. The body is read into a
+ * buffer reused from one request to the next and account ids are looked up
+ * in a small per-thread cache of the ids last seen, so reading a transfer
+ * between known accounts allocates the DTO and, when the amount differs from
+ * the last one, its {@code BigDecimal}.
+ *
+ */
+public final class DtoJsonCodec {
+
+	private static final ThreadLocal<DtoJsonCodec> CODECS = ThreadLocal.withInitial(DtoJsonCodec::new);
+
+	private static final BigDecimal MIN_AMOUNT = new BigDecimal("0.01");
+
+	private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 128;
+
+	/** buffers grown past this size for an unusual body are not kept for the next one */
+	private static final int RETAINED_BUFFER_SIZE = 64 * 1024;
+
+	/** far above any DTO, bodies are read whole and one larger is refused before it fills the heap */
+	public static final int MAX_BODY_SIZE = 1024 * 1024;
+
+	/** nesting of the unknown fields skipped */
+	private static final int MAX_DEPTH = 512;
+
+	/** must be a power of two */
+	private static final int CACHED_STRINGS = 1024;
+
+	private static final int MAX_CACHED_STRING_LENGTH = 64;
+
+	private static final int END = -2;
+
+	private static final int UNKNOWN = -1;
+
+	private static final String[] TRANSFER_FIELDS = { "accountFrom", "accountTo", "amount", "idempotencyKey" };
+
+	private static final String[] ACCOUNT_FIELDS = { "accountId", "balance" };
+
+	private static final String[] NO_FIELDS = {};
+
+	private static final byte[][] TRANSFER_FIELD_BYTES = ascii(TRANSFER_FIELDS);
+
+	private static final byte[][] ACCOUNT_FIELD_BYTES = ascii(ACCOUNT_FIELDS);
+
+	private static final byte[][] NO_FIELD_BYTES = {};
+
+	private static final byte[] NULL = ascii("null");
+
+	private static final byte[] TRUE = ascii("true");
+
+	private static final byte[] FALSE = ascii("false");
+
+	private static final byte[] ACCOUNT_ID_START = ascii("{\"accountId\":");
+
+	private static final byte[] BALANCE_FIELD = ascii(",\"balance\":");
+
+	private static final byte[] ACCOUNT_FROM_START = ascii("{\"accountFrom\":");
+
+	private static final byte[] ACCOUNT_TO_FIELD = ascii(",\"accountTo\":");
+
+	private static final byte[] AMOUNT_FIELD = ascii(",\"amount\":");
+
+	private static final byte[] IDEMPOTENCY_KEY_FIELD = ascii(",\"idempotencyKey\":");
+
+	private static final byte[] HEX = ascii("0123456789ABCDEF");
+
+	/** 0 written as is, -1 as \\u00XX, anything else after a backslash */
+	private static final int[] ESCAPES = new int[128];
+
+	static {
+		for (int c = 0; c < 0x20; c++) {
+			ESCAPES[c] = -1;
+		}
+		ESCAPES['"'] = '"';
+		ESCAPES['\\'] = '\\';
+		ESCAPES['\b'] = 'b';
+		ESCAPES['\t'] = 't';
+		ESCAPES['\f'] = 'f';
+		ESCAPES['\n'] = 'n';
+		ESCAPES['\r'] = 'r';
+	}
+
+	private byte[] buffer = new byte[4096];
+
+	private byte[] in;
+
+	private int pos;
+
+	private int end;
+
+	private int bodyLength;
+
+	private final StringBuilder chars = new StringBuilder(64);
+
+	private final byte[][] cachedBytes = new byte[CACHED_STRINGS][];
+
+	private final String[] cachedStrings = new String[CACHED_STRINGS];
+
+	private BigDecimal lastDecimal;
+
+	private long lastUnscaled;
+
+	private byte[] out = new byte[256];
+
+	private int size;
+
+	/** the DTO last read, if it met its constraints */
+	private Object validated;
+
+	private DtoJsonCodec() {
+	}
+
+	/**
+	 * @return the codec of the calling thread
+	 */
+	public static DtoJsonCodec get() {
+		return CODECS.get();
+	}
+
+	/**
+	 * @return the transfer, null for a JSON {@code null}
+	 */
+	public TransferDto readTransfer(InputStream body) throws IOException {
+		byte[] bytes = fill(body);
+		return readTransfer(bytes, 0, bodyLength);
+	}
+
+	/**
+	 * @return the account, null for a JSON {@code null}
+	 */
+	public AccountDto readAccount(InputStream body) throws IOException {
+		byte[] bytes = fill(body);
+		return readAccount(bytes, 0, bodyLength);
+	}
+
+	/**
+	 * @return the transfer, null for a JSON {@code null}
+	 */
+	public TransferDto readTransfer(byte[] bytes, int offset, int length) throws JsonCodecException {
+		begin(bytes, offset, length);
+		if (!startObject()) {
+			return null;
+		}
+		String accountFrom = null;
+		String accountTo = null;
+		BigDecimal amount = null;
+		String idempotencyKey = null;
+		int constructorFields = 0;
+		boolean idempotencyKeySeen = false;
+		for (int field = nextField(TRANSFER_FIELDS, TRANSFER_FIELD_BYTES, true); field != END;
+				field = nextField(TRANSFER_FIELDS, TRANSFER_FIELD_BYTES, false)) {
+			switch (field) {
+			case 0:
+				accountFrom = stringValue();
+				constructorFields |= 1;
+				break;
+			case 1:
+				accountTo = stringValue();
+				constructorFields |= 2;
+				break;
+			case 2:
+				amount = decimalValue();
+				constructorFields |= 4;
+				break;
+			case 3:
+				String value = stringValue();
+				// Jackson buffers setter fields until it has the constructor's and
+				// then applies them newest first, the first buffered one remains
+				if (constructorFields == 7 || !idempotencyKeySeen) {
+					idempotencyKey = value;
+				}
+				idempotencyKeySeen = true;
+				break;
+			default:
+				skipValue(0);
+			}
+		}
+		TransferDto transfer = new TransferDto(accountFrom, accountTo, amount);
+		transfer.setIdempotencyKey(idempotencyKey);
+		// the constraints declared on TransferDto
+		if (!isEmpty(accountFrom) && !isEmpty(accountTo) && amount != null && amount.compareTo(MIN_AMOUNT) >= 0
+				&& (idempotencyKey == null || idempotencyKey.length() <= MAX_IDEMPOTENCY_KEY_LENGTH)) {
+			validated = transfer;
+		}
+		return transfer;
+	}
+
+	/**
+	 * @return the account, null for a JSON {@code null}
+	 */
+	public AccountDto readAccount(byte[] bytes, int offset, int length) throws JsonCodecException {
+		begin(bytes, offset, length);
+		if (!startObject()) {
+			return null;
+		}
+		String accountId = null;
+		BigDecimal balance = null;
+		for (int field = nextField(ACCOUNT_FIELDS, ACCOUNT_FIELD_BYTES, true); field != END;
+				field = nextField(ACCOUNT_FIELDS, ACCOUNT_FIELD_BYTES, false)) {
+			switch (field) {
+			case 0:
+				accountId = stringValue();
+				break;
+			case 1:
+				balance = decimalValue();
+				break;
+			default:
+				skipValue(0);
+			}
+		}
+		AccountDto account = new AccountDto(accountId, balance);
+		// the constraints declared on AccountDto
+		if (!isEmpty(accountId) && balance != null && balance.signum() >= 0) {
+			validated = account;
+		}
+		return account;
+	}
+
+	/**
+	 * @return true if {@code dto} is the DTO this thread read last and it met
+	 *         its constraints, once
+	 */
+	public boolean consumeValidated(Object dto) {
+		if (dto != null && validated == dto) {
+			validated = null;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the account as Jackson writes it
+	 */
+	public byte[] write(AccountDto account) {
+		size = 0;
+		writeRaw(ACCOUNT_ID_START);
+		writeString(account.getAccountId());
+		writeRaw(BALANCE_FIELD);
+		writeDecimal(account.getBalance());
+		return written();
+	}
+
+	/**
+	 * @return the transfer as Jackson writes it
+	 */
+	public byte[] write(TransferDto transfer) {
+		size = 0;
+		writeRaw(ACCOUNT_FROM_START);
+		writeString(transfer.getAccountFrom());
+		writeRaw(ACCOUNT_TO_FIELD);
+		writeString(transfer.getAccountTo());
+		writeRaw(AMOUNT_FIELD);
+		writeDecimal(transfer.getAmount());
+		writeRaw(IDEMPOTENCY_KEY_FIELD);
+		writeString(transfer.getIdempotencyKey());
+		return written();
+	}
+
+	private byte[] fill(InputStream body) throws IOException {
+		byte[] bytes = buffer;
+		bodyLength = 0;
+		for (int read; (read = body.read(bytes, bodyLength, bytes.length - bodyLength)) != -1;) {
+			bodyLength += read;
+			if (bodyLength == bytes.length) {
+				if (bytes.length == MAX_BODY_SIZE) {
+					if (body.read() != -1) {
+						throw new JsonCodecException("Body larger than " + MAX_BODY_SIZE + " bytes", MAX_BODY_SIZE);
+					}
+					break;
+				}
+				bytes = Arrays.copyOf(bytes, Math.min(bytes.length * 2, MAX_BODY_SIZE));
+			}
+		}
+		if (bytes.length <= RETAINED_BUFFER_SIZE) {
+			buffer = bytes;
+		}
+		return bytes;
+	}
+
+	private void begin(byte[] bytes, int offset, int length) {
+		in = bytes;
+		pos = offset;
+		end = offset + length;
+		validated = null;
+		// UTF-8 byte order mark, skipped by Jackson
+		if (length >= 3 && bytes[offset] == (byte) 0xEF && bytes[offset + 1] == (byte) 0xBB
+				&& bytes[offset + 2] == (byte) 0xBF) {
+			pos += 3;
+		}
+	}
+
+	/**
+	 * @return false for a JSON {@code null}
+	 */
+	private boolean startObject() throws JsonCodecException {
+		int c = skipWhitespace();
+		if (c == 'n') {
+			literal(NULL);
+			return false;
+		}
+		if (c != '{') {
+			throw error(c == -1 ? "No content to map" : "Expected an object");
+		}
+		pos++;
+		return true;
+	}
+
+	/**
+	 * Reads the name of the next field of the object and the colon after it
+	 *
+	 * @return its index in {@code names}, {@link #UNKNOWN} or {@link #END}
+	 *         once the object is closed
+	 */
+	private int nextField(String[] names, byte[][] nameBytes, boolean first) throws JsonCodecException {
+		int c = skipWhitespace();
+		if (c == '}') {
+			pos++;
+			return END;
+		}
+		if (!first) {
+			if (c != ',') {
+				throw error("Expected ',' or '}'");
+			}
+			pos++;
+			c = skipWhitespace();
+		}
+		if (c != '"') {
+			throw error("Expected a field name");
+		}
+		int field = fieldName(names, nameBytes);
+		if (skipWhitespace() != ':') {
+			throw error("Expected ':'");
+		}
+		pos++;
+		return field;
+	}
+
+	private int fieldName(String[] names, byte[][] nameBytes) throws JsonCodecException {
+		int start = pos + 1;
+		for (int p = start; p < end; p++) {
+			byte b = in[p];
+			if (b == '"') {
+				pos = p + 1;
+				for (int i = 0; i < nameBytes.length; i++) {
+					if (regionEquals(nameBytes[i], start, p - start)) {
+						return i;
+					}
+				}
+				return UNKNOWN;
+			}
+			if (b == '\\' || b < 0x20) {
+				break;
+			}
+		}
+		// escaped or not ASCII
+		decodeString();
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].contentEquals(chars)) {
+				return i;
+			}
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * A string field, Jackson coerces numbers and booleans to their text
+	 */
+	private String stringValue() throws JsonCodecException {
+		int c = skipWhitespace();
+		switch (c) {
+		case '"':
+			return string();
+		case 'n':
+			literal(NULL);
+			return null;
+		case 't':
+			literal(TRUE);
+			return "true";
+		case 'f':
+			literal(FALSE);
+			return "false";
+		default:
+			if (c == '-' || c >= '0' && c <= '9') {
+				int start = scanNumber();
+				return new String(in, start, pos - start, StandardCharsets.ISO_8859_1);
+			}
+			throw error(c == -1 ? "Unexpected end of content" : "Expected a string");
+		}
+	}
+
+	/**
+	 * A decimal field, Jackson parses strings holding a number as well
+	 */
+	private BigDecimal decimalValue() throws JsonCodecException {
+		int c = skipWhitespace();
+		if (c == '"') {
+			int start = pos;
+			String text = string().trim();
+			if (text.isEmpty()) {
+				return null;
+			}
+			try {
+				return new BigDecimal(text);
+			} catch (NumberFormatException e) {
+				throw new JsonCodecException("Not a valid representation of a BigDecimal", start);
+			}
+		}
+		if (c == 'n') {
+			literal(NULL);
+			return null;
+		}
+		if (c == '-' || c >= '0' && c <= '9') {
+			int start = scanNumber();
+			return decimal(start, pos);
+		}
+		throw error(c == -1 ? "Unexpected end of content" : "Expected a number");
+	}
+
+	/**
+	 * Checks the number at {@code pos} against the JSON grammar and moves past it
+	 *
+	 * @return where it starts
+	 */
+	private int scanNumber() throws JsonCodecException {
+		int start = pos;
+		int p = pos;
+		if (in[p] == '-') {
+			p++;
+		}
+		if (p < end && in[p] == '0') {
+			p++;
+		} else if (p < end && in[p] >= '1' && in[p] <= '9') {
+			p = digits(p);
+		} else {
+			throw error("Invalid number");
+		}
+		if (p < end && in[p] == '.') {
+			if (++p == end || in[p] < '0' || in[p] > '9') {
+				throw new JsonCodecException("Decimal point not followed by a digit", p);
+			}
+			p = digits(p);
+		}
+		if (p < end && (in[p] == 'e' || in[p] == 'E')) {
+			if (++p < end && (in[p] == '+' || in[p] == '-')) {
+				p++;
+			}
+			if (p == end || in[p] < '0' || in[p] > '9') {
+				throw new JsonCodecException("Exponent indicator not followed by a digit", p);
+			}
+			p = digits(p);
+		}
+		if (p < end && !isDelimiter(in[p])) {
+			throw new JsonCodecException("Invalid number", p);
+		}
+		pos = p;
+		return start;
+	}
+
+	private int digits(int p) {
+		while (p < end && in[p] >= '0' && in[p] <= '9') {
+			p++;
+		}
+		return p;
+	}
+
+	/**
+	 * The number checked by {@link #scanNumber()}, as Jackson reads it: the
+	 * digits as they were sent, with their scale
+	 */
+	private BigDecimal decimal(int start, int stop) {
+		long unscaled = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean fraction = false;
+		for (int p = in[start] == '-' ? start + 1 : start; p < stop; p++) {
+			byte b = in[p];
+			if (b == '.') {
+				fraction = true;
+			} else if (b == 'e' || b == 'E' || ++digits > 18) {
+				return new BigDecimal(new String(in, start, stop - start, StandardCharsets.ISO_8859_1));
+			} else {
+				unscaled = unscaled * 10 + b - '0';
+				if (fraction) {
+					scale++;
+				}
+			}
+		}
+		if (in[start] == '-') {
+			unscaled = -unscaled;
+		}
+		// transfers tend to repeat amounts, BigDecimal being immutable the last one is reused
+		if (lastDecimal == null || unscaled != lastUnscaled || scale != lastDecimal.scale()) {
+			lastDecimal = BigDecimal.valueOf(unscaled, scale);
+			lastUnscaled = unscaled;
+		}
+		return lastDecimal;
+	}
+
+	private String string() throws JsonCodecException {
+		int start = pos + 1;
+		for (int p = start; p < end; p++) {
+			byte b = in[p];
+			if (b == '"') {
+				pos = p + 1;
+				return cached(start, p - start);
+			}
+			if (b == '\\' || b < 0x20) {
+				break;
+			}
+		}
+		// escaped or not ASCII
+		decodeString();
+		return chars.toString();
+	}
+
+	/**
+	 * @return the ASCII string, the same instance as the last time these bytes
+	 *         were read at this position of the cache
+	 */
+	private String cached(int start, int length) {
+		if (length > MAX_CACHED_STRING_LENGTH) {
+			return new String(in, start, length, StandardCharsets.ISO_8859_1);
+		}
+		int hash = 0;
+		for (int p = start; p < start + length; p++) {
+			hash = 31 * hash + in[p];
+		}
+		int slot = (hash ^ hash >>> 16) & (CACHED_STRINGS - 1);
+		byte[] bytes = cachedBytes[slot];
+		if (bytes != null && regionEquals(bytes, start, length)) {
+			return cachedStrings[slot];
+		}
+		String string = new String(in, start, length, StandardCharsets.ISO_8859_1);
+		cachedBytes[slot] = Arrays.copyOfRange(in, start, start + length);
+		cachedStrings[slot] = string;
+		return string;
+	}
+
+	/**
+	 * Decodes the string at {@code pos} into {@link #chars}, unescaping and
+	 * checking its UTF-8
+	 */
+	private void decodeString() throws JsonCodecException {
+		chars.setLength(0);
+		pos++;
+		while (true) {
+			if (pos >= end) {
+				throw error("Unexpected end of content in a string");
+			}
+			int b = in[pos] & 0xFF;
+			if (b == '"') {
+				pos++;
+				return;
+			}
+			if (b == '\\') {
+				pos++;
+				unescape();
+			} else if (b < 0x20) {
+				throw error("Illegal unquoted character in a string");
+			} else if (b < 0x80) {
+				chars.append((char) b);
+				pos++;
+			} else {
+				utf8(b);
+			}
+		}
+	}
+
+	private void unescape() throws JsonCodecException {
+		if (pos >= end) {
+			throw error("Unexpected end of content in a string");
+		}
+		byte b = in[pos++];
+		switch (b) {
+		case '"':
+		case '\\':
+		case '/':
+			chars.append((char) b);
+			break;
+		case 'b':
+			chars.append('\b');
+			break;
+		case 't':
+			chars.append('\t');
+			break;
+		case 'f':
+			chars.append('\f');
+			break;
+		case 'n':
+			chars.append('\n');
+			break;
+		case 'r':
+			chars.append('\r');
+			break;
+		case 'u':
+			if (pos + 4 > end) {
+				throw error("Unexpected end of content in a string");
+			}
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = hexDigit(in[pos++]);
+				if (digit < 0) {
+					throw new JsonCodecException("Expected a hex-digit in a character escape", pos - 1);
+				}
+				value = value << 4 | digit;
+			}
+			chars.append((char) value);
+			break;
+		default:
+			throw new JsonCodecException("Unrecognized character escape", pos - 1);
+		}
+	}
+
+	private static int hexDigit(byte b) {
+		if (b >= '0' && b <= '9') {
+			return b - '0';
+		}
+		if (b >= 'a' && b <= 'f') {
+			return b - 'a' + 10;
+		}
+		if (b >= 'A' && b <= 'F') {
+			return b - 'A' + 10;
+		}
+		return -1;
+	}
+
+	private void utf8(int lead) throws JsonCodecException {
+		int continuations;
+		int value;
+		if (lead >= 0xC2 && lead <= 0xDF) {
+			continuations = 1;
+			value = lead & 0x1F;
+		} else if (lead >= 0xE0 && lead <= 0xEF) {
+			continuations = 2;
+			value = lead & 0x0F;
+		} else if (lead >= 0xF0 && lead <= 0xF4) {
+			continuations = 3;
+			value = lead & 0x07;
+		} else {
+			throw error("Invalid UTF-8 start byte");
+		}
+		if (pos + continuations >= end) {
+			throw error("Unexpected end of content in a string");
+		}
+		for (int i = 1; i <= continuations; i++) {
+			int b = in[pos + i] & 0xFF;
+			if ((b & 0xC0) != 0x80) {
+				throw new JsonCodecException("Invalid UTF-8 middle byte", pos + i);
+			}
+			value = value << 6 | b & 0x3F;
+		}
+		if (value > Character.MAX_CODE_POINT) {
+			throw error("Invalid UTF-8 start byte");
+		}
+		pos += continuations + 1;
+		chars.appendCodePoint(value);
+	}
+
+	/**
+	 * Moves past the value of an unknown field, checking it as Jackson would
+	 */
+	private void skipValue(int depth) throws JsonCodecException {
+		if (depth > MAX_DEPTH) {
+			throw error("Unknown field nested too deep");
+		}
+		int c = skipWhitespace();
+		switch (c) {
+		case '"':
+			decodeString();
+			return;
+		case 'n':
+			literal(NULL);
+			return;
+		case 't':
+			literal(TRUE);
+			return;
+		case 'f':
+			literal(FALSE);
+			return;
+		case '{':
+			pos++;
+			for (int field = nextField(NO_FIELDS, NO_FIELD_BYTES, true); field != END;
+					field = nextField(NO_FIELDS, NO_FIELD_BYTES, false)) {
+				skipValue(depth + 1);
+			}
+			return;
+		case '[':
+			pos++;
+			if (skipWhitespace() == ']') {
+				pos++;
+				return;
+			}
+			while (true) {
+				skipValue(depth + 1);
+				c = skipWhitespace();
+				pos++;
+				if (c == ']') {
+					return;
+				}
+				if (c != ',') {
+					throw new JsonCodecException("Expected ',' or ']'", pos - 1);
+				}
+			}
+		default:
+			if (c == '-' || c >= '0' && c <= '9') {
+				scanNumber();
+				return;
+			}
+			throw error(c == -1 ? "Unexpected end of content" : "Unexpected character");
+		}
+	}
+
+	private void literal(byte[] word) throws JsonCodecException {
+		if (pos + word.length > end || !regionEquals(word, pos, word.length)) {
+			throw error("Unrecognized token");
+		}
+		pos += word.length;
+		if (pos < end && !isDelimiter(in[pos])) {
+			throw error("Unrecognized token");
+		}
+	}
+
+	/**
+	 * @return the byte at {@code pos} once past the whitespace, -1 at the end
+	 */
+	private int skipWhitespace() {
+		while (pos < end) {
+			byte b = in[pos];
+			if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+				return b & 0xFF;
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	private static boolean isDelimiter(byte b) {
+		return b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+
+	private boolean regionEquals(byte[] bytes, int start, int length) {
+		if (bytes.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (in[start + i] != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isEmpty(String value) {
+		return value == null || value.isEmpty();
+	}
+
+	private JsonCodecException error(String message) {
+		return new JsonCodecException(message, pos);
+	}
+
+	private void writeString(String value) {
+		if (value == null) {
+			writeRaw(NULL);
+			return;
+		}
+		// at most \\uXXXX for every char
+		ensure(value.length() * 6 + 2);
+		out[size++] = '"';
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				int escape = ESCAPES[c];
+				if (escape == 0) {
+					out[size++] = (byte) c;
+				} else if (escape > 0) {
+					out[size++] = '\\';
+					out[size++] = (byte) escape;
+				} else {
+					out[size++] = '\\';
+					out[size++] = 'u';
+					out[size++] = '0';
+					out[size++] = '0';
+					out[size++] = HEX[c >> 4];
+					out[size++] = HEX[c & 0xF];
+				}
+			} else if (c < 0x800) {
+				out[size++] = (byte) (0xC0 | c >> 6);
+				out[size++] = (byte) (0x80 | c & 0x3F);
+			} else if (Character.isSurrogate(c)) {
+				// Jackson escapes both halves of a pair rather than write four bytes
+				out[size++] = '\\';
+				out[size++] = 'u';
+				out[size++] = HEX[c >> 12];
+				out[size++] = HEX[c >> 8 & 0xF];
+				out[size++] = HEX[c >> 4 & 0xF];
+				out[size++] = HEX[c & 0xF];
+			} else {
+				out[size++] = (byte) (0xE0 | c >> 12);
+				out[size++] = (byte) (0x80 | c >> 6 & 0x3F);
+				out[size++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		out[size++] = '"';
+	}
+
+	private void writeDecimal(BigDecimal value) {
+		if (value == null) {
+			writeRaw(NULL);
+			return;
+		}
+		// Jackson writes toString(), which BigDecimal keeps once computed
+		String text = value.toString();
+		ensure(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			out[size++] = (byte) text.charAt(i);
+		}
+	}
+
+	private void writeRaw(byte[] bytes) {
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, out, size, bytes.length);
+		size += bytes.length;
+	}
+
+	private void ensure(int length) {
+		if (size + length > out.length) {
+			out = Arrays.copyOf(out, Math.max(out.length * 2, size + length));
+		}
+	}
+
+	private byte[] written() {
+		ensure(1);
+		out[size++] = '}';
+		byte[] json = Arrays.copyOf(out, size);
+		if (out.length > RETAINED_BUFFER_SIZE) {
+			out = new byte[256];
+		}
+		return json;
+	}
+
+	private static byte[] ascii(String value) {
+		return value.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static byte[][] ascii(String[] values) {
+		byte[][] bytes = new byte[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = ascii(values[i]);
+		}
+		return bytes;
+	}
+
+}
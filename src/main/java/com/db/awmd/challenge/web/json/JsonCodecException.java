@@ -0,0 +1,18 @@
+package com.db.awmd.challenge.web.json;
+
+import java.io.IOException;
+
+/**
+ * A body {@link DtoJsonCodec} could not read, where Jackson would have
+ * failed as well
+ *
+ */
+public class JsonCodecException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public JsonCodecException(String message, int position) {
+		super(message + " at byte " + position);
+	}
+
+}
@@ -0,0 +1,75 @@
+package com.db.awmd.challenge.web.json;
+
+import org.springframework.validation.Errors;
+import org.springframework.validation.SmartValidator;
+import org.springframework.validation.Validator;
+import org.springframework.web.bind.WebDataBinder;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.InitBinder;
+
+import com.db.awmd.challenge.domain.dto.AccountDto;
+import com.db.awmd.challenge.domain.dto.TransferDto;
+
+/**
+ * Lets {@code @Valid} skip the request bodies {@link DtoJsonCodec} found
+ * valid while reading them. Bodies it found invalid, or read by another
+ * converter, go through bean validation as before, so the 400 and its
+ * errors are the ones a {@code MethodArgumentNotValidException} gives.
+ *
+ */
+@ControllerAdvice
+public class PreValidatedBodyAdvice {
+
+	/** the MVC validator is a singleton, its wrapper is built once */
+	private volatile PreValidatedValidator validator;
+
+	@InitBinder({ "transferDto", "accountDto" })
+	public void skipPreValidated(WebDataBinder binder) {
+		Object target = binder.getTarget();
+		if (!(target instanceof TransferDto || target instanceof AccountDto) || binder.getValidators().size() != 1) {
+			return;
+		}
+		Validator delegate = binder.getValidators().get(0);
+		PreValidatedValidator wrapper = this.validator;
+		if (wrapper == null || wrapper.delegate != delegate) {
+			wrapper = new PreValidatedValidator(delegate);
+			this.validator = wrapper;
+		}
+		binder.replaceValidators(wrapper);
+	}
+
+	static final class PreValidatedValidator implements SmartValidator {
+
+		private final Validator delegate;
+
+		PreValidatedValidator(Validator delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public boolean supports(Class<?> clazz) {
+			return delegate.supports(clazz);
+		}
+
+		@Override
+		public void validate(Object target, Errors errors) {
+			if (!DtoJsonCodec.get().consumeValidated(target)) {
+				delegate.validate(target, errors);
+			}
+		}
+
+		@Override
+		public void validate(Object target, Errors errors, Object... validationHints) {
+			if (DtoJsonCodec.get().consumeValidated(target)) {
+				return;
+			}
+			if (delegate instanceof SmartValidator) {
+				((SmartValidator) delegate).validate(target, errors, validationHints);
+			} else {
+				delegate.validate(target, errors);
+			}
+		}
+
+	}
+
+}
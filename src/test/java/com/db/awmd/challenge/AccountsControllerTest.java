@@ -1,14 +1,18 @@
 package com.db.awmd.challenge;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -23,9 +27,10 @@ import org.springframework.web.context.WebApplicationContext;
 
 import com.db.awmd.challenge.domain.Account;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.web.json.DtoJsonCodec;
 
 @RunWith(SpringRunner.class)
-@SpringBootTest
+@SpringBootTest(properties = "accounts.hot.account-ids=hot")
 @WebAppConfiguration
 public class AccountsControllerTest {
 
@@ -64,6 +69,13 @@ public class AccountsControllerTest {
 				.content("{\"accountId\":\"Id-123\",\"balance\":1000}")).andExpect(status().isBadRequest());
 	}
 
+	@Test
+	public void createHotAccountBalanceBelowMinorUnits() throws Exception {
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"hot\",\"balance\":10.015}")).andExpect(status().isBadRequest())
+				.andExpect(content().string("Amount 10.015 can't be represented with 2 decimal places."));
+	}
+
 	@Test
 	public void createAccountNoAccountId() throws Exception {
 		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON).content("{\"balance\":1000}"))
@@ -95,6 +107,15 @@ public class AccountsControllerTest {
 				.content("{\"accountId\":\"\",\"balance\":1000}")).andExpect(status().isBadRequest());
 	}
 
+	@Test
+	public void createAccountBodyTooLarge() throws Exception {
+		char[] padding = new char[DtoJsonCodec.MAX_BODY_SIZE];
+		Arrays.fill(padding, 'p');
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"padding\":\"" + new String(padding) + "\",\"accountId\":\"Id-123\",\"balance\":1000}"))
+				.andExpect(status().isBadRequest());
+	}
+
 	@Test
 	public void getAccount() throws Exception {
 		String uniqueAccountId = "Id-" + System.currentTimeMillis();
@@ -192,4 +213,244 @@ public class AccountsControllerTest {
 		assertThat(accountsService.getAccount("2").getBalance()).isEqualByComparingTo("1010");
 	}
 	
-}
\ No newline at end of file
+	@Test
+	public void transferBatchBestEffort() throws Exception {
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"1\",\"balance\":100}")).andExpect(status().isCreated());
+		
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"2\",\"balance\":0}")).andExpect(status().isCreated());
+		
+		// the third transfer depends on the money received by the second one
+		this.mockMvc.perform(post("/v1/accounts/transfers:batch").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"mode\":\"BEST_EFFORT\",\"transfers\":["
+						+ "{\"accountFrom\":\"2\",\"accountTo\":\"1\",\"amount\":10},"
+						+ "{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":60},"
+						+ "{\"accountFrom\":\"2\",\"accountTo\":\"1\",\"amount\":50},"
+						+ "{\"accountFrom\":\"1\",\"accountTo\":\"3\",\"amount\":10}]}"))
+				.andExpect(status().isOk())
+				.andExpect(content().json("{\"completed\":2,\"rejected\":2,\"results\":["
+						+ "{\"index\":0,\"status\":\"REJECTED\",\"message\":\"Account 2 has not enought money to make this transaction.\"},"
+						+ "{\"index\":1,\"status\":\"COMPLETED\"},"
+						+ "{\"index\":2,\"status\":\"COMPLETED\"},"
+						+ "{\"index\":3,\"status\":\"REJECTED\",\"message\":\"Account id 3 not found\"}]}"));
+		
+		// checking the balances
+		assertThat(accountsService.getAccount("1").getBalance()).isEqualByComparingTo("90");
+		assertThat(accountsService.getAccount("2").getBalance()).isEqualByComparingTo("10");
+	}
+	
+	@Test
+	public void transferBatchAtomic() throws Exception {
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"1\",\"balance\":100}")).andExpect(status().isCreated());
+		
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"2\",\"balance\":0}")).andExpect(status().isCreated());
+		
+		this.mockMvc.perform(post("/v1/accounts/transfers:batch").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"mode\":\"ATOMIC\",\"transfers\":["
+						+ "{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":60},"
+						+ "{\"accountFrom\":\"2\",\"accountTo\":\"1\",\"amount\":10},"
+						+ "{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":60},"
+						+ "{\"accountFrom\":\"2\",\"accountTo\":\"1\",\"amount\":10}]}"))
+				.andExpect(status().isOk())
+				.andExpect(content().json("{\"completed\":0,\"rejected\":4,\"results\":["
+						+ "{\"index\":0,\"status\":\"ROLLED_BACK\"},"
+						+ "{\"index\":1,\"status\":\"ROLLED_BACK\"},"
+						+ "{\"index\":2,\"status\":\"REJECTED\"},"
+						+ "{\"index\":3,\"status\":\"SKIPPED\"}]}"));
+		
+		// nothing was applied
+		assertThat(accountsService.getAccount("1").getBalance()).isEqualByComparingTo("100");
+		assertThat(accountsService.getAccount("2").getBalance()).isEqualByComparingTo("0");
+	}
+	
+	@Test
+	public void transferBatchEmpty() throws Exception {
+		this.mockMvc.perform(post("/v1/accounts/transfers:batch").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"mode\":\"ATOMIC\",\"transfers\":[]}")).andExpect(status().isBadRequest());
+	}
+	
+	@Test
+	public void importAccounts() throws Exception {
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"2\",\"balance\":1000}")).andExpect(status().isCreated());
+		
+		this.mockMvc.perform(post("/v1/accounts:import").contentType("application/x-ndjson")
+				.content("{\"accountId\":\"1\",\"balance\":10}\n"
+						+ "{\"accountId\":\"2\",\"balance\":20}\n"
+						+ "\n"
+						+ "{\"accountId\":\"3\",\"balance\":-1}\n"
+						+ "{\"accountId\":\"4\",\n"
+						+ "{\"accountId\":\"5\",\"balance\":50.5}"))
+				.andExpect(status().isOk())
+				// invalid lines are reported as they are read, duplicates once their chunk is created
+				.andExpect(content().string(
+						"{\"line\":4,\"accountId\":\"3\",\"status\":\"INVALID\",\"message\":\"balance Initial balance must be positive.\"}\n"
+						+ "{\"line\":5,\"status\":\"INVALID\",\"message\":\"Malformed JSON\"}\n"
+						+ "{\"line\":2,\"accountId\":\"2\",\"status\":\"DUPLICATE\",\"message\":\"Account id 2 already exists!\"}\n"
+						+ "{\"created\":2,\"duplicates\":1,\"invalid\":2}\n"));
+		
+		// checking the balances
+		assertThat(accountsService.getAccount("1").getBalance()).isEqualByComparingTo("10");
+		assertThat(accountsService.getAccount("2").getBalance()).isEqualByComparingTo("1000");
+		assertThat(accountsService.getAccount("5").getBalance()).isEqualByComparingTo("50.5");
+	}
+	
+	@Test
+	public void exportAccounts() throws Exception {
+		this.accountsService.createAccount(new Account("Id-1", new BigDecimal("123.45")));
+		this.accountsService.createAccount(new Account("Id-2", BigDecimal.ZERO));
+		
+		String export = this.mockMvc.perform(get("/v1/accounts:export")).andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString();
+		
+		assertThat(export.split("\n")).containsOnly("{\"accountId\":\"Id-1\",\"balance\":123.45}",
+				"{\"accountId\":\"Id-2\",\"balance\":0}");
+	}
+	
+	@Test
+	public void getAccountNotModified() throws Exception {
+		this.accountsService.createAccount(new Account("1", new BigDecimal("100")));
+		this.accountsService.createAccount(new Account("2", BigDecimal.ZERO));
+		
+		String etag = this.mockMvc.perform(get("/v1/accounts/1")).andExpect(status().isOk())
+				.andReturn().getResponse().getHeader("ETag");
+		assertThat(etag).isNotEmpty();
+		this.mockMvc.perform(get("/v1/accounts/1").header("If-None-Match", etag))
+				.andExpect(status().isNotModified()).andExpect(content().string(""));
+		
+		// a transfer changes the view and its ETag, the old one no longer matches
+		this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":10}")).andExpect(status().isOk());
+		String newEtag = this.mockMvc.perform(get("/v1/accounts/1").header("If-None-Match", etag))
+				.andExpect(status().isOk()).andExpect(jsonPath("$.balance").value(90))
+				.andReturn().getResponse().getHeader("ETag");
+		assertThat(newEtag).isNotEqualTo(etag);
+		this.mockMvc.perform(get("/v1/accounts/1").header("If-None-Match", newEtag))
+				.andExpect(status().isNotModified()).andExpect(header().string("ETag", newEtag));
+	}
+	
+	@Test
+	public void transferWithIdempotencyKeyIsAppliedOnce() throws Exception {
+		this.accountsService.createAccount(new Account("1", new BigDecimal("100")));
+		this.accountsService.createAccount(new Account("2", BigDecimal.ZERO));
+		
+		for (int i = 0; i < 3; i++) {
+			this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+					.header("Idempotency-Key", "transfer-once-header")
+					.content("{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":10}")).andExpect(status().isOk());
+			this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+					.content("{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":10.00,\"idempotencyKey\":\"transfer-once-body\"}"))
+					.andExpect(status().isOk());
+		}
+		
+		// the same key for another transfer is refused
+		this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.header("Idempotency-Key", "transfer-once-header")
+				.content("{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":20}"))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().string("Idempotency key transfer-once-header was already used for another transfer."));
+		
+		assertThat(accountsService.getAccount("1").getBalance()).isEqualByComparingTo("80");
+		assertThat(accountsService.getAccount("2").getBalance()).isEqualByComparingTo("20");
+	}
+	
+	@Test
+	public void transferWithIdempotencyKeyTellsIdsContainingTheSeparatorApart() throws Exception {
+		this.accountsService.createAccount(new Account("1|2", new BigDecimal("10")));
+		this.accountsService.createAccount(new Account("3", BigDecimal.ZERO));
+		this.accountsService.createAccount(new Account("1", new BigDecimal("10")));
+		this.accountsService.createAccount(new Account("2|3", BigDecimal.ZERO));
+
+		this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.header("Idempotency-Key", "transfer-separator")
+				.content("{\"accountFrom\":\"1|2\",\"accountTo\":\"3\",\"amount\":1}"))
+				.andExpect(status().isOk());
+		this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.header("Idempotency-Key", "transfer-separator")
+				.content("{\"accountFrom\":\"1\",\"accountTo\":\"2|3\",\"amount\":1}"))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().string("Idempotency key transfer-separator was already used for another transfer."));
+		assertThat(accountsService.getAccount("2|3").getBalance()).isEqualByComparingTo("0");
+	}
+	
+	@Test
+	public void transferWithIdempotencyKeyReplaysRejection() throws Exception {
+		this.accountsService.createAccount(new Account("1", new BigDecimal("5")));
+		this.accountsService.createAccount(new Account("2", BigDecimal.ZERO));
+		
+		this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.header("Idempotency-Key", "transfer-rejected")
+				.content("{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":10}"))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().string("Account 1 has not enought money to make this transaction."));
+		this.accountsService.getAccount("1").deposit(new BigDecimal("10"));
+		
+		// the retry gets the original outcome, it doesn't go through the transfer again
+		this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.header("Idempotency-Key", "transfer-rejected")
+				.content("{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":10}"))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().string("Account 1 has not enought money to make this transaction."));
+		assertThat(accountsService.getAccount("2").getBalance()).isEqualByComparingTo("0");
+		
+		this.mockMvc.perform(get("/metrics/transfers.idempotency.*")).andExpect(status().isOk())
+				.andExpect(jsonPath("$['transfers.idempotency.hits']").value(greaterThanOrEqualTo(1)))
+				.andExpect(jsonPath("$['transfers.idempotency.size']").value(greaterThanOrEqualTo(1)));
+	}
+	
+	@Test
+	public void transferMetrics() throws Exception {
+		this.accountsService.createAccount(new Account("1", new BigDecimal("100")));
+		this.accountsService.createAccount(new Account("2", BigDecimal.ZERO));
+		
+		this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"2\",\"accountTo\":\"1\",\"amount\":10}")).andExpect(status().isBadRequest());
+		
+		this.mockMvc.perform(get("/metrics/transfers.*")).andExpect(status().isOk())
+				.andExpect(jsonPath("$['transfers.insufficient-funds']").value(greaterThanOrEqualTo(1)))
+				.andExpect(jsonPath("$['transfers.latency.total.p99']").isNumber())
+				.andExpect(jsonPath("$['transfers.latency.lock-wait.count']").isNumber());
+		// only the metrics are open
+		this.mockMvc.perform(get("/env")).andExpect(status().isUnauthorized());
+	}
+	
+	@Test
+	public void getTransfersPagesNewestFirst() throws Exception {
+		// the ledger outlives clearAccounts, ids are unique to this run
+		String accountFrom = "history-from-" + System.nanoTime();
+		String accountTo = "history-to-" + System.nanoTime();
+		this.accountsService.createAccount(new Account(accountFrom, new BigDecimal("100")));
+		this.accountsService.createAccount(new Account(accountTo, BigDecimal.ZERO));
+		for (int i = 1; i <= 3; i++) {
+			this.accountsService.transfer(accountFrom, accountTo, BigDecimal.valueOf(i));
+		}
+
+		String cursor = this.mockMvc.perform(get("/v1/accounts/" + accountTo + "/transfers?limit=2"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.transfers.length()").value(2))
+				.andExpect(jsonPath("$.transfers[0].amount").value(3))
+				.andExpect(jsonPath("$.transfers[0].balanceFrom").value(94))
+				.andExpect(jsonPath("$.transfers[0].balanceTo").value(6))
+				.andExpect(jsonPath("$.transfers[1].amount").value(2))
+				.andReturn().getResponse().getContentAsString().replaceAll(".*\"nextCursor\":\"(\\d+)\".*", "$1");
+		this.mockMvc.perform(get("/v1/accounts/" + accountTo + "/transfers?limit=2&cursor=" + cursor))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.transfers.length()").value(1))
+				.andExpect(jsonPath("$.transfers[0].amount").value(1))
+				.andExpect(jsonPath("$.transfers[0].balanceFrom").value(99))
+				.andExpect(jsonPath("$.nextCursor").doesNotExist());
+
+		this.mockMvc.perform(get("/v1/accounts/" + accountTo + "/transfers?until=2000-01-01T00:00:00Z"))
+				.andExpect(status().isOk()).andExpect(jsonPath("$.transfers").isEmpty());
+		this.mockMvc.perform(get("/v1/accounts/" + accountTo + "/transfers?limit=0"))
+				.andExpect(status().isBadRequest());
+		this.mockMvc.perform(get("/v1/accounts/" + accountTo + "/transfers?since=yesterday"))
+				.andExpect(status().isBadRequest());
+		this.mockMvc.perform(get("/v1/accounts/unknown-" + System.nanoTime() + "/transfers"))
+				.andExpect(status().isNotFound());
+	}
+
+}
@@ -3,10 +3,19 @@ package com.db.awmd.challenge;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -16,32 +25,69 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AtomicAccount;
+import com.db.awmd.challenge.domain.HotAccount;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.domain.dto.BatchMode;
+import com.db.awmd.challenge.domain.dto.TransferDto;
+import com.db.awmd.challenge.domain.dto.TransferResultDto;
+import com.db.awmd.challenge.domain.dto.TransferStatus;
 import com.db.awmd.challenge.exception.AccountNotFoundException;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.JournalException;
 import com.db.awmd.challenge.exception.TransactionException;
 import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.service.AccountLocks;
 import com.db.awmd.challenge.service.AccountsService;
 import com.db.awmd.challenge.service.EmailNotificationService;
+import com.db.awmd.challenge.service.engine.ShardedTransferEngine;
+import com.db.awmd.challenge.service.metrics.TransferMetrics;
+import com.db.awmd.challenge.service.metrics.TransferOutcome;
+import com.db.awmd.challenge.service.notification.BackpressurePolicy;
+import com.db.awmd.challenge.service.notification.NotificationDispatcher;
+import com.db.awmd.challenge.service.notification.NotificationProperties;
+import com.db.awmd.challenge.service.notification.TransferNotification;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest
 public class AccountsServiceTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	private AccountsService accountsService;
 	
 	@Autowired
 	private AccountsRepository accountsRepository;
 	
+	@Autowired
+	private AccountLocks accountLocks;
+	
 	@Mock
 	private EmailNotificationService emailNotificationServiceMock;
+	
+	private NotificationDispatcher notificationDispatcher;
+	
+	private TransferMetrics transferMetrics;
 
 	@Before
 	public void before() {
 		MockitoAnnotations.initMocks(this);
-		this.accountsService = new AccountsService(accountsRepository, emailNotificationServiceMock);
+		// batches are split into single notifications by the interface default method
+		Mockito.doCallRealMethod().when(emailNotificationServiceMock).notifyAboutTransfers(Mockito.anyListOf(TransferNotification.class));
+		this.notificationDispatcher = new NotificationDispatcher(emailNotificationServiceMock, new NotificationProperties());
+		this.notificationDispatcher.start();
+		this.transferMetrics = new TransferMetrics();
+		this.accountsService = new AccountsService(accountsRepository, accountLocks, notificationDispatcher, transferMetrics);
 		this.accountsRepository.clearAccounts();
 	}
 	
+	@After
+	public void after() throws Exception {
+		this.notificationDispatcher.stop();
+	}
+	
 	@Test
 	public void addAccount() throws Exception {
 		Account account = new Account("Id-123");
@@ -150,6 +196,178 @@ public class AccountsServiceTest {
 		assertThat(accountB.getBalance()).isEqualByComparingTo(midTime.toString());
 	}
 	
+	@Test
+	public void transferBetweenManyAccounts() {
+		Integer accounts = 64;
+		Integer rounds = 200;
+		
+		// creating accounts
+		for (int i = 0; i < accounts; i++) {
+			this.accountsService.createAccount(new Account("acc-" + i, new BigDecimal(rounds)));
+		}
+		
+		// each thread moves money around a ring of accounts, in both directions
+		Thread[] threads = new Thread[accounts];
+		for (int i = 0; i < threads.length; i++) {
+			String left = "acc-" + i;
+			String right = "acc-" + ((i + 1) % accounts);
+			threads[i] = new Thread() {
+	            public void run() {
+	            	for (int r = 0; r < rounds; r++) {
+	            		accountsService.transfer(left, right, BigDecimal.ONE);
+	            		accountsService.transfer(right, left, BigDecimal.ONE);
+	            	}
+	            }
+	        };
+		}
+		
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].start();
+		}
+		
+		for (int i = 0; i < threads.length; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		for (int i = 0; i < accounts; i++) {
+			assertThat(this.accountsService.getAccount("acc-" + i).getBalance()).isEqualByComparingTo(rounds.toString());
+		}
+	}
+	
+	@Test
+	public void transferBetweenMinorUnitAccounts() {
+		Integer time = 999;
+		
+		// creating accounts
+		AtomicAccount accountFrom = new AtomicAccount("a", Money.toMinorUnits(new BigDecimal(time)));
+		AtomicAccount accountTo = new AtomicAccount("b", 0);
+
+		this.accountsService.createAccount(accountFrom);
+		this.accountsService.createAccount(accountTo);
+		
+		// one more transfer than money available, so exactly one must be rejected
+		Thread[] threads = new Thread[time * 2 + 1];
+		AtomicInteger rejected = new AtomicInteger();
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+	            public void run() {
+	            	// lock-free deposits and withdrawals racing with the transfers
+	            	accountTo.deposit(new BigDecimal("0.50"));
+	            	accountTo.withdraw(new BigDecimal("0.50"));
+	            	try {
+	            		accountsService.transfer(accountFrom.getAccountId(), accountTo.getAccountId(), new BigDecimal("0.50"));
+	            	} catch (TransactionException e) {
+	            		rejected.incrementAndGet();
+	            	}
+	            }
+	        };
+		}
+		
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].start();
+		}
+		
+		for (int i = 0; i < threads.length; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		assertThat(rejected.get()).isEqualTo(1);
+		assertThat(accountFrom.getMinorUnits()).isEqualTo(0);
+		assertThat(accountTo.getBalance()).isEqualByComparingTo(time.toString());
+	}
+	
+	@Test
+	public void transferToHotAccount() {
+		Integer customers = 32;
+		Integer rounds = 100;
+		
+		// creating accounts, deposits to the merchant go to its cells without its lock
+		HotAccount merchant = new HotAccount("merchant", 0, 4);
+		this.accountsService.createAccount(merchant);
+		this.accountsService.createAccount(new Account("payout", BigDecimal.ZERO));
+		for (int i = 0; i < customers; i++) {
+			this.accountsService.createAccount(new Account("customer-" + i, new BigDecimal(rounds)));
+		}
+		
+		// customers pay the merchant while the merchant pays out whatever it can
+		Thread[] threads = new Thread[customers];
+		for (int i = 0; i < threads.length; i++) {
+			String customer = "customer-" + i;
+			threads[i] = new Thread() {
+	            public void run() {
+	            	for (int r = 0; r < rounds; r++) {
+	            		accountsService.transfer(customer, merchant.getAccountId(), BigDecimal.ONE);
+	            	}
+	            }
+	        };
+		}
+		AtomicInteger paidOut = new AtomicInteger();
+		Thread payout = new Thread() {
+			public void run() {
+				while (paidOut.get() < customers * rounds / 2) {
+					try {
+						accountsService.transfer(merchant.getAccountId(), "payout", BigDecimal.ONE);
+						paidOut.incrementAndGet();
+					} catch (TransactionException e) {
+						// nothing folded yet
+					}
+				}
+			}
+		};
+		
+		payout.start();
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].start();
+		}
+		
+		try {
+			for (int i = 0; i < threads.length; i++) {
+				threads[i].join();
+			}
+			payout.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		
+		// no money lost in the cells and never more paid out than received
+		Integer half = customers * rounds / 2;
+		assertThat(merchant.getBalance()).isEqualByComparingTo(half.toString());
+		assertThat(merchant.getPendingMinorUnits()).isZero();
+		assertThat(this.accountsService.getAccount("payout").getBalance()).isEqualByComparingTo(half.toString());
+	}
+	
+	@Test
+	public void transferToHotAccount_failsOnAmountBelowMinorUnits() {
+		HotAccount merchant = new HotAccount("merchant", 0, 4);
+		this.accountsService.createAccount(merchant);
+		this.accountsService.createAccount(new Account("customer", new BigDecimal("10")));
+		
+		try {
+			this.accountsService.transfer("customer", merchant.getAccountId(), new BigDecimal("0.015"));
+			fail("Should have failed when transferring money");
+		} catch (TransactionException e) {
+			assertThat(e).hasMessage("Amount 0.015 can't be represented with 2 decimal places.");
+		}
+		try {
+			this.accountsRepository.transfer(this.accountsService.getAccount("customer"), merchant, new BigDecimal("0.015"));
+			fail("Should have failed when transferring money");
+		} catch (TransactionException e) {
+			assertThat(e).hasMessage("Amount 0.015 can't be represented with 2 decimal places.");
+		}
+		
+		// nothing debited
+		assertThat(this.accountsService.getAccount("customer").getBalance()).isEqualByComparingTo("10");
+		assertThat(merchant.getBalance()).isEqualByComparingTo("0");
+	}
+	
 	@Test
 	public void transfer_failsOnUserHasNoMoneyToTransfer() {
 		// creating accounts
@@ -167,6 +385,133 @@ public class AccountsServiceTest {
 		}
 	}
 	
+	@Test
+	public void transferBatch_failsOnAtomicBatchWithShardedEngine() {
+		this.accountsService.createAccount(new Account("a", BigDecimal.TEN));
+		this.accountsService.createAccount(new Account("b", BigDecimal.ZERO));
+		this.accountsService.setTransferEngine(Mockito.mock(ShardedTransferEngine.class));
+
+		try {
+			this.accountsService.transferBatch(Collections.singletonList(new TransferDto("a", "b", BigDecimal.ONE)),
+					BatchMode.ATOMIC);
+			fail("Should have failed when transferring an atomic batch");
+		} catch (TransactionException ex) {
+			assertThat(ex).hasMessage("Atomic batches can't be rolled back with the sharded engine, use BEST_EFFORT.");
+		}
+		assertThat(this.accountsService.getAccount("a").getBalance()).isEqualByComparingTo("10");
+	}
+	
+	@Test
+	public void transferBatch_rollsBackAtomicBatchOnceTheJournalFailed() {
+		AccountsRepository repository = Mockito.spy(this.accountsRepository);
+		// the journal fails before the third transfer, then refuses anything debiting c
+		Mockito.doAnswer(invocation -> {
+			if ("c".equals(((Account) invocation.getArguments()[0]).getAccountId())) {
+				throw new JournalException("Accounts journal failed, no more changes are accepted", new IOException(), false);
+			}
+			return invocation.callRealMethod();
+		}).when(repository).transferAsync(Mockito.any(Account.class), Mockito.any(Account.class), Mockito.any(BigDecimal.class));
+		this.accountsService = new AccountsService(repository, accountLocks, notificationDispatcher, transferMetrics);
+		this.accountsService.createAccount(new Account("a", BigDecimal.TEN));
+		this.accountsService.createAccount(new Account("b", BigDecimal.ZERO));
+		this.accountsService.createAccount(new Account("c", BigDecimal.ZERO));
+		this.accountsService.createAccount(new Account("d", BigDecimal.ZERO));
+
+		List<TransferResultDto> results = this.accountsService.transferBatch(Arrays.asList(
+				new TransferDto("a", "b", new BigDecimal("5")), new TransferDto("b", "c", new BigDecimal("3")),
+				new TransferDto("c", "d", BigDecimal.ONE)), BatchMode.ATOMIC);
+
+		assertThat(results).extracting(TransferResultDto::getStatus)
+				.containsExactly(TransferStatus.ROLLED_BACK, TransferStatus.ROLLED_BACK, TransferStatus.REJECTED);
+		assertThat(results.get(2).getMessage()).isEqualTo("Accounts journal failed, no more changes are accepted");
+		// the transfer from b to c is undone in memory, the journal refusing it
+		assertThat(this.accountsService.getAccount("a").getBalance()).isEqualByComparingTo("10");
+		assertThat(this.accountsService.getAccount("b").getBalance()).isEqualByComparingTo("0");
+		assertThat(this.accountsService.getAccount("c").getBalance()).isEqualByComparingTo("0");
+		assertThat(this.accountsService.getAccount("d").getBalance()).isEqualByComparingTo("0");
+	}
+
+	@Test
+	public void transferBatch_rejectsTransfersNotMadeDurable() {
+		AccountsRepository repository = Mockito.spy(this.accountsRepository);
+		Mockito.doAnswer(invocation -> {
+			invocation.callRealMethod();
+			CompletableFuture<Long> durable = new CompletableFuture<>();
+			if ("b".equals(((Account) invocation.getArguments()[0]).getAccountId())) {
+				durable.completeExceptionally(new JournalException("Change applied but not made durable", new IOException()));
+			} else {
+				durable.complete(1L);
+			}
+			return durable;
+		}).when(repository).transferAsync(Mockito.any(Account.class), Mockito.any(Account.class), Mockito.any(BigDecimal.class));
+		this.accountsService = new AccountsService(repository, accountLocks, notificationDispatcher, transferMetrics);
+		this.accountsService.createAccount(new Account("a", BigDecimal.TEN));
+		this.accountsService.createAccount(new Account("b", BigDecimal.ZERO));
+		this.accountsService.createAccount(new Account("c", BigDecimal.ZERO));
+
+		List<TransferResultDto> results = this.accountsService.transferBatch(Arrays.asList(
+				new TransferDto("a", "b", new BigDecimal("5")), new TransferDto("b", "c", new BigDecimal("3"))),
+				BatchMode.BEST_EFFORT);
+
+		assertThat(results).extracting(TransferResultDto::getStatus)
+				.containsExactly(TransferStatus.COMPLETED, TransferStatus.REJECTED);
+		assertThat(results.get(1).getMessage()).isEqualTo("Change applied but not made durable");
+		assertThat(this.transferMetrics.getCount(TransferOutcome.REJECTED)).isEqualTo(1);
+	}
+
+	@Test
+	public void transferOutcomesAndLatenciesAreRecorded() {
+		this.accountsService.createAccount(new Account("a", BigDecimal.TEN));
+		this.accountsService.createAccount(new Account("b", BigDecimal.ZERO));
+
+		this.accountsService.transfer("a", "b", BigDecimal.ONE);
+		try {
+			this.accountsService.transfer("b", "a", BigDecimal.TEN);
+			fail("Should have failed when transferring money");
+		} catch (TransactionException ex) {
+			// expected
+		}
+		try {
+			this.accountsService.transfer("a", "c", BigDecimal.ONE);
+			fail("Should have failed when transferring money");
+		} catch (AccountNotFoundException ex) {
+			// expected
+		}
+
+		assertThat(this.transferMetrics.getCount(TransferOutcome.COMPLETED)).isEqualTo(1);
+		assertThat(this.transferMetrics.getCount(TransferOutcome.INSUFFICIENT_FUNDS)).isEqualTo(1);
+		assertThat(this.transferMetrics.getCount(TransferOutcome.ACCOUNT_NOT_FOUND)).isEqualTo(1);
+		assertThat(this.transferMetrics.getCount(TransferOutcome.REJECTED)).isEqualTo(0);
+		// only completed transfers have a total time, the failed one still waited for its locks
+		assertThat(this.transferMetrics.getTotal().snapshot().getCount()).isEqualTo(1);
+		assertThat(this.transferMetrics.getLockWait().snapshot().getCount()).isEqualTo(2);
+		assertThat(this.transferMetrics.getRepository().snapshot().getCount()).isEqualTo(2);
+	}
+	
+	@Test
+	public void tryTransferReturnsTheRejection() {
+		this.accountsService.createAccount(new Account("a", BigDecimal.TEN));
+		this.accountsService.createAccount(new Account("b", BigDecimal.ZERO));
+
+		// a rejection is the shared future of its reason, nothing is thrown
+		assertThat(this.accountsService.tryTransferAsync("b", "a", BigDecimal.ONE))
+				.isSameAs(TransferRejection.INSUFFICIENT_FUNDS.future());
+		assertThat(this.accountsService.tryTransferAsync("c", "a", BigDecimal.ONE))
+				.isSameAs(TransferRejection.ACCOUNT_FROM_NOT_FOUND.future());
+		assertThat(this.accountsService.tryTransferAsync("a", "c", BigDecimal.ONE))
+				.isSameAs(TransferRejection.ACCOUNT_TO_NOT_FOUND.future());
+		assertThat(this.accountsService.tryTransferAsync("a", "b", BigDecimal.ONE).join()).isNull();
+
+		assertThat(TransferRejection.INSUFFICIENT_FUNDS.message("b", "a"))
+				.isEqualTo("Account b has not enought money to make this transaction.");
+		assertThat(TransferRejection.ACCOUNT_TO_NOT_FOUND.message("a", "c")).isEqualTo("Account id c not found");
+		assertThat(this.accountsService.getAccount("a").getBalance()).isEqualByComparingTo("9");
+		assertThat(this.accountsService.getAccount("b").getBalance()).isEqualByComparingTo("1");
+		assertThat(this.transferMetrics.getCount(TransferOutcome.INSUFFICIENT_FUNDS)).isEqualTo(1);
+		assertThat(this.transferMetrics.getCount(TransferOutcome.ACCOUNT_NOT_FOUND)).isEqualTo(2);
+		assertThat(this.transferMetrics.getCount(TransferOutcome.COMPLETED)).isEqualTo(1);
+	}
+	
 	@Test
 	public void transferMoneyAndEmailWasSent() {
 		// creating accounts
@@ -179,13 +524,33 @@ public class AccountsServiceTest {
 		// transfer money
 		this.accountsService.transfer(accountFrom.getAccountId(), accountTo.getAccountId(), BigDecimal.TEN);
 		
-		// check
+		// check, notifications are delivered in background
 		String message = BigDecimal.TEN + " sent from " + accountFrom.getAccountId();
-		Mockito.verify(this.emailNotificationServiceMock).notifyAboutTransfer(accountTo, message);
+		Mockito.verify(this.emailNotificationServiceMock, Mockito.timeout(1000)).notifyAboutTransfer(accountTo, message);
+	}
+	
+	@Test
+	public void spilledNotificationsAreDeliveredOnStop() throws Exception {
+		NotificationProperties properties = new NotificationProperties();
+		properties.setQueueCapacity(1);
+		properties.setBackpressure(BackpressurePolicy.SPILL);
+		properties.setSpillFile(folder.getRoot().getPath() + "/notifications/spill");
+		NotificationDispatcher dispatcher = new NotificationDispatcher(emailNotificationServiceMock, properties);
+		// not started yet, all but the first one are spilled
+		for (int i = 0; i < 20; i++) {
+			dispatcher.publish(new Account("spilled"), "notification " + i);
+		}
+		assertThat(dispatcher.getSpilled()).isEqualTo(19);
+
+		dispatcher.start();
+		dispatcher.stop();
+		Mockito.verify(this.emailNotificationServiceMock, Mockito.times(20)).notifyAboutTransfer(Mockito.any(Account.class),
+				Mockito.startsWith("notification "));
+		assertThat(dispatcher.getDispatched()).isEqualTo(20);
 	}
 	
 	@Test
-	public void transferMoneyThrowsAnExceptionAndEmailWasNotSent() {
+	public void transferMoneyThrowsAnExceptionAndEmailWasNotSent() throws Exception {
 		// creating accounts
 		Account accountFrom = new Account("a", BigDecimal.ONE);
 		Account accountTo = new Account("b", BigDecimal.ONE);
@@ -198,6 +563,7 @@ public class AccountsServiceTest {
 			fail("Should have failed when transferring money");
 		} catch (Exception e) { }
 		
+		this.notificationDispatcher.stop();
 		Mockito.verifyNoMoreInteractions(this.emailNotificationServiceMock);
 	}
 	
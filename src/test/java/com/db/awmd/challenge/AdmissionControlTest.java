@@ -0,0 +1,198 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.admission.AdaptiveConcurrencyLimit;
+import com.db.awmd.challenge.service.admission.AdmissionControl;
+import com.db.awmd.challenge.service.admission.AdmissionRejection;
+import com.db.awmd.challenge.service.admission.TokenBucket;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "accounts.admission.enabled=true", "accounts.admission.client-rate=0.001",
+		"accounts.admission.client-burst=3", "accounts.admission.account-rate=0.001",
+		"accounts.admission.account-burst=2", "accounts.admission.client-rates.batcher=0.01",
+		"accounts.admission.trusted-proxies=127.0.0.1" })
+@WebAppConfiguration
+public class AdmissionControlTest {
+
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private MockMvc mockMvc;
+
+	@Autowired
+	private AccountsService accountsService;
+
+	@Autowired
+	private AdmissionControl admissionControl;
+
+	@Autowired
+	private WebApplicationContext webApplicationContext;
+
+	@Before
+	public void prepareMockMvc() {
+		this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+		// buckets outlive the accounts, every test uses accounts of its own
+		accountsService.getAccountsRepository().clearAccounts();
+	}
+
+	@Test
+	public void tokenBucketLetsABurstThroughThenRefillsAtItsRate() {
+		TokenBucket bucket = new TokenBucket(10, 5, 0);
+		for (int i = 0; i < 5; i++) {
+			assertThat(bucket.tryAcquire(1, 0)).isTrue();
+		}
+		assertThat(bucket.tryAcquire(1, 0)).isFalse();
+		assertThat(bucket.tryAcquire(1, 99 * MILLIS)).isFalse();
+		assertThat(bucket.tryAcquire(1, 100 * MILLIS)).isTrue();
+		assertThat(bucket.isFull(100 * MILLIS)).isFalse();
+		assertThat(bucket.isFull(600 * MILLIS)).isTrue();
+		// more than a burst takes the whole burst
+		assertThat(bucket.tryAcquire(50, 600 * MILLIS)).isTrue();
+		assertThat(bucket.tryAcquire(1, 600 * MILLIS)).isFalse();
+	}
+
+	@Test
+	public void concurrencyLimitFollowsTheLatency() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 4, 100, 1.5, 10 * MILLIS, 1, 0);
+		long now = 0;
+		// fast transfers using the whole limit, it grows
+		for (int window = 0; window < 20; window++) {
+			now = saturate(limit, now, 1 * MILLIS);
+		}
+		int grown = limit.getLimit();
+		assertThat(grown).isGreaterThan(20);
+		assertThat(limit.tryAcquire()).isTrue();
+		limit.release(MILLIS, now);
+
+		// ten times slower, it shrinks
+		for (int window = 0; window < 5; window++) {
+			now = saturate(limit, now, 10 * MILLIS);
+		}
+		int shrunk = limit.getLimit();
+		assertThat(shrunk).isLessThan(grown);
+		assertThat(limit.getInFlight()).isZero();
+
+		// fast again, it grows back
+		for (int window = 0; window < 10; window++) {
+			now = saturate(limit, now, 1 * MILLIS);
+		}
+		assertThat(limit.getLimit()).isGreaterThan(shrunk);
+	}
+
+	@Test
+	public void transfersOverTheClientRateAreTurnedAway() throws Exception {
+		createAccounts("client-rate-", 4);
+		long rejected = admissionControl.getRejected(AdmissionRejection.CLIENT_RATE);
+		for (int i = 0; i < 3; i++) {
+			transfer("partner", "client-rate-" + i, "client-rate-3").andExpect(status().isOk());
+		}
+		transfer("partner", "client-rate-0", "client-rate-3").andExpect(status().isTooManyRequests())
+				.andExpect(header().string("Retry-After", "1"))
+				.andExpect(content().string("Too many transfers from this client, retry later."));
+		// other clients are not affected
+		transfer("other", "client-rate-0", "client-rate-3").andExpect(status().isOk());
+
+		assertThat(admissionControl.getRejected(AdmissionRejection.CLIENT_RATE) - rejected).isEqualTo(1);
+		assertThat(accountsService.getAccount("client-rate-3").getBalance()).isEqualByComparingTo("104");
+		assertThat(admissionControl.getInFlight()).isZero();
+	}
+
+	@Test
+	public void clientsNotBehindATrustedProxyCantNameThemselves() throws Exception {
+		createAccounts("untrusted-", 4);
+		for (int i = 0; i < 3; i++) {
+			transferFrom("203.0.113.7", "client-" + i, "untrusted-" + i, "untrusted-3").andExpect(status().isOk());
+		}
+		// a new name doesn't give a new bucket
+		transferFrom("203.0.113.7", "client-3", "untrusted-0", "untrusted-3").andExpect(status().isTooManyRequests())
+				.andExpect(content().string("Too many transfers from this client, retry later."));
+		assertThat(accountsService.getAccount("untrusted-3").getBalance()).isEqualByComparingTo("103");
+	}
+
+	@Test
+	public void transfersOverTheAccountRateAreTurnedAway() throws Exception {
+		createAccounts("account-rate-", 3);
+		transfer("client-1", "account-rate-1", "account-rate-2").andExpect(status().isOk());
+		transfer("client-2", "account-rate-1", "account-rate-2").andExpect(status().isOk());
+		transfer("client-3", "account-rate-1", "account-rate-2").andExpect(status().isTooManyRequests())
+				.andExpect(content().string("Too many transfers from this account, retry later."));
+		// rejections still answer the same, admitted or not
+		transfer("client-3", "account-rate-0", "account-rate-0").andExpect(status().isBadRequest())
+				.andExpect(content().string("Accounts must be different."));
+
+		assertThat(accountsService.getAccount("account-rate-1").getBalance()).isEqualByComparingTo("98");
+	}
+
+	@Test
+	public void batchesTakeATokenPerTransfer() throws Exception {
+		createAccounts("batch-", 3);
+		String batch = "{\"mode\":\"BEST_EFFORT\",\"transfers\":[{\"accountFrom\":\"batch-0\",\"accountTo\":\"batch-1\",\"amount\":1},"
+				+ "{\"accountFrom\":\"batch-1\",\"accountTo\":\"batch-2\",\"amount\":1}]}";
+		// the client rate is ten times the default, so is its burst of 30 tokens
+		for (int i = 0; i < 15; i++) {
+			this.mockMvc.perform(post("/v1/accounts/transfers:batch").header("X-Client-Id", "batcher")
+					.contentType(MediaType.APPLICATION_JSON).content(batch)).andExpect(status().isOk());
+		}
+		this.mockMvc.perform(post("/v1/accounts/transfers:batch").header("X-Client-Id", "batcher")
+				.contentType(MediaType.APPLICATION_JSON).content(batch)).andExpect(status().isTooManyRequests());
+	}
+
+	/**
+	 * Takes every slot and releases them all with the latency, one window later
+	 */
+	private static long saturate(AdaptiveConcurrencyLimit limit, long now, long latency) {
+		int acquired = 0;
+		while (limit.tryAcquire()) {
+			acquired++;
+		}
+		now += 10 * MILLIS;
+		for (int i = 0; i < acquired; i++) {
+			limit.release(latency, now);
+		}
+		return now;
+	}
+
+	private void createAccounts(String prefix, int accounts) {
+		for (int i = 0; i < accounts; i++) {
+			accountsService.createAccount(new Account(prefix + i, new BigDecimal("100")));
+		}
+	}
+
+	private ResultActions transfer(String clientId, String accountFrom, String accountTo) throws Exception {
+		// through the trusted proxy
+		return transferFrom("127.0.0.1", clientId, accountFrom, accountTo);
+	}
+
+	private ResultActions transferFrom(String remoteAddress, String clientId, String accountFrom, String accountTo)
+			throws Exception {
+		return this.mockMvc.perform(put("/v1/accounts").header("X-Client-Id", clientId).with(request -> {
+			request.setRemoteAddr(remoteAddress);
+			return request;
+		}).contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"" + accountFrom + "\",\"accountTo\":\"" + accountTo + "\",\"amount\":1}"));
+	}
+
+}
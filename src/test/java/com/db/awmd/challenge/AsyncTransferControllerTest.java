@@ -0,0 +1,84 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+import java.math.BigDecimal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "accounts.web.execution=ASYNC")
+@WebAppConfiguration
+public class AsyncTransferControllerTest {
+
+	private MockMvc mockMvc;
+
+	@Autowired
+	private AccountsService accountsService;
+
+	@Autowired
+	private WebApplicationContext webApplicationContext;
+
+	@Before
+	public void prepareMockMvc() {
+		this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+
+		// Reset the existing accounts before each test.
+		accountsService.getAccountsRepository().clearAccounts();
+	}
+
+	@Test
+	public void transfer() throws Exception {
+		this.accountsService.createAccount(new Account("1", new BigDecimal("100")));
+		this.accountsService.createAccount(new Account("2", BigDecimal.ZERO));
+
+		MvcResult result = this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":10}"))
+				.andExpect(request().asyncStarted()).andReturn();
+		this.mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+
+		assertThat(accountsService.getAccount("1").getBalance()).isEqualByComparingTo("90");
+		assertThat(accountsService.getAccount("2").getBalance()).isEqualByComparingTo("10");
+	}
+
+	@Test
+	public void transferRejected() throws Exception {
+		this.accountsService.createAccount(new Account("1", new BigDecimal("5")));
+		this.accountsService.createAccount(new Account("2", BigDecimal.ZERO));
+
+		MvcResult result = this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":10}")).andReturn();
+		this.mockMvc.perform(asyncDispatch(result)).andExpect(status().isBadRequest())
+				.andExpect(content().string("Account 1 has not enought money to make this transaction."));
+
+		result = this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"1\",\"accountTo\":\"1\",\"amount\":1}")).andReturn();
+		this.mockMvc.perform(asyncDispatch(result)).andExpect(status().isBadRequest())
+				.andExpect(content().string("Accounts must be different."));
+
+		result = this.mockMvc.perform(put("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"1\",\"accountTo\":\"3\",\"amount\":1}")).andReturn();
+		this.mockMvc.perform(asyncDispatch(result)).andExpect(status().isBadRequest())
+				.andExpect(content().string("Account id 3 not found"));
+	}
+
+}
@@ -0,0 +1,151 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountStorage;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.HotAccountProperties;
+import com.db.awmd.challenge.repository.audit.AuditProperties;
+import com.db.awmd.challenge.repository.audit.AuditReport;
+import com.db.awmd.challenge.repository.audit.BalanceAuditor;
+import com.db.awmd.challenge.service.AccountLocks;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.metrics.TransferMetrics;
+import com.db.awmd.challenge.service.notification.NotificationDispatcher;
+import com.db.awmd.challenge.service.notification.NotificationProperties;
+
+public class BalanceAuditorTest {
+
+	private static final int ACCOUNTS = 50;
+
+	private AccountsRepositoryInMemory repository;
+
+	private AuditProperties properties;
+
+	private BalanceAuditor auditor;
+
+	private NotificationDispatcher notificationDispatcher;
+
+	private AccountsService accountsService;
+
+	@Before
+	public void before() {
+		HotAccountProperties hotAccounts = new HotAccountProperties();
+		// credited without its lock, concurrently with the audit
+		hotAccounts.getAccountIds().add("hot");
+		this.repository = new AccountsRepositoryInMemory(AccountStorage.DECIMAL, hotAccounts);
+		this.properties = new AuditProperties();
+		this.properties.setIntervalSeconds(0);
+		this.properties.setChunkSize(16);
+		this.properties.setMaxCpuPercent(50);
+		this.notificationDispatcher = new NotificationDispatcher((account, description) -> {
+		}, new NotificationProperties());
+		this.notificationDispatcher.start();
+		this.accountsService = new AccountsService(repository, new AccountLocks(64), notificationDispatcher,
+				new TransferMetrics());
+		for (int i = 0; i < ACCOUNTS; i++) {
+			this.accountsService.createAccount(new Account("Id-" + i, new BigDecimal("1000.50")));
+		}
+		this.accountsService.createAccount(new Account("hot", BigDecimal.ZERO));
+		this.auditor = new BalanceAuditor(this.properties, repository, "LOCKING");
+	}
+
+	@After
+	public void after() throws Exception {
+		this.notificationDispatcher.stop();
+	}
+
+	@Test
+	public void snapshotsBalanceWhileTransfersKeepRunning() throws Exception {
+		// the accounts were created before the auditor was attached, the first audit takes their money as baseline
+		assertThat(this.auditor.audit().getExpected()).isEqualByComparingTo("50025.00");
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			SplittableRandom random = new SplittableRandom(t);
+			int thread = t;
+			threads.add(new Thread(() -> {
+				int created = 0;
+				while (running.get()) {
+					int from = random.nextInt(ACCOUNTS);
+					int to = random.nextInt(ACCOUNTS);
+					try {
+						if (random.nextInt(10) == 0) {
+							this.accountsService.transfer("Id-" + from, "hot", new BigDecimal("0.01"));
+						} else if (random.nextInt(100) == 0 && created < 20) {
+							// money is also created while the audits run
+							this.accountsService.createAccount(new Account("new-" + thread + "-" + created++, BigDecimal.TEN));
+						} else if (from != to) {
+							this.accountsService.transfer("Id-" + from, "Id-" + to, new BigDecimal("3.25"));
+						}
+					} catch (TransactionException e) {
+						// not enough money left, the next transfer will do
+					}
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+
+		List<AuditReport> reports = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			reports.add(this.auditor.audit());
+		}
+		running.set(false);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		reports.add(this.auditor.audit());
+
+		for (AuditReport report : reports) {
+			assertThat(report.getDrift()).as("drift at epoch %d", report.getEpoch()).isEqualByComparingTo("0");
+		}
+		assertThat(this.auditor.getAudits()).isEqualTo(22);
+		assertThat(this.auditor.getDrifts()).isZero();
+		AuditReport last = reports.get(reports.size() - 1);
+		BigDecimal total = BigDecimal.ZERO;
+		for (int i = 0; i < ACCOUNTS; i++) {
+			total = total.add(this.accountsService.getAccount("Id-" + i).getBalance());
+		}
+		total = total.add(this.accountsService.getAccount("hot").getBalance());
+		BigDecimal createdDuringRun = last.getExpected().subtract(new BigDecimal("1000.50").multiply(BigDecimal.valueOf(ACCOUNTS)));
+		assertThat(last.getTotal()).isEqualByComparingTo(total.add(createdDuringRun));
+	}
+
+	@Test
+	public void reportsMoneyChangedOutsideTransfers() {
+		assertThat(this.auditor.audit().isBalanced()).isTrue();
+
+		this.accountsService.getAccount("Id-7").setBalance(new BigDecimal("1001.50"));
+		AuditReport report = this.auditor.audit();
+
+		assertThat(report.isBalanced()).isFalse();
+		assertThat(report.getDrift()).isEqualByComparingTo("1");
+		assertThat(report.getAccounts()).isEqualTo(ACCOUNTS + 1);
+		assertThat(this.auditor.getDrifts()).isEqualTo(1);
+	}
+
+	@Test
+	public void startsOverWhenAccountsAreCleared() {
+		this.repository.clearAccounts();
+		// no baseline to take, the repository is empty
+		this.accountsService.createAccount(new Account("a", BigDecimal.ONE));
+
+		AuditReport report = this.auditor.audit();
+		assertThat(report.isBalanced()).isTrue();
+		assertThat(report.getExpected()).isEqualByComparingTo("1");
+	}
+
+}
@@ -0,0 +1,220 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.web.binary.BinaryProtocol;
+import com.db.awmd.challenge.web.binary.BinaryProtocolClient;
+import com.db.awmd.challenge.web.binary.BinaryProtocolServer;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "accounts.binary.enabled=true", "accounts.binary.port=0",
+		"accounts.binary.max-in-flight=8", "accounts.journal.enabled=true", "accounts.admission.enabled=true",
+		"accounts.admission.client-rate=0", "accounts.admission.account-rate=0.001",
+		"accounts.admission.account-burst=300",
+		"accounts.journal.directory=${java.io.tmpdir}/binary-protocol-test-${random.uuid}" })
+public class BinaryProtocolServerTest {
+
+	@Autowired
+	private AccountsService accountsService;
+
+	@Autowired
+	private BinaryProtocolServer server;
+
+	private BinaryProtocolClient client;
+
+	@Before
+	public void connect() throws IOException {
+		accountsService.getAccountsRepository().clearAccounts();
+		client = new BinaryProtocolClient("localhost", server.getPort());
+	}
+
+	@After
+	public void disconnect() throws IOException {
+		client.close();
+	}
+
+	@Test
+	public void createTransferAndGetBalance() {
+		client.createAccount("1", new BigDecimal("100.00")).join();
+		client.createAccount("2", BigDecimal.ZERO).join();
+
+		client.transfer("1", "2", new BigDecimal("10.25")).join();
+
+		assertThat(client.getBalance("1").join()).isEqualByComparingTo("89.75");
+		assertThat(client.getBalance("2").join()).isEqualByComparingTo("10.25");
+		assertThat(accountsService.getAccount("2").getBalance()).isEqualByComparingTo("10.25");
+	}
+
+	@Test
+	public void failuresAreTheOnesOfTheRestApi() {
+		client.createAccount("1", new BigDecimal("5")).join();
+		client.createAccount("2", BigDecimal.ZERO).join();
+
+		assertThat(failure(client.transfer("1", "2", BigDecimal.TEN))).isInstanceOf(TransactionException.class)
+				.hasMessage("Account 1 has not enought money to make this transaction.");
+		assertThat(failure(client.transfer("1", "1", BigDecimal.ONE))).isInstanceOf(TransactionException.class)
+				.hasMessage("Accounts must be different.");
+		assertThat(failure(client.transfer("1", "3", BigDecimal.ONE))).isInstanceOf(AccountNotFoundException.class);
+		assertThat(failure(client.getBalance("3"))).isInstanceOf(AccountNotFoundException.class);
+		assertThat(failure(client.transfer("1", "2", BigDecimal.ZERO))).isInstanceOf(IllegalArgumentException.class);
+		assertThat(failure(client.createAccount("1", BigDecimal.ONE))).isInstanceOf(DuplicateAccountIdException.class);
+		assertThat(failure(client.createAccount("4", new BigDecimal("-1")))).isInstanceOf(IllegalArgumentException.class)
+				.hasMessage("Initial balance must be positive.");
+
+		assertThat(client.getBalance("1").join()).isEqualByComparingTo("5");
+	}
+
+	@Test
+	public void pipelinedRequestsAllComplete() throws Exception {
+		int accounts = 10;
+		for (int i = 0; i < accounts; i++) {
+			client.createAccount("account-" + i, new BigDecimal("1000")).join();
+		}
+		long requestsBefore = server.getRequests();
+
+		// far more than max-in-flight, the connection is paused and resumed
+		List<Thread> senders = new ArrayList<>();
+		List<CompletableFuture<Void>> transfers = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			int offset = t;
+			Thread sender = new Thread(() -> {
+				List<CompletableFuture<Void>> sent = new ArrayList<>();
+				for (int i = 0; i < 500; i++) {
+					int from = (i + offset) % accounts;
+					sent.add(client.transfer("account-" + from, "account-" + (from + 1) % accounts, BigDecimal.ONE));
+				}
+				synchronized (transfers) {
+					transfers.addAll(sent);
+				}
+			});
+			sender.start();
+			senders.add(sender);
+		}
+		for (Thread sender : senders) {
+			sender.join();
+		}
+		CompletableFuture.allOf(transfers.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+		BigDecimal total = BigDecimal.ZERO;
+		for (int i = 0; i < accounts; i++) {
+			total = total.add(client.getBalance("account-" + i).join());
+		}
+		assertThat(total).isEqualByComparingTo("10000");
+		assertThat(server.getRequests() - requestsBefore).isEqualTo(2000 + accounts);
+	}
+
+	@Test
+	public void transfersGoThroughTheAdmissionControl() {
+		client.createAccount("limited", new BigDecimal("1000")).join();
+		client.createAccount("other", BigDecimal.ZERO).join();
+		List<CompletableFuture<Void>> transfers = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			transfers.add(client.transfer("limited", "other", BigDecimal.ONE));
+		}
+		CompletableFuture.allOf(transfers.toArray(new CompletableFuture[0])).join();
+
+		assertThat(failure(client.transfer("limited", "other", BigDecimal.ONE)))
+				.hasMessage("Too many transfers from this account, retry later.");
+		assertThat(accountsService.getAccount("other").getBalance()).isEqualByComparingTo("300");
+	}
+
+	@Test
+	public void oversizedFrameClosesTheConnection() throws IOException {
+		try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+			ByteBuffer frame = ByteBuffer.allocate(13);
+			frame.putInt(1 << 20).put((byte) 1).putLong(1).flip();
+			channel.write(frame);
+			assertThat(channel.read(ByteBuffer.allocate(16))).isEqualTo(-1);
+		}
+		// other connections are not affected
+		client.createAccount("1", BigDecimal.ONE).join();
+	}
+
+	@Test
+	public void clientNotReadingItsResponsesIsNoLongerRead() throws Exception {
+		client.createAccount("1", BigDecimal.ONE).join();
+		// balances are answered at once, nothing stays in flight
+		ByteBuffer requests = ByteBuffer.allocate(64 * 1024);
+		int frameSize = BinaryProtocol.HEADER_SIZE + BinaryProtocol.stringSize("1");
+		for (long id = 0; requests.remaining() >= frameSize; id++) {
+			int start = BinaryProtocol.startFrame(requests, BinaryProtocol.GET_BALANCE, id);
+			BinaryProtocol.putString(requests, "1");
+			BinaryProtocol.endFrame(requests, start);
+		}
+		requests.flip();
+		long sent = 0;
+		try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+			channel.configureBlocking(false);
+			long stalledSince = 0;
+			while (sent < 64L * 1024 * 1024) {
+				if (!requests.hasRemaining()) {
+					requests.rewind();
+				}
+				int written = channel.write(requests);
+				sent += written;
+				if (written > 0) {
+					stalledSince = 0;
+				} else if (stalledSince == 0) {
+					stalledSince = System.nanoTime();
+				} else if (System.nanoTime() - stalledSince > TimeUnit.MILLISECONDS.toNanos(500)) {
+					break;
+				}
+			}
+			// the socket buffers hold a few megabytes, the server doesn't read the rest
+			assertThat(sent).isLessThan(32L * 1024 * 1024);
+
+			// once the client reads again every complete request is answered
+			long expected = sent / frameSize;
+			long answered = 0;
+			ByteBuffer responses = ByteBuffer.allocate(64 * 1024);
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+			while (answered < expected && System.nanoTime() < deadline) {
+				channel.read(responses);
+				responses.flip();
+				while (responses.remaining() >= 4 && responses.remaining() >= 4 + responses.getInt(responses.position())) {
+					int length = responses.getInt();
+					assertThat(responses.get()).isEqualTo(BinaryProtocol.OK);
+					responses.position(responses.position() + length - 1);
+					answered++;
+				}
+				responses.compact();
+			}
+			assertThat(answered).isEqualTo(expected);
+		}
+		// other connections are not affected
+		assertThat(client.getBalance("1").join()).isEqualByComparingTo("1");
+	}
+
+	private static Throwable failure(CompletableFuture<?> result) {
+		try {
+			result.join();
+		} catch (CompletionException e) {
+			return e.getCause();
+		}
+		throw new AssertionError("Expected a failure");
+	}
+
+}
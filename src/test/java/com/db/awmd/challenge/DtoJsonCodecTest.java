@@ -0,0 +1,290 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.db.awmd.challenge.domain.dto.AccountDto;
+import com.db.awmd.challenge.domain.dto.TransferDto;
+import com.db.awmd.challenge.web.json.DtoJsonCodec;
+import com.db.awmd.challenge.web.json.JsonCodecException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Conformance of {@link DtoJsonCodec} with what the API did before it:
+ * bodies bound by the {@code ObjectMapper} Spring Boot builds and checked by
+ * bean validation, responses written by Jackson.
+ */
+public class DtoJsonCodecTest {
+
+	private static final String TRANSFER = "{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":%s}";
+
+	private static final List<String> TRANSFERS = Arrays.asList(
+			String.format(TRANSFER, "10"), String.format(TRANSFER, "10.50"), String.format(TRANSFER, "0.01"),
+			String.format(TRANSFER, "0.009"), String.format(TRANSFER, "0"), String.format(TRANSFER, "-0"),
+			String.format(TRANSFER, "-0.00"), String.format(TRANSFER, "-5"), String.format(TRANSFER, "1e2"),
+			String.format(TRANSFER, "1E-2"), String.format(TRANSFER, "2.5e+3"), String.format(TRANSFER, "123456789012345678"),
+			String.format(TRANSFER, "1234567890123456789012345.125"), String.format(TRANSFER, "\"10.5\""),
+			String.format(TRANSFER, "\" 7 \""), String.format(TRANSFER, "\"\""), String.format(TRANSFER, "\"  \""),
+			String.format(TRANSFER, "\"1e3\""), String.format(TRANSFER, "\"+4\""), String.format(TRANSFER, "null"),
+			// not accepted
+			String.format(TRANSFER, "01"), String.format(TRANSFER, "1."), String.format(TRANSFER, ".5"),
+			String.format(TRANSFER, "+1"), String.format(TRANSFER, "1e"), String.format(TRANSFER, "1.5.3"),
+			String.format(TRANSFER, "\"abc\""), String.format(TRANSFER, "\"NaN\""), String.format(TRANSFER, "NaN"),
+			String.format(TRANSFER, "true"), String.format(TRANSFER, "[1]"), String.format(TRANSFER, "{}"),
+			String.format(TRANSFER, "1 2"), String.format(TRANSFER, "12a"), String.format(TRANSFER, ""),
+			// coercions of the account ids
+			"{\"accountFrom\":123,\"accountTo\":1.50,\"amount\":1}", "{\"accountFrom\":true,\"accountTo\":false,\"amount\":1}",
+			"{\"accountFrom\":-1e5,\"accountTo\":\"2\",\"amount\":1}", "{\"accountFrom\":null,\"accountTo\":\"2\",\"amount\":1}",
+			"{\"accountFrom\":\"\",\"accountTo\":\"2\",\"amount\":1}", "{\"accountFrom\":{},\"accountTo\":\"2\",\"amount\":1}",
+			"{\"accountFrom\":[\"1\"],\"accountTo\":\"2\",\"amount\":1}", "{\"accountFrom\":nul,\"accountTo\":\"2\",\"amount\":1}",
+			"{\"accountFrom\":truex,\"accountTo\":\"2\",\"amount\":1}",
+			// strings
+			"{\"accountFrom\":\"a\\u0062c\",\"accountTo\":\"\\\"q\\\\\\/\",\"amount\":1}",
+			"{\"accountFrom\":\"\\b\\f\\n\\r\\t\",\"accountTo\":\"\\uD83D\\uDE00\",\"amount\":1}",
+			"{\"accountFrom\":\"\u00fc\u20ac\uD83D\uDE00\",\"accountTo\":\"caf\u00e9\",\"amount\":1}",
+			"{\"\\u0061ccountFrom\":\"1\",\"accountTo\":\"2\",\"am\\u006funt\":1}",
+			"{\"accountFrom\":\"a\tb\",\"accountTo\":\"2\",\"amount\":1}", "{\"accountFrom\":\"\\x\",\"accountTo\":\"2\",\"amount\":1}",
+			"{\"accountFrom\":\"\\u00G1\",\"accountTo\":\"2\",\"amount\":1}", "{\"accountFrom\":\"\\u00",
+			"{\"accountFrom\":\"abc}", "{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":1,\"idempotencyKey\":\"k\"}",
+			"{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":1,\"idempotencyKey\":\"" + repeat('k', 128) + "\"}",
+			"{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":1,\"idempotencyKey\":\"" + repeat('k', 129) + "\"}",
+			"{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":1,\"idempotencyKey\":null}",
+			"{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":1,\"idempotencyKey\":42}",
+			// structure
+			"{}", "null", "", "   ", "[]", "[{}]", "\"transfer\"", "42", "{", "{\"accountFrom\"", "{\"accountFrom\":",
+			"{\"accountFrom\" \"1\"}", "{\"accountFrom\":\"1\",}", "{,}", "{\"accountFrom\":\"1\" \"accountTo\":\"2\"}",
+			"{'accountFrom':'1','accountTo':'2','amount':1}", "{accountFrom:\"1\"}", "{\"accountFrom\":\"1\"]",
+			" \t\r\n{ \"accountFrom\" : \"1\" ,\n\"accountTo\"\t:\"2\" , \"amount\" : 3 \n} ",
+			"\uFEFF{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":1}",
+			"{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":3} trailing", "{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":3}}",
+			"null garbage", "nullx",
+			// unknown and repeated fields
+			"{\"x\":{\"y\":[1,2.5,{\"z\":null}],\"w\":\"s\",\"v\":true},\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":3}",
+			"{\"x\":[],\"y\":{},\"z\":[[]],\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":3}",
+			"{\"x\":[1,],\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":3}", "{\"x\":[1 2]}", "{\"x\":{\"y\"}}",
+			"{\"x\":\"\\q\"}", "{\"x\":01}", "{\"x\":tru}", "{\"x\":\"caf\u00e9\"}", "{\"X\":1,\"AMOUNT\":2}",
+			"{\"amount\":1,\"amount\":2,\"accountFrom\":\"1\",\"accountTo\":\"2\"}",
+			"{\"accountFrom\":\"1\",\"accountFrom\":\"9\",\"accountTo\":\"2\",\"amount\":3}",
+			"{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":3,\"accountFrom\":\"9\",\"amount\":0}");
+
+	private static final List<String> ACCOUNTS = Arrays.asList(
+			"{\"accountId\":\"Id-123\",\"balance\":1000}", "{\"accountId\":\"Id-123\",\"balance\":0}",
+			"{\"accountId\":\"Id-123\",\"balance\":-0.0}", "{\"accountId\":\"Id-123\",\"balance\":-0.01}",
+			"{\"accountId\":\"Id-123\",\"balance\":123.45}", "{\"accountId\":\"Id-123\",\"balance\":\"12\"}",
+			"{\"accountId\":\"Id-123\",\"balance\":1E+3}", "{\"accountId\":\"Id-123\"}", "{\"balance\":1000}",
+			"{\"accountId\":\"\",\"balance\":1000}", "{\"accountId\":7,\"balance\":1000}", "{\"accountId\":\"Id-123\",\"balance\":null}",
+			"{\"accountId\":\"Id-123\",\"balance\":[]}", "{\"accountId\":\"Id-123\",\"balance\":1000,\"currency\":\"EUR\"}",
+			"{\"accountId\":\"Id-123\",\"balance\":1000,\"accountId\":\"Id-456\"}", "{\"accountId\":\"Id-\\u00e9\",\"balance\":1}",
+			"{\"accountId\":\"Id-123\",\"balance\":1000", "{}", "null", "");
+
+	private static final String[] IDS = { "\"1\"", "\"2\"", "\"Id-123\"", "\"\"", "\"caf\u00e9\"", "\"a\\\"b\"", "\"\\u0041\"",
+			"12", "1.0", "true", "null", "{}", "[]", "\"x", "\"" + repeat('i', 80) + "\"" };
+
+	private static final String[] DECIMALS = { "10", "10.50", "0.01", "0.001", "0", "-3", "1e2", "1E-2", "\"5\"", "\" 5 \"",
+			"\"\"", "\"x\"", "null", "true", "01", "1.", "-", "99999999999999999999.99", "0.010", "[1]" };
+
+	private static final String[] UNKNOWN = { "\"s\"", "1", "-2.5e3", "true", "null", "{}", "[]", "{\"a\":[1,{\"b\":\"c\"}]}",
+			"[1,2,[3]]", "[1,]", "{\"a\"}", "tru" };
+
+	private static final String[] WHITESPACE = { "", "", "", " ", "\n", " \t ", "\r\n" };
+
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+	private final Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+	private final DtoJsonCodec codec = DtoJsonCodec.get();
+
+	@Test
+	public void readsTransfersAsJacksonAndValidatesAsBeanValidation() throws IOException {
+		for (String json : TRANSFERS) {
+			assertConforms(json, TransferDto.class);
+		}
+	}
+
+	@Test
+	public void readsAccountsAsJacksonAndValidatesAsBeanValidation() throws IOException {
+		for (String json : ACCOUNTS) {
+			assertConforms(json, AccountDto.class);
+		}
+	}
+
+	@Test
+	public void readsGeneratedBodiesAsJackson() throws IOException {
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			assertConforms(generate(random, new String[] { "accountFrom", "accountTo", "amount", "idempotencyKey" }),
+					TransferDto.class);
+			assertConforms(generate(random, new String[] { "accountId", "balance" }), AccountDto.class);
+		}
+	}
+
+	@Test
+	public void writesAsJackson() throws IOException {
+		Random random = new Random(7);
+		char[] alphabet = { 'a', 'Z', '0', ' ', '"', '\\', '/', '\b', '\t', '\n', '\f', '\r', '\u0000', '\u001f', '\u007f',
+				'\u00e9', '\u07ff', '\u0800', '\u20ac', '\uffff' };
+		for (int i = 0; i < 2000; i++) {
+			StringBuilder id = new StringBuilder();
+			for (int c = random.nextInt(12); c > 0; c--) {
+				if (random.nextInt(10) == 0) {
+					id.append("\uD83D\uDE00");
+				} else {
+					id.append(alphabet[random.nextInt(alphabet.length)]);
+				}
+			}
+			BigDecimal amount = new BigDecimal(BigInteger.valueOf(random.nextLong()), random.nextInt(20) - 10);
+			AccountDto account = new AccountDto(id.toString(), random.nextInt(20) == 0 ? null : amount);
+			assertArrayEquals(account.toString(), objectMapper.writeValueAsBytes(account), codec.write(account));
+
+			TransferDto transfer = new TransferDto(id.toString(), random.nextBoolean() ? null : "2", amount);
+			transfer.setIdempotencyKey(random.nextBoolean() ? null : id.reverse().toString());
+			assertArrayEquals(transfer.toString(), objectMapper.writeValueAsBytes(transfer), codec.write(transfer));
+		}
+	}
+
+	@Test
+	public void readsBodiesLargerThanItsBuffer() throws IOException {
+		String large = "{\"padding\":\"" + repeat('p', 100_000) + "\",\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":1}";
+		TransferDto transfer = codec.readTransfer(new ByteArrayInputStream(large.getBytes(StandardCharsets.UTF_8)));
+		assertEquals(new TransferDto("1", "2", BigDecimal.ONE), transfer);
+
+		byte[] small = String.format(TRANSFER, "2.50").getBytes(StandardCharsets.UTF_8);
+		assertEquals(new TransferDto("1", "2", new BigDecimal("2.50")), codec.readTransfer(new ByteArrayInputStream(small)));
+	}
+
+	@Test
+	public void refusesBodiesLargerThanTheLimit() throws IOException {
+		byte[] start = "{\"padding\":\"".getBytes(StandardCharsets.UTF_8);
+		// never ends, the codec stops reading at the limit
+		InputStream endless = new InputStream() {
+
+			private long read;
+
+			@Override
+			public int read() {
+				return read < start.length ? start[(int) read++] : 'p';
+			}
+
+		};
+		try {
+			codec.readTransfer(endless);
+			fail("Should have failed when reading a body larger than the limit");
+		} catch (JsonCodecException e) {
+			assertThat(e).hasMessage("Body larger than " + DtoJsonCodec.MAX_BODY_SIZE + " bytes at byte "
+					+ DtoJsonCodec.MAX_BODY_SIZE);
+		}
+
+		String end = "\",\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":1}";
+		String largest = "{\"padding\":\"" + repeat('p', DtoJsonCodec.MAX_BODY_SIZE - start.length - end.length()) + end;
+		assertEquals(new TransferDto("1", "2", BigDecimal.ONE),
+				codec.readTransfer(new ByteArrayInputStream(largest.getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void validatedOnceAndOnlyTheLastRead() throws IOException {
+		TransferDto first = read(String.format(TRANSFER, "1"), TransferDto.class);
+		TransferDto second = read(String.format(TRANSFER, "2"), TransferDto.class);
+		assertThat(codec.consumeValidated(first)).isFalse();
+		assertThat(codec.consumeValidated(second)).isTrue();
+		assertThat(codec.consumeValidated(second)).isFalse();
+
+		TransferDto invalid = read(String.format(TRANSFER, "0"), TransferDto.class);
+		assertThat(codec.consumeValidated(invalid)).isFalse();
+	}
+
+	@Test
+	public void reusesAccountIdsAndAmounts() throws IOException {
+		TransferDto first = read(String.format(TRANSFER, "10.50"), TransferDto.class);
+		TransferDto second = read(String.format(TRANSFER, "10.50"), TransferDto.class);
+		assertThat(second.getAccountFrom()).isSameAs(first.getAccountFrom());
+		assertThat(second.getAccountTo()).isSameAs(first.getAccountTo());
+		assertThat(second.getAmount()).isSameAs(first.getAmount());
+	}
+
+	private <T> void assertConforms(String json, Class<T> type) throws IOException {
+		T expected;
+		try {
+			expected = objectMapper.readValue(json.getBytes(StandardCharsets.UTF_8), type);
+		} catch (IOException e) {
+			try {
+				T actual = read(json, type);
+				throw new AssertionError("Jackson rejected " + json + " (" + e.getMessage() + "), the codec read " + actual);
+			} catch (JsonCodecException expectedFailure) {
+				return;
+			}
+		}
+		T actual;
+		try {
+			actual = read(json, type);
+		} catch (JsonCodecException e) {
+			throw new AssertionError("Jackson read " + json + " as " + expected + ", the codec rejected it: " + e.getMessage());
+		}
+		assertEquals(json, expected, actual);
+		boolean valid = expected != null && validator.validate(expected).isEmpty();
+		assertEquals(json, valid, codec.consumeValidated(actual));
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T read(String json, Class<T> type) throws JsonCodecException {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		// a body in the middle of a larger buffer, as the codec reads from its own
+		byte[] buffer = new byte[bytes.length + 6];
+		System.arraycopy(bytes, 0, buffer, 3, bytes.length);
+		Arrays.fill(buffer, 0, 3, (byte) '{');
+		Arrays.fill(buffer, bytes.length + 3, buffer.length, (byte) '1');
+		return (T) (type == TransferDto.class ? codec.readTransfer(buffer, 3, bytes.length)
+				: codec.readAccount(buffer, 3, bytes.length));
+	}
+
+	private static String generate(Random random, String[] fields) {
+		StringBuilder json = new StringBuilder();
+		json.append(WHITESPACE[random.nextInt(WHITESPACE.length)]).append('{');
+		int count = random.nextInt(fields.length + 3);
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				json.append(WHITESPACE[random.nextInt(WHITESPACE.length)]).append(',');
+			}
+			json.append(WHITESPACE[random.nextInt(WHITESPACE.length)]);
+			int field = random.nextInt(fields.length + 1);
+			String value;
+			if (field == fields.length) {
+				json.append("\"unknown").append(random.nextInt(3)).append('"');
+				value = UNKNOWN[random.nextInt(UNKNOWN.length)];
+			} else {
+				json.append('"').append(fields[field]).append('"');
+				value = fields[field].equals("amount") || fields[field].equals("balance") ? DECIMALS[random.nextInt(DECIMALS.length)]
+						: IDS[random.nextInt(IDS.length)];
+			}
+			json.append(WHITESPACE[random.nextInt(WHITESPACE.length)]).append(':')
+					.append(WHITESPACE[random.nextInt(WHITESPACE.length)]).append(value);
+		}
+		json.append(WHITESPACE[random.nextInt(WHITESPACE.length)]);
+		// now and then a body cut short
+		return random.nextInt(20) == 0 ? json.toString() : json.append('}').toString();
+	}
+
+	private static String repeat(char c, int times) {
+		char[] chars = new char[times];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+}
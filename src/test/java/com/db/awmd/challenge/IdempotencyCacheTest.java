@@ -0,0 +1,112 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.db.awmd.challenge.exception.JournalException;
+import com.db.awmd.challenge.exception.PartitionUnavailableException;
+import com.db.awmd.challenge.service.idempotency.IdempotencyCache;
+import com.db.awmd.challenge.service.idempotency.IdempotencyProperties;
+
+public class IdempotencyCacheTest {
+
+	private final AtomicLong clock = new AtomicLong();
+
+	private final AtomicInteger applied = new AtomicInteger();
+
+	private final Supplier<CompletableFuture<Void>> transfer = () -> {
+		applied.incrementAndGet();
+		return CompletableFuture.completedFuture(null);
+	};
+
+	private IdempotencyCache cache;
+
+	@Before
+	public void before() {
+		IdempotencyProperties properties = new IdempotencyProperties();
+		properties.setMaxEntries(3);
+		properties.setTtlSeconds(60);
+		this.cache = new IdempotencyCache(properties, clock::get);
+	}
+
+	@Test
+	public void keysExpire() {
+		this.cache.execute("k", "a|b|1", transfer).join();
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(59));
+		this.cache.execute("k", "a|b|1", transfer).join();
+		assertThat(applied.get()).isEqualTo(1);
+
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		this.cache.execute("k", "a|b|1", transfer).join();
+		assertThat(applied.get()).isEqualTo(2);
+		assertThat(this.cache.getHits()).isEqualTo(1);
+		assertThat(this.cache.getMisses()).isEqualTo(2);
+	}
+
+	@Test
+	public void oldestKeysAreEvicted() {
+		for (int i = 0; i < 5; i++) {
+			this.cache.execute("k" + i, "a|b|1", transfer).join();
+		}
+		assertThat(this.cache.getSize()).isEqualTo(3);
+		assertThat(this.cache.getEvictions()).isEqualTo(2);
+
+		this.cache.execute("k4", "a|b|1", transfer).join();
+		assertThat(applied.get()).isEqualTo(5);
+		this.cache.execute("k0", "a|b|1", transfer).join();
+		assertThat(applied.get()).isEqualTo(6);
+	}
+
+	@Test
+	public void failuresBeforeTheTransferIsAppliedAreForgotten() {
+		CompletableFuture<Void> refused = new CompletableFuture<>();
+		refused.completeExceptionally(new JournalException("Accounts journal failed", new IOException(), false));
+		assertThat(this.cache.execute("k", "a|b|1", () -> refused).isCompletedExceptionally()).isTrue();
+
+		this.cache.execute("k", "a|b|1", transfer).join();
+		assertThat(applied.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void unreachablePartitionsAreForgottenOnlyWhenNothingWasApplied() {
+		CompletableFuture<Void> refused = new CompletableFuture<>();
+		refused.completeExceptionally(new PartitionUnavailableException("Partition unavailable", new ConnectException(), false));
+		assertThat(this.cache.execute("k", "a|b|1", () -> refused).isCompletedExceptionally()).isTrue();
+		CompletableFuture<Void> timedOut = new CompletableFuture<>();
+		timedOut.completeExceptionally(new PartitionUnavailableException("Partition unavailable", new SocketTimeoutException()));
+		assertThat(this.cache.execute("l", "a|b|1", () -> timedOut).isCompletedExceptionally()).isTrue();
+
+		// the request never reached the node, the retry goes through
+		this.cache.execute("k", "a|b|1", transfer).join();
+		// it may have been applied, the retry gets the failure back
+		assertThat(this.cache.execute("l", "a|b|1", transfer).isCompletedExceptionally()).isTrue();
+		assertThat(applied.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void failuresOnceTheTransferIsAppliedAreRemembered() {
+		CompletableFuture<Void> notDurable = new CompletableFuture<>();
+		notDurable.completeExceptionally(new JournalException("Change applied but not made durable", new IOException()));
+		assertThat(this.cache.execute("k", "a|b|1", () -> notDurable).isCompletedExceptionally()).isTrue();
+		CompletableFuture<Void> unknown = new CompletableFuture<>();
+		unknown.completeExceptionally(new IllegalStateException("partition unreachable"));
+		assertThat(this.cache.execute("l", "a|b|1", () -> unknown).isCompletedExceptionally()).isTrue();
+
+		// the retries get the failure back, the transfer isn't applied again
+		assertThat(this.cache.execute("k", "a|b|1", transfer).isCompletedExceptionally()).isTrue();
+		assertThat(this.cache.execute("l", "a|b|1", transfer).isCompletedExceptionally()).isTrue();
+		assertThat(applied.get()).isZero();
+	}
+
+}
@@ -0,0 +1,214 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.HotAccountProperties;
+import com.db.awmd.challenge.repository.jdbc.JdbcAccountsRepository;
+import com.db.awmd.challenge.repository.jdbc.JdbcProperties;
+
+public class JdbcAccountsRepositoryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private JdbcProperties properties;
+
+	private HotAccountProperties hotAccounts;
+
+	private JdbcAccountsRepository repository;
+
+	@Before
+	public void before() throws Exception {
+		this.properties = new JdbcProperties();
+		this.properties.setUrl("jdbc:h2:" + folder.getRoot().getPath() + "/accounts");
+		this.properties.setPoolSize(4);
+		this.hotAccounts = new HotAccountProperties();
+		this.repository = new JdbcAccountsRepository(properties, hotAccounts);
+	}
+
+	@After
+	public void after() throws Exception {
+		this.repository.close();
+	}
+
+	@Test
+	public void transfersOnlyDebitAccountsHoldingTheAmount() {
+		this.repository.createAccount(new Account("a", new BigDecimal("10.50")));
+		this.repository.createAccount(new Account("b", BigDecimal.ZERO));
+		Account a = this.repository.getAccount("a");
+		Account b = this.repository.getAccount("b");
+
+		this.repository.transfer(a, b, new BigDecimal("10.25"));
+		try {
+			this.repository.transfer(a, b, BigDecimal.ONE);
+			fail("Should have failed when transferring money");
+		} catch (TransactionException ex) {
+			assertThat(ex.getMessage()).isEqualTo("Account a has not enought money to make this transaction.");
+		}
+		assertThat(this.repository.tryTransfer(a, b, BigDecimal.ONE)).isEqualTo(TransferRejection.INSUFFICIENT_FUNDS);
+
+		assertThat(a.getBalance()).isEqualByComparingTo("0.25");
+		assertThat(b.getBalance()).isEqualByComparingTo("10.25");
+		try {
+			this.repository.getAccount("c");
+			fail("Should have failed when getting a nonexistent account");
+		} catch (AccountNotFoundException ex) {
+			assertThat(ex.getMessage()).isEqualTo("Account id c not found");
+		}
+	}
+
+	@Test
+	public void amountsWithMoreDecimalsThanStoredAreRefused() {
+		this.repository.createAccount(new Account("a", BigDecimal.ONE));
+		this.repository.createAccount(new Account("b", BigDecimal.ZERO));
+
+		// rounded on its own, the credit of each transfer would be worth more than its debit
+		for (int i = 0; i < 10; i++) {
+			try {
+				this.repository.transfer(new Account("a"), new Account("b"), new BigDecimal("0.01000000005"));
+				fail("Should have failed when transferring more decimals than stored");
+			} catch (TransactionException ex) {
+				assertThat(ex.getMessage()).isEqualTo("Amount 0.01000000005 can't be represented with 10 decimal places.");
+			}
+		}
+		try {
+			this.repository.createAccount(new Account("c", new BigDecimal("0.00000000001")));
+			fail("Should have failed when creating a balance with more decimals than stored");
+		} catch (TransactionException ex) {
+			assertThat(ex.getMessage()).isEqualTo("Amount 0.00000000001 can't be represented with 10 decimal places.");
+		}
+		// trailing zeros don't count
+		this.repository.transfer(new Account("a"), new Account("b"), new BigDecimal("0.010000000000000"));
+
+		BigDecimal a = this.repository.getAccount("a").getBalance();
+		BigDecimal b = this.repository.getAccount("b").getBalance();
+		assertThat(a).isEqualByComparingTo("0.99");
+		assertThat(b).isEqualByComparingTo("0.01");
+		assertThat(a.add(b)).isEqualByComparingTo("1");
+		assertThat(this.repository.findAccount("c")).isNull();
+	}
+
+	@Test
+	public void concurrentDebitsNeverOverdraw() throws Exception {
+		this.repository.createAccount(new Account("a", new BigDecimal("100")));
+		this.repository.createAccount(new Account("b", BigDecimal.ZERO));
+		AtomicInteger applied = new AtomicInteger();
+
+		// no account locks, the conditional update alone keeps the balance from going negative
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 30; i++) {
+					if (this.repository.tryTransfer(new Account("a"), new Account("b"), BigDecimal.ONE) == null) {
+						applied.incrementAndGet();
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertThat(applied.get()).isEqualTo(100);
+		assertThat(this.repository.getAccount("a").getBalance()).isEqualByComparingTo("0");
+		assertThat(this.repository.getAccount("b").getBalance()).isEqualByComparingTo("100");
+	}
+
+	@Test
+	public void batchedCreationsKeepAllButTheDuplicates() {
+		this.repository.createAccount(new Account("Id-1", BigDecimal.TEN));
+		try {
+			this.repository.createAccount(new Account("Id-1", BigDecimal.ONE));
+			fail("Should have failed when adding duplicate account");
+		} catch (DuplicateAccountIdException ex) {
+			assertThat(ex.getMessage()).isEqualTo("Account id Id-1 already exists!");
+		}
+
+		List<Account> chunk = new ArrayList<>();
+		for (int i = 0; i < 2500; i++) {
+			chunk.add(new Account("Id-" + i, BigDecimal.ONE));
+		}
+		chunk.add(new Account("Id-7", BigDecimal.ONE));
+		List<DuplicateAccountIdException> duplicates = this.repository.createAccounts(chunk);
+
+		assertThat(duplicates).hasSize(2501);
+		assertThat(duplicates.get(1).getMessage()).isEqualTo("Account id Id-1 already exists!");
+		assertThat(duplicates.get(2500).getMessage()).isEqualTo("Account id Id-7 already exists!");
+		assertThat(duplicates.stream().filter(duplicate -> duplicate != null).count()).isEqualTo(2);
+
+		// more than a page of ids
+		Map<String, BigDecimal> balances = new HashMap<>();
+		this.repository.forEachAccount(account -> balances.put(account.getAccountId(), account.getBalance()));
+		assertThat(balances).hasSize(2500).containsEntry("Id-1", BigDecimal.TEN).containsEntry("Id-2499", BigDecimal.ONE);
+
+		this.repository.clearAccounts();
+		this.repository.forEachAccount(account -> fail("Accounts should have been cleared"));
+	}
+
+	@Test
+	public void balancesSurviveARestart() throws Exception {
+		this.repository.createAccounts(Arrays.asList(new Account("a", new BigDecimal("100")), new Account("b", BigDecimal.ZERO)));
+		this.repository.transfer(new Account("a"), new Account("b"), new BigDecimal("0.01"));
+		this.repository.close();
+
+		this.repository = new JdbcAccountsRepository(properties, hotAccounts);
+		assertThat(this.repository.getAccount("a").getBalance()).isEqualByComparingTo("99.99");
+		assertThat(this.repository.getAccount("b").getBalance()).isEqualByComparingTo("0.01");
+	}
+
+	@Test
+	public void hotAccountCreditsAreWrittenBehind() throws Exception {
+		this.repository.close();
+		this.properties.setWriteBehind(true);
+		// flushed on close only
+		this.properties.setWriteBehindMillis(60_000);
+		this.hotAccounts.getAccountIds().add("merchant");
+		this.repository = new JdbcAccountsRepository(properties, hotAccounts);
+		this.repository.createAccount(new Account("merchant", BigDecimal.ZERO));
+		this.repository.createAccount(new Account("a", new BigDecimal("100")));
+		this.repository.createAccount(new Account("b", BigDecimal.ZERO));
+
+		for (int i = 0; i < 50; i++) {
+			this.repository.transfer(new Account("a"), new Account("merchant"), BigDecimal.ONE);
+		}
+		assertThat(this.repository.getCoalescedCredits()).isEqualTo(50);
+		assertThat(this.repository.getFlushes()).isZero();
+		// read with the credits not written yet
+		assertThat(this.repository.getAccount("merchant").getBalance()).isEqualByComparingTo("50");
+
+		// a debit of the hot account takes them along
+		this.repository.transfer(new Account("merchant"), new Account("b"), new BigDecimal("30"));
+		assertThat(this.repository.tryTransfer(new Account("merchant"), new Account("b"), new BigDecimal("21")))
+				.isEqualTo(TransferRejection.INSUFFICIENT_FUNDS);
+		this.repository.transfer(new Account("a"), new Account("merchant"), new BigDecimal("5"));
+		this.repository.close();
+
+		this.repository = new JdbcAccountsRepository(properties, hotAccounts);
+		assertThat(this.repository.getAccount("merchant").getBalance()).isEqualByComparingTo("25");
+		assertThat(this.repository.getAccount("a").getBalance()).isEqualByComparingTo("45");
+		assertThat(this.repository.getAccount("b").getBalance()).isEqualByComparingTo("30");
+	}
+
+}
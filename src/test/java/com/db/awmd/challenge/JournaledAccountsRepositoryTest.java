@@ -0,0 +1,200 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.JournalException;
+import com.db.awmd.challenge.repository.AccountStorage;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.journal.AccountsJournal;
+import com.db.awmd.challenge.repository.journal.FsyncPolicy;
+import com.db.awmd.challenge.repository.journal.JournalProperties;
+import com.db.awmd.challenge.repository.journal.JournalCompactor;
+import com.db.awmd.challenge.repository.journal.JournalRecord;
+import com.db.awmd.challenge.repository.journal.JournaledAccountsRepository;
+import com.db.awmd.challenge.repository.journal.SnapshotStore;
+
+public class JournaledAccountsRepositoryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private JournalProperties properties;
+
+	private AccountsJournal journal;
+
+	@Before
+	public void before() throws IOException {
+		this.properties = new JournalProperties();
+		this.properties.setDirectory(folder.newFolder("journal").getPath());
+		this.properties.setFsyncPolicy(FsyncPolicy.EVERY_COMMIT);
+	}
+
+	@Test
+	public void restoreAccountsAfterRestart() throws Exception {
+		// lock-free accounts, so concurrent transfers share group commits
+		JournaledAccountsRepository repository = open(AccountStorage.MINOR_UNITS);
+		repository.createAccount(new Account("a", new BigDecimal("100.50")));
+		repository.createAccount(new Account("b", BigDecimal.ZERO));
+
+		Thread[] threads = new Thread[50];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					repository.transfer(repository.getAccount("a"), repository.getAccount("b"), BigDecimal.ONE);
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		repository.close();
+
+		AccountsRepository restored = open();
+		assertThat(restored.getAccount("a").getBalance()).isEqualByComparingTo("50.50");
+		assertThat(restored.getAccount("b").getBalance()).isEqualByComparingTo("50");
+	}
+
+	@Test
+	public void discardTornRecordOnRestart() throws Exception {
+		JournaledAccountsRepository repository = open();
+		repository.createAccount(new Account("a", BigDecimal.TEN));
+		repository.createAccount(new Account("b", BigDecimal.TEN));
+		repository.transfer(repository.getAccount("a"), repository.getAccount("b"), BigDecimal.ONE);
+		repository.close();
+
+		// simulate a crash in the middle of writing the last record
+		Path segment;
+		try (Stream<Path> files = Files.list(folder.getRoot().toPath().resolve("journal"))) {
+			segment = files.findFirst().get();
+		}
+		try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+			file.setLength(file.length() - 3);
+		}
+
+		JournaledAccountsRepository restored = open();
+		assertThat(restored.getAccount("a").getBalance()).isEqualByComparingTo("10");
+		assertThat(restored.getAccount("b").getBalance()).isEqualByComparingTo("10");
+
+		// the journal keeps working after the torn record
+		restored.transfer(restored.getAccount("b"), restored.getAccount("a"), BigDecimal.TEN);
+		restored.close();
+		AccountsRepository reopened = open();
+		assertThat(reopened.getAccount("a").getBalance()).isEqualByComparingTo("20");
+		assertThat(reopened.getAccount("b").getBalance()).isEqualByComparingTo("0");
+	}
+
+	@Test
+	public void restoreFromSnapshotAndLaterRecords() throws Exception {
+		JournaledAccountsRepository repository = open();
+		JournalCompactor compactor = new JournalCompactor(journal, new SnapshotStore(properties), properties);
+		repository.createAccount(new Account("a", new BigDecimal("100")));
+		repository.createAccount(new Account("b", new BigDecimal("0.25")));
+		repository.transfer(repository.getAccount("a"), repository.getAccount("b"), BigDecimal.TEN);
+		compactor.compact();
+
+		// covered by the second snapshot
+		repository.createAccount(new Account("c", BigDecimal.ONE));
+		repository.transfer(repository.getAccount("a"), repository.getAccount("c"), BigDecimal.TEN);
+		compactor.compact();
+		assertThat(compactor.getLastSnapshotAccounts()).isEqualTo(3);
+
+		// only in the journal
+		repository.transfer(repository.getAccount("c"), repository.getAccount("b"), new BigDecimal("11"));
+		repository.close();
+
+		try (Stream<Path> files = Files.list(folder.getRoot().toPath().resolve("journal"))) {
+			// the latest snapshot and the active segment
+			assertThat(files.count()).isEqualTo(2);
+		}
+
+		JournaledAccountsRepository restored = open();
+		assertThat(restored.getRestoredAccounts()).isEqualTo(3);
+		assertThat(restored.getReplayedRecords()).isEqualTo(1);
+		assertThat(restored.getAccount("a").getBalance()).isEqualByComparingTo("80");
+		assertThat(restored.getAccount("b").getBalance()).isEqualByComparingTo("21.25");
+		assertThat(restored.getAccount("c").getBalance()).isEqualByComparingTo("0");
+	}
+
+	@Test
+	public void refuseChangesOnceTheJournalFailed() throws Exception {
+		JournaledAccountsRepository repository = open();
+		repository.createAccount(new Account("a", BigDecimal.TEN));
+		repository.createAccount(new Account("b", BigDecimal.TEN));
+		// nothing can be appended any more
+		this.journal.close();
+
+		try {
+			repository.transfer(repository.getAccount("a"), repository.getAccount("b"), BigDecimal.ONE);
+			fail("Should have failed when transferring money");
+		} catch (JournalException e) {
+			assertThat(e).hasMessage("Accounts journal failed, no more changes are accepted");
+		}
+		try {
+			repository.createAccount(new Account("c", BigDecimal.TEN));
+			fail("Should have failed when creating an account");
+		} catch (JournalException e) {
+			assertThat(e).hasMessage("Accounts journal failed, no more changes are accepted");
+		}
+
+		// memory still matches the journal
+		assertThat(repository.getAccount("a").getBalance()).isEqualByComparingTo("10");
+		assertThat(repository.getAccount("b").getBalance()).isEqualByComparingTo("10");
+		assertThat(repository.findAccount("c")).isNull();
+	}
+
+	@Test
+	public void completeAppendsOffTheWriterThread() throws Exception {
+		JournaledAccountsRepository repository = open();
+		repository.createAccount(new Account("a", BigDecimal.TEN));
+		repository.createAccount(new Account("b", BigDecimal.TEN));
+
+		String thread = repository.transferAsync(repository.getAccount("a"), repository.getAccount("b"), BigDecimal.ONE)
+				.thenApply(lsn -> Thread.currentThread().getName()).get(10, TimeUnit.SECONDS);
+		assertThat(thread).isNotEqualTo("accounts-journal-writer");
+		repository.close();
+	}
+
+	@Test
+	public void failStartupOnRecordNotMatchingTheAccounts() throws Exception {
+		AccountsJournal written = new AccountsJournal(properties);
+		written.open(1, record -> {
+		});
+		written.append(JournalRecord.create("a", BigDecimal.TEN)).join();
+		written.append(JournalRecord.transfer("a", "missing", BigDecimal.ONE)).join();
+		written.close();
+
+		try {
+			open();
+			fail("Should have failed when replaying the journal");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage()).startsWith("Journal record");
+		}
+	}
+
+	private JournaledAccountsRepository open() throws IOException {
+		return open(AccountStorage.DECIMAL);
+	}
+
+	private JournaledAccountsRepository open(AccountStorage storage) throws IOException {
+		this.journal = new AccountsJournal(properties);
+		return new JournaledAccountsRepository(new AccountsRepositoryInMemory(storage), journal, new SnapshotStore(properties));
+	}
+
+}
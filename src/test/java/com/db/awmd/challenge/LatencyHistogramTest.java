@@ -0,0 +1,51 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.service.metrics.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void emptyHistogram() {
+		LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+		assertThat(snapshot.getCount()).isZero();
+		assertThat(snapshot.getValueAtPercentile(99)).isZero();
+		assertThat(snapshot.getMax()).isZero();
+	}
+
+	@Test
+	public void percentilesWithinPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 1; i <= 100_000; i++) {
+			histogram.record(i * 1000);
+		}
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertThat(snapshot.getCount()).isEqualTo(100_000);
+		// each power of two is split in 32 buckets, values are known within about 3%
+		assertThat((double) snapshot.getValueAtPercentile(50)).isCloseTo(50_000_000, within(1_600_000.0));
+		assertThat((double) snapshot.getValueAtPercentile(99)).isCloseTo(99_000_000, within(3_100_000.0));
+		assertThat((double) snapshot.getMax()).isCloseTo(100_000_000, within(3_200_000.0));
+		assertThat(snapshot.getValueAtPercentile(100)).isEqualTo(snapshot.getMax());
+	}
+
+	@Test
+	public void smallAndHugeValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(7);
+		histogram.record(Long.MAX_VALUE);
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertThat(snapshot.getValueAtPercentile(1)).isZero();
+		assertThat(snapshot.getValueAtPercentile(50)).isEqualTo(7);
+		// values beyond the range are counted in the last bucket
+		assertThat(snapshot.getMax()).isGreaterThan(1L << 40);
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.offheap.OffHeapAccountsRepository;
+import com.db.awmd.challenge.repository.offheap.OffHeapProperties;
+
+public class OffHeapAccountsRepositoryTest {
+
+	private OffHeapAccountsRepository repository;
+
+	@Before
+	public void before() {
+		OffHeapProperties properties = new OffHeapProperties();
+		// tiny segments, so the test goes through many resizes
+		properties.setInitialCapacity(64);
+		properties.setSegments(4);
+		properties.setMaxIdBytes(16);
+		this.repository = new OffHeapAccountsRepository(properties);
+	}
+
+	@Test
+	public void createAndGetManyAccounts() {
+		for (int i = 0; i < 10_000; i++) {
+			this.repository.createAccount(new Account("Id-" + i, new BigDecimal(i).movePointLeft(2)));
+		}
+
+		assertThat(this.repository.getAccounts()).isEqualTo(10_000);
+		for (int i = 0; i < 10_000; i++) {
+			Account account = this.repository.getAccount("Id-" + i);
+			assertThat(account.getAccountId()).isEqualTo("Id-" + i);
+			assertThat(account.getBalance()).isEqualByComparingTo(new BigDecimal(i).movePointLeft(2));
+		}
+	}
+
+	@Test
+	public void duplicateAndMissingAccounts() {
+		this.repository.createAccount(new Account("Id-1", BigDecimal.TEN));
+
+		try {
+			this.repository.createAccount(new Account("Id-1", BigDecimal.ONE));
+			fail("Should have failed when adding duplicate account");
+		} catch (DuplicateAccountIdException ex) {
+			assertThat(ex.getMessage()).isEqualTo("Account id Id-1 already exists!");
+		}
+		try {
+			this.repository.getAccount("Id-2");
+			fail("Should have failed when getting a nonexistent account");
+		} catch (AccountNotFoundException ex) {
+			assertThat(ex.getMessage()).isEqualTo("Account id Id-2 not found");
+		}
+		try {
+			this.repository.createAccount(new Account("Id-with-a-very-long-name", BigDecimal.ONE));
+			fail("Should have failed when adding an account id longer than a slot");
+		} catch (TransactionException ex) {
+			assertThat(ex.getMessage()).isEqualTo("Account id Id-with-a-very-long-name is longer than 16 bytes.");
+		}
+		// it can't exist, so it isn't found
+		assertThat(this.repository.findAccount("Id-with-a-very-long-name")).isNull();
+		try {
+			this.repository.getAccount("Id-with-a-very-long-name");
+			fail("Should have failed when getting an account id longer than a slot");
+		} catch (AccountNotFoundException ex) {
+			assertThat(ex.getMessage()).isEqualTo("Account id Id-with-a-very-long-name not found");
+		}
+	}
+
+	@Test
+	public void viewsShareTheOffHeapBalance() {
+		this.repository.createAccount(new Account("a", new BigDecimal("10.50")));
+		this.repository.createAccount(new Account("b", BigDecimal.ZERO));
+		Account a = this.repository.getAccount("a");
+
+		this.repository.transfer(this.repository.getAccount("a"), this.repository.getAccount("b"), new BigDecimal("10.25"));
+		try {
+			this.repository.transfer(a, this.repository.getAccount("b"), BigDecimal.ONE);
+			fail("Should have failed when transferring money");
+		} catch (TransactionException ex) {
+			assertThat(ex.getMessage()).isEqualTo("Account a has not enought money to make this transaction.");
+		}
+		assertThat(this.repository.tryTransfer(a, this.repository.getAccount("b"), BigDecimal.ONE))
+				.isEqualTo(TransferRejection.INSUFFICIENT_FUNDS);
+		assertThat(this.repository.tryTransferAsync(a, this.repository.getAccount("b"), BigDecimal.ONE).join())
+				.isEqualTo(TransferRejection.INSUFFICIENT_FUNDS);
+
+		assertThat(a.getBalance()).isEqualByComparingTo("0.25");
+		assertThat(this.repository.getAccount("b").getBalance()).isEqualByComparingTo("10.25");
+	}
+
+	@Test
+	public void forEachAndClear() {
+		for (int i = 0; i < 1000; i++) {
+			this.repository.createAccount(new Account("Id-" + i, BigDecimal.ONE));
+		}
+
+		Map<String, BigDecimal> balances = new HashMap<>();
+		this.repository.forEachAccount(account -> balances.put(account.getAccountId(), account.getBalance()));
+		assertThat(balances).hasSize(1000).containsEntry("Id-999", new BigDecimal("1.00"));
+
+		this.repository.clearAccounts();
+		assertThat(this.repository.getAccounts()).isZero();
+		this.repository.createAccount(new Account("Id-1", BigDecimal.ONE));
+		assertThat(this.repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("1");
+	}
+
+}
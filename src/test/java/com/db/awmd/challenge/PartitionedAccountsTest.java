@@ -0,0 +1,301 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.db.awmd.challenge.repository.partition.ConsistentHashRing;
+import com.db.awmd.challenge.service.partition.PartitionRouter;
+
+/**
+ * Three nodes on localhost, in this JVM, talking to each other over HTTP
+ */
+public class PartitionedAccountsTest {
+
+	private static final int NODES = 3;
+
+	private static final String SECRET = "test-secret";
+
+	private static final List<String> urls = new ArrayList<>();
+
+	private static final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	private static ConsistentHashRing ring;
+
+	private final TestRestTemplate restTemplate = new TestRestTemplate();
+
+	@BeforeClass
+	public static void startNodes() throws IOException {
+		for (int i = 0; i < NODES; i++) {
+			try (ServerSocket socket = new ServerSocket(0)) {
+				urls.add("http://localhost:" + socket.getLocalPort());
+			}
+		}
+		for (String url : urls) {
+			String ledger = folder.newFolder().getPath();
+			nodes.add(new SpringApplicationBuilder(DevChallengeApplication.class).run(
+					"--server.port=" + url.substring(url.lastIndexOf(':') + 1),
+					"--accounts.partition.enabled=true",
+					"--accounts.partition.self=" + url,
+					"--accounts.partition.nodes=" + String.join(",", urls),
+					"--accounts.partition.secret=" + SECRET,
+					"--accounts.ledger.directory=" + ledger,
+					"--spring.jmx.enabled=false",
+					"--endpoints.jmx.enabled=false",
+					"--logging.level.com.db.awmd.challenge.web=WARN"));
+		}
+		ring = new ConsistentHashRing(urls, 160);
+	}
+
+	@AfterClass
+	public static void stopNodes() {
+		nodes.forEach(ConfigurableApplicationContext::close);
+	}
+
+	@Before
+	public void clearAccounts() {
+		for (ConfigurableApplicationContext node : nodes) {
+			node.getBean(AccountsRepository.class).clearAccounts();
+		}
+	}
+
+	@Test
+	public void accountsLiveOnTheirOwnerAndAreReadFromAnyNode() {
+		for (int i = 0; i < 30; i++) {
+			assertThat(createAccount(urls.get(0), "account-" + i, "100").getStatusCode()).isEqualTo(HttpStatus.CREATED);
+		}
+		for (int i = 0; i < 30; i++) {
+			String accountId = "account-" + i;
+			for (int node = 0; node < NODES; node++) {
+				assertThat(hasAccount(node, accountId)).isEqualTo(node == ring.indexOf(accountId));
+				assertThat(restTemplate.getForObject(urls.get(node) + "/v1/accounts/" + accountId, String.class))
+						.isEqualTo("{\"accountId\":\"" + accountId + "\",\"balance\":100}");
+			}
+		}
+		assertThat(createAccount(urls.get(1), "account-0", "1").getBody()).isEqualTo("Account id account-0 already exists!");
+		assertThat(restTemplate.getForEntity(urls.get(2) + "/v1/accounts/~settlement", String.class).getStatusCode())
+				.isNotEqualTo(HttpStatus.OK);
+	}
+
+	@Test
+	public void transfersFromAnyNodeAddUp() throws Exception {
+		int accounts = 30;
+		for (int i = 0; i < accounts; i++) {
+			createAccount(urls.get(i % NODES), "account-" + i, "1000");
+		}
+
+		List<Thread> clients = new ArrayList<>();
+		for (int c = 0; c < 4; c++) {
+			SplittableRandom random = new SplittableRandom(c);
+			Thread client = new Thread(() -> {
+				for (int i = 0; i < 100; i++) {
+					int from = random.nextInt(accounts);
+					int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+					transfer(urls.get(random.nextInt(NODES)), "account-" + from, "account-" + to, random.nextInt(1, 500));
+				}
+			});
+			client.start();
+			clients.add(client);
+		}
+		for (Thread client : clients) {
+			client.join();
+		}
+
+		BigDecimal total = BigDecimal.ZERO;
+		BigDecimal settled = BigDecimal.ZERO;
+		long crossPartition = 0;
+		for (ConfigurableApplicationContext node : nodes) {
+			PartitionRouter router = node.getBean(PartitionRouter.class);
+			assertThat(router.getPendingReservations()).isZero();
+			settled = settled.add(router.getSettlementBalance());
+			crossPartition += router.getCrossPartition();
+		}
+		for (int i = 0; i < accounts; i++) {
+			total = total.add(balance(urls.get(0), "account-" + i));
+		}
+		assertThat(crossPartition).isPositive();
+		assertThat(settled).isEqualByComparingTo("0");
+		assertThat(total).isEqualByComparingTo("30000");
+	}
+
+	@Test
+	public void transferToAnotherNodeIsAppliedInTwoPhases() {
+		String from = accountOf(0);
+		String to = accountOf(1);
+		createAccount(urls.get(2), from, "100");
+		createAccount(urls.get(2), to, "0");
+
+		// sent to the node owning neither account, forwarded to the owner of the first
+		assertThat(transfer(urls.get(2), from, to, 40).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+		assertThat(balance(urls.get(2), from)).isEqualByComparingTo("60");
+		assertThat(balance(urls.get(2), to)).isEqualByComparingTo("40");
+		assertThat(nodes.get(0).getBean(PartitionRouter.class).getSettlementBalance()).isEqualByComparingTo("40");
+		assertThat(nodes.get(1).getBean(PartitionRouter.class).getSettlementBalance()).isEqualByComparingTo("-40");
+	}
+
+	@Test
+	public void refusedCreditGivesTheReservationBack() {
+		String from = accountOf(0);
+		String missing = accountOf(1);
+		createAccount(urls.get(0), from, "100");
+
+		ResponseEntity<String> response = transfer(urls.get(0), from, missing, 40);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(response.getBody()).isEqualTo("Account id " + missing + " not found");
+		assertThat(balance(urls.get(1), from)).isEqualByComparingTo("100");
+		assertThat(nodes.get(0).getBean(PartitionRouter.class).getSettlementBalance()).isEqualByComparingTo("0");
+
+		createAccount(urls.get(0), missing, "0");
+		response = transfer(urls.get(1), from, missing, 101);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(response.getBody()).isEqualTo("Account " + from + " has not enought money to make this transaction.");
+	}
+
+	@Test
+	public void transferToAnotherNodeIsInTheHistoryOfBothAccounts() {
+		String from = accountOf(0, "history-");
+		String to = accountOf(1, "history-");
+		String missing = accountOf(2, "history-");
+		createAccount(urls.get(0), from, "100");
+		createAccount(urls.get(0), to, "0");
+
+		assertThat(transfer(urls.get(2), from, to, 40).getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(transfer(urls.get(0), from, missing, 25).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+
+		// each owner lists its own leg, with the balance of its own account
+		JsonNode debited = transfers(urls.get(0), from);
+		assertThat(debited).hasSize(3);
+		assertThat(debited.get(0).get("accountFrom").asText()).isEqualTo(missing);
+		assertThat(debited.get(0).get("balanceTo").decimalValue()).isEqualByComparingTo("60");
+		assertThat(debited.get(1).get("accountTo").asText()).isEqualTo(missing);
+		assertThat(debited.get(1).get("balanceFrom").decimalValue()).isEqualByComparingTo("35");
+		assertThat(debited.get(2).get("accountTo").asText()).isEqualTo(to);
+		assertThat(debited.get(2).get("amount").decimalValue()).isEqualByComparingTo("40");
+		assertThat(debited.get(2).get("balanceFrom").decimalValue()).isEqualByComparingTo("60");
+		assertThat(debited.get(2).has("balanceTo")).isFalse();
+
+		JsonNode credited = transfers(urls.get(1), to);
+		assertThat(credited).hasSize(1);
+		assertThat(credited.get(0).get("accountFrom").asText()).isEqualTo(from);
+		assertThat(credited.get(0).get("amount").decimalValue()).isEqualByComparingTo("40");
+		assertThat(credited.get(0).has("balanceFrom")).isFalse();
+		assertThat(credited.get(0).get("balanceTo").decimalValue()).isEqualByComparingTo("40");
+	}
+
+	@Test
+	public void settlementAccountCantBeUsed() {
+		String from = accountOf(0);
+		createAccount(urls.get(0), from, "100");
+
+		assertThat(transfer(urls.get(0), from, "~settlement", 10).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(transfer(urls.get(0), "~settlement", from, 10).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(createAccount(urls.get(0), "~settlement", "0").getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(balance(urls.get(0), from)).isEqualByComparingTo("100");
+	}
+
+	@Test
+	public void internalCallsNeedTheSecretAndCreditsTheirReservation() {
+		String from = accountOf(0);
+		String to = accountOf(1);
+		createAccount(urls.get(0), from, "100");
+		createAccount(urls.get(0), to, "0");
+		String credit = urls.get(1) + "/internal/partitions/credits/forged";
+		HttpEntity<String> body = json("{\"accountFrom\":\"" + from + "\",\"accountTo\":\"" + to + "\",\"amount\":1000}");
+
+		assertThat(restTemplate.postForEntity(credit, body, String.class).getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+		assertThat(restTemplate.exchange(credit, HttpMethod.PUT, null, String.class).getStatusCode())
+				.isEqualTo(HttpStatus.FORBIDDEN);
+
+		// node 0 reserved nothing for it
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.set(PartitionRouter.SECRET_HEADER, SECRET);
+		assertThat(restTemplate.postForEntity(credit, new HttpEntity<>(body.getBody(), headers), String.class)
+				.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(restTemplate.exchange(credit, HttpMethod.PUT, new HttpEntity<>(headers), String.class).getStatusCode())
+				.isEqualTo(HttpStatus.GONE);
+		assertThat(balance(urls.get(1), to)).isEqualByComparingTo("0");
+		assertThat(nodes.get(1).getBean(PartitionRouter.class).getSettlementBalance()).isEqualByComparingTo("0");
+	}
+
+	/**
+	 * @return an account id owned by the node
+	 */
+	private static String accountOf(int node) {
+		return accountOf(node, "owned-");
+	}
+
+	private static String accountOf(int node, String prefix) {
+		for (int i = 0;; i++) {
+			if (ring.indexOf(prefix + i) == node) {
+				return prefix + i;
+			}
+		}
+	}
+
+	private static boolean hasAccount(int node, String accountId) {
+		List<String> found = new ArrayList<>();
+		nodes.get(node).getBean(AccountsRepository.class).forEachAccount(account -> {
+			if (account.getAccountId().equals(accountId)) {
+				found.add(accountId);
+			}
+		});
+		return !found.isEmpty();
+	}
+
+	private ResponseEntity<String> createAccount(String url, String accountId, String balance) {
+		return restTemplate.postForEntity(url + "/v1/accounts",
+				json("{\"accountId\":\"" + accountId + "\",\"balance\":" + balance + "}"), String.class);
+	}
+
+	private ResponseEntity<String> transfer(String url, String from, String to, int amount) {
+		return restTemplate.exchange(url + "/v1/accounts", HttpMethod.PUT,
+				json("{\"accountFrom\":\"" + from + "\",\"accountTo\":\"" + to + "\",\"amount\":" + amount + "}"), String.class);
+	}
+
+	private BigDecimal balance(String url, String accountId) {
+		return new BigDecimal(restTemplate.getForObject(url + "/v1/accounts/" + accountId, String.class)
+				.replaceAll(".*\"balance\":([0-9.]+).*", "$1"));
+	}
+
+	/**
+	 * @return the transfers of the account, newest first, as listed by the node
+	 */
+	private JsonNode transfers(String url, String accountId) {
+		return restTemplate.getForObject(url + "/v1/accounts/" + accountId + "/transfers", JsonNode.class).get("transfers");
+	}
+
+	private static HttpEntity<String> json(String body) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		return new HttpEntity<>(body, headers);
+	}
+
+}
@@ -0,0 +1,241 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.dto.BatchMode;
+import com.db.awmd.challenge.domain.dto.Recurrence;
+import com.db.awmd.challenge.domain.dto.ScheduledTransferDto;
+import com.db.awmd.challenge.domain.dto.TransferStatus;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.schedule.ScheduleProperties;
+import com.db.awmd.challenge.service.schedule.TransferScheduler;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "accounts.schedule.enabled=true", "accounts.schedule.tick-millis=20",
+		"accounts.schedule.directory=${java.io.tmpdir}/scheduled-transfers-test-${random.uuid}" })
+@WebAppConfiguration
+public class ScheduledTransfersTest {
+
+	private static final long SECOND = 1000;
+
+	private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+	private static final long START = Instant.parse("2026-01-31T09:00:00Z").toEpochMilli();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MockMvc mockMvc;
+
+	@Autowired
+	private AccountsService accountsService;
+
+	@Autowired
+	private WebApplicationContext webApplicationContext;
+
+	private final AtomicLong clock = new AtomicLong(START);
+
+	private ScheduleProperties properties;
+
+	@Before
+	public void before() throws IOException {
+		this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+		accountsService.getAccountsRepository().clearAccounts();
+		accountsService.createAccount(new Account("from", new BigDecimal("1000000")));
+		accountsService.createAccount(new Account("to", BigDecimal.ZERO));
+		properties = new ScheduleProperties();
+		properties.setDirectory(folder.newFolder("schedules").getPath());
+		properties.setBatchSize(16);
+	}
+
+	@Test
+	public void transfersRunAtTheirTickAcrossTheWheelLevels() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(properties, accountsService, clock::get);
+		SplittableRandom random = new SplittableRandom(1);
+		List<Long> ids = new ArrayList<>();
+		List<Long> runAts = new ArrayList<>();
+		// from the next second to two months ahead, so deadlines sit in the first four levels
+		for (int i = 0; i < 2000; i++) {
+			long runAt = START + (i % 4 == 0 ? random.nextLong(64 * SECOND) : random.nextLong(60 * DAY));
+			ids.add(scheduler.schedule("from", "to", BigDecimal.ONE, runAt, Recurrence.ONCE).getScheduleId());
+			runAts.add(runAt);
+		}
+		List<Long> cancelled = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i += 10) {
+			assertThat(scheduler.cancel(ids.get(i))).isTrue();
+			cancelled.add(ids.get(i));
+		}
+		assertThat(scheduler.cancel(ids.get(0))).isFalse();
+
+		while (clock.get() < START + 61 * DAY) {
+			clock.addAndGet(1 + random.nextLong(2 * 60 * 60 * SECOND));
+			scheduler.runDue();
+			long expected = 0;
+			for (int i = 0; i < ids.size(); i++) {
+				boolean due = runAts.get(i) <= clock.get() / SECOND * SECOND;
+				boolean run = due && !cancelled.contains(ids.get(i));
+				assertThat(scheduler.get(ids.get(i)) == null).isEqualTo(due || cancelled.contains(ids.get(i)));
+				expected += run ? 1 : 0;
+			}
+			assertThat(accountsService.getAccount("to").getBalance()).isEqualByComparingTo(Long.toString(expected));
+		}
+		assertThat(scheduler.getPending()).isZero();
+		assertThat(scheduler.getCompleted()).isEqualTo(ids.size() - cancelled.size());
+		assertThat(scheduler.getBatches()).isGreaterThanOrEqualTo((ids.size() - cancelled.size()) / 16);
+		scheduler.close();
+	}
+
+	@Test
+	public void standingOrdersCatchUpTheRunsMissedWhileDown() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(properties, accountsService, clock::get);
+		long daily = scheduler.schedule("from", "to", BigDecimal.ONE, START, Recurrence.DAILY).getScheduleId();
+		long monthly = scheduler.schedule("from", "to", BigDecimal.TEN, START, Recurrence.MONTHLY).getScheduleId();
+		clock.addAndGet(3 * DAY);
+		assertThat(scheduler.runDue()).isEqualTo(5);
+		assertThat(scheduler.get(daily).getRuns()).isEqualTo(4);
+		// the 31st falls back to the end of shorter months
+		assertThat(scheduler.get(monthly).getNextRunAt()).isEqualTo("2026-02-28T09:00:00Z");
+		assertThat(scheduler.get(monthly).getLastStatus()).isEqualTo(TransferStatus.COMPLETED);
+		scheduler.close();
+
+		// down for ten days
+		clock.addAndGet(10 * DAY);
+		scheduler = new TransferScheduler(properties, accountsService, clock::get);
+		assertThat(scheduler.getPending()).isEqualTo(2);
+		assertThat(scheduler.get(daily).getRuns()).isEqualTo(4);
+		assertThat(scheduler.runDue()).isEqualTo(10);
+		assertThat(scheduler.get(daily).getRuns()).isEqualTo(14);
+		assertThat(scheduler.get(daily).getNextRunAt()).isEqualTo("2026-02-14T09:00:00Z");
+		assertThat(scheduler.get(monthly).getRuns()).isEqualTo(1);
+		assertThat(accountsService.getAccount("to").getBalance()).isEqualByComparingTo("24");
+		assertThat(scheduler.getInDoubt()).isZero();
+		scheduler.close();
+	}
+
+	@Test
+	public void runInterruptedByACrashIsNotAttemptedAgain() throws Exception {
+		AccountsService crashing = mock(AccountsService.class);
+		when(crashing.getAccount(anyString())).thenAnswer(invocation -> accountsService.getAccount((String) invocation.getArguments()[0]));
+		when(crashing.transferBatch(any(), any(BatchMode.class))).thenThrow(new Crash());
+		TransferScheduler scheduler = new TransferScheduler(properties, crashing, clock::get);
+		long once = scheduler.schedule("from", "to", BigDecimal.ONE, START + SECOND, Recurrence.ONCE).getScheduleId();
+		long weekly = scheduler.schedule("from", "to", BigDecimal.ONE, START + SECOND, Recurrence.WEEKLY).getScheduleId();
+		clock.addAndGet(SECOND);
+		try {
+			scheduler.runDue();
+		} catch (Crash e) {
+			// the node stops here, the runs are logged as started only
+		}
+
+		scheduler = new TransferScheduler(properties, accountsService, clock::get);
+		assertThat(scheduler.getInDoubt()).isEqualTo(2);
+		assertThat(scheduler.get(once)).isNull();
+		assertThat(scheduler.get(weekly).getRuns()).isEqualTo(1);
+		assertThat(scheduler.get(weekly).getLastStatus()).isNull();
+		assertThat(scheduler.runDue()).isZero();
+		assertThat(accountsService.getAccount("to").getBalance()).isEqualByComparingTo("0");
+
+		clock.addAndGet(7 * DAY);
+		assertThat(scheduler.runDue()).isEqualTo(1);
+		assertThat(accountsService.getAccount("to").getBalance()).isEqualByComparingTo("1");
+		scheduler.close();
+	}
+
+	@Test
+	public void rejectedRunsAreReportedAndStandingOrdersGoOn() throws Exception {
+		accountsService.createAccount(new Account("empty", BigDecimal.ZERO));
+		TransferScheduler scheduler = new TransferScheduler(properties, accountsService, clock::get);
+		long weekly = scheduler.schedule("empty", "to", BigDecimal.ONE, START, Recurrence.WEEKLY).getScheduleId();
+		assertThat(scheduler.runDue()).isEqualTo(1);
+		ScheduledTransferDto schedule = scheduler.get(weekly);
+		assertThat(schedule.getLastStatus()).isEqualTo(TransferStatus.REJECTED);
+		assertThat(schedule.getNextRunAt()).isEqualTo("2026-02-07T09:00:00Z");
+		assertThat(scheduler.getRejected()).isEqualTo(1);
+		scheduler.close();
+	}
+
+	@Test
+	public void scheduleThroughTheApi() throws Exception {
+		String body = this.mockMvc.perform(post("/v1/accounts/schedules").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"from\",\"accountTo\":\"to\",\"amount\":5,\"firstRunAt\":\"2000-01-01T00:00:00Z\"}"))
+				.andExpect(status().isCreated())
+				.andExpect(jsonPath("$.recurrence").value("ONCE"))
+				.andExpect(jsonPath("$.nextRunAt").value("2000-01-01T00:00:00Z"))
+				.andReturn().getResponse().getContentAsString();
+		String scheduleId = body.replaceAll(".*\"scheduleId\":([0-9]+).*", "$1");
+
+		// already due, run by the scheduler thread within a tick
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (accountsService.getAccount("to").getBalance().signum() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(accountsService.getAccount("to").getBalance()).isEqualByComparingTo("5");
+		this.mockMvc.perform(get("/v1/accounts/schedules/" + scheduleId)).andExpect(status().isNotFound());
+
+		body = this.mockMvc.perform(post("/v1/accounts/schedules").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"from\",\"accountTo\":\"to\",\"amount\":5,\"firstRunAt\":\"2100-01-01T00:00:00Z\",\"recurrence\":\"MONTHLY\"}"))
+				.andExpect(status().isCreated()).andReturn().getResponse().getContentAsString();
+		scheduleId = body.replaceAll(".*\"scheduleId\":([0-9]+).*", "$1");
+		this.mockMvc.perform(get("/v1/accounts/schedules/" + scheduleId)).andExpect(status().isOk())
+				.andExpect(jsonPath("$.runs").value(0));
+		this.mockMvc.perform(delete("/v1/accounts/schedules/" + scheduleId)).andExpect(status().isNoContent());
+		this.mockMvc.perform(delete("/v1/accounts/schedules/" + scheduleId)).andExpect(status().isNotFound());
+
+		this.mockMvc.perform(post("/v1/accounts/schedules").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"from\",\"accountTo\":\"to\",\"amount\":5,\"firstRunAt\":\"tomorrow\"}"))
+				.andExpect(status().isBadRequest()).andExpect(content().string("Invalid first run time."));
+		this.mockMvc.perform(post("/v1/accounts/schedules").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"from\",\"accountTo\":\"from\",\"amount\":5,\"firstRunAt\":\"2100-01-01T00:00:00Z\"}"))
+				.andExpect(status().isBadRequest()).andExpect(content().string("Accounts must be different."));
+		this.mockMvc.perform(post("/v1/accounts/schedules").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"from\",\"accountTo\":\"nobody\",\"amount\":5,\"firstRunAt\":\"2100-01-01T00:00:00Z\"}"))
+				.andExpect(status().isBadRequest());
+		this.mockMvc.perform(post("/v1/accounts/schedules").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"from\",\"accountTo\":\"to\",\"amount\":0,\"firstRunAt\":\"2100-01-01T00:00:00Z\"}"))
+				.andExpect(status().isBadRequest());
+	}
+
+	/**
+	 * Stands for the node dying in the middle of a batch
+	 */
+	private static class Crash extends Error {
+
+		private static final long serialVersionUID = 1L;
+
+	}
+
+}
@@ -0,0 +1,112 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.InsufficientFundsException;
+import com.db.awmd.challenge.repository.AccountStorage;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.engine.ShardedTransferEngine;
+
+public class ShardedTransferEngineTest {
+
+	private static final int ACCOUNTS = 32;
+
+	private AccountsRepositoryInMemory repository;
+
+	private ShardedTransferEngine engine;
+
+	@Before
+	public void before() {
+		this.repository = new AccountsRepositoryInMemory(AccountStorage.MINOR_UNITS);
+		for (int i = 0; i < ACCOUNTS; i++) {
+			this.repository.createAccount(new Account("Id-" + i, new BigDecimal("100.00")));
+		}
+		this.engine = new ShardedTransferEngine(this.repository, 4, 64, "IN_MEMORY", AccountStorage.MINOR_UNITS);
+		this.engine.start();
+	}
+
+	@After
+	public void after() throws InterruptedException {
+		this.engine.stop();
+	}
+
+	@Test
+	public void concurrentTransfersConserveMoney() throws Exception {
+		List<Thread> threads = new ArrayList<>();
+		List<CompletableFuture<Void>> results = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			long seed = t;
+			Thread thread = new Thread(() -> {
+				SplittableRandom random = new SplittableRandom(seed);
+				for (int i = 0; i < 5_000; i++) {
+					int from = random.nextInt(ACCOUNTS);
+					int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+					CompletableFuture<Void> result = this.engine.submit(this.repository.getAccount("Id-" + from),
+							this.repository.getAccount("Id-" + to), BigDecimal.valueOf(1 + random.nextInt(5000), 2));
+					synchronized (results) {
+						results.add(result);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		int completed = 0;
+		for (CompletableFuture<Void> result : results) {
+			try {
+				result.get(10, TimeUnit.SECONDS);
+				completed++;
+			} catch (ExecutionException e) {
+				// overdrafts only, nothing else may go wrong
+				assertThat(e.getCause()).isInstanceOf(InsufficientFundsException.class);
+			}
+		}
+		assertThat(completed).isGreaterThan(0);
+		assertThat(this.engine.getCrossShardTransfers()).isGreaterThan(0);
+		assertThat(this.engine.getReservedMinorUnits()).isEqualTo(0);
+
+		BigDecimal total = BigDecimal.ZERO;
+		for (int i = 0; i < ACCOUNTS; i++) {
+			BigDecimal balance = this.repository.getAccount("Id-" + i).getBalance();
+			assertThat(balance.signum()).isGreaterThanOrEqualTo(0);
+			total = total.add(balance);
+		}
+		assertThat(total).isEqualByComparingTo(new BigDecimal("3200.00"));
+	}
+
+	@Test
+	public void insufficientFundsCompletesExceptionally() throws Exception {
+		Account accountFrom = this.repository.getAccount("Id-0");
+		Account accountTo = this.repository.getAccount("Id-1");
+
+		try {
+			this.engine.submit(accountFrom, accountTo, new BigDecimal("100.01")).get(10, TimeUnit.SECONDS);
+			fail("Should have failed when overdrawing the account");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause()).isInstanceOf(InsufficientFundsException.class);
+		}
+		this.engine.submit(accountFrom, accountTo, new BigDecimal("100.00")).get(10, TimeUnit.SECONDS);
+
+		assertThat(accountFrom.getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+		assertThat(accountTo.getBalance()).isEqualByComparingTo(new BigDecimal("200.00"));
+	}
+
+}
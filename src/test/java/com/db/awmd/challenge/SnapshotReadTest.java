@@ -0,0 +1,198 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.InsufficientFundsException;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.mvcc.SnapshotRead;
+import com.db.awmd.challenge.repository.mvcc.VersionedBalances;
+import com.db.awmd.challenge.service.AccountsService;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "accounts.mvcc.enabled=true", "accounts.mvcc.reclaim-millis=0",
+		"accounts.mvcc.max-accounts=100", "accounts.hot.account-ids=hot,hot-2" })
+@WebAppConfiguration
+public class SnapshotReadTest {
+
+	private static final int ACCOUNTS = 50;
+
+	private MockMvc mockMvc;
+
+	@Autowired
+	private AccountsService accountsService;
+
+	@Autowired
+	private VersionedBalances versionedBalances;
+
+	@Autowired
+	private WebApplicationContext webApplicationContext;
+
+	@Before
+	public void prepareMockMvc() {
+		this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+		accountsService.getAccountsRepository().clearAccounts();
+	}
+
+	@Test
+	public void snapshotReadsAddUpWhileTransfersKeepRunning() throws Exception {
+		List<String> accountIds = new ArrayList<>();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			accountIds.add("Id-" + i);
+			accountsService.createAccount(new Account("Id-" + i, new BigDecimal("1000.50")));
+		}
+		// credited without its lock
+		accountIds.add("hot");
+		accountsService.createAccount(new Account("hot", BigDecimal.ZERO));
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			SplittableRandom random = new SplittableRandom(t);
+			threads.add(new Thread(() -> {
+				while (running.get()) {
+					int from = random.nextInt(ACCOUNTS);
+					String to = random.nextInt(4) == 0 ? "hot" : "Id-" + (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+					try {
+						accountsService.transfer("Id-" + from, to, new BigDecimal(random.nextInt(1, 300)));
+					} catch (TransactionException e) {
+						// not enough money
+					}
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+
+		long first = versionedBalances.getVersion();
+		long version = 0;
+		for (int i = 0; i < 200; i++) {
+			SnapshotRead read = versionedBalances.read(accountIds);
+			assertThat(read.getVersion()).isGreaterThanOrEqualTo(version);
+			version = read.getVersion();
+			BigDecimal total = BigDecimal.ZERO;
+			for (BigDecimal balance : read.getBalances()) {
+				total = total.add(balance);
+			}
+			assertThat(total).isEqualByComparingTo("50025.00");
+		}
+		running.set(false);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// the reads didn't stop the transfers
+		assertThat(versionedBalances.getVersion()).isGreaterThan(first);
+		versionedBalances.reclaim();
+		// one version left per account
+		assertThat(versionedBalances.getRetained()).isEqualTo(ACCOUNTS + 1);
+		SnapshotRead read = versionedBalances.read(accountIds);
+		for (int i = 0; i < ACCOUNTS; i++) {
+			assertThat(read.getBalances().get(i)).isEqualByComparingTo(accountsService.getAccount("Id-" + i).getBalance());
+		}
+	}
+
+	@Test
+	public void hotAccountsPayingEachOtherDontWaitForEachOther() throws Exception {
+		// each transfer only locks the account debited
+		accountsService.createAccount(new Account("hot", new BigDecimal("1000")));
+		accountsService.createAccount(new Account("hot-2", new BigDecimal("1000")));
+
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			String from = t % 2 == 0 ? "hot" : "hot-2";
+			String to = t % 2 == 0 ? "hot-2" : "hot";
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 20_000; i++) {
+					try {
+						accountsService.transfer(from, to, BigDecimal.ONE);
+					} catch (TransactionException e) {
+						// not enough money
+					}
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (Thread thread : threads) {
+			thread.join(60_000);
+			assertThat(thread.isAlive()).isFalse();
+		}
+
+		SnapshotRead read = versionedBalances.read(Arrays.asList("hot", "hot-2"));
+		assertThat(read.getBalances().get(0).add(read.getBalances().get(1))).isEqualByComparingTo("2000");
+	}
+
+	@Test
+	public void versionsNoReadCanReachAreReclaimed() {
+		accountsService.createAccount(new Account("a", new BigDecimal("100")));
+		accountsService.createAccount(new Account("b", BigDecimal.ZERO));
+		long created = versionedBalances.getVersion();
+		for (int i = 0; i < 100; i++) {
+			accountsService.transfer("a", "b", BigDecimal.ONE);
+		}
+		try {
+			accountsService.transfer("a", "b", BigDecimal.ONE);
+			fail("Should have failed when transferring money");
+		} catch (InsufficientFundsException e) {
+			assertThat(e).hasMessage("Account a has not enought money to make this transaction.");
+		}
+		// a version per leg, none for the refused transfer
+		assertThat(versionedBalances.getVersion() - created).isEqualTo(100);
+		assertThat(versionedBalances.getRetained()).isEqualTo(202);
+
+		long reclaimed = versionedBalances.getReclaimed();
+		assertThat(versionedBalances.reclaim()).isEqualTo(200);
+		assertThat(versionedBalances.getReclaimed() - reclaimed).isEqualTo(200);
+		assertThat(versionedBalances.getRetained()).isEqualTo(2);
+		// nothing written since
+		assertThat(versionedBalances.reclaim()).isZero();
+
+		assertThat(versionedBalances.read(Arrays.asList("a", "b")).getBalances())
+				.containsExactly(BigDecimal.ZERO, new BigDecimal("100"));
+	}
+
+	@Test
+	public void snapshotReadEndpoint() throws Exception {
+		accountsService.createAccount(new Account("Id-1", new BigDecimal("100")));
+		accountsService.createAccount(new Account("Id-2", new BigDecimal("20.5")));
+		accountsService.transfer("Id-1", "Id-2", new BigDecimal("40"));
+		long version = versionedBalances.getVersion();
+
+		this.mockMvc.perform(post("/v1/accounts:snapshotRead").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountIds\":[\"Id-2\",\"Id-3\",\"Id-1\"]}")).andExpect(status().isOk())
+				.andExpect(content().string("{\"version\":" + version + ",\"balances\":["
+						+ "{\"accountId\":\"Id-2\",\"balance\":60.5},{\"accountId\":\"Id-1\",\"balance\":60}],"
+						+ "\"missing\":[\"Id-3\"]}"));
+
+		this.mockMvc.perform(post("/v1/accounts:snapshotRead").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountIds\":[]}")).andExpect(status().isBadRequest());
+		String tooMany = String.join("\",\"", Collections.nCopies(101, "Id-1"));
+		this.mockMvc.perform(post("/v1/accounts:snapshotRead").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountIds\":[\"" + tooMany + "\"]}")).andExpect(status().isBadRequest())
+				.andExpect(content().string("At most 100 accounts can be read at once."));
+	}
+
+}
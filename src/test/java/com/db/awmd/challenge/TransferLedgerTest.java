@@ -0,0 +1,180 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.db.awmd.challenge.repository.ledger.LedgerEntry;
+import com.db.awmd.challenge.repository.ledger.LedgerProperties;
+import com.db.awmd.challenge.repository.ledger.TransferLedger;
+
+public class TransferLedgerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private LedgerProperties properties;
+
+	private TransferLedger ledger;
+
+	@Before
+	public void before() throws IOException {
+		this.properties = new LedgerProperties();
+		this.properties.setDirectory(folder.newFolder("ledger").getPath());
+		// small segments, most entries end up in files
+		this.properties.setSegmentEntries(10);
+		this.properties.setCachedIndexes(2);
+		this.ledger = new TransferLedger(properties);
+	}
+
+	@After
+	public void after() {
+		this.ledger.close();
+	}
+
+	@Test
+	public void pagesThroughHistoryAcrossSegments() throws Exception {
+		// "a" is in every transfer, "b" and "c" take turns
+		for (int i = 1; i <= 45; i++) {
+			this.ledger.append("a", i % 2 == 0 ? "b" : "c", BigDecimal.ONE, BigDecimal.valueOf(100 - i),
+					BigDecimal.valueOf(i));
+		}
+
+		long cursor = Long.MAX_VALUE;
+		long expectedId = 45;
+		for (int page = 0; page < 5; page++) {
+			List<LedgerEntry> entries = this.ledger.history("a", cursor, Long.MIN_VALUE, Long.MAX_VALUE, 10);
+			for (LedgerEntry entry : entries) {
+				assertThat(entry.getId()).isEqualTo(expectedId--);
+				assertThat(entry.getBalanceFrom()).isEqualByComparingTo(BigDecimal.valueOf(100 - entry.getId()));
+			}
+			if (entries.isEmpty()) {
+				break;
+			}
+			cursor = entries.get(entries.size() - 1).getId();
+		}
+		assertThat(expectedId).isZero();
+
+		List<LedgerEntry> b = this.ledger.history("b", Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 100);
+		assertThat(b).hasSize(22).extracting(LedgerEntry::getAccountTo).containsOnly("b");
+		assertThat(b.get(0).getId()).isEqualTo(44);
+		assertThat(this.ledger.history("d", Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 100)).isEmpty();
+	}
+
+	@Test
+	public void filtersByTime() throws Exception {
+		this.ledger.append("a", "b", BigDecimal.ONE, BigDecimal.ZERO, BigDecimal.ONE);
+		long before = this.ledger.history("a", Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 1).get(0).getTimestamp();
+		Thread.sleep(5);
+		long since = System.currentTimeMillis();
+		for (int i = 0; i < 15; i++) {
+			this.ledger.append("a", "b", BigDecimal.ONE, BigDecimal.ZERO, BigDecimal.ONE);
+		}
+
+		assertThat(this.ledger.history("a", Long.MAX_VALUE, since, Long.MAX_VALUE, 100)).hasSize(15);
+		assertThat(this.ledger.history("a", Long.MAX_VALUE, Long.MIN_VALUE, before + 1, 100))
+				.extracting(LedgerEntry::getId).containsExactly(1L);
+	}
+
+	@Test
+	public void restoresRolledSegmentsAfterRestart() throws Exception {
+		for (int i = 1; i <= 25; i++) {
+			this.ledger.append("a", "b", new BigDecimal("0.10"), BigDecimal.valueOf(-i), BigDecimal.valueOf(i));
+		}
+		this.ledger.close();
+
+		this.ledger = new TransferLedger(properties);
+		assertThat(this.ledger.getFileSegments()).isEqualTo(3);
+		assertThat(this.ledger.getMemoryEntries()).isZero();
+		// a clean shutdown goes on with the next id
+		this.ledger.append("a", "b", BigDecimal.ONE, BigDecimal.ZERO, BigDecimal.ZERO);
+		assertThat(this.ledger.history("a", Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 1).get(0).getId())
+				.isEqualTo(26);
+
+		List<LedgerEntry> entries = this.ledger.history("b", 26, Long.MIN_VALUE, Long.MAX_VALUE, 100);
+		assertThat(entries).hasSize(25);
+		assertThat(entries.get(0).getAmount()).isEqualTo(new BigDecimal("0.10"));
+		assertThat(entries.get(24).getBalanceTo()).isEqualByComparingTo("1");
+	}
+
+	@Test
+	public void legsOfAccountsOnOtherNodesAreOnlyListedForTheLocalAccount() throws Exception {
+		for (int i = 1; i <= 15; i++) {
+			// debits to, and credits from, an account of another node
+			this.ledger.append("a", "remote", BigDecimal.ONE, BigDecimal.valueOf(100 - i), null);
+			this.ledger.append("remote", "b", BigDecimal.ONE, null, BigDecimal.valueOf(i));
+		}
+		this.ledger.close();
+
+		this.ledger = new TransferLedger(properties);
+		List<LedgerEntry> a = this.ledger.history("a", Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 100);
+		assertThat(a).hasSize(15);
+		assertThat(a.get(0).getBalanceFrom()).isEqualByComparingTo("85");
+		assertThat(a.get(0).getBalanceTo()).isNull();
+		List<LedgerEntry> b = this.ledger.history("b", Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 100);
+		assertThat(b).hasSize(15);
+		assertThat(b.get(0).getBalanceFrom()).isNull();
+		assertThat(this.ledger.history("remote", Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 100)).isEmpty();
+	}
+
+	@Test
+	public void cursorsStayValidAfterACrash() throws Exception {
+		for (int i = 1; i <= 15; i++) {
+			this.ledger.append("a", "b", BigDecimal.ONE, BigDecimal.valueOf(-i), BigDecimal.valueOf(i));
+		}
+		// 11 to 15 are in the segment being filled, lost by the crash
+		List<LedgerEntry> page = this.ledger.history("a", Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 2);
+		assertThat(page).extracting(LedgerEntry::getId).containsExactly(15L, 14L);
+		while (this.ledger.getFileSegments() < 1) {
+			Thread.sleep(1);
+		}
+
+		TransferLedger crashed = this.ledger;
+		this.ledger = new TransferLedger(properties);
+		this.ledger.append("a", "c", BigDecimal.ONE, BigDecimal.ZERO, BigDecimal.ZERO);
+
+		// the cursor of the page before the crash still leads to older entries only
+		assertThat(this.ledger.history("a", 14, Long.MIN_VALUE, Long.MAX_VALUE, 100))
+				.extracting(LedgerEntry::getId).containsExactly(10L, 9L, 8L, 7L, 6L, 5L, 4L, 3L, 2L, 1L);
+		assertThat(this.ledger.history("a", Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 1).get(0).getId())
+				.isGreaterThan(15);
+		crashed.close();
+	}
+
+	@Test
+	public void concurrentAppendsKeepTheOrderOfEachAccount() throws Exception {
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			String accountId = "account-" + t;
+			threads[t] = new Thread(() -> {
+				for (int i = 1; i <= 1000; i++) {
+					this.ledger.append(accountId, "merchant", BigDecimal.ONE, BigDecimal.valueOf(1000 - i),
+							BigDecimal.ZERO);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (int t = 0; t < threads.length; t++) {
+			List<LedgerEntry> entries = this.ledger.history("account-" + t, Long.MAX_VALUE, Long.MIN_VALUE,
+					Long.MAX_VALUE, 2000);
+			assertThat(entries).hasSize(1000);
+			for (int i = 0; i < entries.size(); i++) {
+				assertThat(entries.get(i).getBalanceFrom()).isEqualByComparingTo(BigDecimal.valueOf(i));
+			}
+		}
+		assertThat(this.ledger.history("merchant", Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 5000)).hasSize(4000);
+	}
+
+}